@@ -0,0 +1,30 @@
+package comp0012.main;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+/**
+ * The classes the benchmarks optimise, by name: the coursework targets, read from the directory in
+ * the bench.classes system property (build/classes by default), and synthetic classes of increasing
+ * size.
+ */
+final class BenchmarkInputs {
+    private BenchmarkInputs() {
+    }
+
+    static byte[] load(String input) {
+        switch (input) {
+            case "Synthetic10x20": return SyntheticClasses.generate(10, 20);
+            case "Synthetic50x200": return SyntheticClasses.generate(50, 200);
+            default:
+                try {
+                    String classes = System.getProperty("bench.classes", "build/classes");
+                    return Files.readAllBytes(Paths.get(classes, "comp0012", "target", input + ".class"));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+        }
+    }
+}
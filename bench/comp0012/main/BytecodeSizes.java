@@ -0,0 +1,65 @@
+package comp0012.main;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.bcel.classfile.ClassParser;
+import org.apache.bcel.classfile.Code;
+import org.apache.bcel.classfile.JavaClass;
+import org.apache.bcel.classfile.Method;
+import org.apache.bcel.generic.InstructionList;
+
+/**
+ * Prints the size of every method of the target classes before and after optimisation, in bytes of
+ * code and in instructions, to read beside the results of {@link TargetBenchmark}.
+ */
+public class BytecodeSizes {
+    /**
+     * @param args the binary names of the classes to compare, or none for the coursework targets
+     */
+    public static void main(String[] args) throws IOException {
+        String[] targets = (args.length > 0) ? args : TargetClasses.DEFAULT_TARGETS;
+        System.out.println(String.format("%-60s %16s %16s", "method", "original", "optimised"));
+        for (String target : targets) {
+            Map<String, Code> original = code(TargetClasses.ORIGINAL, target);
+            Map<String, Code> optimised = code(TargetClasses.OPTIMISED, target);
+            int[] originalTotal = new int[2];
+            int[] optimisedTotal = new int[2];
+            for (Map.Entry<String, Code> entry : original.entrySet()) {
+                int[] before = size(entry.getValue());
+                int[] after = size(optimised.get(entry.getKey()));
+                add(originalTotal, before);
+                add(optimisedTotal, after);
+                System.out.println(String.format("%-60s %16s %16s", target + "." + entry.getKey(), format(before), format(after)));
+            }
+            System.out.println(String.format("%-60s %16s %16s", target + " (total)", format(originalTotal), format(optimisedTotal)));
+        }
+    }
+
+    private static Map<String, Code> code(String version, String target) throws IOException {
+        JavaClass parsed = new ClassParser(TargetClasses.classFile(version, target).toString()).parse();
+        Map<String, Code> code = new LinkedHashMap<>();
+        for (Method method : parsed.getMethods()) {
+            if (method.getCode() != null) code.put(method.getName() + method.getSignature(), method.getCode());
+        }
+        return code;
+    }
+
+    /**
+     * @return the bytes of code and the number of instructions, or zeros for a missing method
+     */
+    private static int[] size(Code code) {
+        if (code == null) return new int[2];
+        return new int[] { code.getCode().length, new InstructionList(code.getCode()).size() };
+    }
+
+    private static void add(int[] total, int[] size) {
+        total[0] += size[0];
+        total[1] += size[1];
+    }
+
+    private static String format(int[] size) {
+        return size[0] + "B/" + size[1] + "i";
+    }
+}
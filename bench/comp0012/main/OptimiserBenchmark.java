@@ -0,0 +1,44 @@
+package comp0012.main;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of optimising a whole class, from parsing its bytes to producing the optimised bytes.
+ * Run with the gc profiler (as ant bench does) to see the allocation rate as well.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OptimiserBenchmark {
+    @Param({ "ConstantVariableFolding", "DynamicVariableFolding", "SimpleFolding", "Synthetic10x20", "Synthetic50x200" })
+    public String input;
+
+    private byte[] classBytes;
+
+    @Setup
+    public void setUp() {
+        classBytes = BenchmarkInputs.load(input);
+    }
+
+    @Benchmark
+    public byte[] optimise() {
+        ConstantFolder folder = new ConstantFolder(classBytes, input + ".class");
+        folder.setDiagnostics(Diagnostics.OFF);
+        return folder.getOptimizedBytes();
+    }
+}
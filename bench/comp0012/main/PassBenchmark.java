@@ -0,0 +1,78 @@
+package comp0012.main;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.bcel.classfile.ClassParser;
+import org.apache.bcel.classfile.JavaClass;
+import org.apache.bcel.classfile.Method;
+import org.apache.bcel.generic.ClassGen;
+import org.apache.bcel.generic.MethodGen;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time of a single run of one pass over every method of a class, on the unoptimised code. The
+ * methods are rebuilt before every invocation, so only the pass itself is measured; the inputs are
+ * large enough for that setup not to distort the results.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PassBenchmark {
+    @Param({ "inlining", "staticConstantInlining", "pureCallFolding", "partialEvaluation", "removeConversionInstructions", "constantPropagation", "simpleFolding", "algebraicSimplification", "branchFolding",
+            "deadStoreElimination", "loopInvariantCodeMotion" })
+    public String pass;
+
+    @Param({ "DynamicVariableFolding", "Synthetic50x200" })
+    public String input;
+
+    private JavaClass original;
+    private ConstantFolder folder;
+    private List<MethodGen> methods;
+
+    @Setup
+    public void setUp() throws IOException {
+        byte[] classBytes = BenchmarkInputs.load(input);
+        original = new ClassParser(new ByteArrayInputStream(classBytes), input + ".class").parse();
+        folder = new ConstantFolder(classBytes, input + ".class");
+        folder.setDiagnostics(Diagnostics.OFF);
+    }
+
+    @Setup(Level.Invocation)
+    public void copyMethods() {
+        ClassGen cg = new ClassGen(original);
+        methods = new ArrayList<>();
+        for (Method method : cg.getMethods()) {
+            MethodGen mg = new MethodGen(method, cg.getClassName(), cg.getConstantPool());
+            if (mg.getInstructionList() == null) continue;
+            mg.removeNOPs();
+            methods.add(mg);
+        }
+    }
+
+    @Benchmark
+    public int run() {
+        int modified = 0;
+        for (MethodGen mg : methods) {
+            if (folder.runPass(pass, mg)) modified++;
+        }
+        return modified;
+    }
+}
@@ -0,0 +1,104 @@
+package comp0012.main;
+
+import org.apache.bcel.Const;
+import org.apache.bcel.classfile.Method;
+import org.apache.bcel.generic.ClassGen;
+import org.apache.bcel.generic.ConstantPoolGen;
+import org.apache.bcel.generic.GOTO;
+import org.apache.bcel.generic.IINC;
+import org.apache.bcel.generic.IF_ICMPLT;
+import org.apache.bcel.generic.IFLE;
+import org.apache.bcel.generic.InstructionConst;
+import org.apache.bcel.generic.InstructionFactory;
+import org.apache.bcel.generic.InstructionHandle;
+import org.apache.bcel.generic.InstructionList;
+import org.apache.bcel.generic.MethodGen;
+import org.apache.bcel.generic.Type;
+
+/**
+ * Generates classes much larger than the coursework targets for the benchmarks. Every method mixes
+ * the shapes the passes look for: constant variables, arithmetic on constants, conversions, a branch
+ * on constants and a loop that changes a variable.
+ */
+final class SyntheticClasses {
+    private SyntheticClasses() {
+    }
+
+    /**
+     * @param methods the number of methods
+     * @param statements the number of arithmetic statements in each method
+     * @return the bytes of the class comp0012.bench.Synthetic
+     */
+    static byte[] generate(int methods, int statements) {
+        ClassGen cg = new ClassGen("comp0012.bench.Synthetic", "java.lang.Object", "Synthetic.java",
+                Const.ACC_PUBLIC | Const.ACC_SUPER, null);
+        ConstantPoolGen cp = cg.getConstantPool();
+        InstructionFactory factory = new InstructionFactory(cg);
+        for (int m = 0; m < methods; m++) {
+            cg.addMethod(method(m, statements, cp, factory));
+        }
+        return cg.getJavaClass().getBytes();
+    }
+
+    private static Method method(int m, int statements, ConstantPoolGen cp, InstructionFactory factory) {
+        InstructionList il = new InstructionList();
+        // locals: 0 the parameter, 1 and 2 constants, 3 the loop counter, 4 the accumulator (a long)
+        il.append(factory.createConstant(m + 3));
+        il.append(InstructionFactory.createStore(Type.INT, 1));
+        il.append(factory.createConstant(m * 7 + 1));
+        il.append(InstructionFactory.createStore(Type.INT, 2));
+        il.append(factory.createConstant(0L));
+        il.append(InstructionFactory.createStore(Type.LONG, 4));
+
+        for (int s = 0; s < statements; s++) {
+            il.append(InstructionFactory.createLoad(Type.LONG, 4));
+            il.append(InstructionFactory.createLoad(Type.INT, 1));
+            il.append(factory.createConstant(s + 2));
+            il.append(InstructionFactory.createBinaryOperation((s % 2 == 0) ? "*" : "+", Type.INT));
+            il.append(InstructionFactory.createLoad(Type.INT, 2));
+            il.append(InstructionFactory.createBinaryOperation("-", Type.INT));
+            il.append(InstructionConst.I2L);
+            il.append(InstructionFactory.createBinaryOperation("+", Type.LONG));
+            il.append(InstructionFactory.createStore(Type.LONG, 4));
+        }
+
+        // if (const1 - (const2 - const1) > 0) acc += 1
+        il.append(InstructionFactory.createLoad(Type.INT, 1));
+        il.append(InstructionFactory.createLoad(Type.INT, 2));
+        il.append(InstructionFactory.createLoad(Type.INT, 1));
+        il.append(InstructionFactory.createBinaryOperation("-", Type.INT));
+        il.append(InstructionConst.ISUB);
+        InstructionList taken = new InstructionList();
+        taken.append(InstructionFactory.createLoad(Type.LONG, 4));
+        taken.append(InstructionConst.LCONST_1);
+        taken.append(InstructionConst.LADD);
+        taken.append(InstructionFactory.createStore(Type.LONG, 4));
+        InstructionHandle afterBranch = taken.append(InstructionConst.NOP);
+        il.append(new IFLE(afterBranch));
+        il.append(taken);
+
+        // for (i = 0; i < n; i++) acc += const1
+        il.append(InstructionConst.ICONST_0);
+        il.append(InstructionFactory.createStore(Type.INT, 3));
+        InstructionList body = new InstructionList();
+        InstructionHandle bodyStart = body.append(InstructionFactory.createLoad(Type.LONG, 4));
+        body.append(InstructionFactory.createLoad(Type.INT, 1));
+        body.append(InstructionConst.I2L);
+        body.append(InstructionConst.LADD);
+        body.append(InstructionFactory.createStore(Type.LONG, 4));
+        body.append(new IINC(3, 1));
+        InstructionHandle condition = body.append(InstructionFactory.createLoad(Type.INT, 3));
+        body.append(InstructionFactory.createLoad(Type.INT, 0));
+        body.append(new IF_ICMPLT(bodyStart));
+        body.append(InstructionFactory.createLoad(Type.LONG, 4));
+        body.append(InstructionConst.LRETURN);
+        il.append(new GOTO(condition));
+        il.append(body);
+
+        MethodGen mg = new MethodGen(Const.ACC_PUBLIC | Const.ACC_STATIC, Type.LONG, new Type[] { Type.INT },
+                new String[] { "n" }, "method" + m, "comp0012.bench.Synthetic", il, cp);
+        mg.setMaxStack();
+        mg.setMaxLocals();
+        return mg.getMethod();
+    }
+}
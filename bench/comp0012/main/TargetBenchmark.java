@@ -0,0 +1,83 @@
+package comp0012.main;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Runs the code produced by the optimiser against the original code. Every operation calls each
+ * public method without parameters of a target class once, so the original and the
+ * optimised version of a class are measured doing the same work; ant bench.targets prints their
+ * bytecode sizes beside the results.
+ *
+ * Other classes can be compared with -p target=..., as long as both versions are in the
+ * directories given by {@link TargetClasses}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TargetBenchmark {
+    @Param({ "comp0012.target.SimpleFolding", "comp0012.target.ConstantVariableFolding", "comp0012.target.DynamicVariableFolding" })
+    public String target;
+
+    @Param({ TargetClasses.ORIGINAL, TargetClasses.OPTIMISED })
+    public String version;
+
+    private MethodHandle[] methods;
+    private PrintStream systemOut;
+
+    @Setup
+    public void setUp() throws Exception {
+        Class<?> targetClass = TargetClasses.loader(version).loadClass(target);
+        Object instance = targetClass.getConstructor().newInstance();
+        List<MethodHandle> handles = new ArrayList<>();
+        Method[] declared = targetClass.getDeclaredMethods();
+        Arrays.sort(declared, Comparator.comparing(Method::getName));
+        for (Method method : declared) {
+            if (Modifier.isPublic(method.getModifiers()) && !Modifier.isStatic(method.getModifiers())
+                    && method.getParameterCount() == 0) {
+                handles.add(MethodHandles.publicLookup().unreflect(method).bindTo(instance));
+            }
+        }
+        methods = handles.toArray(new MethodHandle[0]);
+
+        // several targets print their results, which would otherwise be measured too
+        systemOut = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    }
+
+    @TearDown
+    public void tearDown() {
+        System.setOut(systemOut);
+    }
+
+    @Benchmark
+    public void run(Blackhole blackhole) throws Throwable {
+        for (MethodHandle method : methods) blackhole.consume(method.invoke());
+    }
+}
@@ -0,0 +1,63 @@
+package comp0012.main;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * The two versions of the target classes compared by {@link TargetBenchmark} and {@link BytecodeSizes}:
+ * the original classes, from the directory in the bench.original system property (build/classes by
+ * default), and the optimised ones, from bench.optimised (optimised/classes by default).
+ */
+final class TargetClasses {
+    static final String ORIGINAL = "original";
+    static final String OPTIMISED = "optimised";
+
+    /** The targets compared when no others are given. */
+    static final String[] DEFAULT_TARGETS = {
+            "comp0012.target.SimpleFolding", "comp0012.target.ConstantVariableFolding", "comp0012.target.DynamicVariableFolding" };
+
+    private TargetClasses() {
+    }
+
+    /**
+     * @param version {@link #ORIGINAL} or {@link #OPTIMISED}
+     * @return the root directory of that version of the classes
+     */
+    static Path directory(String version) {
+        switch (version) {
+            case ORIGINAL: return Paths.get(System.getProperty("bench.original", "build/classes"));
+            case OPTIMISED: return Paths.get(System.getProperty("bench.optimised", "optimised/classes"));
+            default: throw new IllegalArgumentException("Unknown version " + version);
+        }
+    }
+
+    /**
+     * Creates a class loader for one version of the classes. It does not delegate to the application
+     * class loader, which may see the original classes as well, so each version is loaded from its
+     * own directory only.
+     *
+     * @param version {@link #ORIGINAL} or {@link #OPTIMISED}
+     * @return a new loader for that version
+     */
+    static ClassLoader loader(String version) {
+        try {
+            URL root = directory(version).toUri().toURL();
+            return new URLClassLoader(new URL[] { root }, ClassLoader.getPlatformClassLoader());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @param version {@link #ORIGINAL} or {@link #OPTIMISED}
+     * @param className the binary name of a class
+     * @return the path of its classfile in that version
+     */
+    static Path classFile(String version, String className) {
+        return directory(version).resolve(className.replace('.', '/') + ".class");
+    }
+}
@@ -0,0 +1,201 @@
+package comp0012.main;
+
+import org.apache.bcel.Const;
+import org.apache.bcel.generic.Instruction;
+import org.apache.bcel.generic.InstructionConst;
+import org.apache.bcel.generic.InstructionFactory;
+
+/**
+ * Algebraic identities and strength reductions for an arithmetic instruction whose second operand is
+ * a constant, such as x + 0, x * 1, x * 8 or x % 4. Only rewrites that give the same result for every
+ * value of x under the JVM's semantics are made: int and long arithmetic wraps, so multiplying by a
+ * power of two is a left shift, but a signed division is not a right shift for negative x; and for
+ * float and double, x + 0.0 is not x when x is -0.0, and x * 0.0 is not 0.0 when x is NaN, infinite
+ * or negative. NaN results keep the bits the original operation would give them.
+ */
+final class AlgebraicSimplifier {
+    private AlgebraicSimplifier() {
+    }
+
+    /**
+     * Finds a cheaper sequence for an operation on x and a constant.
+     *
+     * @param op the arithmetic instruction
+     * @param c the constant, pushed directly before the instruction, on top of x
+     * @param nonNegative whether x is known not to be negative
+     * @param factory creates the constants of the replacement
+     * @return the instructions to replace the constant and the operation with, which take x from the
+     *         stack (an empty array if the result is x itself), or null if no rewrite applies
+     */
+    static Instruction[] simplify(Instruction op, Number c, boolean nonNegative, InstructionFactory factory) {
+        switch (op.getOpcode()) {
+            case Const.IADD: case Const.ISUB: case Const.IOR: case Const.IXOR:
+                if (isInt(c, 0)) return new Instruction[0];
+                if (op.getOpcode() == Const.IOR && isInt(c, -1)) return new Instruction[] { InstructionConst.POP, InstructionConst.ICONST_M1 };
+                return null;
+            case Const.ISHL: case Const.ISHR: case Const.IUSHR:
+            case Const.LSHL: case Const.LSHR: case Const.LUSHR:
+                // only the low bits of the distance are used, so shifting by the width is no shift
+                if (!(c instanceof Integer)) return null;
+                int mask = isIntShift(op) ? 31 : 63;
+                return ((c.intValue() & mask) == 0) ? new Instruction[0] : null;
+            case Const.IMUL:
+                if (!(c instanceof Integer)) return null;
+                if (c.intValue() == 1) return new Instruction[0];
+                if (c.intValue() == -1) return new Instruction[] { InstructionConst.INEG };
+                if (c.intValue() == 0) return new Instruction[] { InstructionConst.POP, InstructionConst.ICONST_0 };
+                if (Integer.bitCount(c.intValue()) == 1) {
+                    return new Instruction[] { factory.createConstant(Integer.numberOfTrailingZeros(c.intValue())), InstructionConst.ISHL };
+                }
+                return null;
+            case Const.IDIV:
+                if (isInt(c, 1)) return new Instruction[0];
+                // Integer.MIN_VALUE / -1 overflows to Integer.MIN_VALUE, as does its negation
+                if (isInt(c, -1)) return new Instruction[] { InstructionConst.INEG };
+                return null;
+            case Const.IREM:
+                if (isInt(c, 1) || isInt(c, -1)) return new Instruction[] { InstructionConst.POP, InstructionConst.ICONST_0 };
+                // a remainder takes the sign of x, so it is only a mask for x >= 0
+                if (nonNegative && c instanceof Integer && c.intValue() > 0 && Integer.bitCount(c.intValue()) == 1) {
+                    return new Instruction[] { factory.createConstant(c.intValue() - 1), InstructionConst.IAND };
+                }
+                return null;
+            case Const.IAND:
+                if (isInt(c, -1)) return new Instruction[0];
+                if (isInt(c, 0)) return new Instruction[] { InstructionConst.POP, InstructionConst.ICONST_0 };
+                return null;
+
+            case Const.LADD: case Const.LSUB: case Const.LOR: case Const.LXOR:
+                if (isLong(c, 0)) return new Instruction[0];
+                if (op.getOpcode() == Const.LOR && isLong(c, -1)) return new Instruction[] { InstructionConst.POP2, factory.createConstant(-1L) };
+                return null;
+            case Const.LMUL:
+                if (!(c instanceof Long)) return null;
+                if (c.longValue() == 1) return new Instruction[0];
+                if (c.longValue() == -1) return new Instruction[] { InstructionConst.LNEG };
+                if (c.longValue() == 0) return new Instruction[] { InstructionConst.POP2, InstructionConst.LCONST_0 };
+                if (Long.bitCount(c.longValue()) == 1) {
+                    return new Instruction[] { factory.createConstant(Long.numberOfTrailingZeros(c.longValue())), InstructionConst.LSHL };
+                }
+                return null;
+            case Const.LDIV:
+                if (isLong(c, 1)) return new Instruction[0];
+                if (isLong(c, -1)) return new Instruction[] { InstructionConst.LNEG };
+                return null;
+            case Const.LREM:
+                if (isLong(c, 1) || isLong(c, -1)) return new Instruction[] { InstructionConst.POP2, InstructionConst.LCONST_0 };
+                if (nonNegative && c instanceof Long && c.longValue() > 0 && Long.bitCount(c.longValue()) == 1) {
+                    return new Instruction[] { factory.createConstant(c.longValue() - 1), InstructionConst.LAND };
+                }
+                return null;
+            case Const.LAND:
+                if (isLong(c, -1)) return new Instruction[0];
+                if (isLong(c, 0)) return new Instruction[] { InstructionConst.POP2, InstructionConst.LCONST_0 };
+                return null;
+
+            // x * -1.0 is not rewritten as a negation, which flips the sign bit of NaN where the
+            // multiplication leaves it unchanged
+            case Const.FMUL: case Const.DMUL:
+                return isFloating(c, 1.0) ? new Instruction[0] : null;
+            case Const.FDIV: case Const.DDIV:
+                if (isFloating(c, 1.0)) return new Instruction[0];
+                return reciprocal(c, factory);
+            case Const.FADD: case Const.DADD:
+                // x + -0.0 is x for every x, but x + 0.0 turns -0.0 into 0.0
+                return isNegativeZero(c) ? new Instruction[0] : null;
+            case Const.FSUB: case Const.DSUB:
+                return isPositiveZero(c) ? new Instruction[0] : null;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Finds the result of an operation on two copies of the same int or long value.
+     *
+     * @param op the arithmetic instruction
+     * @return the constant result (x - x and x ^ x are always 0), or null if it depends on x
+     */
+    static Number sameOperands(Instruction op) {
+        switch (op.getOpcode()) {
+            case Const.ISUB: case Const.IXOR: return 0;
+            case Const.LSUB: case Const.LXOR: return 0L;
+            default: return null;
+        }
+    }
+
+    /**
+     * @param op the arithmetic instruction
+     * @return true if the result of the operation on two copies of an int or long value is that value
+     */
+    static boolean isIdempotent(Instruction op) {
+        switch (op.getOpcode()) {
+            case Const.IAND: case Const.IOR: case Const.LAND: case Const.LOR: return true;
+            default: return false;
+        }
+    }
+
+    /**
+     * @param op the arithmetic instruction
+     * @return true if the operands can be swapped without changing the result
+     */
+    static boolean isCommutative(Instruction op) {
+        switch (op.getOpcode()) {
+            case Const.IADD: case Const.IMUL: case Const.IAND: case Const.IOR: case Const.IXOR:
+            case Const.LADD: case Const.LMUL: case Const.LAND: case Const.LOR: case Const.LXOR:
+            case Const.FADD: case Const.FMUL: case Const.DADD: case Const.DMUL:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Replaces a division by a power of two with a multiplication by its reciprocal, which is exact
+     * when the reciprocal is a normal number, so both round the same real result.
+     */
+    private static Instruction[] reciprocal(Number c, InstructionFactory factory) {
+        if (c instanceof Float) {
+            float divisor = c.floatValue();
+            float r = 1 / divisor;
+            if (!isPowerOfTwo(Math.abs(divisor)) || Math.getExponent(r) < Float.MIN_EXPONENT || Float.isInfinite(r)) return null;
+            return new Instruction[] { factory.createConstant(r), InstructionConst.FMUL };
+        }
+        if (c instanceof Double) {
+            double divisor = c.doubleValue();
+            double r = 1 / divisor;
+            if (!isPowerOfTwo(Math.abs(divisor)) || Math.getExponent(r) < Double.MIN_EXPONENT || Double.isInfinite(r)) return null;
+            return new Instruction[] { factory.createConstant(r), InstructionConst.DMUL };
+        }
+        return null;
+    }
+
+    private static boolean isPowerOfTwo(double value) {
+        return value > 0 && !Double.isInfinite(value) && Math.getExponent(value) >= Double.MIN_EXPONENT
+                && value == Math.scalb(1.0, Math.getExponent(value));
+    }
+
+    private static boolean isIntShift(Instruction op) {
+        return op.getOpcode() == Const.ISHL || op.getOpcode() == Const.ISHR || op.getOpcode() == Const.IUSHR;
+    }
+
+    private static boolean isInt(Number c, int value) {
+        return c instanceof Integer && c.intValue() == value;
+    }
+
+    private static boolean isLong(Number c, long value) {
+        return c instanceof Long && c.longValue() == value;
+    }
+
+    private static boolean isFloating(Number c, double value) {
+        return (c instanceof Float || c instanceof Double) && c.doubleValue() == value;
+    }
+
+    private static boolean isNegativeZero(Number c) {
+        return (c instanceof Float || c instanceof Double) && Double.doubleToRawLongBits(c.doubleValue()) == Double.doubleToRawLongBits(-0.0);
+    }
+
+    private static boolean isPositiveZero(Number c) {
+        return (c instanceof Float || c instanceof Double) && Double.doubleToRawLongBits(c.doubleValue()) == 0L;
+    }
+}
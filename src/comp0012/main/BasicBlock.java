@@ -0,0 +1,85 @@
+package comp0012.main;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.bcel.generic.InstructionHandle;
+
+/**
+ * A maximal run of instructions that is only entered at its first instruction and only left after
+ * its last one, apart from exceptions. Exceptions thrown inside a block are modelled by separate
+ * exception edges to the handlers that protect it.
+ */
+public class BasicBlock {
+    private final int index;
+    private final InstructionHandle start;
+    private final InstructionHandle end;
+
+    final List<BasicBlock> successors = new ArrayList<>();
+    final List<BasicBlock> predecessors = new ArrayList<>();
+    final List<BasicBlock> exceptionSuccessors = new ArrayList<>();
+    final List<BasicBlock> exceptionPredecessors = new ArrayList<>();
+
+    BasicBlock(int index, InstructionHandle start, InstructionHandle end) {
+        this.index = index;
+        this.start = start;
+        this.end = end;
+    }
+
+    /**
+     * @return position of the block in {@link ControlFlowGraph#getBlocks()}
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    public InstructionHandle getStart() {
+        return start;
+    }
+
+    public InstructionHandle getEnd() {
+        return end;
+    }
+
+    /**
+     * @return the instructions of the block, in order
+     */
+    public List<InstructionHandle> getInstructions() {
+        List<InstructionHandle> instructions = new ArrayList<>();
+        for (InstructionHandle ih = start; ih != end.getNext(); ih = ih.getNext()) {
+            instructions.add(ih);
+        }
+        return instructions;
+    }
+
+    /**
+     * @return the blocks control can pass to when the last instruction completes normally
+     */
+    public List<BasicBlock> getSuccessors() {
+        return Collections.unmodifiableList(successors);
+    }
+
+    public List<BasicBlock> getPredecessors() {
+        return Collections.unmodifiableList(predecessors);
+    }
+
+    /**
+     * @return the handlers of the exceptions that may be thrown inside the block
+     */
+    public List<BasicBlock> getExceptionSuccessors() {
+        return Collections.unmodifiableList(exceptionSuccessors);
+    }
+
+    /**
+     * @return the blocks whose exceptions this block handles
+     */
+    public List<BasicBlock> getExceptionPredecessors() {
+        return Collections.unmodifiableList(exceptionPredecessors);
+    }
+
+    @Override
+    public String toString() {
+        return "B" + index + "[" + start.getPosition() + ".." + end.getPosition() + "]";
+    }
+}
@@ -0,0 +1,394 @@
+package comp0012.main;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Modifier;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.bcel.Const;
+import org.apache.bcel.classfile.Constant;
+import org.apache.bcel.classfile.ConstantCP;
+import org.apache.bcel.classfile.ConstantClass;
+import org.apache.bcel.classfile.ConstantNameAndType;
+import org.apache.bcel.classfile.ConstantPool;
+import org.apache.bcel.classfile.FieldOrMethod;
+import org.apache.bcel.classfile.JavaClass;
+import org.apache.bcel.classfile.Method;
+import org.apache.bcel.generic.ArrayType;
+import org.apache.bcel.generic.ConstantPoolGen;
+import org.apache.bcel.generic.CPInstruction;
+import org.apache.bcel.generic.INVOKEDYNAMIC;
+import org.apache.bcel.generic.INVOKESPECIAL;
+import org.apache.bcel.generic.Instruction;
+import org.apache.bcel.generic.InstructionHandle;
+import org.apache.bcel.generic.InstructionList;
+import org.apache.bcel.generic.InvokeInstruction;
+import org.apache.bcel.generic.JsrInstruction;
+import org.apache.bcel.generic.MethodGen;
+import org.apache.bcel.generic.RET;
+import org.apache.bcel.generic.ReturnInstruction;
+import org.apache.bcel.generic.Type;
+
+/**
+ * The methods of every class being optimised and the calls between them, from which the methods
+ * small enough to inline are picked. A method can be inlined if its bytecode is no longer than the
+ * threshold, it is neither a constructor, an initialiser, synchronized nor abstract, it does not use
+ * subroutines, every return leaves only the result on the stack, and it does not reach itself
+ * through calls to other such methods, so that inlining always ends.
+ *
+ * The graph is explored from the calls that are looked up, parsing only the classes they lead to, and
+ * every answer is remembered, so one instance is shared by every class optimised in parallel. Each
+ * class's folder asks through its own {@link #recordingTo view}, which records the answers as its
+ * {@link Dependencies}.
+ */
+final class CallGraph {
+    /** The default threshold, the size of the methods HotSpot inlines without profiling. */
+    static final int DEFAULT_INLINE_SIZE = 35;
+
+    private final ClassIndex classes;
+    private final int maxInlineSize;
+    /** The methods short enough to inline looked up so far, by key, whether or not they are recursive. */
+    private final Map<String, Optional<Callee>> candidates;
+    /** Whether each candidate looked up so far reaches itself, by key. */
+    private final Map<String, Boolean> recursive;
+    private final Dependencies dependencies;
+
+    private CallGraph(ClassIndex classes, int maxInlineSize, Map<String, Optional<Callee>> candidates,
+            Map<String, Boolean> recursive, Dependencies dependencies) {
+        this.classes = classes;
+        this.maxInlineSize = maxInlineSize;
+        this.candidates = candidates;
+        this.recursive = recursive;
+        this.dependencies = dependencies;
+    }
+
+    /**
+     * Builds the graph of a set of classes.
+     *
+     * @param classes the parsed classes; null entries, classes that could not be parsed, are skipped
+     * @param maxInlineSize the longest bytecode, in bytes, of a method that may be inlined
+     * @return the graph
+     */
+    static CallGraph of(Iterable<JavaClass> classes, int maxInlineSize) {
+        return of(ClassIndex.of(classes), maxInlineSize);
+    }
+
+    /**
+     * Builds the graph of the classes of an index, which are only parsed once a call leads to them.
+     *
+     * @param classes the classes being optimised
+     * @param maxInlineSize the longest bytecode, in bytes, of a method that may be inlined
+     * @return the graph
+     */
+    static CallGraph of(ClassIndex classes, int maxInlineSize) {
+        return new CallGraph(classes, maxInlineSize, new ConcurrentHashMap<>(), new ConcurrentHashMap<>(), null);
+    }
+
+    /**
+     * @param dependencies where the optimisation of one class records what it looked up
+     * @return a graph of the same classes that records every answer
+     */
+    CallGraph recordingTo(Dependencies dependencies) {
+        return new CallGraph(classes, maxInlineSize, candidates, recursive, dependencies);
+    }
+
+    /**
+     * Looks up a method short enough to inline, whether or not it reaches itself.
+     */
+    private Callee candidate(String className, String methodName, String signature) {
+        String key = key(className, methodName, signature);
+        Optional<Callee> callee = candidates.get(key);
+        if (callee == null) {
+            callee = Optional.empty();
+            JavaClass clazz = classes.get(className);
+            for (Method method : (clazz != null) ? clazz.getMethods() : new Method[0]) {
+                if (method.getName().equals(methodName) && method.getSignature().equals(signature)) {
+                    callee = Optional.ofNullable(candidate(clazz, method, maxInlineSize));
+                }
+            }
+            Optional<Callee> raced = candidates.putIfAbsent(key, callee);
+            if (raced != null) callee = raced;
+        }
+        return callee.orElse(null);
+    }
+
+    /**
+     * Checks whether a candidate reaches itself through calls to other candidates, and so lies on a
+     * cycle of calls that could be inlined into each other forever.
+     */
+    private boolean isRecursive(String key, Callee callee) {
+        Boolean known = recursive.get(key);
+        if (known != null) return known;
+        Set<String> seen = new HashSet<>();
+        Deque<String[]> work = new ArrayDeque<>(callee.calls());
+        boolean reaches = false;
+        while (!work.isEmpty() && !reaches) {
+            String[] call = work.pop();
+            String next = key(call[0], call[1], call[2]);
+            if (next.equals(key)) reaches = true;
+            else if (seen.add(next)) {
+                Callee nextCallee = candidate(call[0], call[1], call[2]);
+                if (nextCallee != null) work.addAll(nextCallee.calls());
+            }
+        }
+        recursive.put(key, reaches);
+        return reaches;
+    }
+
+    private static Callee candidate(JavaClass owner, Method method, int maxInlineSize) {
+        if (method.getCode() == null || method.isSynchronized() || method.getName().startsWith("<")
+                || method.getCode().getCode().length > maxInlineSize) return null;
+        Callee callee = new Callee(owner, method);
+        MethodGen body = callee.body();
+        ConstantPoolGen cp = body.getConstantPool();
+        Map<InstructionHandle, Integer> depths = Inliner.stackDepths(body.getInstructionList(), body.getExceptionHandlers(), cp);
+        for (InstructionHandle ih : body.getInstructionList().getInstructionHandles()) {
+            Instruction inst = ih.getInstruction();
+            if (inst instanceof JsrInstruction || inst instanceof RET) return null;
+            if (inst instanceof ReturnInstruction && depths.containsKey(ih) && depths.get(ih) != inst.consumeStack(cp)) return null;
+        }
+        return callee;
+    }
+
+    /**
+     * Looks up a method that can be inlined.
+     *
+     * @param className the name of the class the call refers to
+     * @param methodName the name of the method
+     * @param signature the descriptor of the method
+     * @return the method, if that class declares it and it can be inlined, or null
+     */
+    Callee getInlinable(String className, String methodName, String signature) {
+        Callee callee = candidate(className, methodName, signature);
+        if (callee != null && isRecursive(key(className, methodName, signature), callee)) callee = null;
+        if (dependencies != null) dependencies.record(Dependencies.describe(callee), Dependencies.INLINABLE, className, methodName, signature);
+        return callee;
+    }
+
+    /**
+     * Checks that the body of a method behaves the same when it is copied into another class: every
+     * class, field and method it refers to must be accessible from that class, the initialisation of
+     * the class of a static method must have no effect the body does not trigger itself, and it must
+     * not use invokedynamic, super calls or any method that depends on the class calling it.
+     *
+     * @param callee a method that can be inlined
+     * @param className the name of the class to copy its body into
+     * @return true if the body can be copied
+     */
+    boolean canMove(Callee callee, String className) {
+        boolean movable = callee.owner.getClassName().equals(className) || isMovable(callee, className);
+        if (dependencies != null) {
+            dependencies.record(String.valueOf(movable), Dependencies.MOVABLE, callee.owner.getClassName(),
+                    callee.method.getName(), callee.method.getSignature(), className);
+        }
+        return movable;
+    }
+
+    private boolean isMovable(Callee callee, String className) {
+        return callee.movable.computeIfAbsent(className, target -> {
+            if (callee.method.isStatic() && !StaticConstants.initialisesOnlyConstants(callee.owner)) return false;
+            MethodGen body = callee.body();
+            ConstantPool cp = callee.owner.getConstantPool();
+            for (InstructionHandle ih : body.getInstructionList().getInstructionHandles()) {
+                Instruction inst = ih.getInstruction();
+                if (inst instanceof INVOKEDYNAMIC) return false;
+                if (inst instanceof INVOKESPECIAL && !((INVOKESPECIAL) inst).getMethodName(body.getConstantPool()).equals(Const.CONSTRUCTOR_NAME)) return false;
+                if (inst instanceof CPInstruction && !isAccessible(cp, cp.getConstant(((CPInstruction) inst).getIndex()), target)) return false;
+            }
+            return true;
+        });
+    }
+
+    /**
+     * Looks up the superclass of a class being optimised or of the Java platform, which the frames
+     * of a method are worked out from (see {@link StackMapBuilder}).
+     *
+     * @param className the name of a class
+     * @return the name of its superclass, or null for java.lang.Object and for interfaces
+     * @throws IllegalArgumentException if the class is neither being optimised nor of the platform
+     */
+    String getSuperclassName(String className) {
+        JavaClass clazz = classes.get(className);
+        Class<?> platform = (clazz == null) ? platformClass(className) : null;
+        String superclass = null;
+        if (clazz != null) superclass = (clazz.isInterface() || className.equals("java.lang.Object")) ? null : clazz.getSuperclassName();
+        else if (platform != null && platform.getSuperclass() != null) superclass = platform.getSuperclass().getName();
+        boolean known = clazz != null || platform != null;
+        if (dependencies != null) dependencies.record(known ? String.valueOf(superclass) : Dependencies.NONE, Dependencies.SUPERCLASS, className);
+        if (!known) throw new IllegalArgumentException("The superclass of " + className + " is not known");
+        return superclass;
+    }
+
+    private boolean isAccessible(ConstantPool cp, Constant constant, String from) {
+        switch (constant.getTag()) {
+            case Const.CONSTANT_Integer: case Const.CONSTANT_Float: case Const.CONSTANT_Long:
+            case Const.CONSTANT_Double: case Const.CONSTANT_String:
+                return true;
+            case Const.CONSTANT_Class:
+                return isClassAccessible(((ConstantClass) constant).getBytes(cp).replace('/', '.'), from);
+            case Const.CONSTANT_Fieldref: case Const.CONSTANT_Methodref: case Const.CONSTANT_InterfaceMethodref:
+                ConstantCP member = (ConstantCP) constant;
+                ConstantNameAndType nameAndType = (ConstantNameAndType) cp.getConstant(member.getNameAndTypeIndex());
+                String owner = member.getClass(cp);
+                return isClassAccessible(owner, from) && isMemberAccessible(owner, nameAndType.getName(cp),
+                        nameAndType.getSignature(cp), constant.getTag() == Const.CONSTANT_Fieldref, from);
+            default:
+                // method handles, method types and dynamic constants are resolved against the class using them
+                return false;
+        }
+    }
+
+    private boolean isClassAccessible(String name, String from) {
+        if (name.startsWith("[")) {
+            Type element = Type.getType(name.replace('.', '/'));
+            while (element instanceof ArrayType) element = ((ArrayType) element).getElementType();
+            return element.getType() != Const.T_OBJECT || isClassAccessible(element.toString(), from);
+        }
+        JavaClass clazz = classes.get(name);
+        if (clazz != null) return clazz.isPublic() || samePackage(name, from);
+        Class<?> platform = platformClass(name);
+        return platform != null && Modifier.isPublic(platform.getModifiers()) && platform.getModule().isExported(platform.getPackageName());
+    }
+
+    /**
+     * Looks for the declaration of a field or method in the class or its superclasses, as resolution
+     * does (methods inherited from interfaces are not looked for, so they are never accessible).
+     */
+    private boolean isMemberAccessible(String owner, String name, String signature, boolean field, String from) {
+        String declaring = owner;
+        while (true) {
+            JavaClass clazz = classes.get(declaring);
+            if (clazz == null) return isPlatformMemberAccessible(declaring, name, signature, field);
+            FieldOrMethod[] members = field ? clazz.getFields() : clazz.getMethods();
+            for (FieldOrMethod member : members) {
+                if (!member.getName().equals(name) || !member.getSignature().equals(signature)) continue;
+                if (member.isPublic()) return true;
+                if (member.isPrivate()) return declaring.equals(from);
+                // protected members are also accessible from subclasses, which is not worked out here
+                return samePackage(declaring, from);
+            }
+            declaring = clazz.getSuperclassName();
+        }
+    }
+
+    private static boolean isPlatformMemberAccessible(String owner, String name, String signature, boolean field) {
+        Class<?> clazz = platformClass(owner);
+        if (clazz == null) return false;
+        if (field) {
+            for (java.lang.reflect.Field f : clazz.getFields()) {
+                if (f.getName().equals(name) && Type.getType(f.getType()).getSignature().equals(signature)) return true;
+            }
+            return false;
+        }
+        if (name.equals(Const.CONSTRUCTOR_NAME)) {
+            for (Constructor<?> constructor : clazz.getConstructors()) {
+                StringBuilder descriptor = new StringBuilder("(");
+                for (Class<?> parameter : constructor.getParameterTypes()) descriptor.append(Type.getType(parameter).getSignature());
+                if (descriptor.append(")V").toString().equals(signature)) return true;
+            }
+            return false;
+        }
+        for (java.lang.reflect.Method method : clazz.getMethods()) {
+            if (method.getName().equals(name) && Type.getSignature(method).equals(signature)) return !isCallerSensitive(method);
+        }
+        return false;
+    }
+
+    /**
+     * @return true if the method behaves differently depending on the class calling it, such as
+     *         MethodHandles.lookup or Class.forName
+     */
+    private static boolean isCallerSensitive(java.lang.reflect.Method method) {
+        Class<?> annotation = platformClass("jdk.internal.reflect.CallerSensitive");
+        for (java.lang.annotation.Annotation present : method.getDeclaredAnnotations()) {
+            if (present.annotationType() == annotation) return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return the class of the Java platform with the name, or null if it is not one
+     */
+    private static Class<?> platformClass(String name) {
+        try {
+            return Class.forName(name, false, ClassLoader.getPlatformClassLoader());
+        } catch (ClassNotFoundException | LinkageError e) {
+            return null;
+        }
+    }
+
+    private static boolean samePackage(String a, String b) {
+        return a.substring(0, Math.max(a.lastIndexOf('.'), 0)).equals(b.substring(0, Math.max(b.lastIndexOf('.'), 0)));
+    }
+
+    private static String key(String className, String methodName, String signature) {
+        return className + "." + methodName + signature;
+    }
+
+    /**
+     * A method that can be inlined.
+     */
+    static final class Callee {
+        final JavaClass owner;
+        final Method method;
+        private final Map<String, Boolean> movable = new ConcurrentHashMap<>();
+        private volatile List<String[]> calls;
+        private volatile String digest;
+
+        Callee(JavaClass owner, Method method) {
+            this.owner = owner;
+            this.method = method;
+        }
+
+        /**
+         * @return a fresh copy of the method's code, with its own constant pool, to copy instructions from
+         */
+        MethodGen body() {
+            return new MethodGen(method, owner.getClassName(), new ConstantPoolGen(owner.getConstantPool()));
+        }
+
+        /**
+         * @return the length of the method's bytecode
+         */
+        int size() {
+            return method.getCode().getCode().length;
+        }
+
+        boolean isFinal() {
+            return method.isFinal() || method.isPrivate() || owner.isFinal();
+        }
+
+        /**
+         * @return the class, name and descriptor of every method the body calls, other than through
+         *         invokedynamic
+         */
+        List<String[]> calls() {
+            if (calls == null) {
+                List<String[]> found = new ArrayList<>();
+                ConstantPoolGen cp = new ConstantPoolGen(owner.getConstantPool());
+                for (InstructionHandle ih : new InstructionList(method.getCode().getCode()).getInstructionHandles()) {
+                    if (!(ih.getInstruction() instanceof InvokeInstruction) || ih.getInstruction() instanceof INVOKEDYNAMIC) continue;
+                    InvokeInstruction invoke = (InvokeInstruction) ih.getInstruction();
+                    found.add(new String[] { invoke.getReferenceType(cp).toString(), invoke.getMethodName(cp), invoke.getSignature(cp) });
+                }
+                calls = found;
+            }
+            return calls;
+        }
+
+        /**
+         * @return a hash of the code and modifiers of the method, which identify what inlining copies
+         */
+        String digest() {
+            if (digest == null) digest = Dependencies.digest(owner.getAccessFlags() + " " + method.getAccessFlags() + "\n" + method.getCode());
+            return digest;
+        }
+    }
+}
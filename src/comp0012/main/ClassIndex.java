@@ -0,0 +1,86 @@
+package comp0012.main;
+
+import java.io.ByteArrayInputStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.bcel.classfile.ClassParser;
+import org.apache.bcel.classfile.JavaClass;
+
+/**
+ * The classes being optimised by name, which the {@link StaticConstants} and the {@link CallGraph}
+ * look into. A class is only parsed the first time it is looked up, so the work done for the other
+ * classes of the program is proportional to how much of it the optimised classes refer to, and none
+ * at all when every class is found in the cache.
+ *
+ * Safe to use from several threads at once; a class looked up by two of them at the same time may be
+ * parsed twice, and either result is kept.
+ */
+final class ClassIndex {
+    /** An index of no classes. */
+    static final ClassIndex EMPTY = new ClassIndex(Collections.emptyMap());
+
+    private final Map<String, Callable<byte[]>> inputs;
+    private final Map<String, Optional<JavaClass>> parsed = new ConcurrentHashMap<>();
+
+    private ClassIndex(Map<String, Callable<byte[]>> inputs) {
+        this.inputs = inputs;
+    }
+
+    /**
+     * Indexes classfiles without reading them yet.
+     *
+     * @param inputs reads the bytes of each classfile, by the name of the class it should hold
+     * @return the index
+     */
+    static ClassIndex of(Map<String, Callable<byte[]>> inputs) {
+        return new ClassIndex(Collections.unmodifiableMap(new HashMap<>(inputs)));
+    }
+
+    /**
+     * Indexes classes that are already parsed.
+     *
+     * @param classes the parsed classes; null entries are skipped
+     * @return the index
+     */
+    static ClassIndex of(Iterable<JavaClass> classes) {
+        ClassIndex index = new ClassIndex(Collections.emptyMap());
+        for (JavaClass clazz : classes) {
+            if (clazz != null) index.parsed.put(clazz.getClassName(), Optional.of(clazz));
+        }
+        return index;
+    }
+
+    /**
+     * Looks up a class, parsing it the first time.
+     *
+     * @param className the name of a class
+     * @return the class, or null if it is not being optimised, cannot be read or parsed, or its
+     *         classfile holds another class
+     */
+    JavaClass get(String className) {
+        Optional<JavaClass> clazz = parsed.get(className);
+        if (clazz == null) {
+            clazz = Optional.ofNullable(parse(className));
+            Optional<JavaClass> raced = parsed.putIfAbsent(className, clazz);
+            if (raced != null) clazz = raced;
+        }
+        return clazz.orElse(null);
+    }
+
+    private JavaClass parse(String className) {
+        Callable<byte[]> input = inputs.get(className);
+        if (input == null) return null;
+        try {
+            JavaClass clazz = new ClassParser(new ByteArrayInputStream(input.call()), className).parse();
+            return clazz.getClassName().equals(className) ? clazz : null;
+        } catch (Exception e) {
+            // reported when the class fails to be optimised
+            return null;
+        }
+    }
+}
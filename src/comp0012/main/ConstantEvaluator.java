@@ -0,0 +1,193 @@
+package comp0012.main;
+
+import org.apache.bcel.Const;
+import org.apache.bcel.generic.ConstantPoolGen;
+import org.apache.bcel.generic.Instruction;
+import org.apache.bcel.generic.InstructionConst;
+import org.apache.bcel.generic.InstructionFactory;
+import org.apache.bcel.generic.LDC;
+import org.apache.bcel.generic.LDC2_W;
+
+/**
+ * Evaluates bytecode instructions on constant operands with the semantics of the JVM, so every pass
+ * that folds constants computes the same results. Operands are boxed as the Integer, Long, Float or
+ * Double of their stack type, and references as a constant String or {@link #NULL}.
+ */
+final class ConstantEvaluator {
+    /** The null reference, as pushed by aconst_null, when it is an operand. */
+    static final Object NULL = new Object() {
+        @Override public String toString() { return "null"; }
+    };
+
+    private ConstantEvaluator() {
+    }
+
+    /**
+     * Evaluates an arithmetic, bitwise or shift instruction on two operands.
+     *
+     * @param op the instruction
+     * @param a the deeper operand
+     * @param b the operand on top of the stack
+     * @return the result, or null if the instruction is not a binary operation
+     * @throws ArithmeticException if the instruction would throw it (integer division by zero)
+     */
+    static Number binary(Instruction op, Number a, Number b) {
+        switch (op.getOpcode()) {
+            case Const.IADD: return a.intValue() + b.intValue();
+            case Const.ISUB: return a.intValue() - b.intValue();
+            case Const.IMUL: return a.intValue() * b.intValue();
+            case Const.IDIV: return a.intValue() / b.intValue();
+            case Const.IREM: return a.intValue() % b.intValue();
+            case Const.IAND: return a.intValue() & b.intValue();
+            case Const.IOR: return a.intValue() | b.intValue();
+            case Const.IXOR: return a.intValue() ^ b.intValue();
+            case Const.ISHL: return a.intValue() << b.intValue();
+            case Const.ISHR: return a.intValue() >> b.intValue();
+            case Const.IUSHR: return a.intValue() >>> b.intValue();
+
+            case Const.LADD: return a.longValue() + b.longValue();
+            case Const.LSUB: return a.longValue() - b.longValue();
+            case Const.LMUL: return a.longValue() * b.longValue();
+            case Const.LDIV: return a.longValue() / b.longValue();
+            case Const.LREM: return a.longValue() % b.longValue();
+            case Const.LAND: return a.longValue() & b.longValue();
+            case Const.LOR: return a.longValue() | b.longValue();
+            case Const.LXOR: return a.longValue() ^ b.longValue();
+            case Const.LSHL: return a.longValue() << b.intValue();
+            case Const.LSHR: return a.longValue() >> b.intValue();
+            case Const.LUSHR: return a.longValue() >>> b.intValue();
+
+            case Const.FADD: return a.floatValue() + b.floatValue();
+            case Const.FSUB: return a.floatValue() - b.floatValue();
+            case Const.FMUL: return a.floatValue() * b.floatValue();
+            case Const.FDIV: return a.floatValue() / b.floatValue();
+            case Const.FREM: return a.floatValue() % b.floatValue();
+
+            case Const.DADD: return a.doubleValue() + b.doubleValue();
+            case Const.DSUB: return a.doubleValue() - b.doubleValue();
+            case Const.DMUL: return a.doubleValue() * b.doubleValue();
+            case Const.DDIV: return a.doubleValue() / b.doubleValue();
+            case Const.DREM: return a.doubleValue() % b.doubleValue();
+
+            case Const.LCMP: return Long.compare(a.longValue(), b.longValue());
+            case Const.FCMPL: return compare(a.floatValue(), b.floatValue(), -1);
+            case Const.FCMPG: return compare(a.floatValue(), b.floatValue(), 1);
+            case Const.DCMPL: return compare(a.doubleValue(), b.doubleValue(), -1);
+            case Const.DCMPG: return compare(a.doubleValue(), b.doubleValue(), 1);
+            default: return null;
+        }
+    }
+
+    /**
+     * Evaluates a negation or a conversion instruction.
+     *
+     * @param op the instruction
+     * @param a the operand, which must have the type the instruction takes
+     * @return the result, or null if the instruction is not a unary operation or the operand has the
+     *         wrong type
+     */
+    static Number unary(Instruction op, Number a) {
+        switch (op.getOpcode()) {
+            case Const.INEG: return (a instanceof Integer) ? -a.intValue() : null;
+            case Const.LNEG: return (a instanceof Long) ? -a.longValue() : null;
+            case Const.FNEG: return (a instanceof Float) ? -a.floatValue() : null;
+            case Const.DNEG: return (a instanceof Double) ? -a.doubleValue() : null;
+
+            case Const.I2L: return (a instanceof Integer) ? (Number) a.longValue() : null;
+            case Const.I2F: return (a instanceof Integer) ? (Number) a.floatValue() : null;
+            case Const.I2D: return (a instanceof Integer) ? (Number) a.doubleValue() : null;
+            case Const.I2B: return (a instanceof Integer) ? (Number) (int) (byte) a.intValue() : null;
+            case Const.I2C: return (a instanceof Integer) ? (Number) (int) (char) a.intValue() : null;
+            case Const.I2S: return (a instanceof Integer) ? (Number) (int) (short) a.intValue() : null;
+            case Const.L2I: return (a instanceof Long) ? (Number) a.intValue() : null;
+            case Const.L2F: return (a instanceof Long) ? (Number) a.floatValue() : null;
+            case Const.L2D: return (a instanceof Long) ? (Number) a.doubleValue() : null;
+            case Const.F2I: return (a instanceof Float) ? (Number) a.intValue() : null;
+            case Const.F2L: return (a instanceof Float) ? (Number) a.longValue() : null;
+            case Const.F2D: return (a instanceof Float) ? (Number) a.doubleValue() : null;
+            case Const.D2I: return (a instanceof Double) ? (Number) a.intValue() : null;
+            case Const.D2L: return (a instanceof Double) ? (Number) a.longValue() : null;
+            case Const.D2F: return (a instanceof Double) ? (Number) a.floatValue() : null;
+            default: return null;
+        }
+    }
+
+    /**
+     * Decides a conditional branch. The comparisons of longs, floats and doubles are made by lcmp,
+     * fcmp and dcmp (see {@link #binary}), whose int result the branch then tests.
+     *
+     * @param op an IFxx, IF_ICMPxx, IFNULL, IFNONNULL or IF_ACMPxx instruction
+     * @param a the deeper operand, or the only operand of an IFxx, IFNULL or IFNONNULL
+     * @param b the operand on top of the stack, or null for an instruction with one operand
+     * @return whether the branch is taken, or null if the instruction is not a conditional branch or
+     *         an operand is not of the type it compares: an Integer, or {@link #NULL} or a constant
+     *         string for a reference
+     */
+    static Boolean branch(Instruction op, Object a, Object b) {
+        switch (op.getOpcode()) {
+            case Const.IFNULL: case Const.IFNONNULL:
+                if (!isReference(a)) return null;
+                return (a == NULL) == (op.getOpcode() == Const.IFNULL);
+            case Const.IF_ACMPEQ: case Const.IF_ACMPNE:
+                if (!isReference(a) || !isReference(b)) return null;
+                // constant strings are interned, so they are the same object exactly when they are equal
+                return a.equals(b) == (op.getOpcode() == Const.IF_ACMPEQ);
+            default:
+                break;
+        }
+        if (!(a instanceof Integer) || !(b == null || b instanceof Integer)) return null;
+        int left = (Integer) a;
+        int right = (b == null) ? 0 : (Integer) b;
+        switch (op.getOpcode()) {
+            case Const.IFEQ: case Const.IF_ICMPEQ: return left == right;
+            case Const.IFNE: case Const.IF_ICMPNE: return left != right;
+            case Const.IFLT: case Const.IF_ICMPLT: return left < right;
+            case Const.IFGE: case Const.IF_ICMPGE: return left >= right;
+            case Const.IFGT: case Const.IF_ICMPGT: return left > right;
+            case Const.IFLE: case Const.IF_ICMPLE: return left <= right;
+            default: return null;
+        }
+    }
+
+    /**
+     * Creates the instruction that pushes a constant operand. InstructionFactory.createConstant
+     * pushes 0.0 for -0.0, as they compare equal, so negative zeros are loaded from the pool instead.
+     *
+     * @param value a number, a constant String or {@link #NULL}
+     * @param cp the constant pool of the method
+     * @return the push of the value
+     */
+    static Instruction push(Object value, ConstantPoolGen cp) {
+        if (value == NULL) return InstructionConst.ACONST_NULL;
+        if (value instanceof Float && Float.floatToRawIntBits((Float) value) == Integer.MIN_VALUE) {
+            return new LDC(cp.addFloat((Float) value));
+        }
+        if (value instanceof Double && Double.doubleToRawLongBits((Double) value) == Long.MIN_VALUE) {
+            return new LDC2_W(cp.addDouble((Double) value));
+        }
+        return new InstructionFactory(cp).createConstant(value);
+    }
+
+    private static boolean isReference(Object value) {
+        return value == NULL || value instanceof String;
+    }
+
+    /**
+     * @param op an instruction
+     * @return true if it compares two longs, floats or doubles, pushing -1, 0 or 1
+     */
+    static boolean isComparison(Instruction op) {
+        switch (op.getOpcode()) {
+            case Const.LCMP: case Const.FCMPL: case Const.FCMPG: case Const.DCMPL: case Const.DCMPG: return true;
+            default: return false;
+        }
+    }
+
+    /**
+     * Compares two floating point values like fcmp and dcmp, which differ only in the result for NaN.
+     */
+    private static int compare(double a, double b, int nanResult) {
+        if (Double.isNaN(a) || Double.isNaN(b)) return nanResult;
+        return (a > b) ? 1 : (a < b) ? -1 : 0;
+    }
+}
@@ -1,18 +1,25 @@
 package comp0012.main;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.function.UnaryOperator;
 import java.util.ArrayList;
 
+import org.apache.bcel.Const;
 import org.apache.bcel.Constants;
+import org.apache.bcel.classfile.Attribute;
 import org.apache.bcel.classfile.ClassParser;
 import org.apache.bcel.classfile.Constant;
 import org.apache.bcel.classfile.ConstantDouble;
@@ -20,13 +27,38 @@ import org.apache.bcel.classfile.ConstantFloat;
 import org.apache.bcel.classfile.ConstantInteger;
 import org.apache.bcel.classfile.ConstantLong;
 import org.apache.bcel.classfile.JavaClass;
+import org.apache.bcel.classfile.LocalVariable;
 import org.apache.bcel.classfile.Method;
+import org.apache.bcel.classfile.StackMap;
 import org.apache.bcel.generic.*;
-import org.apache.bcel.util.InstructionFinder;
 
 public class ConstantFolder {
+    /**
+     * The version of the class-level rewriting done around the passes, such as the frames of the code
+     * and the compaction of the constant pool. It must change whenever that changes the code produced.
+     */
+    private static final String VERSION = "v9";
+
     JavaClass original;
     JavaClass optimized;
+    Diagnostics diagnostics = new Diagnostics(Diagnostics.Level.SUMMARY, System.out);
+    private List<OptimisationPass> passes = PassRegistry.DEFAULT_PIPELINE;
+    private StaticConstants staticConstants;
+    private CallGraph callGraph;
+    private PureCalls pureCalls = PureCalls.DEFAULT;
+    private Worklist worklist;
+    private OptimisationReport.ClassMetrics metrics;
+
+    /**
+     * Identifies the code produced by a pipeline, from the passes, their versions and the rewriting
+     * done around them. Cached output is keyed on this.
+     *
+     * @param passes the passes of the pipeline, in the order they run
+     * @return the fingerprint of the pipeline
+     */
+    public static String fingerprint(List<OptimisationPass> passes) {
+        return PassRegistry.fingerprint(passes) + (passes.isEmpty() ? "" : ",compactConstantPool") + ";" + VERSION;
+    }
 
     /**
       * Constructs a ConstantFolder by parsing the given class file.
@@ -44,6 +76,21 @@ public class ConstantFolder {
         }
     }
 
+    /**
+      * Constructs a ConstantFolder by parsing the bytes of a class file that has already been read.
+      *
+      * @param classBytes the contents of the .class file
+      * @param fileName the name of the class file, used in error messages
+      */
+    public ConstantFolder(byte[] classBytes, String fileName) {
+        try {
+            ClassParser parser = new ClassParser(new ByteArrayInputStream(classBytes), fileName);
+            this.original = parser.parse();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
     /**
       * Writes the optimized class file to disk. This method first triggers the optimization process,
       * then writes the resulting optimized bytecode to the specified file path.
@@ -59,71 +106,251 @@ public class ConstantFolder {
         }
     }
 
+    /**
+      * Runs the optimization process and returns the resulting class file bytes.
+      *
+      * @return the contents of the optimized class file
+      */
+    public byte[] getOptimizedBytes() {
+        this.optimize();
+        return this.optimized.getBytes();
+    }
+
+    /**
+     * @return what the passes did to each method by the last optimisation, or null before it ran
+     */
+    public OptimisationReport.ClassMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Sets where and how much progress output this folder reports. Callers optimising several
+     * classes at once give each class its own stream, to keep the output of each class together.
+     *
+     * @param diagnostics the diagnostics to report progress to
+     */
+    public void setDiagnostics(Diagnostics diagnostics) {
+        this.diagnostics = diagnostics;
+    }
+
+    /**
+     * Sets the passes run over every method, in order; by default those of -O2.
+     *
+     * @param passes the pipeline, as built by {@link PassRegistry}
+     */
+    public void setPasses(List<OptimisationPass> passes) {
+        this.passes = passes;
+    }
+
+    /**
+     * Sets the constant static fields the passes may substitute; by default those of this class alone.
+     *
+     * @param staticConstants the index of every class being optimised, shared between their folders
+     */
+    public void setStaticConstants(StaticConstants staticConstants) {
+        this.staticConstants = staticConstants;
+    }
+
+    StaticConstants getStaticConstants() {
+        if (staticConstants == null) staticConstants = StaticConstants.of(Collections.singletonList(original));
+        return staticConstants;
+    }
+
+    /**
+     * Sets the methods that calls may be inlined from; by default those of this class alone.
+     *
+     * @param callGraph the call graph of every class being optimised, shared between their folders
+     */
+    void setCallGraph(CallGraph callGraph) {
+        this.callGraph = callGraph;
+    }
+
+    CallGraph getCallGraph() {
+        if (callGraph == null) callGraph = CallGraph.of(Collections.singletonList(original), CallGraph.DEFAULT_INLINE_SIZE);
+        return callGraph;
+    }
+
+    /**
+     * Sets the library methods whose calls may be evaluated; by default the built-in list.
+     *
+     * @param pureCalls the list, shared between the folders of every class being optimised
+     */
+    void setPureCalls(PureCalls pureCalls) {
+        this.pureCalls = pureCalls;
+    }
+
+    PureCalls getPureCalls() {
+        return pureCalls;
+    }
+
     /**
      * Runs simple constant folding optimization on all methods in the class.
      */
     public void optimize() {
         ClassGen cg = new ClassGen(original);
         ConstantPoolGen cp = cg.getConstantPool();
+        metrics = new OptimisationReport.ClassMetrics(cg.getClassName());
+        String[] passNames = passes.stream().map(OptimisationPass::getName).toArray(String[]::new);
 
         for (Method method : cg.getMethods()) {
             MethodGen mg = new MethodGen(method, cg.getClassName(), cp);
+            // MethodGen makes up a local variable for this when the method has no table
+            if (method.getLocalVariableTable() == null) mg.removeLocalVariables();
             mg.removeNOPs();
             InstructionList il = mg.getInstructionList();
             if (il == null) continue;
 
-            System.out.println(cg.getClassName() + ": " + method.getName());
-            System.out.println("Original: " + il.size() + " instructions");
-            System.out.println(il);
+            if (diagnostics.isEnabled(Diagnostics.Level.METHOD)) {
+                diagnostics.report(Diagnostics.Level.METHOD, cg.getClassName() + ": " + method.getName());
+                diagnostics.report(Diagnostics.Level.METHOD, "Original: " + il.size() + " instructions");
+                diagnostics.report(Diagnostics.Level.INSTRUCTION, il);
+            }
 
-            runPeepholeOptimisation(il, cp, mg);
+            runPeepholeOptimisation(il, cp, mg, metrics.addMethod(method.getName() + method.getSignature(), il.size(), passNames));
 
             mg.setMaxStack();
             mg.setMaxLocals();
-            mg.stripAttributes(true);
+            // BCEL keeps the generic types of the variables apart from their table, and writes
+            // them back with the ranges of the original code
+            mg.removeLocalVariableTypeTable();
+            // the frames of the original code no longer match it
+            for (Attribute attribute : mg.getCodeAttributes()) {
+                if (attribute instanceof StackMap) mg.removeCodeAttribute(attribute);
+            }
+            if (cg.getMajor() >= Const.MAJOR_1_6) {
+                try {
+                    StackMap frames = buildFrames(mg);
+                    if (frames != null) mg.addCodeAttribute(frames);
+                } catch (IllegalStateException | IllegalArgumentException e) {
+                    // the original code keeps its own frames
+                    diagnostics.report(Diagnostics.Level.METHOD, "Kept the original code, as its frames cannot be computed: " + e.getMessage());
+                    continue;
+                }
+            }
+            removeEmptyLocalVariables(mg);
             cg.replaceMethod(method, mg.getMethod());
         }
 
         cg.setConstantPool(cp);
-        cg.setMajor(50);  
-        this.optimized = cg.getJavaClass();
+        // folding leaves the constants it folded away in the pool
+        this.optimized = passes.isEmpty() ? cg.getJavaClass() : ConstantPoolCompactor.compact(cg.getJavaClass());
+    }
+
+    /**
+     * Keeps the debug information of an optimised method true to its code. Deleting an instruction
+     * moves its line number and the local variables starting or ending at it to the instruction that
+     * replaces it, so both tables follow the rewrite. A variable that is not a parameter and whose
+     * slot the code no longer uses has had its value folded away, and is dropped, as is one left with
+     * an empty range or the same range as another entry for it, which the JVM refuses.
+     *
+     * @param mg The method generator of the optimised method
+     */
+    private static void removeEmptyLocalVariables(MethodGen mg) {
+        InstructionList il = mg.getInstructionList();
+        il.setPositions();
+        int parameters = mg.isStatic() ? 0 : 1;
+        for (Type argument : mg.getArgumentTypes()) parameters += argument.getSize();
+        BitSet used = new BitSet();
+        used.set(0, parameters);
+        for (InstructionHandle ih = il.getStart(); ih != null; ih = ih.getNext()) {
+            if (ih.getInstruction() instanceof LocalVariableInstruction) used.set(((LocalVariableInstruction) ih.getInstruction()).getIndex());
+        }
+        Set<String> ranges = new HashSet<>();
+        for (LocalVariableGen variable : mg.getLocalVariables()) {
+            LocalVariable entry = variable.getLocalVariable(mg.getConstantPool());
+            String range = entry.getIndex() + " " + entry.getName() + " " + entry.getStartPC() + " " + entry.getLength();
+            if (!used.get(entry.getIndex()) || entry.getLength() <= 0 || !ranges.add(range)) mg.removeLocalVariable(variable);
+        }
+    }
+
+    /**
+     * Computes the frames of an optimised method, so that the class keeps its version and is
+     * verified by type checking rather than type inference. Code that no path reaches, which a
+     * pipeline without dead store elimination can leave behind, is removed first, as it has no types.
+     *
+     * @param mg The method generator of the optimised method
+     * @return The StackMapTable attribute, or null if the method needs none
+     * @throws IllegalStateException if the types of the code cannot be inferred
+     * @throws IllegalArgumentException if the code refers to a class whose superclass is not known
+     */
+    private StackMap buildFrames(MethodGen mg) {
+        InstructionList il = mg.getInstructionList();
+        ControlFlowGraph cfg = new ControlFlowGraph(il, mg.getExceptionHandlers());
+        Set<InstructionHandle> unreachable = new HashSet<>();
+        for (BasicBlock block : cfg.getBlocks()) {
+            if (!cfg.isReachable(block)) unreachable.addAll(block.getInstructions());
+        }
+        if (deleteUnreachable(il, mg, unreachable)) {
+            removeJumpsToNext(il);
+            mg.setMaxStack();
+            mg.setMaxLocals();
+        }
+        return StackMapBuilder.build(mg, getCallGraph());
     }
 
     /**
-     * Loops over the code making any optimisations until no more can be made
+     * Loops over the code running the passes of the pipeline, in order, until no more optimisations
+     * can be made. Passes are only re-run when another pass has made a change that can give them new work, and the windowed
+     * passes only revisit the instructions around those changes (see {@link Worklist}).
      * 
      * @param il The instruction list of instructions to be optimised
      * @param cp BCEL constant pool gen
      * @param mg The method generator associated with the instruction list
+     * @param methodMetrics The metrics of the method, which the passes are recorded in
      */
-	public void runPeepholeOptimisation(InstructionList il, ConstantPoolGen cp, MethodGen mg) {
-        int iterations = 1;
-		boolean changed;
+	public void runPeepholeOptimisation(InstructionList il, ConstantPoolGen cp, MethodGen mg, OptimisationReport.MethodMetrics methodMetrics) {
+        long start = System.nanoTime();
+        int[] triggers = new int[passes.size()];
+        for (int i = 0; i < triggers.length; i++) triggers[i] = passes.get(i).getTriggers();
+        worklist = new Worklist(il, methodMetrics, triggers);
+        int iterations = 0;
         do {
-            ArrayList<InstructionHandle> loopBounds = getLoopBounds(il);
-            ArrayList<InstructionHandle> branchBounds = getBranchBounds(il, loopBounds);
-            
-            changed = false;
-            // Remove conversion instructions
-            changed |= removeConversionInstructions(il, cp, loopBounds);
-            // Perform dynamic folding
-            changed |= dynamicFolding(il, mg, loopBounds, branchBounds);
-            // Perform constant folding
-            changed |= constantFolding(il, cp, loopBounds, branchBounds);
-            // Perform simple folding
-            changed |= simpleFolding(il, cp, loopBounds);
-            // Perform dead branch deletion
-            changed |= deadBranchDeletion(il, cp, loopBounds);
-            // Perform dead variable deletion
-            changed |= deadVariableDeletion(il, cp, loopBounds);
+            for (int i = 0; i < passes.size(); i++) {
+                if (!worklist.shouldRun(i)) continue;
+                PassContext context = new PassContext(this, mg, worklist.begin(i));
+                worklist.end(passes.get(i).run(context));
+            }
             ++iterations;
-        } while (changed);
+        } while (worklist.endRound());
+        worklist = null;
         il.setPositions(true);
-        System.out.println("Went through iterations: " + (iterations - 1));
-        System.out.println("After dead code: " + il.size() + " instructions");
-        System.out.println(il);
+        methodMetrics.finish(il.size(), iterations, System.nanoTime() - start);
+        if (diagnostics.isEnabled(Diagnostics.Level.METHOD)) {
+            diagnostics.report(Diagnostics.Level.METHOD, "Went through iterations: " + iterations);
+            diagnostics.report(Diagnostics.Level.METHOD, "After dead code: " + il.size() + " instructions");
+            diagnostics.report(Diagnostics.Level.INSTRUCTION, il);
+        }
 	}
 
+    /**
+     * Runs one pass a single time over a method, outside the fixpoint and with every instruction
+     * counted as changed, so that the cost of each pass can be measured on its own.
+     *
+     * @param pass The name of a built-in pass
+     * @param mg The method generator of the method, whose instruction list is modified
+     * @return Returns true if the pass modified the method
+     */
+    boolean runPass(String pass, MethodGen mg) {
+        InstructionList il = mg.getInstructionList();
+        List<InstructionHandle> all = new ArrayList<>();
+        for (InstructionHandle ih = il.getStart(); ih != null; ih = ih.getNext()) all.add(ih);
+        return PassRegistry.builtin().get(pass).run(new PassContext(this, mg, all));
+    }
+
+    /**
+      * Inserts an instruction before a handle, recording the change for the fixpoint.
+      *
+      * @param il The instruction list of instructions
+      * @param handle The instruction handle to insert before
+      * @param inst The instruction to insert
+      * @return The handle of the inserted instruction
+      */
+    InstructionHandle insert(InstructionList il, InstructionHandle handle, Instruction inst) {
+        InstructionHandle inserted = (inst instanceof BranchInstruction) ? il.insert(handle, (BranchInstruction) inst) : il.insert(handle, inst);
+        if (worklist != null) worklist.inserted(inserted);
+        return inserted;
+    }
+
     /**
       * Safely deletes an instruction handle from the instruction list, updating any jump targets
       * that previously pointed to the deleted instruction to point to a new target.
@@ -132,8 +359,8 @@ public class ConstantFolder {
       * @param handle The instruction handle to delete
       * @param newJumpLabel The instruction handle to redirect any lost jump targets to
       */
-    private void safeDelete(InstructionList il, InstructionHandle handle, InstructionHandle newJumpLabel){
-        // InstructionHandle nextHandle = handle.getNext();
+    void safeDelete(InstructionList il, InstructionHandle handle, InstructionHandle newJumpLabel){
+        if (worklist != null) worklist.deleting(handle);
         try {
             il.delete(handle);
         } catch (TargetLostException e) {
@@ -145,391 +372,601 @@ public class ConstantFolder {
     }
 
     /**
-      * Removes store instructions to variables that are never subsequently loaded, along with contributing instructions.
-      *
-      * @param il The instruction list of instructions
-      * @param cp BCEL constant pool get
-      * @param loopBounds Instruction handles marking the bounds of loops to avoid incorrect deletions
-      * @return Returns true if any instructions were removed and false otherwise
-      */
-    private boolean deadVariableDeletion(InstructionList il, ConstantPoolGen cp, ArrayList<InstructionHandle> loopBounds) {
-        boolean modificationsMade = false;
+     * Removes the blocks no path from the entry reaches, then the stores and iincs whose value is
+     * never read: those {@link LivenessAnalysis} finds dead, and every store and iinc of a variable
+     * that is only read to compute its own new value, such as a counter nothing else reads. The
+     * instructions that compute a removed store's value go with it when they have no other effect;
+     * values pushed by any other instruction, such as a call or the exception stored by a handler,
+     * are popped instead. Conditional branches whose arms do the same thing are removed first (see
+     * {@link #collapseIdenticalArms}), and a value popped where the arms of a branch join is removed
+     * from each arm.
+     *
+     * @param il Bytecode instruction list for the method
+     * @param mg The method generator associated with the instruction list
+     * @return Returns true if any instructions were removed
+     */
+    boolean deadStoreElimination(InstructionList il, MethodGen mg) {
+        ConstantPoolGen cpgen = mg.getConstantPool();
+        // the arm a collapsed branch no longer takes is left unreachable
+        boolean modificationsMade = collapseIdenticalArms(il, cpgen);
+        ControlFlowGraph cfg = new ControlFlowGraph(il, mg.getExceptionHandlers());
+        Set<InstructionHandle> unreachable = new HashSet<>();
+        for (BasicBlock block : cfg.getBlocks()) {
+            if (!cfg.isReachable(block)) unreachable.addAll(block.getInstructions());
+        }
+        if (deleteUnreachable(il, mg, unreachable)) modificationsMade = true;
+        if (modificationsMade) {
+            removeJumpsToNext(il);
+            cfg = new ControlFlowGraph(il, mg.getExceptionHandlers());
+        }
+
+        mg.setMaxLocals();
+        LivenessAnalysis liveness = new LivenessAnalysis(cfg, mg.getMaxLocals());
+        Set<InstructionHandle> deadStores = new LinkedHashSet<>();
+        Set<InstructionHandle> deleted = new LinkedHashSet<>();
+        for (BasicBlock block : cfg.getBlocks()) {
+            List<InstructionHandle> instructions = block.getInstructions();
+            BitSet[] live = liveness.getFacts(block);
+            for (int i = 0; i < instructions.size(); i++) {
+                InstructionHandle ih = instructions.get(i);
+                Instruction inst = ih.getInstruction();
+                // a subroutine keeps its return address in a variable liveness does not follow through the jsr
+                if (inst instanceof JsrInstruction) return modificationsMade;
+                if ((inst instanceof StoreInstruction || inst instanceof IINC) && !ControlFlowGraph.isInTryRange(ih)
+                        && !live[i + 1].get(((LocalVariableInstruction) inst).getIndex())) {
+                    deadStores.add(ih);
+                }
+                // a value that is computed only to be popped, as is left by inlining a call or removing
+                // the store of an argument whose computation could not be, is just as dead
+                if ((inst instanceof POP || inst instanceof POP2) && i > 0 && isPure(instructions.get(i - 1).getInstruction(), cpgen)
+                        && instructions.get(i - 1).getInstruction().produceStack(cpgen) == inst.consumeStack(cpgen)
+                        && !ControlFlowGraph.isInTryRange(ih) && valueStart(ih, cpgen) != null) {
+                    deadStores.add(ih);
+                }
+                // as is the value of a conditional expression that is popped where its arms join
+                if ((inst instanceof POP || inst instanceof POP2) && i == 0 && !ControlFlowGraph.isInTryRange(ih)) {
+                    List<InstructionHandle> values = joinedValues(block, inst.consumeStack(cpgen), cpgen);
+                    if (values != null) {
+                        deleted.addAll(values);
+                        deleted.add(ih);
+                    }
+                }
+            }
+        }
+        deadStores.addAll(selfUpdatedStores(il, cpgen));
+        if (!deleted.isEmpty()) modificationsMade = true;
+
+        // the analysis refers to the current handles, so every dead store is found before any is removed
+        List<InstructionHandle> popAfter = new ArrayList<>();
+        for (InstructionHandle store : deadStores) {
+            if (store.getInstruction() instanceof IINC || valueStart(store, cpgen) != null) {
+                deleted.add(store);
+                if (!(store.getInstruction() instanceof IINC)) discard(store.getPrev(), cpgen, deleted, popAfter);
+            } else {
+                // the value may come from other paths, which now jump to the pop
+                Instruction pop = (store.getInstruction().consumeStack(cpgen) == 2) ? InstructionConst.POP2 : InstructionConst.POP;
+                safeDelete(il, store, insert(il, store, pop));
+            }
+        }
+        for (InstructionHandle producer : popAfter) {
+            int words = producer.getInstruction().produceStack(cpgen);
+            insert(il, producer.getNext(), (words == 2) ? InstructionConst.POP2 : InstructionConst.POP);
+        }
+        for (InstructionHandle ih : deleted) {
+            InstructionHandle label = ih.getNext();
+            while (deleted.contains(label)) label = label.getNext();
+            safeDelete(il, ih, label);
+        }
+        return modificationsMade || !deadStores.isEmpty();
+    }
+
+    /**
+     * Finds the instructions that push the value popped at the start of a block, one at the end of
+     * each path into the block, such as the two constants of c ? 1 : 2 whose result is not used.
+     *
+     * @param join The block that starts with the pop
+     * @param words How many words the pop consumes
+     * @param cpgen BCEL constant pool gen
+     * @return The pushes, or null if the value does not come from a pure push without operands that
+     *         ends each path, either just before the pop or just before a goto to it
+     */
+    private List<InstructionHandle> joinedValues(BasicBlock join, int words, ConstantPoolGen cpgen) {
+        if (join.getPredecessors().isEmpty() || !join.getExceptionPredecessors().isEmpty()) return null;
+        List<InstructionHandle> values = new ArrayList<>();
+        for (BasicBlock predecessor : new LinkedHashSet<>(join.getPredecessors())) {
+            InstructionHandle end = predecessor.getEnd();
+            if (predecessor == join || (end.getInstruction() instanceof BranchInstruction && !(end.getInstruction() instanceof GOTO))) return null;
+            InstructionHandle value = (end.getInstruction() instanceof GOTO) ? ((end == predecessor.getStart()) ? null : end.getPrev()) : end;
+            if (value == null || value.getInstruction().consumeStack(cpgen) != 0 || value.getInstruction().produceStack(cpgen) != words
+                    || !isPure(value.getInstruction(), cpgen) || ControlFlowGraph.isInTryRange(value)) return null;
+            values.add(value);
+        }
+        return values;
+    }
 
-        // find which vairables are never used after a store
-        HashMap<Integer, Boolean> isUsed = new HashMap<>();
+    /**
+     * Removes the conditional branches whose two arms run the same instructions until they reach the
+     * same one, as in c ? 1 : 1, along with the computation of their operands where it has no other
+     * effect. Control then always falls through, which leaves the other arm unreachable unless
+     * something else jumps to it. The arms may only hold gotos, pure instructions, stores and returns,
+     * so that neither can throw to a handler that only covers one of them.
+     *
+     * @param il Bytecode instruction list for the method
+     * @param cpgen BCEL constant pool gen
+     * @return Returns true if any branches were removed
+     */
+    private boolean collapseIdenticalArms(InstructionList il, ConstantPoolGen cpgen) {
+        boolean modificationsMade = false;
         for (InstructionHandle ih = il.getStart(); ih != null;) {
             InstructionHandle next = ih.getNext();
-            Instruction inst = ih.getInstruction();
-            if (inst instanceof StoreInstruction) {
-                isUsed.put(((StoreInstruction)inst).getIndex(), false);
-            } else if (inst instanceof LoadInstruction) {
-                isUsed.put(((LoadInstruction)inst).getIndex(), true);
+            if (ih.getInstruction() instanceof IfInstruction branch && next != null && !ControlFlowGraph.isInTryRange(ih)
+                    && haveSameArms(next, branch.getTarget(), il.getLength(), cpgen)) {
+                resolveBranch(il, cpgen, ih, next);
+                modificationsMade = true;
             }
             ih = next;
         }
+        return modificationsMade;
+    }
 
-        // delete them and any instructions that "contribute" to it
-        for (InstructionHandle ih = il.getStart(); ih != null;) {
-            InstructionHandle next = ih.getNext();
+    /**
+     * Runs two arms of a branch side by side, following their gotos, until they reach the same
+     * instruction or run the same return.
+     *
+     * @param a The first instruction of one arm
+     * @param b The first instruction of the other arm
+     * @param limit How many instructions to compare at most, as the arms may loop
+     * @param cpgen BCEL constant pool gen
+     * @return Returns true if the arms run the same instructions
+     */
+    private boolean haveSameArms(InstructionHandle a, InstructionHandle b, int limit, ConstantPoolGen cpgen) {
+        for (int steps = 0; steps <= limit && a != null && b != null; steps++) {
+            if (a.getInstruction() instanceof GOTO jump) {
+                a = jump.getTarget();
+                continue;
+            }
+            if (b.getInstruction() instanceof GOTO jump) {
+                b = jump.getTarget();
+                continue;
+            }
+            if (a == b) return true;
+            Instruction inst = a.getInstruction();
+            // instructions compare by opcode and index, which leaves out the increment of an iinc
+            if (!inst.equals(b.getInstruction())
+                    || (inst instanceof IINC iinc && iinc.getIncrement() != ((IINC) b.getInstruction()).getIncrement())) return false;
+            if (inst instanceof ReturnInstruction) return true;
+            if (!isPure(inst, cpgen) && !(inst instanceof StoreInstruction) && !(inst instanceof IINC)) return false;
+            a = a.getNext();
+            b = b.getNext();
+        }
+        return false;
+    }
+
+    /**
+     * Finds the stores and iincs of variables whose every load only feeds the computation of a value
+     * stored back into the same variable, so the variable never affects anything else. The
+     * computation must have no effect of its own: in x = record(x), x is passed to the call.
+     *
+     * @param il Bytecode instruction list for the method
+     * @param cpgen BCEL constant pool gen
+     * @return The stores and iincs of such variables
+     */
+    private List<InstructionHandle> selfUpdatedStores(InstructionList il, ConstantPoolGen cpgen) {
+        Map<Integer, List<InstructionHandle>> definitions = new HashMap<>();
+        Map<Integer, Integer> loads = new HashMap<>();
+        Map<Integer, Integer> selfLoads = new HashMap<>();
+        for (InstructionHandle ih = il.getStart(); ih != null; ih = ih.getNext()) {
             Instruction inst = ih.getInstruction();
-            if (inst instanceof StoreInstruction) {
-                int variableIndex = ((StoreInstruction)inst).getIndex();
-                if (!isUsed.get(variableIndex)) {
-                    boolean skip = false;
-                    ArrayList<InstructionHandle> toDelete = new ArrayList<>();
-                    int counter = 1;
-                    toDelete.add(ih);
-                    InstructionHandle currentIh = ih;
-                    while (counter > 0 && currentIh != null) {
-                        currentIh = currentIh.getPrev();
-                        counter--;
-                        Instruction current = currentIh.getInstruction();
-                        if (current instanceof ArithmeticInstruction) {
-                            if (current instanceof INEG || current instanceof LNEG || current instanceof FNEG || current instanceof DNEG) {
-                                counter += 1;
-                            } else {
-                                counter += 2;
-                            }
-                        } else if (current instanceof InvokeInstruction) {
-                            String signature = ((InvokeInstruction)current).getSignature(cp);
-                            int numArgs = Type.getArgumentTypes(signature).length;
-                            counter += numArgs + 1;
-                        } else if (current instanceof ConversionInstruction) {
-                            counter += 1;
-                        } else if (current instanceof IINC) {
-                            // annoying
-                            skip = true;
-                            counter = 0;
-                        }
-                        toDelete.add(currentIh);
-                    }
-                    
-                    if (!skip) {
-                        for (InstructionHandle a : toDelete) {
-                            safeDelete(il, a, next);
-                        }
+            if (inst instanceof LoadInstruction load) {
+                loads.merge(load.getIndex(), 1, Integer::sum);
+            } else if (inst instanceof IINC iinc) {
+                define(definitions, iinc.getIndex(), ControlFlowGraph.isInTryRange(ih) ? null : ih);
+            } else if (inst instanceof StoreInstruction store) {
+                int variable = store.getIndex();
+                InstructionHandle start = valueStart(ih, cpgen);
+                // a store that cannot be removed with its value keeps the variable
+                define(definitions, variable, (start == null || ControlFlowGraph.isInTryRange(ih)) ? null : ih);
+                if (start == null) continue;
+                // a load whose value also reaches a call or anything else with an effect is a real use
+                boolean pure = true;
+                for (InstructionHandle operand = start; operand != ih && pure; operand = operand.getNext()) {
+                    pure = isPure(operand.getInstruction(), cpgen);
+                }
+                if (!pure) continue;
+                for (InstructionHandle operand = start; operand != ih; operand = operand.getNext()) {
+                    if (operand.getInstruction() instanceof LoadInstruction load && load.getIndex() == variable) {
+                        selfLoads.merge(variable, 1, Integer::sum);
                     }
                 }
             }
+        }
+        List<InstructionHandle> stores = new ArrayList<>();
+        definitions.forEach((variable, handles) -> {
+            if (handles != null && loads.getOrDefault(variable, 0).equals(selfLoads.getOrDefault(variable, 0))) {
+                stores.addAll(handles);
+            }
+        });
+        return stores;
+    }
 
-            ih = next;
+    /**
+     * Adds a store or iinc to the definitions of a variable, or marks the variable as one to keep
+     * if the handle is null.
+     */
+    private static void define(Map<Integer, List<InstructionHandle>> definitions, int variable, InstructionHandle ih) {
+        if (ih == null) definitions.put(variable, null);
+        else if (!definitions.containsKey(variable) || definitions.get(variable) != null) {
+            definitions.computeIfAbsent(variable, k -> new ArrayList<>()).add(ih);
+        }
+    }
+
+    /**
+     * Finds where the computation of the value a store consumes starts, when it can be removed
+     * without affecting other paths: nothing but its first instruction is a jump target and none of
+     * it is a try range boundary.
+     *
+     * @param store The store instruction handle
+     * @param cpgen BCEL constant pool gen
+     * @return The first instruction that pushes the value, or null if there is no such sequence
+     */
+    private InstructionHandle valueStart(InstructionHandle store, ConstantPoolGen cpgen) {
+        InstructionHandle ih = store;
+        int needed = store.getInstruction().consumeStack(cpgen);
+        while (needed > 0) {
+            if (ControlFlowGraph.isJumpTarget(ih) || ControlFlowGraph.isInTryRange(ih)) return null;
+            ih = ih.getPrev();
+            // each instruction must push one value, so the operands of each can be told apart
+            if (ih == null || ih.getInstruction() instanceof StackInstruction || ih.getInstruction().produceStack(cpgen) == 0
+                    || ControlFlowGraph.isInTryRange(ih)) return null;
+            needed -= ih.getInstruction().produceStack(cpgen);
+            if (needed < 0) return null;
+            needed += ih.getInstruction().consumeStack(cpgen);
+        }
+        return ih;
+    }
+
+    /**
+     * Removes the value an instruction pushes: the instruction and, recursively, the computations of
+     * its operands are deleted if it has no other effect, otherwise its value is popped after it.
+     * The instructions must form a sequence accepted by {@link #valueStart}.
+     *
+     * @param producer The instruction that pushes the value
+     * @param cpgen BCEL constant pool gen
+     * @param deleted Collects the instructions to delete
+     * @param popAfter Collects the instructions whose value must be popped
+     */
+    private void discard(InstructionHandle producer, ConstantPoolGen cpgen, Set<InstructionHandle> deleted, List<InstructionHandle> popAfter) {
+        Instruction inst = producer.getInstruction();
+        if (!isPure(inst, cpgen)) {
+            popAfter.add(producer);
+            return;
+        }
+        deleted.add(producer);
+        // the operands were pushed by the sequences directly before, the last operand nearest
+        int words = inst.consumeStack(cpgen);
+        InstructionHandle operand = producer.getPrev();
+        while (words > 0) {
+            InstructionHandle start = operandStart(operand, cpgen);
+            words -= operand.getInstruction().produceStack(cpgen);
+            discard(operand, cpgen, deleted, popAfter);
+            operand = start.getPrev();
+        }
+    }
+
+    /**
+     * @return The first instruction of the sequence that ends with an instruction pushing one value
+     */
+    private InstructionHandle operandStart(InstructionHandle end, ConstantPoolGen cpgen) {
+        InstructionHandle ih = end;
+        int needed = end.getInstruction().consumeStack(cpgen);
+        while (needed > 0) {
+            ih = ih.getPrev();
+            needed -= ih.getInstruction().produceStack(cpgen);
+            needed += ih.getInstruction().consumeStack(cpgen);
+        }
+        return ih;
+    }
+
+    /**
+     * Folds the constant expressions around the instructions changed since the last run, by
+     * simulating the operand stack from the constants pushed directly before each change. Every
+     * arithmetic, bitwise, shift, negation, conversion or long, float or double comparison whose
+     * operands are all constants is replaced with a push of its result as soon as it is reached, so
+     * the result is itself a constant operand for what follows, and a whole expression tree folds in
+     * one pass. The simulation ends at a jump target, as other values can reach it from elsewhere, or
+     * once no constant is left on the stack after the change.
+     * e.g., 'iconst_2', 'iconst_3', 'iadd', 'iconst_4', 'iconst_1', 'isub', 'imul' → 'ldc 15'.
+     * 
+     * @param il Bytecode instriction list for the method
+     * @param cp BCEL constant pool gen
+     * @param changed Instructions changed (or next to a change) since the last run
+     * @return Returns true if any operations were folded
+     */
+    boolean simpleFolding(InstructionList il, ConstantPoolGen cp, List<InstructionHandle> changed) {
+        boolean modificationsMade = false;
+        Set<InstructionHandle> simulated = new HashSet<>();
+        for (InstructionHandle ih : changed) {
+            // skip instructions deleted by an earlier fold in this run, or already simulated
+            if (Worklist.isDeleted(il, ih) || simulated.contains(ih)) continue;
+            InstructionHandle start = ih;
+            while (!ControlFlowGraph.isJumpTarget(start) && start.getPrev() != null && getValue(start.getPrev().getInstruction(), cp) != null) {
+                start = start.getPrev();
+            }
+            if (foldExpressions(il, cp, start, ih, simulated)) modificationsMade = true;
         }
         return modificationsMade;
     }
 
     /**
-      * Performs dead branch elimination by evaluating constant comparisons and removing unreachable code.
-      *
-      * @param il The instruction list of instructions
-      * @param cp BCEL constant pool get
-      * @param loopBounds Instruction handles marking the bounds of loops to avoid incorrect deletions
-      * @return Returns true if any branches or instructions were removed and false otherwise
-      */
-    private boolean deadBranchDeletion(InstructionList il, ConstantPoolGen cp, ArrayList<InstructionHandle> loopBounds) {
+     * Simulates the operand stack from an instruction, folding each operation on constants.
+     *
+     * @param il Bytecode instruction list for the method
+     * @param cp BCEL constant pool gen
+     * @param start The instruction to start at, with nothing known about the stack before it
+     * @param changed The changed instruction the simulation must get past
+     * @param simulated Collects the instructions simulated
+     * @return Returns true if any operations were folded
+     */
+    private boolean foldExpressions(InstructionList il, ConstantPoolGen cp, InstructionHandle start, InstructionHandle changed,
+            Set<InstructionHandle> simulated) {
         boolean modificationsMade = false;
-        int comparisonResult = 2;
-        for (InstructionHandle ih = il.getStart(); ih != null;) {
-            InstructionHandle next = ih.getNext();
+        List<StackValue> stack = new ArrayList<>();
+        boolean passed = false;
+        for (InstructionHandle ih = start; ih != null; ih = ih.getNext()) {
+            if (ih != start && ControlFlowGraph.isJumpTarget(ih)) break;
+            if (passed && stack.stream().noneMatch(value -> value.constant != null)) break;
+            simulated.add(ih);
+            if (ih == changed) passed = true;
             Instruction inst = ih.getInstruction();
-            if (inst instanceof LCMP) {
-                // LCMP should be followed by a IfInstruction
-                // find the two previous constants
-                InstructionHandle prevIh = ih.getPrev();
-                InstructionHandle prevPrevIh = (prevIh != null) ? ih.getPrev().getPrev() : null;
-                Long a = (prevIh != null && prevPrevIh != null) ? (Long) getValue(ih.getPrev().getPrev().getInstruction(), cp) : null;
-                Long b = (prevIh != null) ? (Long) getValue(ih.getPrev().getInstruction(), cp) : null;
-                // do nothing if either one is not a constant
-                if (a != null && b != null && isConstantLoad(prevIh) && isConstantLoad(prevPrevIh)) {
-                    if (a > b) {
-                        comparisonResult = 1;
-                    } else if (a < b) {
-                        comparisonResult = -1;
-                    } else {
-                        comparisonResult = 0;
-                    }
 
-                    // can delete the two loads and the LCMP
-                    modificationsMade = true;
-                    safeDelete(il, ih.getPrev().getPrev(), next);
-                    safeDelete(il, ih.getPrev(), next);
-                    safeDelete(il, ih, next);
-                }
-            } else if (inst instanceof IfInstruction) {
-                boolean skip = false;
-                // if comparisonResult hasn't been set by a previous LCMP
-                Number a;
-                Number b;
-                if (comparisonResult == 2) {
-                    if (inst instanceof  IFLE || inst instanceof IFLT || inst instanceof IFGE || inst instanceof IFGT || inst instanceof IFEQ || inst instanceof IFNE) {
-                        InstructionHandle prevIh = ih.getPrev();
-                        InstructionHandle prevPrevIh = (prevIh != null) ? ih.getPrev().getPrev() : null;
-                        a = (ih.getPrev() != null) ? getValue(ih.getPrev().getInstruction(), cp) : null;
-                        b = 0;
-                        if (a == null || !isConstantLoad(prevIh) || !isConstantLoad(prevPrevIh)) skip = true;
-                        if (!skip) {
-                            modificationsMade = true;
-                            safeDelete(il, ih.getPrev(), ih);
-                        }
-                    } else {
-                        InstructionHandle prevIh = ih.getPrev();
-                        a = (ih.getPrev() != null && ih.getPrev().getPrev() != null) ? getValue(ih.getPrev().getPrev().getInstruction(), cp) : null;
-                        b = (ih.getPrev() != null) ? getValue(ih.getPrev().getInstruction(), cp) : null;
-                        if (a == null || b == null || !isConstantLoad(prevIh)) skip = true;
-                        if (!skip) {
+            Number constant = getValue(inst, cp);
+            if (constant != null) {
+                stack.add(new StackValue(constant, ih));
+                continue;
+            }
+            int operands = isFoldable(inst) ? ((inst.consumeStack(cp) == inst.produceStack(cp) || inst instanceof ConversionInstruction) ? 1 : 2) : 0;
+            if (operands > 0 && stack.size() >= operands) {
+                StackValue b = stack.get(stack.size() - 1);
+                StackValue a = (operands == 2) ? stack.get(stack.size() - 2) : null;
+                // the operands must be pushed directly before the operation, the deeper one first
+                boolean adjacent = b.constant != null && b.handle.getNext() == ih
+                        && (a == null || (a.constant != null && a.handle.getNext() == b.handle));
+                if (adjacent) {
+                    try {
+                        Instruction replacement = (a == null) ? fold(inst, b.constant, null, cp) : fold(inst, a.constant, b.constant, cp);
+                        if (replacement != null) {
+                            InstructionHandle first = (a == null) ? b.handle : a.handle;
+                            InstructionHandle replacementIh = insert(il, first, replacement);
+                            if (a != null) safeDelete(il, a.handle, replacementIh);
+                            safeDelete(il, b.handle, replacementIh);
+                            safeDelete(il, ih, replacementIh);
+                            stack.subList(stack.size() - operands, stack.size()).clear();
+                            stack.add(new StackValue(getValue(replacement, cp), replacementIh));
+                            simulated.add(replacementIh);
                             modificationsMade = true;
-                            safeDelete(il, ih.getPrev().getPrev(), ih);
-                            safeDelete(il, ih.getPrev(), ih);
-                        }
-                    }
-                    if (!skip) {
-                        if (a.intValue() > b.intValue()) {
-                            comparisonResult = 1;
-                        } else if (a.intValue() < b.intValue()) {
-                            comparisonResult = -1;
-                        } else {
-                            comparisonResult = 0;
+                            ih = replacementIh;
+                            continue;
                         }
+                    } catch (ArithmeticException e) {
+                        diagnostics.report(Diagnostics.Level.INSTRUCTION, "Division by zero skipped.");
                     }
                 }
-                if (skip) {
-                    ih = next;
-                    continue;
-                }
-
-                boolean branchResult = false;
-                if (inst instanceof IFLE || inst instanceof IF_ICMPLE) {
-                    branchResult = comparisonResult <= 0;
-                } else if (inst instanceof IFGE || inst instanceof IF_ICMPGE) {
-                    branchResult = comparisonResult >= 0;
-                } else if (inst instanceof IFEQ || inst instanceof IF_ICMPEQ) {
-                    branchResult = comparisonResult == 0;
-                } else if (inst instanceof IFLT || inst instanceof IF_ICMPLT) {
-                    branchResult = comparisonResult < 0;
-                } else if (inst instanceof IFGT || inst instanceof IF_ICMPGT) {
-                    branchResult = comparisonResult > 0;
-                } else if (inst instanceof IFNE || inst instanceof IF_ICMPNE) {
-                    branchResult = comparisonResult != 0;
-                } else {
-                    // shouldn't reach here, but just in case
-                    skip = true;
-                }
+            }
 
-                if (skip) {
-                    ih = next;
-                    continue;
-                }
-                InstructionHandle deleteStart;
-                InstructionHandle deleteEnd;
-                InstructionHandle replacementTarget;
-
-                InstructionHandle ifTargetHandle = ((IfInstruction)ih.getInstruction()).getTarget();
-                if (branchResult) {
-                    deleteStart = ih.getNext();
-                    deleteEnd = ifTargetHandle.getPrev();
-                    replacementTarget = ifTargetHandle;
-                    next = ifTargetHandle;
-                } else {
-                    if (ifTargetHandle.getPrev().getInstruction() instanceof GotoInstruction && !loopBounds.contains(ifTargetHandle.getPrev())) {
-                        InstructionHandle goToTargetHandle = ((GotoInstruction) ifTargetHandle.getPrev().getInstruction()).getTarget();
-                        deleteStart = ifTargetHandle.getPrev();
-                        deleteEnd = goToTargetHandle.getPrev();
-                        replacementTarget = goToTargetHandle;
-                    } else {
-                        deleteStart = null;
-                        deleteEnd = null;
-                        replacementTarget = next;
-                    }
-                }
-                
-                // i got nullpointer exception when deleting (branchResult == false) blocks
-                // storing them in a list first worked
-                modificationsMade = true;
-                List<InstructionHandle> toDelete = new ArrayList<>();
-                for (InstructionHandle current = deleteStart; current != null && current != deleteEnd.getNext(); current = current.getNext()) {
-                    toDelete.add(current);
-                }
-                for (InstructionHandle h : toDelete) {
-                    safeDelete(il, h, replacementTarget);
-                }
-                safeDelete(il, ih, replacementTarget);
-                // reset to "null" state
-                comparisonResult = 2;
+            // anything else takes its operands and pushes values that are not known
+            for (int words = inst.consumeStack(cp); words > 0 && !stack.isEmpty();) {
+                words -= stack.remove(stack.size() - 1).words;
             }
-            ih = next;
+            for (int words = inst.produceStack(cp); words > 0; words--) stack.add(new StackValue(null, ih));
+            if (inst instanceof GotoInstruction || inst instanceof Select || inst instanceof ReturnInstruction
+                    || inst instanceof ATHROW || inst instanceof JsrInstruction || inst instanceof RET) break;
         }
         return modificationsMade;
     }
 
     /**
-      * Performs dynamic variable folding by remapping variable reassignment outside loop and branch bounds
-      * to use single use variables only.
-      *
-      * @param il The instruction list to modify
-      * @param mg The method generator associated with the instruction list
-      * @param loopBounds Instruction handles marking the bounds of any loops
-      * @param branchBounds Instruction handles marking the bounds of any branches
-      * @return Returns true if any modifications were made, otherwise, returns false
-      */
-    private boolean dynamicFolding(InstructionList il, MethodGen mg, ArrayList<InstructionHandle> loopBounds, ArrayList<InstructionHandle> branchBounds) {
+     * @return Returns true if the instruction computes its result from its operands alone
+     */
+    private static boolean isFoldable(Instruction inst) {
+        return inst instanceof ArithmeticInstruction || inst instanceof ConversionInstruction || ConstantEvaluator.isComparison(inst);
+    }
+
+    /**
+     * A value on the simulated operand stack: the constant, and the instruction that pushes it, or
+     * null for a value that is not known.
+     */
+    private static final class StackValue {
+        final Number constant;
+        final InstructionHandle handle;
+        final int words;
+
+        StackValue(Number constant, InstructionHandle handle) {
+            this.constant = constant;
+            this.handle = handle;
+            this.words = (constant instanceof Long || constant instanceof Double) ? 2 : 1;
+        }
+    }
+
+    /**
+     * Decides the conditional branches whose operands are constants pushed directly before them,
+     * around the instructions changed since the last run, with the semantics of every JVM comparison
+     * (see {@link ConstantEvaluator#branch}); long, float and double operands are compared by the
+     * lcmp, fcmp or dcmp before the branch, which {@link #simpleFolding} folds first.
+     * e.g., 'iconst_1', 'iconst_2', 'if_icmpgt L' → removed; 'aconst_null', 'ifnull L' → 'goto L'.
+     *
+     * @param il Bytecode instruction list for the method
+     * @param cp BCEL constant pool gen
+     * @param changed Instructions changed (or next to a change) since the last run
+     * @return Returns true if any branches were decided
+     */
+    boolean branchFolding(InstructionList il, ConstantPoolGen cp, List<InstructionHandle> changed) {
         boolean modificationsMade = false;
-        int maxLocals = mg.getMaxLocals();
-        HashMap<Integer, Integer> varMap = new HashMap<>();
-        
-        for (InstructionHandle ih = il.getStart(); ih != null;) {
-            InstructionHandle next = ih.getNext();
-            Instruction inst = ih.getInstruction();
-    
-            if (inst instanceof StoreInstruction store && !variableChangesInBounds(ih, loopBounds) && !variableChangesInBounds(ih, branchBounds)) {
-                int varIndex = store.getIndex();
-                int newVarIndex;
-    
-                if (varMap.containsKey(varIndex)) {
-                    newVarIndex = ++maxLocals;
+        for (InstructionHandle ih : following(changed, 2)) {
+            if (Worklist.isDeleted(il, ih) || !(ih.getInstruction() instanceof IfInstruction) || ControlFlowGraph.isInTryRange(ih)) continue;
+            IfInstruction branch = (IfInstruction) ih.getInstruction();
+            int words = branch.consumeStack(cp);
+            // a jump to the branch or between its operands means other values can reach it
+            InstructionHandle secondIh = ih.getPrev();
+            InstructionHandle firstIh = (words == 2 && secondIh != null) ? secondIh.getPrev() : secondIh;
+            if (firstIh == null || ControlFlowGraph.isJumpTarget(ih) || (words == 2 && ControlFlowGraph.isJumpTarget(secondIh))) continue;
+            Object a = branchOperand(firstIh.getInstruction(), cp);
+            Object b = (words == 2) ? branchOperand(secondIh.getInstruction(), cp) : null;
+            if (a == null || (words == 2 && b == null)) continue;
+
+            Boolean taken = ConstantEvaluator.branch(branch, a, b);
+            if (taken == null) continue;
+            resolveBranch(il, cp, ih, taken ? branch.getTarget() : ih.getNext());
+            modificationsMade = true;
+        }
+        if (modificationsMade) removeJumpsToNext(il);
+        return modificationsMade;
+    }
+
+    /**
+     * @return The value a constant push instruction pushes, with a null reference as
+     *         {@link ConstantEvaluator#NULL}, or null if the instruction pushes no constant
+     */
+    private Object branchOperand(Instruction inst, ConstantPoolGen cp) {
+        if (inst instanceof ACONST_NULL) return ConstantEvaluator.NULL;
+        if (inst instanceof LDC && ((LDC) inst).getValue(cp) instanceof String) return ((LDC) inst).getValue(cp);
+        return getValue(inst, cp);
+    }
+
+    /**
+     * Simplifies arithmetic with one constant operand, or with the same variable as both operands,
+     * around the instructions changed since the last run (see {@link AlgebraicSimplifier}).
+     * e.g., 'iload 1', 'bipush 8', 'imul' → 'iload 1', 'iconst_3', 'ishl'; 'iload 1', 'iload 1', 'isub' → 'iconst_0'.
+     * The constant may come first when the operation is commutative and the other operand is a load.
+     *
+     * @param il Bytecode instruction list for the method
+     * @param cp BCEL constant pool gen
+     * @param changed Instructions changed (or next to a change) since the last run
+     * @return Returns true if any arithmetic instructions were simplified
+     */
+    boolean algebraicSimplification(InstructionList il, ConstantPoolGen cp, List<InstructionHandle> changed) {
+        boolean modificationsMade = false;
+        InstructionFactory factory = new InstructionFactory(cp);
+
+        for (InstructionHandle opIh : following(changed, 2)) {
+            if (Worklist.isDeleted(il, opIh) || !(opIh.getInstruction() instanceof ArithmeticInstruction)) continue;
+            InstructionHandle secondIh = opIh.getPrev();
+            InstructionHandle firstIh = (secondIh != null) ? secondIh.getPrev() : null;
+            // a jump between the operands would mean they are not always pushed by these instructions
+            if (firstIh == null || ControlFlowGraph.isJumpTarget(secondIh) || ControlFlowGraph.isJumpTarget(opIh)
+                    || ControlFlowGraph.isInTryRange(firstIh) || ControlFlowGraph.isInTryRange(secondIh) || ControlFlowGraph.isInTryRange(opIh)) continue;
+            Instruction op = opIh.getInstruction();
+            Instruction first = firstIh.getInstruction();
+            Instruction second = secondIh.getInstruction();
+
+            if (first instanceof LoadInstruction && second instanceof LoadInstruction
+                    && first.getOpcode() == second.getOpcode()
+                    && ((LoadInstruction) first).getIndex() == ((LoadInstruction) second).getIndex()
+                    && ((LoadInstruction) first).getType(cp).equals(((ArithmeticInstruction) op).getType(cp))) {
+                Number result = AlgebraicSimplifier.sameOperands(op);
+                if (result != null) {
+                    InstructionHandle replacementIh = insert(il, firstIh, factory.createConstant(result));
+                    safeDelete(il, firstIh, replacementIh);
+                    safeDelete(il, secondIh, replacementIh);
+                    safeDelete(il, opIh, replacementIh);
+                    modificationsMade = true;
+                } else if (AlgebraicSimplifier.isIdempotent(op)) {
+                    safeDelete(il, secondIh, firstIh);
+                    safeDelete(il, opIh, firstIh);
                     modificationsMade = true;
-                } else {
-                    newVarIndex = varIndex;
                 }
-                
-                varMap.put(varIndex, newVarIndex);
-                store.setIndex(newVarIndex);
-            } else if (inst instanceof LoadInstruction load) {
-                int varIndex = load.getIndex();
-                if (varMap.containsKey(varIndex)) {
-                    int newVarIndex = varMap.get(varIndex);
-                    load.setIndex(newVarIndex);
+                continue;
+            }
+
+            // x, c, op: x stays on the stack and the constant and operation are replaced
+            Number c = getValue(second, cp);
+            if (c != null) {
+                Instruction[] replacement = AlgebraicSimplifier.simplify(op, c, isNonNegative(firstIh, cp), factory);
+                if (replacement != null && replacement.length > 0 && replacement[0] instanceof PopInstruction
+                        && (first instanceof LoadInstruction || getValue(first, cp) != null)) {
+                    // x * 0 and the like: x is not needed at all
+                    replaceOperation(il, firstIh, opIh, Arrays.copyOfRange(replacement, 1, replacement.length));
+                    modificationsMade = true;
+                } else if (replacement != null) {
+                    replaceOperation(il, secondIh, opIh, replacement);
+                    modificationsMade = true;
+                }
+                continue;
+            }
+
+            // c, x, op: the constant is removed and the operation replaced after the load of x
+            c = getValue(first, cp);
+            if (c != null && second instanceof LoadInstruction && AlgebraicSimplifier.isCommutative(op)) {
+                Instruction[] replacement = AlgebraicSimplifier.simplify(op, c, false, factory);
+                if (replacement != null) {
+                    safeDelete(il, firstIh, secondIh);
+                    replaceOperation(il, opIh, opIh, replacement);
+                    modificationsMade = true;
                 }
             }
-            ih = next;
         }
-        mg.setMaxLocals(maxLocals);
         return modificationsMade;
     }
 
     /**
-     * Returns the instruction handles marking the bounds of loops in the given instruction list.
+     * Replaces the instructions from one handle to another with a sequence of instructions.
      *
-     * @param il The instruction list to scan for loop instructions
-     * @return A list of instruction handles representing loop bounds
+     * @param il Bytecode instruction list for the method
+     * @param from The first instruction handle to replace
+     * @param to The last instruction handle to replace, none of which may be jump targets after from
+     * @param replacement The instructions to insert, which may be empty
      */
-    private ArrayList<InstructionHandle> getLoopBounds(InstructionList il) {
-        ArrayList<InstructionHandle> arr = new ArrayList<>();
-        for (InstructionHandle ih : il.getInstructionHandles()) {
-            Instruction inst = ih.getInstruction();
-            if (inst instanceof GotoInstruction) {
-                InstructionHandle targetIh = ((GotoInstruction)inst).getTarget();
-                if (targetIh.getPosition() < ih.getPosition()) {
-                    arr.add(targetIh);
-                    arr.add(ih);
-                }
-            }
+    private void replaceOperation(InstructionList il, InstructionHandle from, InstructionHandle to, Instruction[] replacement) {
+        InstructionHandle label = to.getNext();
+        for (int i = replacement.length - 1; i >= 0; i--) {
+            label = insert(il, label, replacement[i]);
+        }
+        InstructionHandle end = to.getNext();
+        for (InstructionHandle ih = from; ih != end;) {
+            InstructionHandle next = ih.getNext();
+            safeDelete(il, ih, label);
+            ih = next;
         }
-        return arr;
     }
 
     /**
-     * Returns the instruction handles marking the bounds of conditional branches in the given instruction list.
+     * Checks whether the int or long value an instruction pushes is never negative: an array length,
+     * a char, a constant, or the result of an unsigned shift or a mask by a non-negative constant.
      *
-     * @param il The instruction list to scan for branch instructions
-     * @param loopBounds A list of instruction handles marking known loop boundaries
-     * @return The list of instruction handles representing branch bounds
+     * @param ih The instruction handle that pushes the value
+     * @param cp BCEL constant pool gen
+     * @return Returns true if the value is known not to be negative
      */
-    private ArrayList<InstructionHandle> getBranchBounds(InstructionList il, ArrayList<InstructionHandle> loopBounds) {
-        ArrayList<InstructionHandle> arr = new ArrayList<>();
-        for (InstructionHandle ih : il.getInstructionHandles()) {
-            Instruction inst = ih.getInstruction();
-            if (inst instanceof IfInstruction) {
-                InstructionHandle targetIh = ((IfInstruction)inst).getTarget();
-                if (targetIh.getPrev().getInstruction() instanceof GotoInstruction && !loopBounds.contains(targetIh.getPrev())) {
-                    targetIh = ((GotoInstruction)targetIh.getPrev().getInstruction()).getTarget();
-                }
-                arr.add(ih);
-                arr.add(targetIh);
-            }
-        }
-        return arr;
+    private boolean isNonNegative(InstructionHandle ih, ConstantPoolGen cp) {
+        Instruction inst = ih.getInstruction();
+        if (inst instanceof ARRAYLENGTH || inst instanceof I2C || inst instanceof CALOAD) return true;
+        Number value = getValue(inst, cp);
+        if (value != null) return (value instanceof Integer || value instanceof Long) && value.longValue() >= 0;
+        if (!(inst instanceof IUSHR || inst instanceof LUSHR || inst instanceof IAND || inst instanceof LAND)) return false;
+        InstructionHandle prev = ih.getPrev();
+        Number operand = (prev != null && !ControlFlowGraph.isJumpTarget(ih)) ? getValue(prev.getInstruction(), cp) : null;
+        if (!(operand instanceof Integer || operand instanceof Long)) return false;
+        if (inst instanceof IUSHR) return (operand.intValue() & 31) != 0;
+        if (inst instanceof LUSHR) return (operand.intValue() & 63) != 0;
+        return operand.longValue() >= 0;
     }
 
     /**
-     *  Checks whether a variable changes within the bounds of a list of instructions
+     * Expands changed instructions into the instructions that may complete a pattern with them.
      *
-     * @param ih InstructionHandle for instruction to check
-     * @param bounds ArrayList of instructions to check from
-     * @return Returns true is variable changes otherwise return false
-     */
-    private boolean variableChangesInBounds(InstructionHandle ih, ArrayList<InstructionHandle> bounds) {
-        int variableIndex;
-        if (ih.getInstruction() instanceof LoadInstruction) {
-            variableIndex = ((LoadInstruction) ih.getInstruction()).getIndex();
-        } else if (ih.getInstruction() instanceof StoreInstruction) {
-            variableIndex = ((StoreInstruction) ih.getInstruction()).getIndex();
-        } 
-        else {
-            // shouldnt be reachable
-            variableIndex = -1;
-        }
-
-        for (int i = 0; i < bounds.size(); i += 2) {
-            InstructionHandle start = bounds.get(i);
-            InstructionHandle end = bounds.get(i + 1);
-            // iterate through ihs of the loop
-            for (InstructionHandle current = start; current != end.getNext(); current = current.getNext()) {
-                // modifications happen with stores and IINC
-                Instruction currentInstruction = current.getInstruction();
-                if (currentInstruction instanceof StoreInstruction) {
-                    if (((StoreInstruction) currentInstruction).getIndex() == variableIndex) {
-                        return true;  
-                    } 
-                } else if (currentInstruction instanceof IINC){
-                    if (((IINC) currentInstruction).getIndex() == variableIndex) {
-                        return true;
-                    }
-                }
+     * @param changed Instructions changed (or next to a change) since a pass last ran
+     * @param distance How many instructions after a change a pattern can end
+     * @return The changed instructions and those up to distance after them, each once, in order
+     */
+    private Set<InstructionHandle> following(List<InstructionHandle> changed, int distance) {
+        Set<InstructionHandle> candidates = new LinkedHashSet<>();
+        for (InstructionHandle ih : changed) {
+            for (int i = 0; i <= distance && ih != null; i++, ih = ih.getNext()) {
+                candidates.add(ih);
             }
         }
-        return false;
+        return candidates;
     }
 
-    /**
-     * Performs one pass of simple folding over a method's instruction list. This is done by
-     * matching patterns of the form: PushInstruction PushInstruction ArithmeticInstruction.
-     * e.g., 'ldc 2', 'ldc 3', 'iadd' → replaced with 'ldc 5'.
-     * 
-     * @param il Bytecode instriction list for the method
-     * @param cpgen BCEL constant pool get
-     * @param loopBounds Signifies the bounds of any loops in the method
-     * @return Returns the instruction list with all simple arithmetic instructions replaced
-     */
-    private boolean simpleFolding(InstructionList il, ConstantPoolGen cp, ArrayList<InstructionHandle> loopBounds) {
-		boolean changed = false;
-		InstructionFinder finder = new InstructionFinder(il);
-		String pattern = "PushInstruction PushInstruction ArithmeticInstruction";
-
-		for (Iterator<?> it = finder.search(pattern); it.hasNext(); ) {
-			InstructionHandle[] match = (InstructionHandle[]) it.next();
-			Instruction i1 = match[0].getInstruction();
-			Instruction i2 = match[1].getInstruction();
-			Instruction op = match[2].getInstruction();
-
-			Number n1 = getValue(i1, cp);
-			Number n2 = getValue(i2, cp);
-			if (n1 == null || n2 == null) continue;
-
-			try {
-				Instruction replacement = fold(op, n1, n2, cp);
-				if (replacement == null) continue;
-
-				il.insert(match[0], replacement);
-                safeDelete(il, match[0], match[0].getPrev());
-                safeDelete(il, match[1], match[0].getPrev());
-                safeDelete(il, match[2], match[0].getPrev());
-				changed = true;
-			} catch (ArithmeticException e) {
-				System.out.println("Division by zero skipped.");
-			}
-		}
-		return changed;
-	}
-
      /**
       * Extracts constant values from supported instructions (ICONST, BIPUSH, SIPUSH, LDC, LDC2_W).
       * Expected input: an instruction and the constant pool.
@@ -553,182 +990,302 @@ public class ConstantFolder {
     }
 
     /**
-     * Computes the result of applying an arithmetic operation to two constants,
-     * and returns the appropriate BCEL instruction to push the result.
-     * Supported operations: +, -, *, /, % for int, long, float, double.
+     * Computes the result of applying an operation to constants, and returns the appropriate BCEL
+     * instruction to push the result.
+     * Supported operations: arithmetic, bitwise, shift and negation operations for int, long, float,
+     * double, the conversions, and the comparisons of long, float and double, evaluated by
+     * {@link ConstantEvaluator}.
      * Expected outcome: new instruction to replace the operation sequence.
      * 
-     * @param op Arithmetic operation instruction
-     * @param a Operand 1
-     * @param b Operand 2
+     * @param op Operation instruction
+     * @param a Operand 1, or the only operand of a negation or conversion
+     * @param b Operand 2, or null for a negation or conversion
      * @param cp BCEL constant pool gen
-     * @return Retuns a single instruction to directly load the result
+     * @return Retuns a single instruction to directly load the result, or null if the operands do not
+     *         have the types the operation takes
+     * @throws ArithmeticException if the operation is an integer division by zero
      */
     private Instruction fold(Instruction op, Number a, Number b, ConstantPoolGen cp) {
-        if (op instanceof IADD)
-            return new LDC(cp.addInteger(a.intValue() + b.intValue()));
-        if (op instanceof ISUB)
-            return new LDC(cp.addInteger(a.intValue() - b.intValue()));
-        if (op instanceof IMUL)
-            return new LDC(cp.addInteger(a.intValue() * b.intValue()));
-        if (op instanceof IDIV) {
-            if (b.intValue() == 0) throw new ArithmeticException();
-            return new LDC(cp.addInteger(a.intValue() / b.intValue()));
-        }
-        if (op instanceof IREM) {
-            if (b.intValue() == 0) throw new ArithmeticException();
-            return new LDC(cp.addInteger(a.intValue() % b.intValue()));
-        }
-
-        if (op instanceof LADD)
-            return new LDC2_W(cp.addLong(a.longValue() + b.longValue()));
-        if (op instanceof LSUB)
-            return new LDC2_W(cp.addLong(a.longValue() - b.longValue()));
-        if (op instanceof LMUL)
-            return new LDC2_W(cp.addLong(a.longValue() * b.longValue()));
-        if (op instanceof LDIV) {
-            if (b.longValue() == 0L) throw new ArithmeticException();
-            return new LDC2_W(cp.addLong(a.longValue() / b.longValue()));
-        }
-        if (op instanceof LREM) {
-            if (b.longValue() == 0L) throw new ArithmeticException();
-            return new LDC2_W(cp.addLong(a.longValue() % b.longValue()));
-        }
-
-        if (op instanceof FADD)
-            return new LDC(cp.addFloat(a.floatValue() + b.floatValue()));
-        if (op instanceof FSUB)
-            return new LDC(cp.addFloat(a.floatValue() - b.floatValue()));
-        if (op instanceof FMUL)
-            return new LDC(cp.addFloat(a.floatValue() * b.floatValue()));
-        if (op instanceof FDIV) {
-            if (b.floatValue() == 0.0f) throw new ArithmeticException();
-            return new LDC(cp.addFloat(a.floatValue() / b.floatValue()));
-        }
-        if (op instanceof FREM) {
-            if (b.floatValue() == 0.0f) throw new ArithmeticException();
-            return new LDC(cp.addFloat(a.floatValue() % b.floatValue()));
-        }
-
-        if (op instanceof DADD)
-            return new LDC2_W(cp.addDouble(a.doubleValue() + b.doubleValue()));
-        if (op instanceof DSUB)
-            return new LDC2_W(cp.addDouble(a.doubleValue() - b.doubleValue()));
-        if (op instanceof DMUL)
-            return new LDC2_W(cp.addDouble(a.doubleValue() * b.doubleValue()));
-        if (op instanceof DDIV) {
-            if (b.doubleValue() == 0.0d) throw new ArithmeticException();
-            return new LDC2_W(cp.addDouble(a.doubleValue() / b.doubleValue()));
-        }
-        if (op instanceof DREM) {
-            if (b.doubleValue() == 0.0d) throw new ArithmeticException();
-            return new LDC2_W(cp.addDouble(a.doubleValue() % b.doubleValue()));
-        }
-
-        if (op instanceof IF_ICMPGT) {
-            return new LDC((a.intValue() > b.intValue()) ? cp.addInteger(0) : cp.addInteger(1));
+        Number result = (b == null) ? ConstantEvaluator.unary(op, a) : ConstantEvaluator.binary(op, a, b);
+        if (result instanceof Integer)
+            return new LDC(cp.addInteger(result.intValue()));
+        if (result instanceof Long)
+            return new LDC2_W(cp.addLong(result.longValue()));
+        if (result instanceof Float)
+            return new LDC(cp.addFloat(result.floatValue()));
+        if (result instanceof Double)
+            return new LDC2_W(cp.addDouble(result.doubleValue()));
+        return null;
+    }
+
+    /**
+     * Performs sparse conditional constant propagation (see {@link ConstantPropagation}) and rewrites
+     * the method with its results: loads of variables that hold a constant on every feasible path
+     * become constant pushes, branches and switches whose outcome is known become gotos, and blocks
+     * no feasible path reaches are removed. Constant stores left unread are removed afterwards.
+     *
+     * @param il Bytecode instruction list for the method
+     * @param mg The method generator associated with the instruction list
+     * @return Returns true if any instructions were replaced or removed
+     */
+    boolean constantPropagation(InstructionList il, MethodGen mg) {
+        ConstantPoolGen cpgen = mg.getConstantPool();
+        ControlFlowGraph cfg = new ControlFlowGraph(il, mg.getExceptionHandlers());
+        ConstantPropagation constants = new ConstantPropagation(cfg, mg);
+        if (!constants.isSupported()) return removeDeadConstantStores(il, mg);
+
+        // collect every rewrite before changing anything, as the analysis refers to the current handles
+        Map<InstructionHandle, Object> constantLoads = new LinkedHashMap<>();
+        Map<InstructionHandle, InstructionHandle> decidedBranches = new LinkedHashMap<>();
+        Set<InstructionHandle> unreachable = new HashSet<>();
+        for (BasicBlock block : cfg.getBlocks()) {
+            if (!constants.isExecutable(block)) {
+                unreachable.addAll(block.getInstructions());
+                continue;
+            }
+            for (InstructionHandle ih : block.getInstructions()) {
+                Object value = constants.getResult(ih);
+                if (ih.getInstruction() instanceof LoadInstruction load && isConstantOfType(value, load.getType(cpgen))) {
+                    constantLoads.put(ih, value);
+                }
+            }
+            InstructionHandle last = block.getEnd();
+            if (ControlFlowGraph.isInTryRange(last)) continue;
+            if (last.getInstruction() instanceof IfInstruction branch) {
+                Boolean taken = constants.getBranchOutcome(last);
+                if (taken != null) decidedBranches.put(last, taken ? branch.getTarget() : last.getNext());
+            } else if (last.getInstruction() instanceof Select) {
+                InstructionHandle target = constants.getSwitchTarget(last);
+                if (target != null) decidedBranches.put(last, target);
+            }
         }
 
-        return null;
+        boolean modificationsMade = deleteUnreachable(il, mg, unreachable);
+
+        // Replace variable usages with direct constant loads
+        if (constantLoads.size() > 0) modificationsMade = true;
+        Map<InstructionHandle, InstructionHandle> replacements = new HashMap<>();
+        constantLoads.forEach((handle, value) -> {
+            InstructionHandle constant = insert(il, handle, ConstantEvaluator.push(value, cpgen));
+            safeDelete(il, handle, constant);
+            replacements.put(handle, constant);
+        });
+
+        // Replace decided branches with a goto to the only target they take, which may be a replaced load
+        if (decidedBranches.size() > 0) modificationsMade = true;
+        decidedBranches.forEach((branch, target) -> resolveBranch(il, cpgen, branch, replacements.getOrDefault(target, target)));
+        if (modificationsMade) removeJumpsToNext(il);
+
+        return removeDeadConstantStores(il, mg) || modificationsMade;
     }
 
     /**
-     * Performs constant folding by finding all variables with constant declarations
-	 * that are not reassigned. Then replaces all references to that variable with the
-	 * constant value itself before removing the initial variable declaration fully.
-     * 
-     * @param il Bytecode instriction list for the method
-     * @param cpgen BCEL constant pool get
-     * @param loopBounds Signifies the bounds of any loops in the method
-     * @param branchBounds Signifies the bounds of any if-else branches in the method
-     * @return Returns the instruction list with all constant variables replaced
+     * @param value A lattice value from {@link ConstantPropagation}
+     * @param type The type of the value expected on the stack
+     * @return Returns true if the value is a constant of that type
      */
-	private boolean constantFolding(InstructionList il, ConstantPoolGen cpgen, ArrayList<InstructionHandle> loopBounds, ArrayList<InstructionHandle> branchBounds) {
-        boolean modificationsMade = false;
-		Map<Integer, Object> constantVars = new HashMap<>();
-	
-		// Find all variable declarations with constant values that are never re-assigned
-		for (InstructionHandle ih = il.getStart(); ih != null; ih = ih.getNext()) {
-			Instruction inst = ih.getInstruction();
-			if (inst instanceof StoreInstruction) {
-				int varIndex = ((StoreInstruction) inst).getIndex();
-				Object constantValue = getConstantValue(ih.getPrev(), cpgen);
-	
-				if (constantValue != null) {
-					constantVars.compute(varIndex, (k, v) -> v == null ? constantValue : null);
-				} else {
-					constantVars.remove(varIndex);
-				}
-			} else if (inst instanceof IINC) {
-				int varIndex = ((IINC) inst).getIndex();
-				Object constantValue = getConstantValue(ih.getPrev(), cpgen);
-	
-				if (constantValue != null) {
-					constantVars.compute(varIndex, (k, v) -> v == null ? constantValue : null);
-				} else {
-					constantVars.remove(varIndex);
-				}
-			}
-		}
-	
-		InstructionFactory factory = new InstructionFactory(cpgen);
-		Map<InstructionHandle, Instruction> replacements = new HashMap<>();
-		Set<InstructionHandle> toRemove = new HashSet<>();
-	
-		// Determine bytecode modifications for constant variables
-		for (InstructionHandle ih = il.getStart(); ih != null; ih = ih.getNext()) {
-			Instruction inst = ih.getInstruction();
-	
-			if (inst instanceof LoadInstruction) {
-                int varIndex = ((LoadInstruction) inst).getIndex();
-				if (constantVars.containsKey(varIndex)) {
-                    replacements.put(ih, factory.createConstant(constantVars.get(varIndex)));
-				}
-			} else if (inst instanceof StoreInstruction && !variableChangesInBounds(ih, loopBounds) &&  !variableChangesInBounds(ih, branchBounds)) {
-				int varIndex = ((StoreInstruction) inst).getIndex();
-				if (constantVars.containsKey(varIndex) && isConstantLoad(ih.getPrev())) {
-                    toRemove.add(ih.getPrev());
-					toRemove.add(ih);
-				}
-			} 
-		}
-	
-		// Replace variable usages with direct constant loads
-        if (replacements.size() > 0) modificationsMade = true;
-		replacements.forEach((handle, newInstr) -> {
-            il.insert(handle, newInstr);
-            safeDelete(il, handle, handle.getPrev());
-		});
-        
-        // Remove initial variable declarations
-        if (toRemove.size() > 0) modificationsMade = true;
-		toRemove.forEach(handle -> {
-            safeDelete(il, handle, handle.getNext());
-		});
+    private boolean isConstantOfType(Object value, Type type) {
+        return (value instanceof Integer && type == Type.INT) || (value instanceof Long && type == Type.LONG)
+                || (value instanceof Float && type == Type.FLOAT) || (value instanceof Double && type == Type.DOUBLE);
+    }
 
-        return modificationsMade;
-	}
+    /**
+     * Deletes the instructions of blocks that no feasible path reaches, first shrinking every try
+     * range to the instructions that remain and dropping handlers that protect none.
+     *
+     * @param il Bytecode instruction list for the method
+     * @param mg The method generator associated with the instruction list
+     * @param unreachable The instructions of the unreachable blocks
+     * @return Returns true if any instructions were deleted
+     */
+    private boolean deleteUnreachable(InstructionList il, MethodGen mg, Set<InstructionHandle> unreachable) {
+        if (unreachable.isEmpty()) return false;
+
+        for (CodeExceptionGen handler : mg.getExceptionHandlers()) {
+            InstructionHandle first = null;
+            InstructionHandle last = null;
+            for (InstructionHandle ih = handler.getStartPC(); ih != handler.getEndPC().getNext(); ih = ih.getNext()) {
+                if (unreachable.contains(ih)) continue;
+                if (first == null) first = ih;
+                last = ih;
+            }
+            if (first == null || unreachable.contains(handler.getHandlerPC())) {
+                mg.removeExceptionHandler(handler);
+                handler.setStartPC(null);
+                handler.setEndPC(null);
+                handler.setHandlerPC(null);
+            } else {
+                handler.setStartPC(first);
+                handler.setEndPC(last);
+            }
+        }
+
+        // jumps into a removed run can only come from other removed code, so any target works
+        for (InstructionHandle ih = il.getStart(); ih != null;) {
+            if (!unreachable.contains(ih)) {
+                ih = ih.getNext();
+                continue;
+            }
+            InstructionHandle runEnd = ih;
+            while (runEnd.getNext() != null && unreachable.contains(runEnd.getNext())) runEnd = runEnd.getNext();
+            InstructionHandle after = runEnd.getNext();
+            InstructionHandle label = (after != null) ? after : ih.getPrev();
+            for (InstructionHandle current = ih; current != after;) {
+                InstructionHandle next = current.getNext();
+                safeDelete(il, current, label);
+                current = next;
+            }
+            ih = after;
+        }
+        return true;
+    }
 
     /**
-     * Loops over instruction list and removes any type cast operations by replacing them
-	 * with a single intruction to load the resulting value directly as a constant
+     * Removes gotos to the instruction directly after them, which deleting the code they jumped over
+     * leaves behind.
+     *
+     * @param il Bytecode instruction list for the method
+     */
+    private void removeJumpsToNext(InstructionList il) {
+        for (InstructionHandle ih = il.getStart(); ih != null;) {
+            InstructionHandle next = ih.getNext();
+            if (ih.getInstruction() instanceof GOTO jump && jump.getTarget() == next && !ControlFlowGraph.isInTryRange(ih)) {
+                safeDelete(il, ih, next);
+            }
+            ih = next;
+        }
+    }
+
+    /**
+     * Replaces a conditional branch or switch whose outcome is known with a goto to the target it
+     * always takes. The instructions that push its operands are removed as well when they have no
+     * other effect, otherwise the operands are popped.
+     *
+     * @param il Bytecode instruction list for the method
+     * @param cpgen BCEL constant pool gen
+     * @param branch The branch or switch to replace
+     * @param target The instruction it always passes control to
+     */
+    private void resolveBranch(InstructionList il, ConstantPoolGen cpgen, InstructionHandle branch, InstructionHandle target) {
+        int words = branch.getInstruction().consumeStack(cpgen);
+        List<InstructionHandle> producers = ControlFlowGraph.isJumpTarget(branch) ? null : pureProducers(branch, words, cpgen);
+
+        InstructionHandle label = null;
+        if (producers == null) {
+            label = insert(il, branch, (words == 2) ? InstructionConst.POP2 : InstructionConst.POP);
+        }
+        if (target != branch.getNext()) {
+            InstructionHandle jump = insert(il, branch, new GOTO(target));
+            if (label == null) label = jump;
+        }
+        if (label == null) label = branch.getNext();
+        safeDelete(il, branch, label);
+        if (producers != null) {
+            for (InstructionHandle producer : producers) safeDelete(il, producer, label);
+        }
+    }
+
+    /**
+     * Finds the instructions directly before an instruction that push the given number of stack
+     * words without any other effect, so that they can be removed together with it.
+     *
+     * @param consumer The instruction that consumes the words
+     * @param words How many words it consumes
+     * @param cpgen BCEL constant pool gen
+     * @return The producing instructions, or null if the words do not come from such a sequence
+     */
+    private List<InstructionHandle> pureProducers(InstructionHandle consumer, int words, ConstantPoolGen cpgen) {
+        List<InstructionHandle> producers = new ArrayList<>();
+        int needed = words;
+        InstructionHandle ih = consumer;
+        while (needed > 0) {
+            ih = ih.getPrev();
+            if (ih == null || !isPure(ih.getInstruction(), cpgen) || ControlFlowGraph.isInTryRange(ih)) return null;
+            needed -= ih.getInstruction().produceStack(cpgen);
+            if (needed < 0) return null;
+            needed += ih.getInstruction().consumeStack(cpgen);
+            producers.add(ih);
+        }
+        // jumping to the first instruction of the sequence skips all of it, but jumping into it would not
+        for (int i = 0; i < producers.size() - 1; i++) {
+            if (ControlFlowGraph.isJumpTarget(producers.get(i))) return null;
+        }
+        return producers;
+    }
+
+    /**
+     * @param inst An instruction
+     * @param cpgen BCEL constant pool gen
+     * @return Returns true if the instruction only pushes a value computed from its operands and can
+     *         neither throw nor have side effects
+     */
+    private boolean isPure(Instruction inst, ConstantPoolGen cpgen) {
+        if (inst instanceof IDIV || inst instanceof IREM || inst instanceof LDIV || inst instanceof LREM) return false;
+        if (inst instanceof LDC) {
+            // loading a class constant may fail to resolve the class
+            byte tag = cpgen.getConstant(((LDC) inst).getIndex()).getTag();
+            return tag == Const.CONSTANT_Integer || tag == Const.CONSTANT_Float || tag == Const.CONSTANT_String;
+        }
+        return inst instanceof ConstantPushInstruction || inst instanceof LDC2_W || inst instanceof LoadInstruction
+                || inst instanceof ACONST_NULL || inst instanceof ArithmeticInstruction || inst instanceof ConversionInstruction
+                || inst instanceof LCMP || inst instanceof FCMPL || inst instanceof FCMPG || inst instanceof DCMPL || inst instanceof DCMPG;
+    }
+
+    /**
+     * Removes constant stores whose value is never read again on any path, along with the constant,
+     * which must be pushed in the same block for no other path to reach the store. Increments of
+     * such variables are removed too, which may leave the store that initialised them dead.
+     *
+     * @param il Bytecode instruction list for the method
+     * @param mg The method generator associated with the instruction list
+     * @return Returns true if any stores were removed
+     */
+    private boolean removeDeadConstantStores(InstructionList il, MethodGen mg) {
+        ControlFlowGraph cfg = new ControlFlowGraph(il, mg.getExceptionHandlers());
+        LivenessAnalysis liveness = new LivenessAnalysis(cfg, mg.getMaxLocals());
+        List<InstructionHandle> toRemove = new ArrayList<>();
+        for (BasicBlock block : cfg.getReversePostorder()) {
+            List<InstructionHandle> instructions = block.getInstructions();
+            BitSet[] live = liveness.getFacts(block);
+            for (int i = 0; i < instructions.size(); i++) {
+                InstructionHandle ih = instructions.get(i);
+                if (ih.getInstruction() instanceof IINC iinc && !live[i + 1].get(iinc.getIndex()) && !ControlFlowGraph.isInTryRange(ih)) {
+                    toRemove.add(ih);
+                    continue;
+                }
+                if (i == 0) continue;
+                InstructionHandle prevIh = instructions.get(i - 1);
+                if (ih.getInstruction() instanceof StoreInstruction store && !live[i + 1].get(store.getIndex())
+                        && isConstantLoad(prevIh) && !ControlFlowGraph.isInTryRange(prevIh) && !ControlFlowGraph.isInTryRange(ih)) {
+                    toRemove.add(prevIh);
+                    toRemove.add(ih);
+                }
+            }
+        }
+        toRemove.forEach(handle -> safeDelete(il, handle, handle.getNext()));
+        return !toRemove.isEmpty();
+    }
+
+    /**
+     * Removes type cast operations next to the instructions changed since the last run by replacing
+	 * them with a single intruction to load the resulting value directly as a constant
      * 
      * @param il Insturction list for method
      * @param cpgen BCEL constant pool gen
-     * @param loopBounds Signifies the bounds of any loops in the method
-     * @return Returns the instruction list with all cast instructions replaced
+     * @param changed Instructions changed (or next to a change) since the last run
+     * @return Returns true if any cast instructions were replaced
      */
-	private boolean removeConversionInstructions(InstructionList il, ConstantPoolGen cpgen, ArrayList<InstructionHandle> loopBounds) {
+	boolean removeConversionInstructions(InstructionList il, ConstantPoolGen cpgen, List<InstructionHandle> changed) {
         boolean modificationsMade = false;
-		InstructionFactory factory = new InstructionFactory(cpgen);
 	
-		for (InstructionHandle ih = il.getStart(); ih != null; ih = ih.getNext()) {
+		for (InstructionHandle ih : following(changed, 1)) {
+			if (Worklist.isDeleted(il, ih)) continue;
 			Instruction inst = ih.getInstruction();
 			
 			if (inst instanceof ConversionInstruction) {
 				InstructionHandle prevIh = ih.getPrev();
 
-				if (prevIh == null || !isConstantLoad(prevIh)) {
+				if (prevIh == null || !isConstantLoad(prevIh) || ControlFlowGraph.isJumpTarget(ih)) {
 					continue;
 				}
 			
@@ -741,10 +1298,10 @@ public class ConstantFolder {
 				if (convertedValue == null) {
 					continue;
 				}
-				Instruction newLoad = factory.createConstant(convertedValue);	
-                il.insert(prevIh, newLoad);
-                safeDelete(il, prevIh, prevIh.getPrev());
-                safeDelete(il, ih, prevIh.getPrev());
+				Instruction newLoad = ConstantEvaluator.push(convertedValue, cpgen);	
+                InstructionHandle newIh = insert(il, prevIh, newLoad);
+                safeDelete(il, prevIh, newIh);
+                safeDelete(il, ih, newIh);
                 modificationsMade = true;
 			}
 		}
@@ -790,32 +1347,7 @@ public class ConstantFolder {
      * @return The result of the cast otherise null
      */
 	private Object convertValue(Object value, ConversionInstruction convInst) {
-		if (convInst instanceof I2D && value instanceof Integer) {
-			return ((Integer) value).doubleValue();
-		} else if (convInst instanceof I2F && value instanceof Integer) {
-			return ((Integer) value).floatValue();
-		} else if (convInst instanceof I2L && value instanceof Integer) {
-			return ((Integer) value).longValue();
-		} else if (convInst instanceof L2I && value instanceof Long) {
-			return ((Long) value).intValue();
-		} else if (convInst instanceof L2F && value instanceof Long) {
-			return ((Long) value).floatValue();
-		} else if (convInst instanceof L2D && value instanceof Long) {
-			return ((Long) value).doubleValue();
-		} else if (convInst instanceof F2I && value instanceof Float) {
-			return ((Float) value).intValue();
-		} else if (convInst instanceof F2L && value instanceof Float) {
-			return ((Float) value).longValue();
-		} else if (convInst instanceof F2D && value instanceof Float) {
-			return ((Float) value).doubleValue();
-		} else if (convInst instanceof D2I && value instanceof Double) {
-			return ((Double) value).intValue();
-		} else if (convInst instanceof D2L && value instanceof Double) {
-			return ((Double) value).longValue();
-		} else if (convInst instanceof D2F && value instanceof Double) {
-			return ((Double) value).floatValue();
-		}
-		return null;
+		return (value instanceof Number) ? ConstantEvaluator.unary(convInst, (Number) value) : null;
 	}
 
      /**
@@ -0,0 +1,416 @@
+package comp0012.main;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntUnaryOperator;
+
+import org.apache.bcel.Const;
+import org.apache.bcel.classfile.Attribute;
+import org.apache.bcel.classfile.BootstrapMethod;
+import org.apache.bcel.classfile.BootstrapMethods;
+import org.apache.bcel.classfile.Code;
+import org.apache.bcel.classfile.CodeException;
+import org.apache.bcel.classfile.Constant;
+import org.apache.bcel.classfile.ConstantCP;
+import org.apache.bcel.classfile.ConstantClass;
+import org.apache.bcel.classfile.ConstantDouble;
+import org.apache.bcel.classfile.ConstantDynamic;
+import org.apache.bcel.classfile.ConstantInvokeDynamic;
+import org.apache.bcel.classfile.ConstantLong;
+import org.apache.bcel.classfile.ConstantMethodHandle;
+import org.apache.bcel.classfile.ConstantMethodType;
+import org.apache.bcel.classfile.ConstantNameAndType;
+import org.apache.bcel.classfile.ConstantPool;
+import org.apache.bcel.classfile.ConstantString;
+import org.apache.bcel.classfile.ConstantValue;
+import org.apache.bcel.classfile.Deprecated;
+import org.apache.bcel.classfile.EnclosingMethod;
+import org.apache.bcel.classfile.ExceptionTable;
+import org.apache.bcel.classfile.Field;
+import org.apache.bcel.classfile.FieldOrMethod;
+import org.apache.bcel.classfile.InnerClass;
+import org.apache.bcel.classfile.InnerClasses;
+import org.apache.bcel.classfile.JavaClass;
+import org.apache.bcel.classfile.LineNumberTable;
+import org.apache.bcel.classfile.LocalVariable;
+import org.apache.bcel.classfile.LocalVariableTable;
+import org.apache.bcel.classfile.LocalVariableTypeTable;
+import org.apache.bcel.classfile.Method;
+import org.apache.bcel.classfile.MethodParameter;
+import org.apache.bcel.classfile.MethodParameters;
+import org.apache.bcel.classfile.NestHost;
+import org.apache.bcel.classfile.NestMembers;
+import org.apache.bcel.classfile.Signature;
+import org.apache.bcel.classfile.SourceFile;
+import org.apache.bcel.classfile.StackMap;
+import org.apache.bcel.classfile.StackMapEntry;
+import org.apache.bcel.classfile.StackMapType;
+import org.apache.bcel.classfile.Synthetic;
+import org.apache.bcel.generic.CPInstruction;
+import org.apache.bcel.generic.ConstantPoolGen;
+import org.apache.bcel.generic.InstructionHandle;
+import org.apache.bcel.generic.InstructionList;
+import org.apache.bcel.generic.MethodGen;
+
+/**
+ * Rebuilds the constant pool of a class with only the entries it still refers to. Folding adds the
+ * constants it computes to the pool but never removes the ones it folded away, so without this an
+ * optimised class carries every intermediate value.
+ *
+ * The constants loaded by ldc come first in the new pool, most used first, so that as many of them as
+ * possible fit the one-byte index of ldc rather than needing ldc_w. Every index in the class is then
+ * renumbered: in the instructions, which are rebuilt so that each ldc gets the form its new index
+ * needs, and in the attributes. A class with an attribute whose pool references are not known here
+ * (annotations or attributes unknown to BCEL, for instance) keeps its pool as it is.
+ */
+final class ConstantPoolCompactor {
+    private final JavaClass clazz;
+    private final Constant[] constants;
+    private final BitSet referenced = new BitSet();
+    private final int[] ldcUses;
+    private int[] newIndex;
+
+    private ConstantPoolCompactor(JavaClass clazz) {
+        this.clazz = clazz;
+        this.constants = clazz.getConstantPool().getConstantPool();
+        this.ldcUses = new int[constants.length];
+    }
+
+    /**
+     * @param clazz a class
+     * @return the class with a compacted constant pool, or the class itself if its attributes cannot
+     *         all be renumbered
+     */
+    static JavaClass compact(JavaClass clazz) {
+        if (!isSupported(clazz)) return clazz;
+        ConstantPoolCompactor compactor = new ConstantPoolCompactor(clazz);
+        compactor.markClass();
+        compactor.number();
+        return compactor.rebuild();
+    }
+
+    private static boolean isSupported(JavaClass clazz) {
+        if (!supported(clazz.getAttributes())) return false;
+        for (Field field : clazz.getFields()) {
+            if (!supported(field.getAttributes())) return false;
+        }
+        for (Method method : clazz.getMethods()) {
+            if (!supported(method.getAttributes())) return false;
+            if (method.getCode() != null && !supported(method.getCode().getAttributes())) return false;
+        }
+        for (Constant constant : clazz.getConstantPool().getConstantPool()) {
+            if (constant != null && constant.getTag() > Const.CONSTANT_InvokeDynamic) return false;
+        }
+        return true;
+    }
+
+    private static boolean supported(Attribute[] attributes) {
+        for (Attribute attribute : attributes) {
+            if (!(attribute instanceof Code || attribute instanceof SourceFile || attribute instanceof ConstantValue
+                    || attribute instanceof Signature || attribute instanceof ExceptionTable
+                    || attribute instanceof InnerClasses || attribute instanceof EnclosingMethod
+                    || attribute instanceof BootstrapMethods || attribute instanceof NestHost
+                    || attribute instanceof NestMembers || attribute instanceof MethodParameters
+                    || attribute instanceof StackMap || attribute instanceof LineNumberTable
+                    || attribute instanceof LocalVariableTable || attribute instanceof LocalVariableTypeTable
+                    || attribute instanceof Deprecated || attribute instanceof Synthetic)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Marks every entry the class refers to, directly or through other entries.
+     */
+    private void markClass() {
+        IntUnaryOperator mark = index -> {
+            mark(index);
+            return index;
+        };
+        mark(clazz.getClassNameIndex());
+        mark(clazz.getSuperclassNameIndex());
+        for (int index : clazz.getInterfaceIndices()) mark(index);
+        for (Attribute attribute : clazz.getAttributes()) renumber(attribute, mark);
+        for (Field field : clazz.getFields()) markMember(field, mark);
+        for (Method method : clazz.getMethods()) {
+            markMember(method, mark);
+            Code code = method.getCode();
+            if (code == null) continue;
+            for (InstructionHandle ih : new InstructionList(code.getCode()).getInstructionHandles()) {
+                if (!(ih.getInstruction() instanceof CPInstruction)) continue;
+                int index = ((CPInstruction) ih.getInstruction()).getIndex();
+                mark(index);
+                short opcode = ih.getInstruction().getOpcode();
+                if (opcode == Const.LDC || opcode == Const.LDC_W) ldcUses[index]++;
+            }
+        }
+    }
+
+    private void markMember(FieldOrMethod member, IntUnaryOperator mark) {
+        mark(member.getNameIndex());
+        mark(member.getSignatureIndex());
+        for (Attribute attribute : member.getAttributes()) renumber(attribute, mark);
+    }
+
+    private void mark(int index) {
+        if (index == 0 || referenced.get(index)) return;
+        referenced.set(index);
+        renumberConstant(constants[index], i -> {
+            mark(i);
+            return i;
+        });
+    }
+
+    /**
+     * Gives every referenced entry its index in the new pool: the constants loaded by ldc first, by
+     * how often they are loaded, and then the rest in their old order.
+     */
+    private void number() {
+        List<Integer> order = new ArrayList<>();
+        for (int i = referenced.nextSetBit(0); i >= 0; i = referenced.nextSetBit(i + 1)) {
+            if (ldcUses[i] > 0) order.add(i);
+        }
+        order.sort((a, b) -> (ldcUses[a] != ldcUses[b]) ? Integer.compare(ldcUses[b], ldcUses[a]) : Integer.compare(a, b));
+        for (int i = referenced.nextSetBit(0); i >= 0; i = referenced.nextSetBit(i + 1)) {
+            if (ldcUses[i] == 0) order.add(i);
+        }
+
+        newIndex = new int[constants.length];
+        int next = 1;
+        for (int index : order) {
+            newIndex[index] = next;
+            // longs and doubles take two entries
+            next += (constants[index] instanceof ConstantLong || constants[index] instanceof ConstantDouble) ? 2 : 1;
+        }
+    }
+
+    private JavaClass rebuild() {
+        IntUnaryOperator renumber = index -> newIndex[index];
+        int size = 1;
+        for (int i = referenced.nextSetBit(0); i >= 0; i = referenced.nextSetBit(i + 1)) {
+            size = Math.max(size, newIndex[i] + ((constants[i] instanceof ConstantLong || constants[i] instanceof ConstantDouble) ? 2 : 1));
+        }
+        Constant[] compacted = new Constant[size];
+        for (int i = referenced.nextSetBit(0); i >= 0; i = referenced.nextSetBit(i + 1)) {
+            Constant copy = constants[i].copy();
+            renumberConstant(copy, renumber);
+            compacted[newIndex[i]] = copy;
+        }
+        ConstantPoolGen oldPool = new ConstantPoolGen(clazz.getConstantPool());
+        ConstantPoolGen newPool = new ConstantPoolGen(compacted);
+
+        Field[] fields = new Field[clazz.getFields().length];
+        for (int i = 0; i < fields.length; i++) {
+            Field field = new Field(clazz.getFields()[i]);
+            field.setNameIndex(newIndex[field.getNameIndex()]);
+            field.setSignatureIndex(newIndex[field.getSignatureIndex()]);
+            field.setAttributes(renumberCopies(field.getAttributes()));
+            fields[i] = field;
+        }
+
+        // methods go through MethodGen, which picks ldc or ldc_w for each renumbered constant
+        Method[] methods = new Method[clazz.getMethods().length];
+        for (int i = 0; i < methods.length; i++) {
+            Method method = clazz.getMethods()[i];
+            MethodGen mg = new MethodGen(method, clazz.getClassName(), oldPool);
+            // MethodGen makes up a local variable for this when the method has no table
+            if (method.getLocalVariableTable() == null) mg.removeLocalVariables();
+            InstructionList il = mg.getInstructionList();
+            Map<Integer, InstructionHandle> oldOffsets = new HashMap<>();
+            if (il != null) {
+                for (InstructionHandle ih : il.getInstructionHandles()) {
+                    oldOffsets.put(ih.getPosition(), ih);
+                    if (ih.getInstruction() instanceof CPInstruction) {
+                        CPInstruction inst = (CPInstruction) ih.getInstruction();
+                        inst.setIndex(newIndex[inst.getIndex()]);
+                    }
+                }
+                il.setPositions(true);
+            }
+            Attribute[] codeAttributes = renumberCopies(mg.getCodeAttributes());
+            for (Attribute attribute : codeAttributes) {
+                if (attribute instanceof StackMap) relocate((StackMap) attribute, oldOffsets);
+            }
+            mg.removeCodeAttributes();
+            for (Attribute attribute : codeAttributes) mg.addCodeAttribute(attribute);
+            Attribute[] attributes = renumberCopies(mg.getAttributes());
+            mg.removeAttributes();
+            for (Attribute attribute : attributes) mg.addAttribute(attribute);
+            mg.setConstantPool(newPool);
+            methods[i] = mg.getMethod();
+        }
+
+        int[] interfaces = clazz.getInterfaceIndices().clone();
+        for (int i = 0; i < interfaces.length; i++) interfaces[i] = newIndex[interfaces[i]];
+        Attribute[] attributes = renumberCopies(clazz.getAttributes());
+
+        ConstantPool pool = newPool.getFinalConstantPool();
+        for (Field field : fields) setPool(field, pool);
+        for (Method method : methods) setPool(method, pool);
+        for (Attribute attribute : attributes) attribute.setConstantPool(pool);
+        return new JavaClass(newIndex[clazz.getClassNameIndex()], newIndex[clazz.getSuperclassNameIndex()],
+                clazz.getFileName(), clazz.getMajor(), clazz.getMinor(), clazz.getAccessFlags(), pool, interfaces,
+                fields, methods, attributes);
+    }
+
+    private Attribute[] renumberCopies(Attribute[] attributes) {
+        Attribute[] copies = new Attribute[attributes.length];
+        for (int i = 0; i < attributes.length; i++) {
+            copies[i] = attributes[i].copy(attributes[i].getConstantPool());
+            renumber(copies[i], index -> newIndex[index]);
+        }
+        return copies;
+    }
+
+    private static void setPool(FieldOrMethod member, ConstantPool pool) {
+        member.setConstantPool(pool);
+        for (Attribute attribute : member.getAttributes()) {
+            attribute.setConstantPool(pool);
+            if (attribute instanceof Code) {
+                for (Attribute nested : ((Code) attribute).getAttributes()) nested.setConstantPool(pool);
+            }
+        }
+    }
+
+    /**
+     * Applies a function to every pool index held by a constant, storing the results.
+     */
+    private static void renumberConstant(Constant constant, IntUnaryOperator f) {
+        if (constant instanceof ConstantClass) {
+            ConstantClass c = (ConstantClass) constant;
+            c.setNameIndex(f.applyAsInt(c.getNameIndex()));
+        } else if (constant instanceof ConstantString) {
+            ConstantString c = (ConstantString) constant;
+            c.setStringIndex(f.applyAsInt(c.getStringIndex()));
+        } else if (constant instanceof ConstantNameAndType) {
+            ConstantNameAndType c = (ConstantNameAndType) constant;
+            c.setNameIndex(f.applyAsInt(c.getNameIndex()));
+            c.setSignatureIndex(f.applyAsInt(c.getSignatureIndex()));
+        } else if (constant instanceof ConstantInvokeDynamic || constant instanceof ConstantDynamic) {
+            // their class index is an index into the BootstrapMethods attribute
+            ConstantCP c = (ConstantCP) constant;
+            c.setNameAndTypeIndex(f.applyAsInt(c.getNameAndTypeIndex()));
+        } else if (constant instanceof ConstantCP) {
+            ConstantCP c = (ConstantCP) constant;
+            c.setClassIndex(f.applyAsInt(c.getClassIndex()));
+            c.setNameAndTypeIndex(f.applyAsInt(c.getNameAndTypeIndex()));
+        } else if (constant instanceof ConstantMethodHandle) {
+            ConstantMethodHandle c = (ConstantMethodHandle) constant;
+            c.setReferenceIndex(f.applyAsInt(c.getReferenceIndex()));
+        } else if (constant instanceof ConstantMethodType) {
+            ConstantMethodType c = (ConstantMethodType) constant;
+            c.setDescriptorIndex(f.applyAsInt(c.getDescriptorIndex()));
+        }
+    }
+
+    /**
+     * Applies a function to every pool index held by an attribute of a supported type, storing the
+     * results.
+     */
+    private static void renumber(Attribute attribute, IntUnaryOperator f) {
+        attribute.setNameIndex(f.applyAsInt(attribute.getNameIndex()));
+        if (attribute instanceof Code) {
+            Code code = (Code) attribute;
+            for (CodeException handler : code.getExceptionTable()) handler.setCatchType(f.applyAsInt(handler.getCatchType()));
+            for (Attribute nested : code.getAttributes()) renumber(nested, f);
+        } else if (attribute instanceof SourceFile) {
+            SourceFile a = (SourceFile) attribute;
+            a.setSourceFileIndex(f.applyAsInt(a.getSourceFileIndex()));
+        } else if (attribute instanceof ConstantValue) {
+            ConstantValue a = (ConstantValue) attribute;
+            a.setConstantValueIndex(f.applyAsInt(a.getConstantValueIndex()));
+        } else if (attribute instanceof Signature) {
+            Signature a = (Signature) attribute;
+            a.setSignatureIndex(f.applyAsInt(a.getSignatureIndex()));
+        } else if (attribute instanceof ExceptionTable) {
+            ExceptionTable a = (ExceptionTable) attribute;
+            int[] indices = a.getExceptionIndexTable().clone();
+            for (int i = 0; i < indices.length; i++) indices[i] = f.applyAsInt(indices[i]);
+            a.setExceptionIndexTable(indices);
+        } else if (attribute instanceof InnerClasses) {
+            for (InnerClass inner : ((InnerClasses) attribute).getInnerClasses()) {
+                inner.setInnerClassIndex(f.applyAsInt(inner.getInnerClassIndex()));
+                inner.setOuterClassIndex(f.applyAsInt(inner.getOuterClassIndex()));
+                inner.setInnerNameIndex(f.applyAsInt(inner.getInnerNameIndex()));
+            }
+        } else if (attribute instanceof EnclosingMethod) {
+            EnclosingMethod a = (EnclosingMethod) attribute;
+            a.setEnclosingClassIndex(f.applyAsInt(a.getEnclosingClassIndex()));
+            a.setEnclosingMethodIndex(f.applyAsInt(a.getEnclosingMethodIndex()));
+        } else if (attribute instanceof BootstrapMethods) {
+            for (BootstrapMethod method : ((BootstrapMethods) attribute).getBootstrapMethods()) {
+                method.setBootstrapMethodRef(f.applyAsInt(method.getBootstrapMethodRef()));
+                int[] arguments = method.getBootstrapArguments().clone();
+                for (int i = 0; i < arguments.length; i++) arguments[i] = f.applyAsInt(arguments[i]);
+                method.setBootstrapArguments(arguments);
+            }
+        } else if (attribute instanceof NestHost) {
+            NestHost a = (NestHost) attribute;
+            a.setHostClassIndex(f.applyAsInt(a.getHostClassIndex()));
+        } else if (attribute instanceof NestMembers) {
+            NestMembers a = (NestMembers) attribute;
+            int[] classes = a.getClasses().clone();
+            for (int i = 0; i < classes.length; i++) classes[i] = f.applyAsInt(classes[i]);
+            a.setClasses(classes);
+        } else if (attribute instanceof MethodParameters) {
+            for (MethodParameter parameter : ((MethodParameters) attribute).getParameters()) {
+                parameter.setNameIndex(f.applyAsInt(parameter.getNameIndex()));
+            }
+        } else if (attribute instanceof StackMap) {
+            for (StackMapEntry entry : ((StackMap) attribute).getStackMap()) {
+                renumber(entry.getTypesOfLocals(), f);
+                renumber(entry.getTypesOfStackItems(), f);
+            }
+        } else if (attribute instanceof LocalVariableTable) {
+            renumber(((LocalVariableTable) attribute).getLocalVariableTable(), f);
+        } else if (attribute instanceof LocalVariableTypeTable) {
+            renumber(((LocalVariableTypeTable) attribute).getLocalVariableTypeTable(), f);
+        }
+    }
+
+    /**
+     * Moves the frames of a method to the new offsets of their instructions, as an ldc changes size
+     * with its new index and a switch changes its padding with its offset.
+     *
+     * @param map the frames, updated in place
+     * @param oldOffsets the instructions of the method, by their offset before it was rebuilt
+     */
+    private static void relocate(StackMap map, Map<Integer, InstructionHandle> oldOffsets) {
+        int oldOffset = -1;
+        int newOffset = -1;
+        for (StackMapEntry entry : map.getStackMap()) {
+            oldOffset += entry.getByteCodeOffset() + 1;
+            int offset = oldOffsets.get(oldOffset).getPosition();
+            entry.setByteCodeOffset(offset - newOffset - 1);
+            newOffset = offset;
+            relocate(entry.getTypesOfLocals(), oldOffsets);
+            relocate(entry.getTypesOfStackItems(), oldOffsets);
+        }
+        // the size of a frame depends on how its offset is written
+        map.setStackMap(map.getStackMap());
+    }
+
+    private static void relocate(StackMapType[] types, Map<Integer, InstructionHandle> oldOffsets) {
+        for (StackMapType type : types) {
+            if (type.getType() == Const.ITEM_NewObject) type.setIndex(oldOffsets.get(type.getIndex()).getPosition());
+        }
+    }
+
+    private static void renumber(StackMapType[] types, IntUnaryOperator f) {
+        for (StackMapType type : types) {
+            // only object types refer to the pool; the index of an uninitialised type is an offset
+            if (type.getType() == Const.ITEM_Object) type.setIndex(f.applyAsInt(type.getIndex()));
+        }
+    }
+
+    private static void renumber(LocalVariable[] variables, IntUnaryOperator f) {
+        for (LocalVariable variable : variables) {
+            variable.setNameIndex(f.applyAsInt(variable.getNameIndex()));
+            variable.setSignatureIndex(f.applyAsInt(variable.getSignatureIndex()));
+        }
+    }
+}
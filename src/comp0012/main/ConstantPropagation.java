@@ -0,0 +1,418 @@
+package comp0012.main;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.bcel.Const;
+import org.apache.bcel.generic.*;
+
+/**
+ * Sparse conditional constant propagation over a {@link ControlFlowGraph}. Every local variable and
+ * operand stack word holds a lattice value: not yet known ({@link #TOP}), one constant, or any value
+ * ({@link #BOTTOM}). The constants are numbers and, so that reference comparisons can be decided,
+ * null and constant strings (see {@link ConstantEvaluator}). Blocks are only simulated once an edge into them is executable, and a branch
+ * whose condition is a known constant only makes the edge it takes executable, so values that are
+ * constant along every feasible path are found even when other paths would disagree.
+ *
+ * Each block is simulated again whenever its entry state moves down the lattice, which happens at
+ * most twice per variable and stack word, so the analysis is linear in the size of the method.
+ */
+class ConstantPropagation {
+    /** A value that has not been seen yet, e.g. a variable that is only assigned on paths not yet executable. */
+    static final Object TOP = new Object() {
+        @Override public String toString() { return "TOP"; }
+    };
+    /** A value that may differ between executions. */
+    static final Object BOTTOM = new Object() {
+        @Override public String toString() { return "BOTTOM"; }
+    };
+    /** The upper word of a long or double on the stack or in the variables; the value is in the lower word. */
+    private static final Object UPPER = new Object() {
+        @Override public String toString() { return "UPPER"; }
+    };
+
+    private final ControlFlowGraph cfg;
+    private final ConstantPoolGen cp;
+    private final Frame[] entryStates;
+    private final Map<InstructionHandle, Object[]> operands = new IdentityHashMap<>();
+    private final Map<InstructionHandle, Object> results = new IdentityHashMap<>();
+    private final boolean supported;
+
+    /**
+     * Runs the analysis.
+     *
+     * @param cfg the graph of the method
+     * @param mg the method
+     */
+    ConstantPropagation(ControlFlowGraph cfg, MethodGen mg) {
+        this.cfg = cfg;
+        this.cp = mg.getConstantPool();
+        this.entryStates = new Frame[cfg.getBlocks().size()];
+        this.supported = cfg.getEntry() != null && !hasSubroutines(cfg) && solve(mg);
+    }
+
+    /**
+     * @return false if the method could not be analysed (it has subroutines, or inconsistent stack
+     *         heights), in which case nothing may be assumed about it
+     */
+    boolean isSupported() {
+        return supported;
+    }
+
+    /**
+     * @param block a block of the graph
+     * @return true if some path that the known constants allow reaches the block
+     */
+    boolean isExecutable(BasicBlock block) {
+        return supported && entryStates[block.getIndex()] != null;
+    }
+
+    /**
+     * @param ih an instruction in an executable block
+     * @return the value the instruction pushes: a boxed constant, {@link #BOTTOM}, or {@link #TOP} if
+     *         the instruction never executes with known operands; null if it pushes nothing
+     */
+    Object getResult(InstructionHandle ih) {
+        return results.get(ih);
+    }
+
+    /**
+     * @param ih a conditional branch or switch in an executable block
+     * @return the values of the operands it pops, deepest first
+     */
+    Object[] getOperands(InstructionHandle ih) {
+        return operands.get(ih);
+    }
+
+    /**
+     * Decides a conditional branch from its operands.
+     *
+     * @param ih a conditional branch in an executable block
+     * @return whether the branch is always taken, or null if that depends on the execution
+     */
+    Boolean getBranchOutcome(InstructionHandle ih) {
+        Object[] values = operands.get(ih);
+        if (values == null || !isKnown(values)) return null;
+        return ConstantEvaluator.branch(ih.getInstruction(), values[0], (values.length > 1) ? values[1] : null);
+    }
+
+    /**
+     * Picks the target of a switch from its key.
+     *
+     * @param ih a switch in an executable block
+     * @return the target always taken, or null if that depends on the execution
+     */
+    InstructionHandle getSwitchTarget(InstructionHandle ih) {
+        Object[] values = operands.get(ih);
+        if (values == null || !isConstant(values)) return null;
+        Select select = (Select) ih.getInstruction();
+        int key = ((Number) values[0]).intValue();
+        int[] matches = select.getMatchs();
+        for (int i = 0; i < matches.length; i++) {
+            if (matches[i] == key) return select.getTargets()[i];
+        }
+        return select.getTarget();
+    }
+
+    static boolean isConstant(Object value) {
+        return value instanceof Number;
+    }
+
+    private static boolean isConstant(Object[] values) {
+        for (Object value : values) {
+            if (!isConstant(value)) return false;
+        }
+        return true;
+    }
+
+    private static boolean isKnown(Object[] values) {
+        for (Object value : values) {
+            if (value == TOP || value == BOTTOM || value == UPPER) return false;
+        }
+        return true;
+    }
+
+    private static boolean hasSubroutines(ControlFlowGraph cfg) {
+        for (BasicBlock block : cfg.getBlocks()) {
+            Instruction last = block.getEnd().getInstruction();
+            if (last instanceof JsrInstruction || last instanceof RET) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Iterates to the fixpoint from the entry block.
+     *
+     * @return false if the stack heights of two paths disagree
+     */
+    private boolean solve(MethodGen mg) {
+        int maxLocals = mg.getMaxLocals();
+        for (BasicBlock block : cfg.getBlocks()) {
+            for (InstructionHandle ih : block.getInstructions()) {
+                int variable = ReachingDefinitions.variable(ih.getInstruction());
+                if (variable >= 0) maxLocals = Math.max(maxLocals, variable + 2);
+            }
+        }
+
+        // parameters may hold anything; other variables are only read after being assigned
+        Frame entry = new Frame(maxLocals);
+        Arrays.fill(entry.locals, TOP);
+        int slot = 0;
+        if (!mg.isStatic()) entry.locals[slot++] = BOTTOM;
+        for (Type argument : mg.getArgumentTypes()) {
+            entry.locals[slot] = BOTTOM;
+            if (argument.getSize() == 2) entry.locals[slot + 1] = UPPER;
+            slot += argument.getSize();
+        }
+
+        Deque<BasicBlock> work = new ArrayDeque<>();
+        boolean[] queued = new boolean[entryStates.length];
+        if (!merge(cfg.getEntry(), entry, work, queued)) return false;
+        while (!work.isEmpty()) {
+            BasicBlock block = work.poll();
+            queued[block.getIndex()] = false;
+            Frame frame = entryStates[block.getIndex()].copy();
+            for (InstructionHandle ih : block.getInstructions()) {
+                // anything but a return may throw, leaving the variables as they are before it
+                for (BasicBlock handler : block.getExceptionSuccessors()) {
+                    Frame thrown = new Frame(frame.locals.clone(), new ArrayList<>(List.of(BOTTOM)));
+                    if (!merge(handler, thrown, work, queued)) return false;
+                }
+                execute(ih, frame);
+            }
+            for (BasicBlock successor : executableSuccessors(block)) {
+                if (!merge(successor, frame, work, queued)) return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Meets a state flowing along an executable edge into the entry state of a block, queueing the
+     * block if its entry state changed.
+     *
+     * @return false if the stack heights disagree
+     */
+    private boolean merge(BasicBlock block, Frame incoming, Deque<BasicBlock> work, boolean[] queued) {
+        int b = block.getIndex();
+        boolean changed;
+        if (entryStates[b] == null) {
+            entryStates[b] = incoming.copy();
+            changed = true;
+        } else {
+            Frame state = entryStates[b];
+            if (state.stack.size() != incoming.stack.size()) return false;
+            changed = false;
+            for (int i = 0; i < state.locals.length; i++) {
+                Object met = meet(state.locals[i], incoming.locals[i]);
+                if (met != state.locals[i]) {
+                    state.locals[i] = met;
+                    changed = true;
+                }
+            }
+            for (int i = 0; i < state.stack.size(); i++) {
+                Object met = meet(state.stack.get(i), incoming.stack.get(i));
+                if (met != state.stack.get(i)) {
+                    state.stack.set(i, met);
+                    changed = true;
+                }
+            }
+        }
+        if (changed && !queued[b]) {
+            queued[b] = true;
+            work.add(block);
+        }
+        return true;
+    }
+
+    private static Object meet(Object a, Object b) {
+        if (a == TOP || a == b) return b;
+        if (b == TOP || a.equals(b)) return a;
+        return BOTTOM;
+    }
+
+    /**
+     * @return the successors the last instruction of the block may pass control to, given the values
+     *         last simulated for its operands
+     */
+    private List<BasicBlock> executableSuccessors(BasicBlock block) {
+        InstructionHandle last = block.getEnd();
+        Instruction inst = last.getInstruction();
+        Object[] values = operands.get(last);
+        if ((inst instanceof IfInstruction || inst instanceof Select) && values != null) {
+            for (Object value : values) {
+                if (value == TOP) return List.of();
+            }
+        }
+        if (inst instanceof IfInstruction) {
+            Boolean taken = getBranchOutcome(last);
+            if (taken != null) {
+                InstructionHandle target = taken ? ((IfInstruction) inst).getTarget() : last.getNext();
+                return List.of(cfg.getBlock(target));
+            }
+        } else if (inst instanceof Select) {
+            InstructionHandle target = getSwitchTarget(last);
+            if (target != null) return List.of(cfg.getBlock(target));
+        }
+        return block.getSuccessors();
+    }
+
+    /**
+     * Simulates one instruction on a state.
+     */
+    private void execute(InstructionHandle ih, Frame frame) {
+        Instruction inst = ih.getInstruction();
+        Object result;
+
+        if (inst instanceof ConstantPushInstruction) {
+            result = ((ConstantPushInstruction) inst).getValue();
+        } else if (inst instanceof LDC) {
+            Object value = ((LDC) inst).getValue(cp);
+            result = (value instanceof Number || value instanceof String) ? value : BOTTOM;
+        } else if (inst instanceof ACONST_NULL) {
+            result = ConstantEvaluator.NULL;
+        } else if (inst instanceof LDC2_W) {
+            result = ((LDC2_W) inst).getValue(cp);
+        } else if (inst instanceof LoadInstruction) {
+            result = frame.locals[((LoadInstruction) inst).getIndex()];
+            if (result == UPPER) result = BOTTOM;
+        } else if (inst instanceof StoreInstruction) {
+            int index = ((StoreInstruction) inst).getIndex();
+            Object value = frame.pop(((StoreInstruction) inst).getType(cp).getSize());
+            invalidateWide(frame, index);
+            frame.locals[index] = value;
+            if (((StoreInstruction) inst).getType(cp).getSize() == 2) frame.locals[index + 1] = UPPER;
+            return;
+        } else if (inst instanceof IINC) {
+            int index = ((IINC) inst).getIndex();
+            Object value = frame.locals[index];
+            if (isConstant(value)) value = ((Number) value).intValue() + ((IINC) inst).getIncrement();
+            frame.locals[index] = value;
+            return;
+        } else if (inst instanceof IfInstruction || inst instanceof Select) {
+            int words = inst.consumeStack(cp);
+            Object[] values = new Object[words];
+            for (int i = words - 1; i >= 0; i--) values[i] = frame.pop(1);
+            operands.put(ih, values);
+            return;
+        } else if (inst instanceof StackInstruction) {
+            shuffle(inst, frame.stack);
+            return;
+        } else if (inst instanceof ArithmeticInstruction || inst instanceof ConversionInstruction
+                || inst instanceof LCMP || inst instanceof FCMPL || inst instanceof FCMPG
+                || inst instanceof DCMPL || inst instanceof DCMPG) {
+            result = evaluate(inst, frame);
+        } else {
+            // anything else consumes its operands and produces values nothing is known about
+            frame.pop(inst.consumeStack(cp));
+            for (int i = inst.produceStack(cp); i > 0; i--) frame.stack.add(BOTTOM);
+            return;
+        }
+
+        results.put(ih, meet(results.getOrDefault(ih, TOP), result));
+        // not the type of the instruction, which is the operand type for the comparisons
+        frame.push(result, inst.produceStack(cp));
+    }
+
+    /**
+     * Evaluates an arithmetic, conversion or comparison instruction, popping its operands.
+     */
+    private Object evaluate(Instruction inst, Frame frame) {
+        boolean shift = inst.getOpcode() == Const.LSHL || inst.getOpcode() == Const.LSHR || inst.getOpcode() == Const.LUSHR;
+        int consumed = inst.consumeStack(cp);
+        Object b = null;
+        if (consumed > 0 && !(inst instanceof ConversionInstruction) && !isNegation(inst)) {
+            // the second operand of a long shift is an int
+            int size = shift ? 1 : consumed / 2;
+            b = frame.pop(size);
+            consumed -= size;
+        }
+        Object a = frame.pop(consumed);
+
+        if (a == BOTTOM || b == BOTTOM) return BOTTOM;
+        if (a == TOP || b == TOP) return TOP;
+        try {
+            Number value = (b == null) ? ConstantEvaluator.unary(inst, (Number) a) : ConstantEvaluator.binary(inst, (Number) a, (Number) b);
+            return (value == null) ? BOTTOM : value;
+        } catch (ArithmeticException e) {
+            // integer division by zero always throws, so the instruction never pushes a value
+            return BOTTOM;
+        }
+    }
+
+    private static boolean isNegation(Instruction inst) {
+        return inst instanceof INEG || inst instanceof LNEG || inst instanceof FNEG || inst instanceof DNEG;
+    }
+
+    /**
+     * Writing a variable destroys a long or double whose upper word it overlaps.
+     */
+    private static void invalidateWide(Frame frame, int index) {
+        if (index > 0 && frame.locals[index] == UPPER) frame.locals[index - 1] = BOTTOM;
+        if (index + 1 < frame.locals.length && frame.locals[index + 1] == UPPER) frame.locals[index + 1] = BOTTOM;
+    }
+
+    /**
+     * Applies a pop, dup or swap instruction to the stack words.
+     */
+    private static void shuffle(Instruction inst, List<Object> stack) {
+        int n = stack.size();
+        switch (inst.getOpcode()) {
+            case Const.POP: stack.remove(n - 1); break;
+            case Const.POP2: stack.remove(n - 1); stack.remove(n - 2); break;
+            case Const.DUP: stack.add(stack.get(n - 1)); break;
+            case Const.DUP_X1: stack.add(n - 2, stack.get(n - 1)); break;
+            case Const.DUP_X2: stack.add(n - 3, stack.get(n - 1)); break;
+            case Const.DUP2: stack.addAll(new ArrayList<>(stack.subList(n - 2, n))); break;
+            case Const.DUP2_X1: stack.addAll(n - 3, new ArrayList<>(stack.subList(n - 2, n))); break;
+            case Const.DUP2_X2: stack.addAll(n - 4, new ArrayList<>(stack.subList(n - 2, n))); break;
+            case Const.SWAP: stack.set(n - 1, stack.set(n - 2, stack.get(n - 1))); break;
+            default: throw new IllegalArgumentException("Unexpected stack instruction " + inst);
+        }
+    }
+
+    /**
+     * The lattice values of the variables and operand stack words at one point.
+     */
+    private static final class Frame {
+        final Object[] locals;
+        final List<Object> stack;
+
+        Frame(int maxLocals) {
+            this(new Object[maxLocals], new ArrayList<>());
+        }
+
+        Frame(Object[] locals, List<Object> stack) {
+            this.locals = locals;
+            this.stack = stack;
+        }
+
+        Frame copy() {
+            return new Frame(locals.clone(), new ArrayList<>(stack));
+        }
+
+        /**
+         * Pops a value of the given number of words.
+         *
+         * @return the value, or {@link #BOTTOM} if several values were popped
+         */
+        Object pop(int words) {
+            Object value = BOTTOM;
+            for (int i = 0; i < words; i++) {
+                value = stack.remove(stack.size() - 1);
+            }
+            if (words == 1 && value == UPPER) return BOTTOM;
+            return (words <= 2) ? value : BOTTOM;
+        }
+
+        void push(Object value, int words) {
+            stack.add(value);
+            if (words == 2) stack.add(UPPER);
+        }
+    }
+}
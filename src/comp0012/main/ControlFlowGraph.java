@@ -0,0 +1,377 @@
+package comp0012.main;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.apache.bcel.generic.ATHROW;
+import org.apache.bcel.generic.BranchInstruction;
+import org.apache.bcel.generic.CodeExceptionGen;
+import org.apache.bcel.generic.IfInstruction;
+import org.apache.bcel.generic.Instruction;
+import org.apache.bcel.generic.InstructionHandle;
+import org.apache.bcel.generic.InstructionList;
+import org.apache.bcel.generic.InstructionTargeter;
+import org.apache.bcel.generic.JsrInstruction;
+import org.apache.bcel.generic.RET;
+import org.apache.bcel.generic.ReturnInstruction;
+import org.apache.bcel.generic.Select;
+
+/**
+ * Control-flow graph of a method: its basic blocks, the normal edges between them and an exception
+ * edge from every block inside a try range to the handler of the range. Dominators and natural loops
+ * are computed on first use. The graph is a snapshot, so it has to be rebuilt once the instruction
+ * list is changed.
+ */
+public class ControlFlowGraph {
+    private final List<BasicBlock> blocks = new ArrayList<>();
+    private final Map<InstructionHandle, BasicBlock> blockOf = new IdentityHashMap<>();
+
+    private List<BasicBlock> reversePostorder;
+    private int[] immediateDominators;
+    private List<Loop> loops;
+
+    /**
+     * Splits a method into basic blocks and connects them.
+     *
+     * @param il the instructions of the method
+     * @param handlers the exception handlers of the method, as returned by MethodGen.getExceptionHandlers
+     */
+    public ControlFlowGraph(InstructionList il, CodeExceptionGen[] handlers) {
+        if (il.getStart() == null) return;
+
+        // a block starts at the first instruction, at every jump target, after every jump and at the
+        // edges of every try range, so each block is either wholly inside a range or outside it
+        Set<InstructionHandle> leaders = Collections.newSetFromMap(new IdentityHashMap<>());
+        List<InstructionHandle> returnSites = new ArrayList<>();
+        leaders.add(il.getStart());
+        for (InstructionHandle ih = il.getStart(); ih != null; ih = ih.getNext()) {
+            Instruction inst = ih.getInstruction();
+            if (inst instanceof BranchInstruction) {
+                leaders.add(((BranchInstruction) inst).getTarget());
+                if (inst instanceof Select) {
+                    leaders.addAll(Arrays.asList(((Select) inst).getTargets()));
+                }
+                if (inst instanceof JsrInstruction && ih.getNext() != null) returnSites.add(ih.getNext());
+            }
+            if (endsBlock(inst) && ih.getNext() != null) leaders.add(ih.getNext());
+        }
+        for (CodeExceptionGen handler : handlers) {
+            leaders.add(handler.getStartPC());
+            leaders.add(handler.getHandlerPC());
+            if (handler.getEndPC().getNext() != null) leaders.add(handler.getEndPC().getNext());
+        }
+
+        InstructionHandle start = il.getStart();
+        for (InstructionHandle ih = il.getStart(); ih != null; ih = ih.getNext()) {
+            if (ih.getNext() == null || leaders.contains(ih.getNext())) {
+                BasicBlock block = new BasicBlock(blocks.size(), start, ih);
+                blocks.add(block);
+                for (InstructionHandle member = start; member != ih.getNext(); member = member.getNext()) {
+                    blockOf.put(member, block);
+                }
+                start = ih.getNext();
+            }
+        }
+
+        for (BasicBlock block : blocks) {
+            Instruction last = block.getEnd().getInstruction();
+            InstructionHandle next = block.getEnd().getNext();
+            if (last instanceof BranchInstruction) {
+                connect(block, ((BranchInstruction) last).getTarget());
+                if (last instanceof Select) {
+                    for (InstructionHandle target : ((Select) last).getTargets()) connect(block, target);
+                }
+            } else if (last instanceof RET) {
+                for (InstructionHandle site : returnSites) connect(block, site);
+            }
+            // conditional branches also fall through; a jsr continues at its return site via the ret
+            if (next != null && (!endsBlock(last) || last instanceof IfInstruction)) connect(block, next);
+        }
+
+        for (CodeExceptionGen handler : handlers) {
+            BasicBlock handlerBlock = blockOf.get(handler.getHandlerPC());
+            int first = blockOf.get(handler.getStartPC()).getIndex();
+            int last = blockOf.get(handler.getEndPC()).getIndex();
+            for (int i = first; i <= last; i++) {
+                BasicBlock protectedBlock = blocks.get(i);
+                if (!protectedBlock.exceptionSuccessors.contains(handlerBlock)) {
+                    protectedBlock.exceptionSuccessors.add(handlerBlock);
+                    handlerBlock.exceptionPredecessors.add(protectedBlock);
+                }
+            }
+        }
+    }
+
+    /**
+     * @param inst an instruction
+     * @return true if control never simply falls through to the next instruction
+     */
+    private static boolean endsBlock(Instruction inst) {
+        return inst instanceof BranchInstruction || inst instanceof ReturnInstruction
+                || inst instanceof ATHROW || inst instanceof RET;
+    }
+
+    /**
+     * Checks whether other code can jump to an instruction, so that values on the stack before it
+     * may have been pushed elsewhere. Unlike the graph, this follows the instruction list as it is.
+     *
+     * @param ih an instruction
+     * @return true if a branch or switch jumps to the instruction
+     */
+    public static boolean isJumpTarget(InstructionHandle ih) {
+        if (!ih.hasTargeters()) return false;
+        for (InstructionTargeter targeter : ih.getTargeters()) {
+            if (targeter instanceof BranchInstruction) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Checks whether an instruction starts or ends a try range or starts its handler, which deleting
+     * it would move.
+     *
+     * @param ih an instruction
+     * @return true if an exception handler refers to the instruction
+     */
+    public static boolean isInTryRange(InstructionHandle ih) {
+        if (!ih.hasTargeters()) return false;
+        for (InstructionTargeter targeter : ih.getTargeters()) {
+            if (targeter instanceof CodeExceptionGen) return true;
+        }
+        return false;
+    }
+
+    private void connect(BasicBlock from, InstructionHandle target) {
+        BasicBlock to = blockOf.get(target);
+        if (!from.successors.contains(to)) {
+            from.successors.add(to);
+            to.predecessors.add(from);
+        }
+    }
+
+    /**
+     * @return every block of the method, in instruction order
+     */
+    public List<BasicBlock> getBlocks() {
+        return Collections.unmodifiableList(blocks);
+    }
+
+    /**
+     * @return the block holding the first instruction, or null if the method has no code
+     */
+    public BasicBlock getEntry() {
+        return blocks.isEmpty() ? null : blocks.get(0);
+    }
+
+    /**
+     * @param ih an instruction handle of the method
+     * @return the block holding the instruction
+     */
+    public BasicBlock getBlock(InstructionHandle ih) {
+        return blockOf.get(ih);
+    }
+
+    /**
+     * @return the blocks reachable from the entry, each before all of its successors except along
+     *         back edges
+     */
+    public List<BasicBlock> getReversePostorder() {
+        if (reversePostorder == null) {
+            List<BasicBlock> postorder = new ArrayList<>();
+            if (!blocks.isEmpty()) {
+                boolean[] visited = new boolean[blocks.size()];
+                Deque<BasicBlock> stack = new ArrayDeque<>();
+                Deque<Integer> nextEdge = new ArrayDeque<>();
+                visited[0] = true;
+                stack.push(getEntry());
+                nextEdge.push(0);
+                while (!stack.isEmpty()) {
+                    BasicBlock block = stack.peek();
+                    int edge = nextEdge.pop();
+                    List<BasicBlock> successors = allSuccessors(block);
+                    if (edge < successors.size()) {
+                        nextEdge.push(edge + 1);
+                        BasicBlock successor = successors.get(edge);
+                        if (!visited[successor.getIndex()]) {
+                            visited[successor.getIndex()] = true;
+                            stack.push(successor);
+                            nextEdge.push(0);
+                        }
+                    } else {
+                        postorder.add(stack.pop());
+                    }
+                }
+            }
+            Collections.reverse(postorder);
+            reversePostorder = Collections.unmodifiableList(postorder);
+        }
+        return reversePostorder;
+    }
+
+    /**
+     * @param block a block of the graph
+     * @return true if the block can be reached from the entry, normally or through a handler
+     */
+    public boolean isReachable(BasicBlock block) {
+        computeDominators();
+        return immediateDominators[block.getIndex()] != -1;
+    }
+
+    /**
+     * @param block a reachable block of the graph
+     * @return the closest block that every path from the entry to this block passes through, or
+     *         null for the entry itself and for unreachable blocks
+     */
+    public BasicBlock getImmediateDominator(BasicBlock block) {
+        computeDominators();
+        int idom = immediateDominators[block.getIndex()];
+        return (idom == -1 || block == getEntry()) ? null : blocks.get(idom);
+    }
+
+    /**
+     * @param a a block of the graph
+     * @param b a block of the graph
+     * @return true if every path from the entry to b passes through a; every block dominates itself
+     */
+    public boolean dominates(BasicBlock a, BasicBlock b) {
+        computeDominators();
+        if (immediateDominators[b.getIndex()] == -1) return false;
+        for (BasicBlock current = b; current != null; current = getImmediateDominator(current)) {
+            if (current == a) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Computes immediate dominators with the iterative algorithm of Cooper, Harvey and Kennedy.
+     * Exception edges count as edges, so a handler is dominated by the blocks common to all the
+     * blocks it protects.
+     */
+    private void computeDominators() {
+        if (immediateDominators != null) return;
+        List<BasicBlock> order = getReversePostorder();
+        int[] rank = new int[blocks.size()];
+        for (int i = 0; i < order.size(); i++) rank[order.get(i).getIndex()] = i;
+
+        int[] idom = new int[blocks.size()];
+        Arrays.fill(idom, -1);
+        if (!order.isEmpty()) idom[0] = 0;
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (BasicBlock block : order) {
+                if (block == getEntry()) continue;
+                int newIdom = -1;
+                for (BasicBlock predecessor : allPredecessors(block)) {
+                    int p = predecessor.getIndex();
+                    if (idom[p] == -1) continue;
+                    newIdom = (newIdom == -1) ? p : intersect(idom, rank, p, newIdom);
+                }
+                if (idom[block.getIndex()] != newIdom) {
+                    idom[block.getIndex()] = newIdom;
+                    changed = true;
+                }
+            }
+        }
+        immediateDominators = idom;
+    }
+
+    private static int intersect(int[] idom, int[] rank, int a, int b) {
+        while (a != b) {
+            while (rank[a] > rank[b]) a = idom[a];
+            while (rank[b] > rank[a]) b = idom[b];
+        }
+        return a;
+    }
+
+    /**
+     * Finds the natural loops of the method. Every edge whose target dominates its source is a back
+     * edge; the loop of a header is made of the blocks that reach one of its back edges without
+     * passing through the header. Loops sharing a header are merged.
+     *
+     * @return the loops, ordered by the position of their header
+     */
+    public List<Loop> getLoops() {
+        if (loops == null) {
+            Map<BasicBlock, Loop> byHeader = new LinkedHashMap<>();
+            for (BasicBlock block : getReversePostorder()) {
+                for (BasicBlock successor : block.successors) {
+                    if (!dominates(successor, block)) continue;
+                    Loop loop = byHeader.computeIfAbsent(successor, Loop::new);
+                    loop.latches.add(block);
+                    Deque<BasicBlock> work = new ArrayDeque<>();
+                    if (loop.blocks.add(block)) work.push(block);
+                    while (!work.isEmpty()) {
+                        for (BasicBlock predecessor : allPredecessors(work.pop())) {
+                            if (isReachable(predecessor) && loop.blocks.add(predecessor)) work.push(predecessor);
+                        }
+                    }
+                }
+            }
+            List<Loop> found = new ArrayList<>(byHeader.values());
+            found.sort((a, b) -> Integer.compare(a.header.getIndex(), b.header.getIndex()));
+            loops = Collections.unmodifiableList(found);
+        }
+        return loops;
+    }
+
+    private static List<BasicBlock> allSuccessors(BasicBlock block) {
+        if (block.exceptionSuccessors.isEmpty()) return block.successors;
+        List<BasicBlock> all = new ArrayList<>(block.successors);
+        all.addAll(block.exceptionSuccessors);
+        return all;
+    }
+
+    private static List<BasicBlock> allPredecessors(BasicBlock block) {
+        if (block.exceptionPredecessors.isEmpty()) return block.predecessors;
+        List<BasicBlock> all = new ArrayList<>(block.predecessors);
+        all.addAll(block.exceptionPredecessors);
+        return all;
+    }
+
+    /**
+     * A natural loop: a header block that dominates every block of the loop, and the blocks that
+     * jump back to it.
+     */
+    public static class Loop {
+        private final BasicBlock header;
+        private final Set<BasicBlock> blocks = new TreeSet<>((a, b) -> Integer.compare(a.getIndex(), b.getIndex()));
+        private final List<BasicBlock> latches = new ArrayList<>();
+
+        Loop(BasicBlock header) {
+            this.header = header;
+            blocks.add(header);
+        }
+
+        public BasicBlock getHeader() {
+            return header;
+        }
+
+        /**
+         * @return the blocks of the loop, including the header, in instruction order
+         */
+        public Set<BasicBlock> getBlocks() {
+            return Collections.unmodifiableSet(blocks);
+        }
+
+        /**
+         * @return the blocks with a back edge to the header
+         */
+        public List<BasicBlock> getLatches() {
+            return Collections.unmodifiableList(latches);
+        }
+
+        public boolean contains(BasicBlock block) {
+            return blocks.contains(block);
+        }
+    }
+}
@@ -0,0 +1,273 @@
+package comp0012.main;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+
+import org.apache.bcel.generic.InstructionHandle;
+
+/**
+ * Iterative solver for gen/kill dataflow problems over a {@link ControlFlowGraph}, with facts held
+ * in bit vectors. A subclass numbers its facts, says which facts each instruction generates and
+ * kills, and picks a direction and a meet operator; {@link #solve} then iterates a worklist of blocks
+ * to the fixpoint.
+ *
+ * An exception may leave a block before any of its instructions, so the facts that flow along an
+ * exception edge are the meet of the facts at every point of the protected block rather than its
+ * final facts.
+ */
+public abstract class DataflowAnalysis {
+    protected final ControlFlowGraph cfg;
+    private final boolean forward;
+    private final boolean union;
+
+    private BitSet[] in;
+    private BitSet[] out;
+    /** Forward analyses only: the meet of the facts before every instruction of a block. */
+    private BitSet[] throwing;
+    private BitSet[] blockGen;
+    private BitSet[] blockKill;
+
+    /**
+     * @param cfg the graph to solve over
+     * @param forward true if facts flow from the entry towards the exits, false for the reverse
+     * @param union true if facts holding on any path meet (may analyses), false if they must hold
+     *        on every path
+     */
+    protected DataflowAnalysis(ControlFlowGraph cfg, boolean forward, boolean union) {
+        this.cfg = cfg;
+        this.forward = forward;
+        this.union = union;
+    }
+
+    /**
+     * @return the number of facts
+     */
+    protected abstract int size();
+
+    /**
+     * @return the facts holding at the entry of the method (forward) or after it returns (backward)
+     */
+    protected abstract BitSet boundary();
+
+    /**
+     * @param ih an instruction
+     * @return the facts the instruction makes hold, or null for none
+     */
+    protected abstract BitSet gen(InstructionHandle ih);
+
+    /**
+     * @param ih an instruction
+     * @return the facts the instruction stops from holding, or null for none; facts both killed and
+     *         generated hold afterwards
+     */
+    protected abstract BitSet kill(InstructionHandle ih);
+
+    /**
+     * Applies the effect of one instruction to a set of facts, in the direction of the analysis.
+     *
+     * @param ih the instruction
+     * @param facts the facts before the instruction (after it, for backward analyses), updated in place
+     */
+    protected void transfer(InstructionHandle ih, BitSet facts) {
+        BitSet kill = kill(ih);
+        if (kill != null) facts.andNot(kill);
+        BitSet gen = gen(ih);
+        if (gen != null) facts.or(gen);
+    }
+
+    /**
+     * Computes the facts at the boundaries of every block.
+     */
+    public void solve() {
+        List<BasicBlock> blocks = cfg.getBlocks();
+        int count = blocks.size();
+        in = new BitSet[count];
+        out = new BitSet[count];
+        throwing = new BitSet[count];
+        blockGen = new BitSet[count];
+        blockKill = new BitSet[count];
+        for (BasicBlock block : blocks) {
+            int b = block.getIndex();
+            in[b] = top();
+            out[b] = top();
+            throwing[b] = top();
+            summarise(block);
+        }
+
+        // visiting blocks in (reverse) reverse postorder lets most facts settle in a single sweep
+        List<BasicBlock> order = new ArrayList<>(cfg.getReversePostorder());
+        if (!forward) Collections.reverse(order);
+        Deque<BasicBlock> work = new ArrayDeque<>(order);
+        boolean[] queued = new boolean[count];
+        for (BasicBlock block : order) queued[block.getIndex()] = true;
+
+        while (!work.isEmpty()) {
+            BasicBlock block = work.poll();
+            queued[block.getIndex()] = false;
+            if (forward ? updateForward(block) : updateBackward(block)) {
+                List<BasicBlock> dependents = new ArrayList<>();
+                if (forward) {
+                    dependents.addAll(block.getSuccessors());
+                    dependents.addAll(block.getExceptionSuccessors());
+                } else {
+                    dependents.addAll(block.getPredecessors());
+                    dependents.addAll(block.getExceptionPredecessors());
+                }
+                for (BasicBlock dependent : dependents) {
+                    if (!queued[dependent.getIndex()] && cfg.isReachable(dependent)) {
+                        queued[dependent.getIndex()] = true;
+                        work.add(dependent);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the facts holding before the first instruction of the block
+     */
+    public BitSet getIn(BasicBlock block) {
+        return (BitSet) in[block.getIndex()].clone();
+    }
+
+    /**
+     * @return the facts holding after the last instruction of the block
+     */
+    public BitSet getOut(BasicBlock block) {
+        return (BitSet) out[block.getIndex()].clone();
+    }
+
+    /**
+     * Computes the facts at every point of a block from the solution at its boundaries.
+     *
+     * @param block a block of the graph
+     * @return the facts holding before each instruction of the block, in instruction order, followed
+     *         by the facts holding after the last one
+     */
+    public BitSet[] getFacts(BasicBlock block) {
+        List<InstructionHandle> instructions = block.getInstructions();
+        BitSet[] facts = new BitSet[instructions.size() + 1];
+        if (forward) {
+            BitSet current = getIn(block);
+            for (int i = 0; i < instructions.size(); i++) {
+                facts[i] = (BitSet) current.clone();
+                transfer(instructions.get(i), current);
+            }
+            facts[instructions.size()] = current;
+        } else {
+            BitSet handlers = handlerFacts(block);
+            BitSet current = getOut(block);
+            facts[instructions.size()] = (BitSet) current.clone();
+            for (int i = instructions.size() - 1; i >= 0; i--) {
+                transfer(instructions.get(i), current);
+                if (handlers != null) current = meet(current, handlers);
+                facts[i] = (BitSet) current.clone();
+            }
+        }
+        return facts;
+    }
+
+    private boolean updateForward(BasicBlock block) {
+        int b = block.getIndex();
+        BitSet facts = null;
+        if (block == cfg.getEntry()) facts = boundary();
+        for (BasicBlock predecessor : block.getPredecessors()) facts = meet(facts, out[predecessor.getIndex()]);
+        for (BasicBlock predecessor : block.getExceptionPredecessors()) facts = meet(facts, throwing[predecessor.getIndex()]);
+        if (facts == null) facts = top();
+        in[b] = (BitSet) facts.clone();
+
+        BitSet newThrowing = null;
+        if (block.getExceptionSuccessors().isEmpty()) {
+            facts.andNot(blockKill[b]);
+            facts.or(blockGen[b]);
+        } else {
+            for (InstructionHandle ih : block.getInstructions()) {
+                newThrowing = meet(newThrowing, facts);
+                transfer(ih, facts);
+            }
+        }
+        boolean changed = !facts.equals(out[b]) || (newThrowing != null && !newThrowing.equals(throwing[b]));
+        out[b] = facts;
+        if (newThrowing != null) throwing[b] = newThrowing;
+        return changed;
+    }
+
+    private boolean updateBackward(BasicBlock block) {
+        int b = block.getIndex();
+        BitSet facts = null;
+        if (block.getSuccessors().isEmpty()) facts = boundary();
+        for (BasicBlock successor : block.getSuccessors()) facts = meet(facts, in[successor.getIndex()]);
+        if (facts == null) facts = top();
+        out[b] = (BitSet) facts.clone();
+
+        if (block.getExceptionSuccessors().isEmpty()) {
+            facts.andNot(blockKill[b]);
+            facts.or(blockGen[b]);
+        } else {
+            // any instruction may throw, so the facts needed by the handlers hold before each of them
+            BitSet handlers = handlerFacts(block);
+            List<InstructionHandle> instructions = block.getInstructions();
+            for (int i = instructions.size() - 1; i >= 0; i--) {
+                transfer(instructions.get(i), facts);
+                facts = meet(facts, handlers);
+            }
+        }
+        boolean changed = !facts.equals(in[b]);
+        in[b] = facts;
+        return changed;
+    }
+
+    /**
+     * @return for backward analyses, the meet of the facts at the start of the handlers protecting
+     *         the block, or null if it is not protected
+     */
+    private BitSet handlerFacts(BasicBlock block) {
+        BitSet handlers = null;
+        for (BasicBlock handler : block.getExceptionSuccessors()) handlers = meet(handlers, in[handler.getIndex()]);
+        return handlers;
+    }
+
+    /**
+     * Composes the gen and kill sets of the instructions of a block, in the direction of the analysis.
+     */
+    private void summarise(BasicBlock block) {
+        BitSet gen = new BitSet();
+        BitSet kill = new BitSet();
+        List<InstructionHandle> instructions = block.getInstructions();
+        if (!forward) Collections.reverse(instructions);
+        for (InstructionHandle ih : instructions) {
+            BitSet instructionKill = kill(ih);
+            if (instructionKill != null) {
+                gen.andNot(instructionKill);
+                kill.or(instructionKill);
+            }
+            BitSet instructionGen = gen(ih);
+            if (instructionGen != null) {
+                gen.or(instructionGen);
+                kill.andNot(instructionGen);
+            }
+        }
+        blockGen[block.getIndex()] = gen;
+        blockKill[block.getIndex()] = kill;
+    }
+
+    /**
+     * @return the identity of the meet: no facts for a union, every fact for an intersection
+     */
+    private BitSet top() {
+        BitSet top = new BitSet(size());
+        if (!union) top.set(0, size());
+        return top;
+    }
+
+    private BitSet meet(BitSet accumulated, BitSet facts) {
+        if (accumulated == null) return (BitSet) facts.clone();
+        if (union) accumulated.or(facts);
+        else accumulated.and(facts);
+        return accumulated;
+    }
+}
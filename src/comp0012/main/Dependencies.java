@@ -0,0 +1,120 @@
+package comp0012.main;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * What the optimisation of one class learnt about the other classes of the program: every question
+ * its passes and its frames asked the {@link StaticConstants} and the {@link CallGraph}, with the
+ * answer. The optimised class depends on the rest of the program through these answers alone, so a
+ * cached copy is still valid as long as every answer is still the same (see {@link #holdIn}), however
+ * much else of the program changed.
+ *
+ * The questions are
+ * <ul>
+ * <li>constant C f D: the value of the static field f of type D of class C;</li>
+ * <li>inlinable C m D: the method m with descriptor D of class C, if it can be inlined;</li>
+ * <li>movable C m D T: whether that method can be copied into class T;</li>
+ * <li>superclass C: the superclass of class C.</li>
+ * </ul>
+ * An instance belongs to the optimisation of one class, so it is not safe to share between threads.
+ */
+final class Dependencies {
+    static final String CONSTANT = "constant";
+    static final String INLINABLE = "inlinable";
+    static final String MOVABLE = "movable";
+    static final String SUPERCLASS = "superclass";
+
+    /** The answer to a question about something that does not exist or is not known. */
+    static final String NONE = "none";
+
+    private final Map<String, String> answers = new TreeMap<>();
+
+    /**
+     * Records the answer to a question.
+     *
+     * @param answer the answer, as {@link #holdIn} works it out again
+     * @param question the kind of question and its operands
+     */
+    void record(String answer, String... question) {
+        answers.put(String.join(" ", question), answer);
+    }
+
+    /**
+     * @return every question asked, with its answer
+     */
+    Map<String, String> getAnswers() {
+        return Collections.unmodifiableMap(answers);
+    }
+
+    /**
+     * Asks the questions recorded during an earlier optimisation again.
+     *
+     * @param answers the questions and the answers they had
+     * @param constants the static constants of the program as it is now
+     * @param graph the call graph of the program as it is now
+     * @return true if every answer is the same, or false if any changed or a question is not understood
+     */
+    static boolean holdIn(Map<String, String> answers, StaticConstants constants, CallGraph graph) {
+        for (Map.Entry<String, String> entry : answers.entrySet()) {
+            String[] question = entry.getKey().split(" ");
+            if (!entry.getValue().equals(answer(question, constants, graph))) return false;
+        }
+        return true;
+    }
+
+    private static String answer(String[] question, StaticConstants constants, CallGraph graph) {
+        switch (question[0]) {
+            case CONSTANT:
+                return (question.length == 4) ? describe(constants.get(question[1], question[2], question[3])) : null;
+            case INLINABLE:
+                return (question.length == 4) ? describe(graph.getInlinable(question[1], question[2], question[3])) : null;
+            case MOVABLE:
+                if (question.length != 5) return null;
+                CallGraph.Callee callee = graph.getInlinable(question[1], question[2], question[3]);
+                return (callee != null) ? String.valueOf(graph.canMove(callee, question[4])) : NONE;
+            case SUPERCLASS:
+                if (question.length != 2) return null;
+                try {
+                    return String.valueOf(graph.getSuperclassName(question[1]));
+                } catch (IllegalArgumentException e) {
+                    return NONE;
+                }
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * @return the answer recorded for the value of a static field
+     */
+    static String describe(Number value) {
+        return (value != null) ? value.getClass().getSimpleName() + ":" + value : NONE;
+    }
+
+    /**
+     * @return the answer recorded for a method that can be inlined: a hash of its code and modifiers
+     */
+    static String describe(CallGraph.Callee callee) {
+        return (callee != null) ? callee.digest() : NONE;
+    }
+
+    /**
+     * @return the hex encoded SHA-256 of a string
+     */
+    static String digest(String text) {
+        try {
+            StringBuilder hex = new StringBuilder();
+            for (byte b : MessageDigest.getInstance("SHA-256").digest(text.getBytes(StandardCharsets.UTF_8))) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
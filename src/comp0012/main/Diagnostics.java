@@ -0,0 +1,72 @@
+package comp0012.main;
+
+import java.io.PrintStream;
+
+/**
+ * Where the optimiser reports its progress, and how much of it. Messages are only worth building
+ * when their level is enabled, so callers check {@link #isEnabled} before putting a message
+ * together; at the default level nothing on the per-method path builds a string.
+ */
+public class Diagnostics {
+    /**
+     * How much is reported. Each level includes everything reported by the levels before it.
+     */
+    public enum Level {
+        /** Nothing but failures. */
+        OFF,
+        /** One summary line for the whole run. */
+        SUMMARY,
+        /** A line for every method: its size before and after, and the iterations it took. */
+        METHOD,
+        /** The full instruction list of every method before and after, and skipped folds. */
+        INSTRUCTION
+    }
+
+    /** Reports nothing. */
+    public static final Diagnostics OFF = new Diagnostics(Level.OFF, null);
+
+    private final Level level;
+    private final PrintStream out;
+
+    /**
+     * @param level the most detailed level reported
+     * @param out the stream messages are printed to; unused when the level is OFF
+     */
+    public Diagnostics(Level level, PrintStream out) {
+        this.level = level;
+        this.out = out;
+    }
+
+    /**
+     * @return the most detailed level reported
+     */
+    public Level getLevel() {
+        return level;
+    }
+
+    /**
+     * @param level a level of detail
+     * @return true if messages of that level are reported
+     */
+    public boolean isEnabled(Level level) {
+        return level != Level.OFF && this.level.compareTo(level) >= 0;
+    }
+
+    /**
+     * Reports a message if its level is enabled.
+     *
+     * @param level the level of the message
+     * @param message the message; anything expensive to print should be guarded by {@link #isEnabled}
+     */
+    public void report(Level level, Object message) {
+        if (isEnabled(level)) out.println(message);
+    }
+
+    /**
+     * @param out another stream
+     * @return diagnostics at the same level that print to that stream
+     */
+    public Diagnostics to(PrintStream out) {
+        return (level == Level.OFF) ? this : new Diagnostics(level, out);
+    }
+}
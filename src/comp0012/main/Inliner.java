@@ -0,0 +1,256 @@
+package comp0012.main;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.bcel.Const;
+import org.apache.bcel.generic.*;
+
+/**
+ * Inlines calls to the small methods of the classes being optimised (see {@link CallGraph}), so that
+ * the folding passes see through accessors and helpers: invokestatic, invokespecial of a private
+ * method, and invokevirtual of a method no subclass can override. The arguments are stored into
+ * fresh local variables, which the copied body uses in place of its own, and its returns jump to the
+ * instruction after the call.
+ *
+ * A call on a receiver that may be null first checks it with Objects.requireNonNull, so that it still
+ * throws where the call did. An exception handler of the callee clears the whole operand stack, so a
+ * callee with handlers is only inlined where the stack holds nothing but the arguments; its handlers
+ * come before the caller's, as they cover the inner code. Calls are not inlined once the method has
+ * reached the size HotSpot stops compiling methods at.
+ *
+ * Calls copied in by inlining are inlined in turn when the pass runs again, which always ends as
+ * methods that reach themselves are never inlined.
+ */
+final class Inliner implements OptimisationPass {
+    /** HotSpot's HugeMethodLimit: larger methods are never compiled. */
+    private static final int MAX_METHOD_SIZE = 8000;
+
+    @Override
+    public String getName() {
+        return "inlining";
+    }
+
+    @Override
+    public int getTriggers() {
+        // calls copied in from an inlined body
+        return OptimisationPass.MEMBERS;
+    }
+
+    @Override
+    public int getLevel() {
+        return 2;
+    }
+
+    @Override
+    public boolean run(PassContext context) {
+        MethodGen mg = context.getMethod();
+        InstructionList il = mg.getInstructionList();
+        ConstantPoolGen cp = context.getConstantPool();
+        CallGraph graph = context.getCallGraph();
+        int size = il.getByteCode().length;
+        Map<InstructionHandle, Integer> depths = null;
+        boolean modified = false;
+        for (InstructionHandle call : context.getChanged()) {
+            if (Worklist.isDeleted(il, call) || !(call.getInstruction() instanceof InvokeInstruction)) continue;
+            InvokeInstruction invoke = (InvokeInstruction) call.getInstruction();
+            CallGraph.Callee callee = resolve(graph, invoke, cp);
+            if (callee == null || size + callee.size() > MAX_METHOD_SIZE || !graph.canMove(callee, mg.getClassName())) continue;
+            MethodGen body = callee.body();
+            int arguments = invoke.consumeStack(cp);
+            if (body.getExceptionHandlers().length > 0) {
+                if (depths == null) depths = stackDepths(il, mg.getExceptionHandlers(), cp);
+                if (!Integer.valueOf(arguments).equals(depths.get(call))) continue;
+            }
+            if (body.getInstructionList().size() == 1 && arguments == 0 && ControlFlowGraph.isInTryRange(call)) {
+                // nothing would be left in place of the call to keep the try range
+                continue;
+            }
+            inline(context, call, body, callee.owner.getClassName().equals(mg.getClassName()));
+            size += callee.size();
+            depths = null;
+            modified = true;
+        }
+        return modified;
+    }
+
+    /**
+     * Finds the method a call runs, if it can be inlined and the instruction cannot run an override.
+     */
+    private static CallGraph.Callee resolve(CallGraph graph, InvokeInstruction invoke, ConstantPoolGen cp) {
+        if (invoke instanceof INVOKEDYNAMIC || invoke instanceof INVOKEINTERFACE) return null;
+        CallGraph.Callee callee = graph.getInlinable(invoke.getReferenceType(cp).toString(), invoke.getMethodName(cp), invoke.getSignature(cp));
+        if (callee == null || callee.method.isStatic() != (invoke instanceof INVOKESTATIC)) return null;
+        if (invoke instanceof INVOKESPECIAL) return callee.method.isPrivate() ? callee : null;
+        if (invoke instanceof INVOKEVIRTUAL) return callee.isFinal() ? callee : null;
+        return callee;
+    }
+
+    /**
+     * Replaces a call with a copy of the callee's body.
+     *
+     * @param context the method being optimised
+     * @param call the call instruction
+     * @param body the callee, with the constant pool its instructions refer to
+     * @param sameClass whether the callee is in the caller's class, so the constant pools are the same
+     */
+    private static void inline(PassContext context, InstructionHandle call, MethodGen body, boolean sameClass) {
+        MethodGen mg = context.getMethod();
+        ConstantPoolGen cp = context.getConstantPool();
+        ConstantPoolGen calleeCp = body.getConstantPool();
+        boolean checkReceiver = !body.isStatic() && !isReceiverThis(context, call);
+        mg.setMaxLocals();
+        int base = mg.getMaxLocals();
+        InstructionHandle after = call.getNext();
+        InstructionHandle first = null;
+
+        // the arguments are on the stack, the last on top
+        Type[] arguments = body.getArgumentTypes();
+        int[] slots = new int[arguments.length];
+        int slot = body.isStatic() ? 0 : 1;
+        for (int i = 0; i < arguments.length; i++) {
+            slots[i] = slot;
+            slot += arguments[i].getSize();
+        }
+        for (int i = arguments.length - 1; i >= 0; i--) {
+            InstructionHandle store = context.insert(call, InstructionFactory.createStore(arguments[i], base + slots[i]));
+            if (first == null) first = store;
+        }
+        if (!body.isStatic()) {
+            InstructionHandle store = context.insert(call, new ASTORE(base));
+            if (first == null) first = store;
+            if (checkReceiver) {
+                context.insert(call, new ALOAD(base));
+                context.insert(call, new InstructionFactory(cp).createInvoke("java.util.Objects", "requireNonNull",
+                        Type.OBJECT, new Type[] { Type.OBJECT }, Const.INVOKESTATIC));
+                context.insert(call, InstructionConst.POP);
+            }
+        }
+
+        // a return at the end of the body falls through to the instruction after the call
+        Map<InstructionHandle, InstructionHandle> copies = new HashMap<>();
+        InstructionList instructions = body.getInstructionList();
+        for (InstructionHandle ih : instructions.getInstructionHandles()) {
+            Instruction inst = ih.getInstruction();
+            if (inst instanceof ReturnInstruction && ih == instructions.getEnd()) {
+                copies.put(ih, after);
+                continue;
+            }
+            Instruction copy = (inst instanceof ReturnInstruction) ? new GOTO(after) : inst.copy();
+            if (copy instanceof LocalVariableInstruction) {
+                ((LocalVariableInstruction) copy).setIndex(base + ((LocalVariableInstruction) copy).getIndex());
+            }
+            if (copy instanceof CPInstruction && !sameClass) {
+                CPInstruction reference = (CPInstruction) copy;
+                reference.setIndex(cp.addConstant(calleeCp.getConstant(reference.getIndex()), calleeCp));
+            }
+            InstructionHandle copied = context.insert(call, copy);
+            if (first == null) first = copied;
+            copies.put(ih, copied);
+        }
+        for (InstructionHandle ih : instructions.getInstructionHandles()) {
+            if (!(ih.getInstruction() instanceof BranchInstruction)) continue;
+            BranchInstruction copy = (BranchInstruction) copies.get(ih).getInstruction();
+            copy.setTarget(copies.get(((BranchInstruction) ih.getInstruction()).getTarget()));
+            if (copy instanceof Select) {
+                InstructionHandle[] targets = ((Select) ih.getInstruction()).getTargets();
+                for (int i = 0; i < targets.length; i++) ((Select) copy).setTarget(i, copies.get(targets[i]));
+            }
+        }
+
+        CodeExceptionGen[] handlers = body.getExceptionHandlers();
+        if (handlers.length > 0) {
+            // the first handler in the table that covers an instruction catches its exceptions
+            CodeExceptionGen[] existing = mg.getExceptionHandlers();
+            mg.removeExceptionHandlers();
+            for (CodeExceptionGen handler : handlers) {
+                InstructionHandle start = handler.getStartPC();
+                InstructionHandle end = handler.getEndPC();
+                if (copies.get(start) == after) continue;
+                if (copies.get(end) == after) end = end.getPrev();
+                mg.addExceptionHandler(copies.get(start), copies.get(end), copies.get(handler.getHandlerPC()), handler.getCatchType());
+            }
+            for (CodeExceptionGen handler : existing) {
+                mg.addExceptionHandler(handler.getStartPC(), handler.getEndPC(), handler.getHandlerPC(), handler.getCatchType());
+                handler.setStartPC(null);
+                handler.setEndPC(null);
+                handler.setHandlerPC(null);
+            }
+        }
+
+        // try ranges around the call now cover the code that replaces it, which is never empty when
+        // there is one; both ends are moved here, as moving the end of a range of the call alone
+        // takes the range off the call's targeters, and deleting the call would leave its start behind
+        InstructionHandle last = call.getPrev();
+        for (CodeExceptionGen handler : mg.getExceptionHandlers()) {
+            if (handler.getStartPC() == call) handler.setStartPC(first);
+            if (handler.getEndPC() == call) handler.setEndPC(last);
+        }
+        context.delete(call, (first != null) ? first : after);
+    }
+
+    /**
+     * Checks whether the receiver of a call is this, which is never null: the method is an instance
+     * method that never assigns variable 0, and the arguments are pushed after an aload_0 without any
+     * jump into them.
+     */
+    private static boolean isReceiverThis(PassContext context, InstructionHandle call) {
+        MethodGen mg = context.getMethod();
+        ConstantPoolGen cp = context.getConstantPool();
+        if (mg.isStatic()) return false;
+        for (InstructionHandle ih : mg.getInstructionList().getInstructionHandles()) {
+            Instruction inst = ih.getInstruction();
+            if (inst instanceof StoreInstruction && ((StoreInstruction) inst).getIndex() == 0) return false;
+        }
+        InstructionHandle ih = call;
+        int needed = call.getInstruction().consumeStack(cp) - 1;
+        while (true) {
+            if (ControlFlowGraph.isJumpTarget(ih)) return false;
+            ih = ih.getPrev();
+            if (ih == null) return false;
+            if (needed == 0) break;
+            needed -= ih.getInstruction().produceStack(cp);
+            if (needed < 0) return false;
+            needed += ih.getInstruction().consumeStack(cp);
+        }
+        return ih.getInstruction() instanceof ALOAD && ((ALOAD) ih.getInstruction()).getIndex() == 0;
+    }
+
+    /**
+     * Computes the depth of the operand stack, in words, before every instruction that can be reached,
+     * as the JVM's verifier does.
+     *
+     * @param il the instructions of a method
+     * @param handlers its exception handlers, whose code starts with the exception on the stack
+     * @param cp the constant pool the instructions refer to
+     * @return the depth before each instruction that can be reached
+     */
+    static Map<InstructionHandle, Integer> stackDepths(InstructionList il, CodeExceptionGen[] handlers, ConstantPoolGen cp) {
+        Map<InstructionHandle, Integer> depths = new HashMap<>();
+        Deque<InstructionHandle> work = new ArrayDeque<>();
+        reach(depths, work, il.getStart(), 0);
+        for (CodeExceptionGen handler : handlers) reach(depths, work, handler.getHandlerPC(), 1);
+        while (!work.isEmpty()) {
+            InstructionHandle ih = work.pop();
+            Instruction inst = ih.getInstruction();
+            int depth = depths.get(ih) - inst.consumeStack(cp) + inst.produceStack(cp);
+            if (inst instanceof BranchInstruction) {
+                reach(depths, work, ((BranchInstruction) inst).getTarget(), depth);
+                if (inst instanceof Select) {
+                    for (InstructionHandle target : ((Select) inst).getTargets()) reach(depths, work, target, depth);
+                }
+            }
+            if (!(inst instanceof GotoInstruction || inst instanceof Select || inst instanceof ReturnInstruction
+                    || inst instanceof ATHROW || inst instanceof RET)) {
+                reach(depths, work, ih.getNext(), depth);
+            }
+        }
+        return depths;
+    }
+
+    private static void reach(Map<InstructionHandle, Integer> depths, Deque<InstructionHandle> work, InstructionHandle ih, int depth) {
+        if (ih != null && depths.putIfAbsent(ih, depth) == null) work.push(ih);
+    }
+}
@@ -0,0 +1,369 @@
+package comp0012.main;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Reads a jar (or any zip) file entry by entry and writes a copy of it in which some entries are
+ * replaced. Entries that are not replaced are copied as their raw compressed bytes, so resources
+ * are never inflated and deflated again; replaced entries are deflated on the fly.
+ * The zip structure is read directly from the central directory, which is why zip64 archives and
+ * multi-disk archives are not supported. Reading entries is safe from several threads at once.
+ */
+public class JarRewriter implements Closeable {
+    private static final int LOCAL_HEADER = 0x04034b50;
+    private static final int CENTRAL_HEADER = 0x02014b50;
+    private static final int END_OF_CENTRAL_DIRECTORY = 0x06054b50;
+    private static final int LOCAL_HEADER_SIZE = 30;
+    private static final int CENTRAL_HEADER_SIZE = 46;
+    private static final int END_SIZE = 22;
+    private static final int STORED = 0;
+    private static final int DEFLATED = 8;
+    /** General purpose flag bit saying sizes and crc follow the data instead of the local header. */
+    private static final int DATA_DESCRIPTOR_FLAG = 1 << 3;
+
+    /**
+     * One entry of the central directory.
+     */
+    public static class Entry {
+        private final String name;
+        private final byte[] rawName;
+        private final int versionMadeBy;
+        private final int versionNeeded;
+        private final int flags;
+        private final int method;
+        private final int dosTime;
+        private final int crc;
+        private final long compressedSize;
+        private final long size;
+        private final int internalAttributes;
+        private final int externalAttributes;
+        private final long localHeaderOffset;
+        private final byte[] centralExtra;
+        private final byte[] comment;
+
+        private Entry(ByteBuffer cd) {
+            int start = cd.position();
+            versionMadeBy = Short.toUnsignedInt(cd.getShort(start + 4));
+            versionNeeded = Short.toUnsignedInt(cd.getShort(start + 6));
+            flags = Short.toUnsignedInt(cd.getShort(start + 8));
+            method = Short.toUnsignedInt(cd.getShort(start + 10));
+            dosTime = cd.getInt(start + 12);
+            crc = cd.getInt(start + 16);
+            compressedSize = Integer.toUnsignedLong(cd.getInt(start + 20));
+            size = Integer.toUnsignedLong(cd.getInt(start + 24));
+            int nameLength = Short.toUnsignedInt(cd.getShort(start + 28));
+            int extraLength = Short.toUnsignedInt(cd.getShort(start + 30));
+            int commentLength = Short.toUnsignedInt(cd.getShort(start + 32));
+            internalAttributes = Short.toUnsignedInt(cd.getShort(start + 36));
+            externalAttributes = cd.getInt(start + 38);
+            localHeaderOffset = Integer.toUnsignedLong(cd.getInt(start + 42));
+            cd.position(start + CENTRAL_HEADER_SIZE);
+            rawName = new byte[nameLength];
+            cd.get(rawName);
+            centralExtra = new byte[extraLength];
+            cd.get(centralExtra);
+            comment = new byte[commentLength];
+            cd.get(comment);
+            name = new String(rawName, StandardCharsets.UTF_8);
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public boolean isClass() {
+            return name.endsWith(".class");
+        }
+    }
+
+    /**
+     * Supplies the new contents of an entry while the output jar is written.
+     */
+    public interface Replacement {
+        /**
+         * @param entry the entry about to be written
+         * @return the new uncompressed contents of the entry, or null to copy it unchanged
+         * @throws IOException if the contents cannot be produced
+         */
+        byte[] contentsOf(Entry entry) throws IOException;
+    }
+
+    private final FileChannel channel;
+    private final List<Entry> entries = new ArrayList<>();
+
+    /**
+     * Opens a jar file and reads its central directory.
+     *
+     * @param jar the jar file to read
+     * @throws IOException if the file cannot be read or is not a supported zip file
+     */
+    public JarRewriter(Path jar) throws IOException {
+        channel = FileChannel.open(jar, StandardOpenOption.READ);
+        try {
+            readCentralDirectory(jar);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private void readCentralDirectory(Path jar) throws IOException {
+        long length = channel.size();
+        int tailLength = (int) Math.min(length, END_SIZE + 0xFFFF);
+        ByteBuffer tail = read(length - tailLength, tailLength);
+        int end = -1;
+        for (int i = tailLength - END_SIZE; i >= 0; i--) {
+            if (tail.getInt(i) == END_OF_CENTRAL_DIRECTORY) {
+                end = i;
+                break;
+            }
+        }
+        if (end < 0) throw new IOException(jar + " is not a zip file");
+
+        int entryCount = Short.toUnsignedInt(tail.getShort(end + 10));
+        long cdSize = Integer.toUnsignedLong(tail.getInt(end + 12));
+        long cdOffset = Integer.toUnsignedLong(tail.getInt(end + 16));
+        if (entryCount == 0xFFFF || cdOffset == 0xFFFFFFFFL || tail.getShort(end + 4) != 0) {
+            throw new IOException(jar + " is a zip64 or multi-disk archive, which is not supported");
+        }
+
+        ByteBuffer cd = read(cdOffset, (int) cdSize);
+        for (int i = 0; i < entryCount; i++) {
+            if (cd.getInt(cd.position()) != CENTRAL_HEADER) {
+                throw new IOException(jar + " has a corrupt central directory");
+            }
+            entries.add(new Entry(cd));
+        }
+    }
+
+    /**
+     * @return the entries of the jar, in the order of its central directory
+     */
+    public List<Entry> getEntries() {
+        return Collections.unmodifiableList(entries);
+    }
+
+    /**
+     * Reads and, if necessary, inflates the contents of an entry.
+     *
+     * @param entry an entry of this jar
+     * @return the uncompressed contents of the entry
+     * @throws IOException if the entry cannot be read or uses an unsupported compression method
+     */
+    public byte[] read(Entry entry) throws IOException {
+        ByteBuffer raw = readRaw(entry);
+        if (entry.method == STORED) {
+            byte[] contents = new byte[raw.remaining()];
+            raw.get(contents);
+            return contents;
+        }
+        if (entry.method != DEFLATED) {
+            throw new IOException(entry.name + " uses unsupported compression method " + entry.method);
+        }
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(raw);
+            byte[] contents = new byte[(int) entry.size];
+            int read = 0;
+            while (read < contents.length) {
+                int n = inflater.inflate(contents, read, contents.length - read);
+                if (n == 0 && (inflater.finished() || inflater.needsInput())) break;
+                read += n;
+            }
+            if (read != contents.length) throw new IOException(entry.name + " is truncated");
+            return contents;
+        } catch (DataFormatException e) {
+            throw new IOException(entry.name + " is corrupt", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Writes a copy of this jar, replacing the contents of the entries for which the replacement
+     * returns new bytes. Entries keep their order, names, timestamps and attributes.
+     *
+     * @param output the jar file to create
+     * @param replacement supplies the new contents of each entry, or null to keep it
+     * @throws IOException if the jar cannot be read or written
+     */
+    public void write(Path output, Replacement replacement) throws IOException {
+        try (CountingOutputStream counter = new CountingOutputStream(new BufferedOutputStream(Files.newOutputStream(output)));
+             DataOutputStream out = new DataOutputStream(counter)) {
+            ByteArrayOutputStream centralDirectory = new ByteArrayOutputStream();
+            DataOutputStream cd = new DataOutputStream(centralDirectory);
+            Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+            try {
+                for (Entry entry : entries) {
+                    long offset = counter.count;
+                    byte[] contents = replacement.contentsOf(entry);
+                    int method = entry.method;
+                    int crc = entry.crc;
+                    long size = entry.size;
+                    ByteBuffer data;
+                    if (contents == null) {
+                        data = readRaw(entry);
+                    } else {
+                        CRC32 checksum = new CRC32();
+                        checksum.update(contents);
+                        crc = (int) checksum.getValue();
+                        size = contents.length;
+                        method = DEFLATED;
+                        data = ByteBuffer.wrap(deflate(deflater, contents));
+                    }
+                    int flags = entry.flags & ~DATA_DESCRIPTOR_FLAG;
+                    long compressedSize = data.remaining();
+                    byte[] localExtra = readLocalExtra(entry);
+
+                    out.writeInt(Integer.reverseBytes(LOCAL_HEADER));
+                    writeShort(out, entry.versionNeeded);
+                    writeShort(out, flags);
+                    writeShort(out, method);
+                    out.writeInt(Integer.reverseBytes(entry.dosTime));
+                    out.writeInt(Integer.reverseBytes(crc));
+                    out.writeInt(Integer.reverseBytes((int) compressedSize));
+                    out.writeInt(Integer.reverseBytes((int) size));
+                    writeShort(out, entry.rawName.length);
+                    writeShort(out, localExtra.length);
+                    out.write(entry.rawName);
+                    out.write(localExtra);
+                    while (data.hasRemaining()) {
+                        byte[] chunk = new byte[Math.min(data.remaining(), 64 * 1024)];
+                        data.get(chunk);
+                        out.write(chunk);
+                    }
+
+                    cd.writeInt(Integer.reverseBytes(CENTRAL_HEADER));
+                    writeShort(cd, entry.versionMadeBy);
+                    writeShort(cd, entry.versionNeeded);
+                    writeShort(cd, flags);
+                    writeShort(cd, method);
+                    cd.writeInt(Integer.reverseBytes(entry.dosTime));
+                    cd.writeInt(Integer.reverseBytes(crc));
+                    cd.writeInt(Integer.reverseBytes((int) compressedSize));
+                    cd.writeInt(Integer.reverseBytes((int) size));
+                    writeShort(cd, entry.rawName.length);
+                    writeShort(cd, entry.centralExtra.length);
+                    writeShort(cd, entry.comment.length);
+                    writeShort(cd, 0);
+                    writeShort(cd, entry.internalAttributes);
+                    cd.writeInt(Integer.reverseBytes(entry.externalAttributes));
+                    cd.writeInt(Integer.reverseBytes((int) offset));
+                    cd.write(entry.rawName);
+                    cd.write(entry.centralExtra);
+                    cd.write(entry.comment);
+                    if (counter.count > 0xFFFFFFFFL) throw new IOException(output + " would need zip64, which is not supported");
+                }
+            } finally {
+                deflater.end();
+            }
+
+            long cdOffset = counter.count;
+            centralDirectory.writeTo(out);
+            out.writeInt(Integer.reverseBytes(END_OF_CENTRAL_DIRECTORY));
+            writeShort(out, 0);
+            writeShort(out, 0);
+            writeShort(out, entries.size());
+            writeShort(out, entries.size());
+            out.writeInt(Integer.reverseBytes(centralDirectory.size()));
+            out.writeInt(Integer.reverseBytes((int) cdOffset));
+            writeShort(out, 0);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private static byte[] deflate(Deflater deflater, byte[] contents) {
+        deflater.reset();
+        deflater.setInput(contents);
+        deflater.finish();
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(contents.length / 2 + 16);
+        byte[] chunk = new byte[8 * 1024];
+        while (!deflater.finished()) {
+            int n = deflater.deflate(chunk);
+            compressed.write(chunk, 0, n);
+        }
+        return compressed.toByteArray();
+    }
+
+    /**
+     * Returns the compressed data of an entry, located through its local header.
+     */
+    private ByteBuffer readRaw(Entry entry) throws IOException {
+        ByteBuffer header = read(entry.localHeaderOffset, LOCAL_HEADER_SIZE);
+        if (header.getInt(0) != LOCAL_HEADER) throw new IOException(entry.name + " has a corrupt local header");
+        int nameLength = Short.toUnsignedInt(header.getShort(26));
+        int extraLength = Short.toUnsignedInt(header.getShort(28));
+        return read(entry.localHeaderOffset + LOCAL_HEADER_SIZE + nameLength + extraLength, (int) entry.compressedSize);
+    }
+
+    private byte[] readLocalExtra(Entry entry) throws IOException {
+        ByteBuffer header = read(entry.localHeaderOffset, LOCAL_HEADER_SIZE);
+        int nameLength = Short.toUnsignedInt(header.getShort(26));
+        int extraLength = Short.toUnsignedInt(header.getShort(28));
+        ByteBuffer extra = read(entry.localHeaderOffset + LOCAL_HEADER_SIZE + nameLength, extraLength);
+        byte[] bytes = new byte[extraLength];
+        extra.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * Reads a little-endian buffer at an absolute position; positional reads keep this thread-safe.
+     */
+    private ByteBuffer read(long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, position + buffer.position());
+            if (n < 0) throw new IOException("Unexpected end of zip file");
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static void writeShort(DataOutputStream out, int value) throws IOException {
+        out.writeShort(Short.reverseBytes((short) value));
+    }
+
+    private static class CountingOutputStream extends FilterOutputStream {
+        private long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package comp0012.main;
+
+import java.util.BitSet;
+
+import org.apache.bcel.generic.IINC;
+import org.apache.bcel.generic.Instruction;
+import org.apache.bcel.generic.InstructionHandle;
+import org.apache.bcel.generic.StoreInstruction;
+
+/**
+ * Live local variables: for every point of a method, the variables whose current value may still be
+ * read on some path from there. Facts are variable indices.
+ */
+public class LivenessAnalysis extends DataflowAnalysis {
+    private final int variables;
+
+    /**
+     * @param cfg the graph of the method
+     * @param variables the number of local variable slots of the method
+     */
+    public LivenessAnalysis(ControlFlowGraph cfg, int variables) {
+        super(cfg, false, true);
+        this.variables = variables;
+        solve();
+    }
+
+    @Override
+    protected int size() {
+        return variables;
+    }
+
+    @Override
+    protected BitSet boundary() {
+        return new BitSet();
+    }
+
+    @Override
+    protected BitSet gen(InstructionHandle ih) {
+        Instruction inst = ih.getInstruction();
+        if (inst instanceof StoreInstruction) return null;
+        int variable = ReachingDefinitions.variable(inst);
+        return (variable == -1) ? null : single(variable);
+    }
+
+    @Override
+    protected BitSet kill(InstructionHandle ih) {
+        Instruction inst = ih.getInstruction();
+        // an iinc reads the variable as well, and the read comes first
+        return (inst instanceof StoreInstruction || inst instanceof IINC) ? single(ReachingDefinitions.variable(inst)) : null;
+    }
+
+    private static BitSet single(int variable) {
+        BitSet set = new BitSet();
+        set.set(variable);
+        return set;
+    }
+}
@@ -0,0 +1,283 @@
+package comp0012.main;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.bcel.Const;
+import org.apache.bcel.generic.*;
+
+/**
+ * Loop-invariant code motion. An expression inside a natural loop (see
+ * {@link ControlFlowGraph#getLoops}) that only combines constants and variables the loop never
+ * assigns, using arithmetic and conversions that cannot throw, gives the same value on every
+ * iteration. It is computed once before the loop into a fresh local variable, and each occurrence
+ * in the loop becomes a load of that variable; identical expressions share the variable.
+ *
+ * The hoisted code runs even when the loop body would not, which is only safe because it cannot
+ * throw or have side effects, so integer divisions and remainders are only hoisted when the divisor
+ * is a non-zero constant. Loads of fields and array elements are never hoisted, as nothing proves
+ * that the loop does not store to them.
+ *
+ * One loop is rewritten per run, as the graph has to be rebuilt after a change; the fixpoint reruns
+ * the pass for the others, and hoists an expression again when it is also invariant in an outer loop.
+ */
+final class LoopInvariantCodeMotion implements OptimisationPass {
+    @Override
+    public String getName() {
+        return "loopInvariantCodeMotion";
+    }
+
+    @Override
+    public int getTriggers() {
+        // loops and the variables assigned in them
+        return OptimisationPass.LOCALS | OptimisationPass.CONTROL;
+    }
+
+    @Override
+    public int getLevel() {
+        return 2;
+    }
+
+    @Override
+    public boolean run(PassContext context) {
+        MethodGen mg = context.getMethod();
+        InstructionList il = mg.getInstructionList();
+        ControlFlowGraph cfg = new ControlFlowGraph(il, mg.getExceptionHandlers());
+        for (ControlFlowGraph.Loop loop : cfg.getLoops()) {
+            InstructionHandle preheader = loop.getHeader().getStart();
+            if (!canInsertBefore(cfg, loop, preheader)) continue;
+            Map<String, List<Expression>> invariant = findInvariantExpressions(loop, context.getConstantPool());
+            if (invariant.isEmpty()) continue;
+            hoist(context, cfg, loop, invariant.values());
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Checks that code inserted before the header runs once on entry to the loop: the header must not
+     * start a try range or handler, and must not be fallen into from inside the loop.
+     */
+    private static boolean canInsertBefore(ControlFlowGraph cfg, ControlFlowGraph.Loop loop, InstructionHandle header) {
+        if (ControlFlowGraph.isInTryRange(header)) return false;
+        InstructionHandle prev = header.getPrev();
+        if (prev == null || !loop.contains(cfg.getBlock(prev))) return true;
+        Instruction last = prev.getInstruction();
+        return last instanceof GotoInstruction || last instanceof ReturnInstruction || last instanceof ATHROW
+                || last instanceof Select;
+    }
+
+    /**
+     * Finds the largest invariant expressions in the blocks of a loop by simulating the operand
+     * stack of each block, tracking which instructions pushed each value.
+     *
+     * @return the expressions, grouped by their instructions
+     */
+    private static Map<String, List<Expression>> findInvariantExpressions(ControlFlowGraph.Loop loop, ConstantPoolGen cp) {
+        BitSet assigned = new BitSet();
+        for (BasicBlock block : loop.getBlocks()) {
+            for (InstructionHandle ih : block.getInstructions()) {
+                Instruction inst = ih.getInstruction();
+                if (inst instanceof StoreInstruction || inst instanceof IINC) {
+                    int index = ((LocalVariableInstruction) inst).getIndex();
+                    assigned.set(index, index + ((inst instanceof StoreInstruction) ? inst.consumeStack(cp) : 1));
+                } else if (inst instanceof RET) {
+                    // subroutines may assign anything; leave such loops alone
+                    return new LinkedHashMap<>();
+                }
+            }
+        }
+
+        Map<String, List<Expression>> found = new LinkedHashMap<>();
+        for (BasicBlock block : loop.getBlocks()) {
+            Deque<Value> stack = new ArrayDeque<>();
+            for (InstructionHandle ih : block.getInstructions()) {
+                Instruction inst = ih.getInstruction();
+                if (ControlFlowGraph.isInTryRange(ih)) {
+                    // values pushed before a try range boundary are not moved across it
+                    for (Value value : stack) value.invariant = false;
+                }
+                if (inst instanceof LoadInstruction && !assigned.get(((LoadInstruction) inst).getIndex())
+                        && !(inst instanceof ALOAD)) {
+                    stack.push(new Value(ih, ((LoadInstruction) inst).getType(cp), null));
+                    continue;
+                }
+                Number constant = constantValue(inst, cp);
+                if (constant != null) {
+                    stack.push(new Value(ih, ((TypedInstruction) inst).getType(cp), constant));
+                    continue;
+                }
+                int operands = (inst instanceof ArithmeticInstruction || inst instanceof ConversionInstruction)
+                        ? ((inst instanceof ConversionInstruction || isNegation(inst)) ? 1 : 2) : -1;
+                if (operands > 0 && stack.size() >= operands) {
+                    Value second = (operands == 2) ? stack.pop() : null;
+                    Value first = stack.pop();
+                    boolean invariant = first.invariant && (second == null || second.invariant) && cannotThrow(inst, second);
+                    Value result = new Value(first.start, ((TypedInstruction) inst).getType(cp), null);
+                    result.invariant = invariant;
+                    result.operation = true;
+                    if (!invariant) {
+                        record(found, first, (second != null) ? second.start.getPrev() : ih.getPrev(), cp);
+                        if (second != null) record(found, second, ih.getPrev(), cp);
+                    }
+                    stack.push(result);
+                    continue;
+                }
+                // any other instruction ends the expressions it consumes
+                int words = inst.consumeStack(cp);
+                InstructionHandle start = ih;
+                while (words > 0 && !stack.isEmpty()) {
+                    Value value = stack.pop();
+                    record(found, value, start.getPrev(), cp);
+                    words -= value.type.getSize();
+                    start = value.start;
+                }
+                if (words > 0) {
+                    // consumes values pushed before the block, below everything tracked so far
+                    stack.clear();
+                }
+                // the results cover the instructions that pushed the operands too
+                for (int produced = inst.produceStack(cp); produced > 0; produced -= 2) {
+                    Value value = new Value(start, (produced >= 2) ? Type.LONG : Type.INT, null);
+                    value.invariant = false;
+                    stack.push(value);
+                }
+            }
+            // expressions whose value is left on the stack for the next block
+            InstructionHandle end = block.getEnd();
+            while (!stack.isEmpty()) {
+                Value value = stack.pop();
+                record(found, value, end, cp);
+                end = value.start.getPrev();
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Records a value as an invariant expression if it was computed by an operation, so moving it
+     * saves work, and reads at least one variable, as a constant expression is left to folding.
+     */
+    private static void record(Map<String, List<Expression>> found, Value value, InstructionHandle end, ConstantPoolGen cp) {
+        if (!value.invariant || !value.operation) return;
+        List<InstructionHandle> instructions = new ArrayList<>();
+        StringBuilder key = new StringBuilder();
+        boolean readsVariable = false;
+        // the instructions must push exactly the one value, in case an instruction the simulation
+        // does not model exactly has misplaced its bounds
+        int depth = 0;
+        for (InstructionHandle ih = value.start; ih != end.getNext(); ih = ih.getNext()) {
+            Instruction inst = ih.getInstruction();
+            if (inst instanceof LoadInstruction || constantValue(inst, cp) != null) depth++;
+            else if (!isNegation(inst) && !(inst instanceof ConversionInstruction)) depth--;
+            if (depth < 1 || !(inst instanceof LoadInstruction || inst instanceof ArithmeticInstruction
+                    || inst instanceof ConversionInstruction || constantValue(inst, cp) != null)) return;
+            instructions.add(ih);
+            key.append(inst.toString(cp.getConstantPool())).append(';');
+            readsVariable |= inst instanceof LoadInstruction;
+        }
+        if (!readsVariable || depth != 1) return;
+        found.computeIfAbsent(key.toString(), k -> new ArrayList<>()).add(new Expression(instructions, value.type));
+    }
+
+    /**
+     * Computes each group of identical expressions once before the loop and replaces them with loads.
+     */
+    private static void hoist(PassContext context, ControlFlowGraph cfg, ControlFlowGraph.Loop loop,
+                              Iterable<List<Expression>> invariant) {
+        MethodGen mg = context.getMethod();
+        InstructionHandle header = loop.getHeader().getStart();
+        mg.setMaxLocals();
+        int nextLocal = mg.getMaxLocals();
+        InstructionHandle preheader = null;
+        List<Integer> locals = new ArrayList<>();
+        for (List<Expression> group : invariant) {
+            Expression first = group.get(0);
+            locals.add(nextLocal);
+            for (InstructionHandle ih : first.instructions) {
+                InstructionHandle copy = context.insert(header, ih.getInstruction().copy());
+                if (preheader == null) preheader = copy;
+            }
+            context.insert(header, InstructionFactory.createStore(first.type, nextLocal));
+            nextLocal += first.type.getSize();
+        }
+        mg.setMaxLocals(nextLocal);
+
+        // entries into the loop from outside now run the hoisted code first; the back edges still
+        // jump straight to the header
+        for (BasicBlock block : cfg.getBlocks()) {
+            if (loop.contains(block) || !(block.getEnd().getInstruction() instanceof BranchInstruction)) continue;
+            BranchInstruction branch = (BranchInstruction) block.getEnd().getInstruction();
+            if (branch.containsTarget(header)) branch.updateTarget(header, preheader);
+        }
+
+        int group = 0;
+        for (List<Expression> expressions : invariant) {
+            int local = locals.get(group++);
+            for (Expression expression : expressions) {
+                InstructionHandle load = context.insert(expression.instructions.get(0), InstructionFactory.createLoad(expression.type, local));
+                for (InstructionHandle ih : expression.instructions) context.delete(ih, load);
+            }
+        }
+    }
+
+    private static boolean isNegation(Instruction inst) {
+        return inst instanceof INEG || inst instanceof LNEG || inst instanceof FNEG || inst instanceof DNEG;
+    }
+
+    /**
+     * @return true if the operation cannot throw: it is not an integer division or remainder, or it
+     *         divides by a non-zero constant
+     */
+    private static boolean cannotThrow(Instruction inst, Value divisor) {
+        switch (inst.getOpcode()) {
+            case Const.IDIV: case Const.IREM: case Const.LDIV: case Const.LREM:
+                return divisor != null && divisor.constant != null && divisor.constant.longValue() != 0;
+            default:
+                return true;
+        }
+    }
+
+    private static Number constantValue(Instruction inst, ConstantPoolGen cp) {
+        if (inst instanceof ConstantPushInstruction) return ((ConstantPushInstruction) inst).getValue();
+        Object value = null;
+        if (inst instanceof LDC) value = ((LDC) inst).getValue(cp);
+        else if (inst instanceof LDC2_W) value = ((LDC2_W) inst).getValue(cp);
+        return (value instanceof Number) ? (Number) value : null;
+    }
+
+    /**
+     * A value on the simulated operand stack, pushed by the instructions from start onwards.
+     */
+    private static final class Value {
+        final InstructionHandle start;
+        final Type type;
+        final Number constant;
+        boolean invariant = true;
+        boolean operation;
+
+        Value(InstructionHandle start, Type type, Number constant) {
+            this.start = start;
+            this.type = type;
+            this.constant = constant;
+        }
+    }
+
+    /**
+     * An invariant expression in the loop.
+     */
+    private static final class Expression {
+        final List<InstructionHandle> instructions;
+        final Type type;
+
+        Expression(List<InstructionHandle> instructions, Type type) {
+            this.instructions = instructions;
+            this.type = type;
+        }
+    }
+}
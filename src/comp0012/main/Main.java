@@ -4,10 +4,23 @@ import org.kohsuke.args4j.CmdLineException;
 import org.kohsuke.args4j.CmdLineParser;
 import org.kohsuke.args4j.Option;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.PrintStream;
 import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.FutureTask;
+import java.util.stream.Collectors;
 
 /**
  * COMP0012 courswork 2
@@ -16,32 +29,153 @@ import java.nio.file.attribute.BasicFileAttributes;
 
 public class Main extends SimpleFileVisitor<Path> {
 
-    @Option(name="-in",required=true, usage="Root directory of the input classfiles")
+    @Option(name="-in",required=true, usage="Root directory of the input classfiles, or a jar file")
     private String inputRoot;
 
-    @Option(name="-out",required=true, usage="Root directory where optimised classfiles will be stored")
+    @Option(name="-out",required=true, usage="Root directory where optimised classfiles will be stored, or the output jar when -in is a jar")
     private String outputRoot;
 
-    private void parseArguments(String args[])
+    @Option(name="-threads", usage="Number of classfiles optimised in parallel (defaults to the number of cores, 1 runs sequentially)")
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    @Option(name="-cache", usage="Directory of a persistent cache of optimised classfiles, reused across runs")
+    private String cacheDir;
+
+    @Option(name="-cacheSize", usage="Maximum size of the cache directory in megabytes (default 256)")
+    private long cacheSizeMb = 256;
+
+    @Option(name="-log", usage="How much progress to print: OFF, SUMMARY (default), METHOD or INSTRUCTION")
+    private Diagnostics.Level logLevel = Diagnostics.Level.SUMMARY;
+
+    @Option(name="-report", usage="File to write per-pass metrics of every method to, as CSV if it ends in .csv and JSON otherwise")
+    private String reportFile;
+
+    @Option(name="-passes", usage="Comma-separated passes to run, in order, instead of those of the -O level; passes they depend on are added")
+    private String passNames;
+
+    @Option(name="-inlineSize", usage="Largest method, in bytes of bytecode, that calls are inlined from (default 35)")
+    private int inlineSize = CallGraph.DEFAULT_INLINE_SIZE;
+
+    @Option(name="-pureCalls", usage="File of further library methods, one per line, whose calls are evaluated when their arguments are constant")
+    private String pureCallsFile;
+
+    @Option(name="-O0", usage="Run no passes, only rewrite the classfiles")
+    private boolean level0;
+
+    @Option(name="-O1", usage="Run only the passes that look at the instructions around each change, and dead store elimination")
+    private boolean level1;
+
+    @Option(name="-O2", usage="Run every pass, including those analysing whole methods (default)")
+    private boolean level2;
+
+    private List<OptimisationPass> passes;
+    private StaticConstants staticConstants = StaticConstants.NONE;
+    private CallGraph callGraph = CallGraph.of(ClassIndex.EMPTY, 0);
+    private PureCalls pureCalls = PureCalls.DEFAULT;
+    private Diagnostics diagnostics;
+    private OptimisationReport report;
+    private PrintStream out = System.out;
+    private PrintStream err = System.err;
+
+    private OptimisationCache cache;
+    private ForkJoinPool pool;
+    private int classCount;
+    private int failedCount;
+
+    private static final Path OPTIMISER_PACKAGE = Paths.get("comp0012", "main");
+
+    private final List<Path> classFiles = new ArrayList<>();
+
+    /**
+     * @return false if the arguments are not valid, after printing why and the usage
+     */
+    private boolean parseArguments(String args[])
     {
         CmdLineParser parser = new CmdLineParser(this);
         parser.setUsageWidth(80);
         try{
             parser.parseArgument(args);
+            if (threads < 1) throw new CmdLineException(parser, "-threads must be at least 1");
+            if (inlineSize < 0) throw new CmdLineException(parser, "-inlineSize cannot be negative");
+            passes = selectPasses(parser, passNames, level0, level1, level2);
+            if (pureCallsFile != null) pureCalls = loadPureCalls(parser, pureCallsFile);
         } catch (CmdLineException e) {
-            System.err.println(e.getMessage());
-            System.err.println("java BatchExperiment inputFolder outputFolder");
-            parser.printUsage(System.err);
-            System.err.println();
-            System.exit(-1);
+            err.println(e.getMessage());
+            err.println("java BatchExperiment inputFolder outputFolder");
+            parser.printUsage(err);
+            err.println();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Builds the pipeline from -passes or the -O level, from the built-in passes and any found on the
+     * classpath. Shared with {@link OptimisingAgent}, which takes the same options.
+     */
+    static List<OptimisationPass> selectPasses(CmdLineParser parser, String passNames, boolean level0, boolean level1, boolean level2)
+            throws CmdLineException {
+        int levels = (level0 ? 1 : 0) + (level1 ? 1 : 0) + (level2 ? 1 : 0);
+        if (levels > 1) throw new CmdLineException(parser, "Only one of -O0, -O1 and -O2 can be given");
+        if (levels > 0 && passNames != null) throw new CmdLineException(parser, "-passes cannot be combined with -O0, -O1 or -O2");
+        try {
+            PassRegistry registry = PassRegistry.load();
+            if (passNames != null) return registry.select(Arrays.asList(passNames.trim().split("\\s*,\\s*")));
+            return registry.forLevel(level0 ? 0 : level1 ? 1 : PassRegistry.DEFAULT_LEVEL);
+        } catch (IllegalArgumentException e) {
+            throw new CmdLineException(parser, e.getMessage());
+        }
+    }
+
+    static PureCalls loadPureCalls(CmdLineParser parser, String pureCallsFile) throws CmdLineException {
+        try {
+            return PureCalls.DEFAULT.with(Paths.get(pureCallsFile));
+        } catch (IOException e) {
+            throw new CmdLineException(parser, "Could not read " + pureCallsFile + " (" + e.getClass().getSimpleName() + ")");
+        } catch (IllegalArgumentException e) {
+            throw new CmdLineException(parser, e.getMessage());
         }
     }
 
     public static void main(String args[]) throws IOException {
-	System.out.println("Running COMP207p courswork-2");
+        int status = run(args, System.out, System.err);
+        if (status != 0) System.exit(status);
+    }
+
+    /**
+     * Runs the optimiser as the command line would, printing to the streams given rather than to
+     * the console, so that {@link OptimiserDaemon} can run it for its clients.
+     *
+     * @param args the command line
+     * @param out where progress is printed
+     * @param err where failures are printed
+     * @return the exit status: 0, or -1 if the arguments are not valid
+     */
+    static int run(String args[], PrintStream out, PrintStream err) throws IOException {
         Main main = new Main();
-        main.parseArguments(args);
-        Files.walkFileTree(Paths.get(main.inputRoot), main);
+        main.out = out;
+        main.err = err;
+        if (!main.parseArguments(args)) return -1;
+        main.diagnostics = new Diagnostics(main.logLevel, out);
+        main.diagnostics.report(Diagnostics.Level.SUMMARY, "Running COMP207p courswork-2");
+        main.diagnostics.report(Diagnostics.Level.SUMMARY, "Passes: " + (main.passes.isEmpty() ? "none"
+                : main.passes.stream().map(OptimisationPass::getName).collect(Collectors.joining(", "))));
+        if (main.reportFile != null) main.report = new OptimisationReport();
+        long start = System.nanoTime();
+        if (main.threads > 1) main.pool = new ForkJoinPool(main.threads);
+        try {
+            if (main.inputRoot.endsWith(".jar")) {
+                main.optimiseJar();
+            } else {
+                Files.walkFileTree(Paths.get(main.inputRoot), main);
+                main.optimiseDirectory();
+            }
+        } finally {
+            if (main.pool != null) main.pool.shutdown();
+        }
+        main.printSummary(start);
+        if (main.report != null) main.report.write(Paths.get(main.reportFile));
+        return 0;
     }
 
     @Override
@@ -54,12 +188,218 @@ public class Main extends SimpleFileVisitor<Path> {
 
     @Override
     public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
-        String fname = file.toString();
-        if(fname.endsWith(".class") && !fname.endsWith("Main.class") && !fname.endsWith("ConstantFolder.class")){
-            ConstantFolder cf = new ConstantFolder(file.toString());
-            Path rel = Paths.get(inputRoot).relativize(file);
-            cf.write(Paths.get(outputRoot, rel.toString()).toAbsolutePath().toString());
+        if (isOptimisable(Paths.get(inputRoot).relativize(file))) {
+            classFiles.add(file);
         }
         return super.visitFile(file, attrs);
     }
+
+    /**
+     * Checks whether a file should be optimised. The optimiser's own classes are part of the build
+     * output as well, so they are skipped.
+     *
+     * @param rel path of the file relative to the input root (or its name inside the input jar)
+     * @return true if the file is a classfile to optimise
+     */
+    private boolean isOptimisable(Path rel) {
+        return rel.toString().endsWith(".class") && !rel.startsWith(OPTIMISER_PACKAGE);
+    }
+
+    /**
+     * @param rel path of a classfile relative to the input root (or its name inside the input jar)
+     * @return the name of the class it holds, if it is where the class loader looks for it
+     */
+    private static String className(Path rel) {
+        StringBuilder name = new StringBuilder();
+        for (Path element : rel) {
+            if (name.length() > 0) name.append('.');
+            name.append(element);
+        }
+        return name.substring(0, name.length() - ".class".length());
+    }
+
+    /**
+     * Optimises every classfile found by the walk and writes it to the matching path under the
+     * output root.
+     */
+    private void optimiseDirectory() throws IOException {
+        Map<String, Callable<byte[]>> inputs = new LinkedHashMap<>();
+        for (Path file : classFiles) {
+            inputs.put(file.toString(), () -> Files.readAllBytes(file));
+        }
+        prepare(inputs);
+        List<FutureTask<OptimisedClass>> results = new ArrayList<>();
+        for (Map.Entry<String, Callable<byte[]>> input : inputs.entrySet()) {
+            results.add(schedule(input.getValue(), input.getKey()));
+        }
+        for (int i = 0; i < classFiles.size(); i++) {
+            OptimisedClass result = await(results.get(i));
+            if (result.bytes != null) {
+                Path rel = Paths.get(inputRoot).relativize(classFiles.get(i));
+                Files.write(Paths.get(outputRoot, rel.toString()).toAbsolutePath(), result.bytes);
+            }
+        }
+    }
+
+    /**
+     * Optimises every classfile inside the input jar and streams the result into the output jar.
+     * Other entries are copied without being decompressed.
+     */
+    private void optimiseJar() throws IOException {
+        Path output = Paths.get(outputRoot).toAbsolutePath();
+        Files.createDirectories(output.getParent());
+        try (JarRewriter jar = new JarRewriter(Paths.get(inputRoot))) {
+            Map<String, Callable<byte[]>> inputs = new LinkedHashMap<>();
+            for (JarRewriter.Entry entry : jar.getEntries()) {
+                if (isOptimisable(Paths.get(entry.getName()))) {
+                    inputs.put(entry.getName(), () -> jar.read(entry));
+                }
+            }
+            prepare(inputs);
+            Map<JarRewriter.Entry, FutureTask<OptimisedClass>> results = new HashMap<>();
+            for (JarRewriter.Entry entry : jar.getEntries()) {
+                if (inputs.containsKey(entry.getName())) {
+                    results.put(entry, schedule(inputs.get(entry.getName()), entry.getName()));
+                }
+            }
+            jar.write(output, entry -> {
+                FutureTask<OptimisedClass> result = results.get(entry);
+                return (result != null) ? await(result).bytes : null;
+            });
+        }
+    }
+
+    /**
+     * Indexes the input classes by name for the constant static fields of other classes, which a
+     * class's passes may substitute for reads of them, and for the call graph that calls are inlined
+     * from. Nothing is parsed here: a class is only parsed once a class being optimised asks about
+     * it, so a pipeline that never asks, or a run that finds every class in the cache, costs nothing
+     * for the rest of the program. It then opens the cache.
+     *
+     * @param inputs reads the bytes of each classfile, by name
+     */
+    private void prepare(Map<String, Callable<byte[]>> inputs) throws IOException {
+        if (!passes.isEmpty()) {
+            Map<String, Callable<byte[]>> byClass = new HashMap<>();
+            for (Map.Entry<String, Callable<byte[]>> input : inputs.entrySet()) {
+                Path rel = inputRoot.endsWith(".jar") ? Paths.get(input.getKey()) : Paths.get(inputRoot).relativize(Paths.get(input.getKey()));
+                byClass.put(className(rel), input.getValue());
+            }
+            ClassIndex classes = ClassIndex.of(byClass);
+            staticConstants = StaticConstants.of(classes);
+            callGraph = CallGraph.of(classes, inlineSize);
+        }
+        if (cacheDir != null) {
+            // what a class learns about the others is checked entry by entry (see Dependencies)
+            String fingerprint = ConstantFolder.fingerprint(passes) + ";pure=" + pureCalls.fingerprint();
+            cache = new OptimisationCache(Paths.get(cacheDir), cacheSizeMb * 1024 * 1024, fingerprint, diagnostics);
+        }
+    }
+
+    /**
+     * Schedules the optimisation of one classfile. Classes are independent of each other, so with
+     * more than one thread they are handed to a work-stealing pool straight away; otherwise the
+     * class is optimised when its result is awaited.
+     *
+     * @param input reads the bytes of the classfile
+     * @param name name of the classfile, used in messages
+     * @return the pending result
+     */
+    private FutureTask<OptimisedClass> schedule(Callable<byte[]> input, String name) {
+        FutureTask<OptimisedClass> task = new FutureTask<>(() -> optimise(input, name));
+        if (pool != null) pool.execute(task);
+        return task;
+    }
+
+    /**
+     * Waits for a scheduled class and prints its output. Results are awaited in input order, so the
+     * console output and the written classfiles are the same whatever the number of threads.
+     *
+     * @param task a result returned by {@link #schedule}
+     * @return the optimised class
+     */
+    private OptimisedClass await(FutureTask<OptimisedClass> task) {
+        if (pool == null) task.run();
+        try {
+            OptimisedClass result = task.get();
+            if (!result.log.isEmpty()) out.print(result.log);
+            classCount++;
+            if (result.failed) failedCount++;
+            if (report != null) {
+                if (result.failed) report.addFailed();
+                else if (result.metrics == null) report.addCached();
+                else report.add(result.metrics);
+            }
+            return result;
+        } catch (InterruptedException | ExecutionException e) {
+            throw new IllegalStateException("Optimisation was interrupted", e);
+        }
+    }
+
+    /**
+     * Optimises a single classfile. When a cache is configured and already holds the optimised
+     * bytes, and what they depend on in the other classes is unchanged, they are returned directly
+     * without parsing the class. A class that cannot be optimised
+     * is passed through unchanged.
+     *
+     * @param input reads the bytes of the classfile
+     * @param name name of the classfile, used in messages
+     * @return the optimised class
+     */
+    private OptimisedClass optimise(Callable<byte[]> input, String name) {
+        // per-class output is buffered so that it is printed in input order whatever the thread count
+        boolean logged = diagnostics.isEnabled(Diagnostics.Level.METHOD);
+        ByteArrayOutputStream buffer = logged ? new ByteArrayOutputStream() : null;
+        byte[] original = null;
+        try (PrintStream out = logged ? new PrintStream(buffer) : null) {
+            original = input.call();
+            String key = (cache != null) ? cache.key(original) : null;
+            byte[] optimised = (cache != null) ? cache.get(key, answers -> Dependencies.holdIn(answers, staticConstants, callGraph)) : null;
+            OptimisationReport.ClassMetrics metrics = null;
+            if (optimised == null) {
+                Dependencies dependencies = (cache != null) ? new Dependencies() : null;
+                ConstantFolder cf = new ConstantFolder(original, name);
+                cf.setDiagnostics(logged ? diagnostics.to(out) : Diagnostics.OFF);
+                cf.setPasses(passes);
+                cf.setStaticConstants((dependencies != null) ? staticConstants.recordingTo(dependencies) : staticConstants);
+                cf.setCallGraph((dependencies != null) ? callGraph.recordingTo(dependencies) : callGraph);
+                cf.setPureCalls(pureCalls);
+                optimised = cf.getOptimizedBytes();
+                metrics = cf.getMetrics();
+                if (cache != null) cache.put(key, optimised, dependencies.getAnswers());
+            }
+            return new OptimisedClass(optimised, logged ? buffer.toString() : "", false, metrics);
+        } catch (Exception e) {
+            err.println("Failed to optimise " + name + ": " + e);
+            return new OptimisedClass(original, logged ? buffer.toString() : "", true, null);
+        }
+    }
+
+    private void printSummary(long start) {
+        if (!diagnostics.isEnabled(Diagnostics.Level.SUMMARY)) return;
+        long elapsed = (System.nanoTime() - start) / 1_000_000;
+        out.println("Optimised " + (classCount - failedCount) + " of " + classCount
+                + " classes in " + elapsed + " ms using " + threads + (threads == 1 ? " thread" : " threads")
+                + (failedCount > 0 ? " (" + failedCount + " failed and copied unchanged)" : ""));
+        if (cache != null) out.println(cache.summary());
+    }
+
+    /**
+     * The outcome of optimising one classfile.
+     */
+    private static class OptimisedClass {
+        /** The bytes to write, or null if the classfile could not even be read. */
+        final byte[] bytes;
+        final String log;
+        final boolean failed;
+        /** What the passes did, or null if the class was not optimised in this run. */
+        final OptimisationReport.ClassMetrics metrics;
+
+        OptimisedClass(byte[] bytes, String log, boolean failed, OptimisationReport.ClassMetrics metrics) {
+            this.bytes = bytes;
+            this.log = log;
+            this.failed = failed;
+            this.metrics = metrics;
+        }
+    }
 }
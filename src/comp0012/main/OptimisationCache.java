@@ -0,0 +1,257 @@
+package comp0012.main;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+/**
+ * Persistent, content-addressed cache of optimised class files.
+ * Entries are keyed by a hash of the input class bytes together with the enabled passes, so a class
+ * is only re-optimised when either of them changes. Each entry also holds what the class's
+ * optimisation learnt about the other classes of the program (see {@link Dependencies}), and is only
+ * used while the caller finds that to be still true. The cache directory is bounded in size: the
+ * least recently used entries (by modification time, which is refreshed on every hit) are evicted
+ * once the limit is exceeded, down to {@link #LOW_WATER} of it so that eviction is rare. The order of
+ * use is kept in memory, read from the directory once when the cache is opened. All methods are safe
+ * to call from several threads at once.
+ */
+public class OptimisationCache {
+    private static final String SUFFIX = ".class";
+    /** The layout of the entries, part of every key: the dependencies, then the class file. */
+    private static final String FORMAT = "2";
+    /** The fraction of the size limit that eviction brings the cache down to. */
+    static final double LOW_WATER = 0.9;
+
+    private final Path directory;
+    private final long maxBytes;
+    private final String passes;
+    private final Diagnostics diagnostics;
+    /** The size of every entry by key, least recently used first; guarded by this. */
+    private final LinkedHashMap<String, Long> index = new LinkedHashMap<>(16, 0.75f, true);
+    private long currentBytes;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Opens (and if necessary creates) a cache directory.
+     *
+     * @param directory the directory holding the cached class files
+     * @param maxBytes the total size the cached files may take before the oldest are evicted
+     * @param passes description of the enabled passes and their version, part of every key
+     * @param diagnostics where entries that cannot be written are reported, at the summary level
+     * @throws IOException if the directory cannot be created or read
+     */
+    public OptimisationCache(Path directory, long maxBytes, String passes, Diagnostics diagnostics) throws IOException {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        this.passes = passes;
+        this.diagnostics = diagnostics;
+        Files.createDirectories(directory);
+        Map<Path, FileTime> lastUsed = new HashMap<>();
+        for (Path entry : entries()) {
+            lastUsed.put(entry, lastUsed(entry));
+        }
+        List<Path> oldestFirst = new ArrayList<>(lastUsed.keySet());
+        oldestFirst.sort(Comparator.comparing(lastUsed::get));
+        for (Path entry : oldestFirst) {
+            long size = Files.size(entry);
+            index.put(keyOf(entry), size);
+            currentBytes += size;
+        }
+    }
+
+    /**
+     * Computes the cache key of a class file.
+     *
+     * @param classBytes the contents of the input class file
+     * @return hex encoded SHA-256 of the class bytes and the enabled passes
+     */
+    public String key(byte[] classBytes) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update((FORMAT + ";" + passes).getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(classBytes);
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digest.digest()) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    /**
+     * Looks up the optimised bytes stored under a key and marks the entry as recently used.
+     *
+     * @param key a key computed by {@link #key}
+     * @param valid checks that the dependencies stored with the entry still hold
+     * @return the cached optimised class file, or null on a miss
+     */
+    public byte[] get(String key, Predicate<Map<String, String>> valid) {
+        Path entry = directory.resolve(key + SUFFIX);
+        try {
+            byte[] bytes = Files.readAllBytes(entry);
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+            Map<String, String> dependencies = new HashMap<>();
+            for (int i = in.readInt(); i > 0; i--) {
+                dependencies.put(in.readUTF(), in.readUTF());
+            }
+            if (!valid.test(dependencies)) {
+                // left to be overwritten by the put that follows
+                misses.incrementAndGet();
+                return null;
+            }
+            // the time orders the entries for the next run, the index for this one
+            Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+            synchronized (this) {
+                // another process sharing the directory may have written it
+                if (index.get(key) == null) {
+                    index.put(key, (long) bytes.length);
+                    currentBytes += bytes.length;
+                }
+            }
+            hits.incrementAndGet();
+            return Arrays.copyOfRange(bytes, bytes.length - in.available(), bytes.length);
+        } catch (IOException e) {
+            // a missing or unreadable entry is a miss, and is overwritten by the next put
+            synchronized (this) {
+                Long size = index.remove(key);
+                if (size != null) currentBytes -= size;
+            }
+            misses.incrementAndGet();
+            return null;
+        }
+    }
+
+    /**
+     * Stores the optimised bytes of a class, evicting the least recently used entries if the cache
+     * grows beyond its size limit. Failing to write the cache never fails the optimisation: it is
+     * reported, and the partly written file is deleted.
+     *
+     * @param key a key computed by {@link #key}
+     * @param optimisedBytes the optimised class file
+     * @param dependencies what the optimisation learnt about the other classes, by question
+     */
+    public void put(String key, byte[] optimisedBytes, Map<String, String> dependencies) {
+        Path entry = directory.resolve(key + SUFFIX);
+        try {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(buffer);
+            out.writeInt(dependencies.size());
+            for (Map.Entry<String, String> dependency : dependencies.entrySet()) {
+                out.writeUTF(dependency.getKey());
+                out.writeUTF(dependency.getValue());
+            }
+            out.write(optimisedBytes);
+            byte[] bytes = buffer.toByteArray();
+            // write to a temporary file first so concurrent readers never see a partial entry
+            Path temp = Files.createTempFile(directory, key, ".tmp");
+            try {
+                Files.write(temp, bytes);
+                Files.move(temp, entry, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                try {
+                    Files.deleteIfExists(temp);
+                } catch (IOException suppressed) {
+                    e.addSuppressed(suppressed);
+                }
+                throw e;
+            }
+            List<String> evicted;
+            synchronized (this) {
+                Long previous = index.put(key, (long) bytes.length);
+                currentBytes += bytes.length - ((previous != null) ? previous : 0);
+                evicted = (currentBytes > maxBytes) ? evict() : null;
+            }
+            // the files are deleted outside the lock, so other threads keep reading and writing
+            if (evicted != null) {
+                for (String victim : evicted) {
+                    Files.deleteIfExists(directory.resolve(victim + SUFFIX));
+                }
+            }
+        } catch (IOException e) {
+            diagnostics.report(Diagnostics.Level.SUMMARY, "Could not write cache entry " + entry + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Removes the least recently used entries from the index until the cache is within
+     * {@link #LOW_WATER} of its size limit.
+     *
+     * @return the keys of the entries removed, whose files are to be deleted
+     */
+    private List<String> evict() {
+        long target = (long) (maxBytes * LOW_WATER);
+        List<String> evicted = new ArrayList<>();
+        for (Iterator<Map.Entry<String, Long>> it = index.entrySet().iterator(); it.hasNext() && currentBytes > target;) {
+            Map.Entry<String, Long> oldest = it.next();
+            currentBytes -= oldest.getValue();
+            evicted.add(oldest.getKey());
+            it.remove();
+        }
+        evictions.addAndGet(evicted.size());
+        return evicted;
+    }
+
+    private List<Path> entries() throws IOException {
+        List<Path> entries = new ArrayList<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            files.filter(p -> p.toString().endsWith(SUFFIX)).forEach(entries::add);
+        }
+        return entries;
+    }
+
+    private static String keyOf(Path entry) {
+        String name = entry.getFileName().toString();
+        return name.substring(0, name.length() - SUFFIX.length());
+    }
+
+    private static FileTime lastUsed(Path entry) {
+        try {
+            return Files.getLastModifiedTime(entry);
+        } catch (IOException e) {
+            return FileTime.fromMillis(0);
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    /**
+     * @return one line summarising the cache counters, for the end of a run
+     */
+    public String summary() {
+        return "Cache: " + getHits() + " hits, " + getMisses() + " misses, " + getEvictions() + " evictions";
+    }
+}
@@ -0,0 +1,74 @@
+package comp0012.main;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A pass of the peephole fixpoint run over every method by {@link ConstantFolder}. Passes run in the
+ * order of the pipeline, round after round, until a round makes no change; a pass is only re-run
+ * once another pass has made one of the kinds of change it declares in {@link #getTriggers}.
+ *
+ * The built-in passes are listed in {@link PassRegistry}. Other passes are found with
+ * {@link java.util.ServiceLoader}: a jar on the classpath lists its implementations in
+ * META-INF/services/comp0012.main.OptimisationPass, and each needs a public no-argument constructor.
+ * Implementations must be stateless, as one instance is shared by every class optimised in parallel.
+ */
+public interface OptimisationPass {
+    /** A constant push was inserted. */
+    int CONSTANTS = 1;
+    /** A load, store or iinc was inserted, deleted or renumbered. */
+    int LOCALS = 1 << 1;
+    /** A branch, or an instruction targeted by one, was inserted or deleted, so control flow has changed. */
+    int CONTROL = 1 << 2;
+    /** An instruction was deleted, so instructions that were apart may now be adjacent. */
+    int REMOVED = 1 << 3;
+    /** A field access or method call was inserted. */
+    int MEMBERS = 1 << 4;
+    /** Every kind of change. */
+    int ALL = CONSTANTS | LOCALS | CONTROL | REMOVED | MEMBERS;
+
+    /**
+     * @return the name the pass is selected by with -passes and reported under, unique among all passes
+     */
+    String getName();
+
+    /**
+     * @return the kinds of change made by other passes that can give this pass new work; a pass with
+     *         none only runs once
+     */
+    default int getTriggers() {
+        return ALL;
+    }
+
+    /**
+     * @return the names of the passes that must run before this one whenever it is run; they are
+     *         added to the pipeline if they were not selected
+     */
+    default List<String> getDependencies() {
+        return Collections.emptyList();
+    }
+
+    /**
+     * @return the lowest -O level the pass is run at when no passes are selected by name
+     */
+    default int getLevel() {
+        return PassRegistry.MAX_LEVEL;
+    }
+
+    /**
+     * @return the version of the pass's implementation, which must change whenever the code it
+     *         produces does, as cached output is keyed on it
+     */
+    default String getVersion() {
+        return "1";
+    }
+
+    /**
+     * Runs the pass once over a method. Instructions must be inserted and deleted through the context,
+     * so that the other passes are told about the change.
+     *
+     * @param context the method and the instructions changed since the pass last ran
+     * @return true if the pass modified the method
+     */
+    boolean run(PassContext context);
+}
@@ -0,0 +1,294 @@
+package comp0012.main;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * What the optimiser did and what it cost: for every pass, how often it ran, how long it took and how
+ * many instructions it added and removed, broken down by method and class and totalled for the run.
+ * Written by Main with -report, as JSON or, for a file ending in .csv, one CSV row per pass of every
+ * method.
+ */
+public class OptimisationReport {
+    private final List<ClassMetrics> classes = new ArrayList<>();
+    private int cachedClasses;
+    private int failedClasses;
+
+    /**
+     * Adds the metrics of an optimised class. Classes are reported in the order they are added.
+     */
+    public synchronized void add(ClassMetrics metrics) {
+        classes.add(metrics);
+    }
+
+    /**
+     * Counts a class whose optimised bytes came from the cache, so it was not optimised in this run.
+     */
+    public synchronized void addCached() {
+        cachedClasses++;
+    }
+
+    /**
+     * Counts a class that could not be optimised.
+     */
+    public synchronized void addFailed() {
+        failedClasses++;
+    }
+
+    /**
+     * @return the metrics of every class, in the order they were added
+     */
+    public List<ClassMetrics> getClasses() {
+        return Collections.unmodifiableList(classes);
+    }
+
+    /**
+     * @return the totals of every pass over the whole run, by pass name in the order the passes run
+     */
+    public Map<String, PassMetrics> getPassTotals() {
+        Map<String, PassMetrics> totals = new LinkedHashMap<>();
+        for (ClassMetrics metrics : classes) PassMetrics.addAll(totals, metrics.getPassTotals().values());
+        return totals;
+    }
+
+    /**
+     * Writes the report to a file, as CSV if its name ends in .csv and as JSON otherwise.
+     *
+     * @param file the file to write
+     */
+    public void write(Path file) throws IOException {
+        try (Writer writer = Files.newBufferedWriter(file); PrintWriter out = new PrintWriter(writer)) {
+            if (file.getFileName().toString().endsWith(".csv")) writeCsv(out);
+            else writeJson(out);
+        }
+    }
+
+    /**
+     * Writes one row for every pass of every method, with the totals of the method repeated on each.
+     */
+    void writeCsv(PrintWriter out) {
+        out.println("class,method,instructionsBefore,instructionsAfter,iterations,methodMs,"
+                + "pass,invocations,changed,passMs,added,removed");
+        for (ClassMetrics c : classes) {
+            for (MethodMetrics m : c.methods) {
+                for (PassMetrics p : m.passes) {
+                    out.println(csv(c.name) + "," + csv(m.name) + "," + m.instructionsBefore + "," + m.instructionsAfter
+                            + "," + m.iterations + "," + millis(m.nanos) + "," + p.name + "," + p.invocations
+                            + "," + p.changed + "," + millis(p.nanos) + "," + p.added + "," + p.removed);
+                }
+            }
+        }
+    }
+
+    void writeJson(PrintWriter out) {
+        long nanos = 0;
+        for (ClassMetrics c : classes) nanos += c.getNanos();
+        out.println("{");
+        out.println("  \"classes\": " + classes.size() + ",");
+        out.println("  \"cachedClasses\": " + cachedClasses + ",");
+        out.println("  \"failedClasses\": " + failedClasses + ",");
+        out.println("  \"ms\": " + millis(nanos) + ",");
+        out.println("  \"passes\": " + json(getPassTotals().values()) + ",");
+        out.println("  \"classMetrics\": [");
+        for (int i = 0; i < classes.size(); i++) {
+            ClassMetrics c = classes.get(i);
+            out.println("    {\"name\": " + quote(c.name) + ", \"ms\": " + millis(c.getNanos())
+                    + ", \"passes\": " + json(c.getPassTotals().values()) + ", \"methods\": [");
+            for (int j = 0; j < c.methods.size(); j++) {
+                MethodMetrics m = c.methods.get(j);
+                out.println("      {\"name\": " + quote(m.name) + ", \"instructionsBefore\": " + m.instructionsBefore
+                        + ", \"instructionsAfter\": " + m.instructionsAfter + ", \"iterations\": " + m.iterations
+                        + ", \"ms\": " + millis(m.nanos) + ", \"passes\": " + json(m.passes) + "}"
+                        + (j < c.methods.size() - 1 ? "," : ""));
+            }
+            out.println("    ]}" + (i < classes.size() - 1 ? "," : ""));
+        }
+        out.println("  ]");
+        out.println("}");
+    }
+
+    private static String json(Iterable<PassMetrics> passes) {
+        StringBuilder json = new StringBuilder("[");
+        for (PassMetrics p : passes) {
+            if (json.length() > 1) json.append(", ");
+            json.append("{\"name\": ").append(quote(p.name))
+                    .append(", \"invocations\": ").append(p.invocations)
+                    .append(", \"changed\": ").append(p.changed)
+                    .append(", \"ms\": ").append(millis(p.nanos))
+                    .append(", \"added\": ").append(p.added)
+                    .append(", \"removed\": ").append(p.removed).append("}");
+        }
+        return json.append("]").toString();
+    }
+
+    private static String quote(String s) {
+        return "\"" + s.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+
+    private static String csv(String s) {
+        return (s.contains(",") || s.contains("\"")) ? "\"" + s.replace("\"", "\"\"") + "\"" : s;
+    }
+
+    private static String millis(long nanos) {
+        return String.format(Locale.ROOT, "%.3f", nanos / 1e6);
+    }
+
+    /**
+     * The metrics of one class.
+     */
+    public static class ClassMetrics {
+        final String name;
+        final List<MethodMetrics> methods = new ArrayList<>();
+
+        public ClassMetrics(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Starts the metrics of a method, which the caller fills in while optimising it.
+         *
+         * @param name the name and signature of the method
+         * @param instructionsBefore the size of the method before optimisation
+         * @param passes the names of the passes, in the order they run
+         */
+        MethodMetrics addMethod(String name, int instructionsBefore, String... passes) {
+            MethodMetrics metrics = new MethodMetrics(name, instructionsBefore, passes);
+            methods.add(metrics);
+            return metrics;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public List<MethodMetrics> getMethods() {
+            return Collections.unmodifiableList(methods);
+        }
+
+        /**
+         * @return the time spent optimising the methods of the class
+         */
+        public long getNanos() {
+            long nanos = 0;
+            for (MethodMetrics m : methods) nanos += m.nanos;
+            return nanos;
+        }
+
+        /**
+         * @return the totals of every pass over the methods of the class
+         */
+        public Map<String, PassMetrics> getPassTotals() {
+            Map<String, PassMetrics> totals = new LinkedHashMap<>();
+            for (MethodMetrics m : methods) PassMetrics.addAll(totals, m.passes);
+            return totals;
+        }
+    }
+
+    /**
+     * The metrics of one method.
+     */
+    public static class MethodMetrics {
+        final String name;
+        final int instructionsBefore;
+        int instructionsAfter;
+        int iterations;
+        long nanos;
+        final List<PassMetrics> passes = new ArrayList<>();
+
+        MethodMetrics(String name, int instructionsBefore, String... passes) {
+            this.name = name;
+            this.instructionsBefore = instructionsBefore;
+            for (String pass : passes) this.passes.add(new PassMetrics(pass));
+        }
+
+        /**
+         * @param pass index of a pass
+         * @return the metrics of the pass
+         */
+        PassMetrics getPass(int pass) {
+            return passes.get(pass);
+        }
+
+        /**
+         * Records the outcome of the fixpoint.
+         */
+        void finish(int instructionsAfter, int iterations, long nanos) {
+            this.instructionsAfter = instructionsAfter;
+            this.iterations = iterations;
+            this.nanos = nanos;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public List<PassMetrics> getPasses() {
+            return Collections.unmodifiableList(passes);
+        }
+    }
+
+    /**
+     * The work done by one pass, over one method or summed over several.
+     */
+    public static class PassMetrics {
+        final String name;
+        int invocations;
+        int changed;
+        long nanos;
+        int added;
+        int removed;
+
+        PassMetrics(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Records one run of the pass.
+         *
+         * @param nanos how long it took
+         * @param changed whether it reported a modification
+         * @param added how many instructions it inserted
+         * @param removed how many instructions it deleted
+         */
+        void record(long nanos, boolean changed, int added, int removed) {
+            this.invocations++;
+            if (changed) this.changed++;
+            this.nanos += nanos;
+            this.added += added;
+            this.removed += removed;
+        }
+
+        private void add(PassMetrics other) {
+            invocations += other.invocations;
+            changed += other.changed;
+            nanos += other.nanos;
+            added += other.added;
+            removed += other.removed;
+        }
+
+        private static void addAll(Map<String, PassMetrics> totals, Iterable<PassMetrics> passes) {
+            for (PassMetrics p : passes) totals.computeIfAbsent(p.name, PassMetrics::new).add(p);
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getInvocations() {
+            return invocations;
+        }
+
+        public long getNanos() {
+            return nanos;
+        }
+    }
+}
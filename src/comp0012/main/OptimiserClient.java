@@ -0,0 +1,213 @@
+package comp0012.main;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.SocketChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Thin client of {@link OptimiserDaemon}: takes the same options as Main, has the daemon run them,
+ * and prints its output and exits with its status as Main would have. If no daemon is listening, or
+ * the one listening runs older optimiser code, it starts one from its own classpath and waits for it.
+ * Clients start daemons in turn (see {@link OptimiserDaemon#openLock}), so that clients run together
+ * share the one the first of them starts.
+ *
+ * <pre>java -cp ... comp0012.main.OptimiserClient [-socket path] [-idleTimeout s] -in classes -out optimised</pre>
+ *
+ * -stop stops the daemon instead. The default socket is in a directory of the temporary directory
+ * that only the user can use; a socket given with -socket must be in such a directory too. The daemon logs to the socket's path followed by ".log".
+ */
+public final class OptimiserClient {
+    /** How long to wait for a daemon that has just been started, in milliseconds. */
+    private static final long START_TIMEOUT = 30_000;
+
+    /** The options of Main that name files, which the daemon resolves against its own directory. */
+    private static final List<String> PATH_OPTIONS = Arrays.asList("-in", "-out", "-cache", "-report", "-pureCalls");
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        Path socket = null;
+        long idleTimeout = OptimiserDaemon.DEFAULT_IDLE_TIMEOUT;
+        String command = OptimiserDaemon.RUN;
+        List<String> forwarded = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            boolean hasValue = i + 1 < args.length;
+            if (args[i].equals("-socket") && hasValue) {
+                socket = Paths.get(args[++i]);
+            } else if (args[i].equals("-idleTimeout") && hasValue) {
+                idleTimeout = Long.parseLong(args[++i]);
+            } else if (args[i].equals("-stop")) {
+                command = OptimiserDaemon.STOP;
+            } else if (PATH_OPTIONS.contains(args[i]) && hasValue) {
+                forwarded.add(args[i]);
+                forwarded.add(Paths.get(args[++i]).toAbsolutePath().toString());
+            } else {
+                forwarded.add(args[i]);
+            }
+        }
+        try {
+            if (socket == null) {
+                socket = defaultSocket();
+            } else {
+                // the daemon refuses a socket others could reach, and so should its clients
+                socket = socket.toAbsolutePath();
+                OptimiserDaemon.checkPrivate(socket.getParent());
+            }
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+        }
+
+        long stamp = OptimiserDaemon.codeStamp();
+        Integer status = send(socket, stamp, command, forwarded);
+        if (status == null && command.equals(OptimiserDaemon.STOP)) {
+            System.out.println("No daemon is listening on " + socket);
+            return;
+        }
+        if (status == null) {
+            try (FileChannel lockFile = OptimiserDaemon.openLock(socket)) {
+                FileLock starting = lockFile.lock(OptimiserDaemon.STARTING, 1, false);
+                try {
+                    // another client may have started one while this one waited for its turn
+                    status = send(socket, stamp, command, forwarded);
+                    boolean started = false;
+                    long deadline = System.currentTimeMillis() + START_TIMEOUT;
+                    while (status == null && System.currentTimeMillis() < deadline) {
+                        // a daemon that is stopping owns the socket until it has deleted it
+                        if (!started && isFree(lockFile, OptimiserDaemon.SERVING)) {
+                            startDaemon(socket, idleTimeout);
+                            started = true;
+                        }
+                        Thread.sleep(50);
+                        status = send(socket, stamp, command, forwarded);
+                    }
+                } finally {
+                    starting.release();
+                }
+            }
+            if (status == null) {
+                System.err.println("The daemon did not start; see " + socket + ".log");
+                System.exit(1);
+            }
+        }
+        if (status != 0) System.exit(status);
+    }
+
+    /**
+     * Sends a request to the daemon and copies its reply to standard output and error.
+     *
+     * @return the exit status of the request, or null if no daemon running the same code answered
+     */
+    private static Integer send(Path socket, long stamp, String command, List<String> args) throws IOException {
+        SocketChannel channel;
+        try {
+            channel = SocketChannel.open(StandardProtocolFamily.UNIX);
+            channel.connect(UnixDomainSocketAddress.of(socket));
+        } catch (IOException e) {
+            return null;
+        }
+        try (SocketChannel c = channel;
+             DataOutputStream out = new DataOutputStream(Channels.newOutputStream(c));
+             DataInputStream in = new DataInputStream(Channels.newInputStream(c))) {
+            out.writeLong(stamp);
+            out.writeUTF(command);
+            out.writeInt(args.size());
+            for (String arg : args) out.writeUTF(arg);
+            out.flush();
+
+            while (true) {
+                int tag = in.readByte();
+                if (tag == OptimiserDaemon.EXIT) return in.readInt();
+                if (tag == OptimiserDaemon.STALE) {
+                    // it stops once it has answered, so wait for it to go
+                    waitForStop(socket);
+                    return null;
+                }
+                byte[] chunk = new byte[in.readInt()];
+                in.readFully(chunk);
+                PrintStream target = (tag == OptimiserDaemon.ERR) ? System.err : System.out;
+                target.write(chunk);
+                target.flush();
+            }
+        } catch (EOFException e) {
+            // the daemon stopped between accepting the request and running it
+            return null;
+        }
+    }
+
+    private static void waitForStop(Path socket) {
+        long deadline = System.currentTimeMillis() + START_TIMEOUT;
+        while (socket.toFile().exists() && System.currentTimeMillis() < deadline) {
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return true if no daemon holds the byte of the lock file
+     */
+    private static boolean isFree(FileChannel lockFile, long position) throws IOException {
+        try (FileLock lock = lockFile.tryLock(position, 1, false)) {
+            return lock != null;
+        }
+    }
+
+    /**
+     * Starts a daemon in the background, on the same JVM and classpath as this client, which
+     * outlives it.
+     */
+    private static void startDaemon(Path socket, long idleTimeout) throws IOException {
+        String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        ProcessBuilder builder = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                OptimiserDaemon.class.getName(), "-socket", socket.toString(), "-idleTimeout", Long.toString(idleTimeout));
+        File log = new File(socket + ".log");
+        builder.redirectErrorStream(true);
+        builder.redirectOutput(ProcessBuilder.Redirect.appendTo(log));
+        builder.redirectInput(ProcessBuilder.Redirect.from(new File(File.separatorChar == '/' ? "/dev/null" : "NUL")));
+        builder.start();
+    }
+
+    /**
+     * Creates, the first time, a directory of the temporary directory for the user's daemon, which no
+     * other user can open, so that they can neither connect to the daemon nor put a socket in its way.
+     *
+     * @return the socket in that directory
+     * @throws IOException if the directory cannot be created, or it is not private (see
+     *         {@link OptimiserDaemon#checkPrivate})
+     */
+    private static Path defaultSocket() throws IOException {
+        String user = System.getProperty("user.name");
+        Path directory = Paths.get(System.getProperty("java.io.tmpdir"), "comp0012-optimiser-" + user);
+        boolean posix = FileSystems.getDefault().supportedFileAttributeViews().contains("posix");
+        Set<PosixFilePermission> ownerOnly = PosixFilePermissions.fromString("rwx------");
+        try {
+            if (posix) Files.createDirectory(directory, PosixFilePermissions.asFileAttribute(ownerOnly));
+            else Files.createDirectory(directory);
+        } catch (FileAlreadyExistsException e) {
+            // created by an earlier run, or by another user, which is checked below
+        }
+        OptimiserDaemon.checkPrivate(directory);
+        return directory.resolve("optimiser.sock").toAbsolutePath();
+    }
+}
@@ -0,0 +1,335 @@
+package comp0012.main;
+
+import org.kohsuke.args4j.CmdLineException;
+import org.kohsuke.args4j.CmdLineParser;
+import org.kohsuke.args4j.Option;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.ConnectException;
+import java.net.StandardProtocolFamily;
+import java.net.URISyntaxException;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * A long-lived optimiser that runs the command lines {@link OptimiserClient} sends it over a Unix
+ * domain socket, so that a build pays for starting a JVM, loading BCEL and warming up the JIT once
+ * rather than on every run. Each request runs {@link Main} in this JVM, with its output sent back to
+ * the client; requests from several clients run at the same time.
+ *
+ * The daemon stops after it has been idle for -idleTimeout seconds, when a client asks it to, or when
+ * a client finds it is running older optimiser code than its own, so a rebuilt optimiser is never
+ * served by a stale daemon.
+ *
+ * A daemon locks the {@link #SERVING} byte of the socket's lock file (see {@link #openLock}) before it
+ * looks at the socket and until it has deleted it, so only one daemon at a time owns a socket path,
+ * and one that finds it taken exits at once. A socket file left behind is only deleted once a
+ * connection to it has been refused. The socket can only be used by the user running the daemon, and
+ * must be in a directory only that user can open (see {@link #checkPrivate}).
+ *
+ * A request is the client's code stamp, a command and its arguments. The reply is a sequence of
+ * chunks of output, each a stream tag, a length and the bytes, ended by {@link #EXIT} and the exit
+ * status, or a single {@link #STALE} if the stamps differ.
+ */
+public final class OptimiserDaemon {
+
+    @Option(name="-socket", required=true, usage="Path of the Unix domain socket to listen on")
+    private String socketPath;
+
+    @Option(name="-idleTimeout", usage="Seconds without a request after which the daemon stops (default 1800)")
+    private long idleTimeoutSeconds = DEFAULT_IDLE_TIMEOUT;
+
+    /** The default of -idleTimeout, in seconds. */
+    static final long DEFAULT_IDLE_TIMEOUT = 1800;
+
+    /** Runs the optimiser on the arguments. */
+    static final String RUN = "run";
+    /** Stops the daemon once the requests running have finished. */
+    static final String STOP = "stop";
+
+    /** Ends a reply, followed by the exit status. */
+    static final int EXIT = 0;
+    /** Tags a chunk of standard output. */
+    static final int OUT = 1;
+    /** Tags a chunk of standard error. */
+    static final int ERR = 2;
+    /** The whole reply when the client's code differs from the daemon's. */
+    static final int STALE = 3;
+
+    /** The byte of the lock file a daemon holds while it owns the socket. */
+    static final long SERVING = 0;
+    /** The byte of the lock file a client holds while it starts a daemon and waits for it. */
+    static final long STARTING = 1;
+
+    private final long stamp = codeStamp();
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicLong lastRequest = new AtomicLong(System.nanoTime());
+    private ServerSocketChannel server;
+
+    public static void main(String[] args) throws IOException {
+        OptimiserDaemon daemon = new OptimiserDaemon();
+        CmdLineParser parser = new CmdLineParser(daemon);
+        try {
+            parser.parseArgument(args);
+            if (daemon.idleTimeoutSeconds < 1) throw new CmdLineException(parser, "-idleTimeout must be at least 1");
+        } catch (CmdLineException e) {
+            System.err.println(e.getMessage());
+            parser.printUsage(System.err);
+            System.exit(-1);
+        }
+        try {
+            daemon.serve();
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Accepts connections until the daemon is stopped, handling each on its own thread.
+     */
+    private void serve() throws IOException {
+        Path socket = Paths.get(socketPath).toAbsolutePath();
+        // no other user may connect in the moment between binding the socket and restricting it
+        checkPrivate(socket.getParent());
+        try (FileChannel lockFile = openLock(socket);
+             FileLock serving = lockFile.tryLock(SERVING, 1, false)) {
+            if (serving == null) {
+                System.out.println("Another daemon owns " + socket.toAbsolutePath());
+                return;
+            }
+            if (Files.exists(socket, LinkOption.NOFOLLOW_LINKS)) {
+                try (SocketChannel probe = SocketChannel.open(StandardProtocolFamily.UNIX)) {
+                    probe.connect(UnixDomainSocketAddress.of(socket));
+                    System.out.println("A daemon is already listening on " + socket.toAbsolutePath());
+                    return;
+                } catch (ConnectException e) {
+                    // left by a daemon that did not stop cleanly
+                    Files.delete(socket);
+                }
+            }
+            server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+            server.bind(UnixDomainSocketAddress.of(socket));
+            if (Files.getFileStore(socket).supportsFileAttributeView(PosixFileAttributeView.class)) {
+                Files.setPosixFilePermissions(socket, PosixFilePermissions.fromString("rw-------"));
+            }
+            System.out.println("Listening on " + socket.toAbsolutePath());
+
+            Thread watchdog = new Thread(this::stopWhenIdle, "optimiser-daemon-idle");
+            watchdog.setDaemon(true);
+            watchdog.start();
+            try {
+                while (true) {
+                    SocketChannel client = server.accept();
+                    Thread handler = new Thread(() -> handle(client), "optimiser-daemon-request");
+                    handler.setDaemon(true);
+                    handler.start();
+                }
+            } catch (AsynchronousCloseException e) {
+                // stopped
+            } finally {
+                Files.deleteIfExists(socket);
+            }
+        }
+        // requests already accepted run to the end, while the next daemon may already start
+        while (running.get() > 0) {
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                break;
+            }
+        }
+        System.out.println("Stopped");
+    }
+
+    /**
+     * Opens the file that daemons and clients lock to take turns with a socket path: a daemon locks
+     * its {@link #SERVING} byte while it owns the socket, and a client its {@link #STARTING} byte
+     * while it starts a daemon, so that clients started together start only one.
+     *
+     * @param socket the path of the socket
+     * @return the lock file, the socket's path followed by ".lock"
+     */
+    static FileChannel openLock(Path socket) throws IOException {
+        return FileChannel.open(Paths.get(socket + ".lock"), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+    }
+
+    /**
+     * Checks that no other user can open a directory, so that they can neither connect to a socket in
+     * it nor put a socket or lock file of their own in its place. Nothing is checked on file systems
+     * without POSIX permissions.
+     *
+     * @param directory the directory of a socket
+     * @throws IOException if the directory cannot be read, is not a directory, belongs to someone else,
+     *         or grants any permission to its group or to others
+     */
+    static void checkPrivate(Path directory) throws IOException {
+        if (!FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) return;
+        String user = System.getProperty("user.name");
+        PosixFileAttributes attributes = Files.readAttributes(directory, PosixFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        boolean ownerOnly = attributes.permissions().stream().allMatch(permission -> permission.name().startsWith("OWNER_"));
+        if (!attributes.isDirectory() || !attributes.owner().getName().equals(user) || !ownerOnly) {
+            throw new IOException(directory + " must be a directory owned by " + user + " that no one else can open (rwx------)");
+        }
+    }
+
+    private void stopWhenIdle() {
+        long timeout = idleTimeoutSeconds * 1_000_000_000L;
+        while (server.isOpen()) {
+            long idle = System.nanoTime() - lastRequest.get();
+            if (running.get() == 0 && idle >= timeout) {
+                System.out.println("Idle for " + idleTimeoutSeconds + " s");
+                stop();
+                return;
+            }
+            try {
+                Thread.sleep(Math.max(1, Math.min(timeout - idle, 1_000_000_000L) / 1_000_000));
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private void stop() {
+        try {
+            server.close();
+        } catch (IOException e) {
+            System.err.println("Could not close " + socketPath + ": " + e);
+        }
+    }
+
+    private void handle(SocketChannel client) {
+        running.incrementAndGet();
+        try (SocketChannel channel = client;
+             DataInputStream in = new DataInputStream(Channels.newInputStream(channel));
+             DataOutputStream out = new DataOutputStream(Channels.newOutputStream(channel))) {
+            long clientStamp = in.readLong();
+            String command = in.readUTF();
+            String[] args = new String[in.readInt()];
+            for (int i = 0; i < args.length; i++) args[i] = in.readUTF();
+
+            if (clientStamp != stamp) {
+                System.out.println("A client runs newer optimiser code; stopping");
+                out.writeByte(STALE);
+                out.flush();
+                stop();
+                return;
+            }
+            int status = 0;
+            if (command.equals(STOP)) {
+                System.out.println("Stopped by a client");
+                stop();
+            } else {
+                try (PrintStream stdout = new PrintStream(new ChunkStream(out, OUT), true, StandardCharsets.UTF_8);
+                     PrintStream stderr = new PrintStream(new ChunkStream(out, ERR), true, StandardCharsets.UTF_8)) {
+                    try {
+                        status = Main.run(args, stdout, stderr);
+                    } catch (Exception e) {
+                        stderr.println("Optimisation failed: " + e);
+                        status = 1;
+                    }
+                }
+            }
+            synchronized (out) {
+                out.writeByte(EXIT);
+                out.writeInt(status);
+                out.flush();
+            }
+        } catch (IOException e) {
+            System.err.println("Lost a client: " + e);
+        } finally {
+            lastRequest.set(System.nanoTime());
+            running.decrementAndGet();
+        }
+    }
+
+    /**
+     * Identifies the build of the optimiser classes on the classpath, by the last time any of them
+     * changed, so that the daemon and a client can tell whether they run the same code.
+     *
+     * @return the stamp, the same in every JVM with the same optimiser classes
+     */
+    static long codeStamp() {
+        try {
+            Path location = Paths.get(OptimiserDaemon.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+            if (!Files.isDirectory(location)) return Files.getLastModifiedTime(location).toMillis();
+            try (Stream<Path> files = Files.walk(location.resolve(Paths.get("comp0012", "main")))) {
+                return files.map(file -> {
+                    try {
+                        return Files.getLastModifiedTime(file);
+                    } catch (IOException e) {
+                        return FileTime.fromMillis(0);
+                    }
+                }).mapToLong(FileTime::toMillis).max().orElse(0);
+            }
+        } catch (IOException | URISyntaxException | SecurityException e) {
+            // without a stamp every client finds the daemon stale, which is slow but never wrong
+            return System.nanoTime();
+        }
+    }
+
+    /**
+     * Sends what is written to it as chunks of one stream of a reply. The chunks of both streams go
+     * over the same connection, so writes are synchronized on it.
+     */
+    private static final class ChunkStream extends OutputStream {
+        private final DataOutputStream out;
+        private final int tag;
+
+        ChunkStream(DataOutputStream out, int tag) {
+            this.out = out;
+            this.tag = tag;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len == 0) return;
+            synchronized (out) {
+                out.writeByte(tag);
+                out.writeInt(len);
+                out.write(b, off, len);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            synchronized (out) {
+                out.flush();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            // the connection outlives the stream
+            flush();
+        }
+    }
+}
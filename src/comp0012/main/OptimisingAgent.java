@@ -0,0 +1,219 @@
+package comp0012.main;
+
+import org.kohsuke.args4j.CmdLineException;
+import org.kohsuke.args4j.CmdLineParser;
+import org.kohsuke.args4j.Option;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.instrument.ClassFileTransformer;
+import java.lang.instrument.Instrumentation;
+import java.nio.file.Paths;
+import java.security.ProtectionDomain;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Java agent that optimises classes as the JVM loads them, instead of in a separate step:
+ *
+ * <pre>java -javaagent:build/optimiser-agent.jar="-packages com.example -cache /tmp/optimiser" ...</pre>
+ *
+ * The classes of the packages given, and of their subpackages, go through the same pipeline as with
+ * Main, and take the same -passes, -O and -pureCalls options. As the other classes of the program
+ * are not known when a class loads, each class is optimised on its own: only its own constants are
+ * substituted and only its own methods inlined, and a method whose frames need the superclasses of
+ * other classes of the program keeps its original code. What a class becomes therefore depends on
+ * its bytes alone, so the -cache of optimised classes is keyed on them, and a warm start only reads
+ * each class from the cache.
+ *
+ * How long each class took is logged with -log METHOD, and the totals when the JVM exits; -report
+ * writes the metrics of every pass at exit, like Main. Messages go to standard error, to keep them
+ * apart from the program's output. A class that fails to be optimised loads unchanged.
+ */
+public final class OptimisingAgent implements ClassFileTransformer {
+
+    @Option(name="-packages", required=true, usage="Comma-separated packages whose classes, and those of their subpackages, are optimised as they load")
+    private String packageNames;
+
+    @Option(name="-cache", usage="Directory of a persistent cache of optimised classfiles, reused across runs")
+    private String cacheDir;
+
+    @Option(name="-cacheSize", usage="Maximum size of the cache directory in megabytes (default 256)")
+    private long cacheSizeMb = 256;
+
+    @Option(name="-log", usage="How much progress to print: OFF, SUMMARY (default), METHOD or INSTRUCTION")
+    private Diagnostics.Level logLevel = Diagnostics.Level.SUMMARY;
+
+    @Option(name="-report", usage="File to write per-pass metrics of every method to when the JVM exits, as CSV if it ends in .csv and JSON otherwise")
+    private String reportFile;
+
+    @Option(name="-passes", usage="Comma-separated passes to run, in order, instead of those of the -O level; passes they depend on are added")
+    private String passNames;
+
+    @Option(name="-pureCalls", usage="File of further library methods, one per line, whose calls are evaluated when their arguments are constant")
+    private String pureCallsFile;
+
+    @Option(name="-O0", usage="Run no passes, only rewrite the classfiles")
+    private boolean level0;
+
+    @Option(name="-O1", usage="Run only the passes that look at the instructions around each change, and dead store elimination")
+    private boolean level1;
+
+    @Option(name="-O2", usage="Run every pass, including those analysing whole methods (default)")
+    private boolean level2;
+
+    private static final String OPTIMISER_PACKAGE = "comp0012/main/";
+
+    /** The packages to optimise, as internal name prefixes such as "com/example/". */
+    private final List<String> packages = new ArrayList<>();
+    private List<OptimisationPass> passes;
+    private PureCalls pureCalls = PureCalls.DEFAULT;
+    private Diagnostics diagnostics;
+    private OptimisationReport report;
+    private OptimisationCache cache;
+
+    private final AtomicLong optimisedCount = new AtomicLong();
+    private final AtomicLong cachedCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+    private final AtomicLong transformNanos = new AtomicLong();
+
+    /**
+     * Installs the agent before the application's main method runs.
+     *
+     * @param args the options, separated by spaces
+     * @param instrumentation the JVM's instrumentation
+     */
+    public static void premain(String args, Instrumentation instrumentation) throws IOException {
+        OptimisingAgent agent = new OptimisingAgent();
+        agent.parseArguments(args);
+        agent.start();
+        instrumentation.addTransformer(agent);
+    }
+
+    private void parseArguments(String args) {
+        CmdLineParser parser = new CmdLineParser(this);
+        parser.setUsageWidth(80);
+        try {
+            parser.parseArgument((args == null || args.isBlank()) ? new String[0] : args.trim().split("\\s+"));
+            passes = Main.selectPasses(parser, passNames, level0, level1, level2);
+            if (pureCallsFile != null) pureCalls = Main.loadPureCalls(parser, pureCallsFile);
+        } catch (CmdLineException e) {
+            System.err.println(e.getMessage());
+            System.err.println("java -javaagent:optimiser-agent.jar=\"-packages a.b,c.d [options]\" ...");
+            parser.printUsage(System.err);
+            System.exit(-1);
+        }
+        for (String name : packageNames.split(",")) {
+            if (!name.isBlank()) packages.add(name.trim().replace('.', '/') + "/");
+        }
+    }
+
+    private void start() throws IOException {
+        diagnostics = new Diagnostics(logLevel, System.err);
+        if (reportFile != null) report = new OptimisationReport();
+        if (cacheDir != null) {
+            // nothing but the class itself goes into what it becomes, unlike with Main
+            String fingerprint = ConstantFolder.fingerprint(passes) + ";pure=" + pureCalls.fingerprint() + ";loadTime";
+            cache = new OptimisationCache(Paths.get(cacheDir), cacheSizeMb * 1024 * 1024, fingerprint, diagnostics);
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(this::finish, "optimiser-agent-report"));
+        // loading the optimiser's own classes takes far longer than optimising a class, so that is
+        // done while the program starts rather than when its first class loads
+        Thread warmUp = new Thread(this::warmUp, "optimiser-agent-warm-up");
+        warmUp.setDaemon(true);
+        warmUp.start();
+    }
+
+    private void warmUp() {
+        try (InputStream in = OptimisingAgent.class.getResourceAsStream("OptimisingAgent.class")) {
+            ConstantFolder cf = new ConstantFolder(in.readAllBytes(), "OptimisingAgent.class");
+            cf.setDiagnostics(Diagnostics.OFF);
+            cf.setPasses(passes);
+            cf.setPureCalls(pureCalls);
+            cf.getOptimizedBytes();
+        } catch (Exception e) {
+            // only the first class to load is slower
+        }
+    }
+
+    /**
+     * @param className the internal name of a class, such as "com/example/Foo"
+     * @return true if the class is in one of the packages to optimise
+     */
+    private boolean isOptimisable(String className) {
+        if (className == null || className.startsWith(OPTIMISER_PACKAGE)) return false;
+        for (String prefix : packages) {
+            if (className.startsWith(prefix)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Optimises a class of one of the packages as it is first loaded. Classes being redefined or
+     * retransformed are left alone, as their shape is already fixed.
+     *
+     * @return the optimised class, or null to load it unchanged
+     */
+    @Override
+    public byte[] transform(ClassLoader loader, String className, Class<?> classBeingRedefined,
+            ProtectionDomain protectionDomain, byte[] classfileBuffer) {
+        if (classBeingRedefined != null || !isOptimisable(className)) return null;
+        long start = System.nanoTime();
+        try {
+            String key = (cache != null) ? cache.key(classfileBuffer) : null;
+            byte[] optimised = (cache != null) ? cache.get(key, Map::isEmpty) : null;
+            boolean cached = optimised != null;
+            if (!cached) {
+                ConstantFolder cf = new ConstantFolder(classfileBuffer, className + ".class");
+                cf.setDiagnostics(Diagnostics.OFF);
+                cf.setPasses(passes);
+                cf.setPureCalls(pureCalls);
+                optimised = cf.getOptimizedBytes();
+                if (report != null) report.add(cf.getMetrics());
+                if (cache != null) cache.put(key, optimised, Collections.emptyMap());
+            } else if (report != null) {
+                report.addCached();
+            }
+            long nanos = System.nanoTime() - start;
+            transformNanos.addAndGet(nanos);
+            (cached ? cachedCount : optimisedCount).incrementAndGet();
+            if (diagnostics.isEnabled(Diagnostics.Level.METHOD)) {
+                diagnostics.report(Diagnostics.Level.METHOD, String.format(Locale.ROOT, "%s %s in %.3f ms",
+                        cached ? "Loaded" : "Optimised", className, nanos / 1e6));
+            }
+            return optimised;
+        } catch (Exception e) {
+            // the JVM ignores exceptions thrown by a transformer, so this is the only trace of it
+            failedCount.incrementAndGet();
+            transformNanos.addAndGet(System.nanoTime() - start);
+            if (report != null) report.addFailed();
+            System.err.println("Failed to optimise " + className + ": " + e);
+            return null;
+        }
+    }
+
+    /**
+     * Reports the totals when the JVM exits.
+     */
+    private void finish() {
+        long classes = optimisedCount.get() + cachedCount.get() + failedCount.get();
+        if (diagnostics.isEnabled(Diagnostics.Level.SUMMARY)) {
+            diagnostics.report(Diagnostics.Level.SUMMARY, String.format(Locale.ROOT,
+                    "Optimised %d classes as they loaded (%d from the cache%s) in %.1f ms, %.3f ms per class",
+                    classes, cachedCount.get(), (failedCount.get() > 0) ? ", " + failedCount.get() + " failed and loaded unchanged" : "",
+                    transformNanos.get() / 1e6, (classes > 0) ? transformNanos.get() / 1e6 / classes : 0.0));
+            if (cache != null) diagnostics.report(Diagnostics.Level.SUMMARY, cache.summary());
+        }
+        if (report != null) {
+            try {
+                report.write(Paths.get(reportFile));
+            } catch (IOException e) {
+                System.err.println("Could not write " + reportFile + ": " + e);
+            }
+        }
+    }
+}
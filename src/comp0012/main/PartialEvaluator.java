@@ -0,0 +1,241 @@
+package comp0012.main;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.bcel.Const;
+import org.apache.bcel.generic.*;
+
+/**
+ * Runs a method on unknown arguments, tracking the constants in its variables and on its operand
+ * stack, and replaces its whole body with a push of the result and a return when that result does
+ * not depend on the arguments. e.g., a method that sums 1 to 10 in a loop becomes 'bipush 55',
+ * 'ireturn'; a method that only updates its own variables becomes 'return'.
+ *
+ * Only one path is followed, so the evaluation gives up as soon as a branch depends on an unknown
+ * value, and it gives up on any instruction that can have an effect outside the method or throw:
+ * field and array accesses, object creation, and calls other than those of {@link PureCalls} on
+ * constant arguments. Static fields in the {@link StaticConstants} index are read as their values.
+ * Arithmetic on unknown values is allowed, and gives an unknown value, except a division whose
+ * divisor is not a known non-zero value.
+ *
+ * At most {@link #MAX_STEPS} instructions are executed per run, so loops with many iterations
+ * bound the time spent rather than being run to the end.
+ */
+final class PartialEvaluator implements OptimisationPass {
+    /** The most instructions executed before the evaluation gives up. */
+    static final int MAX_STEPS = 10_000;
+
+    /** A value that depends on the arguments or on an instruction the evaluator does not model. */
+    private static final Object UNKNOWN = new Object();
+    /** The second word of a long or double. */
+    private static final Object TOP = new Object();
+
+    @Override
+    public String getName() {
+        return "partialEvaluation";
+    }
+
+    @Override
+    public int getTriggers() {
+        // any change can remove what made the last evaluation give up
+        return OptimisationPass.ALL;
+    }
+
+    @Override
+    public int getLevel() {
+        return 2;
+    }
+
+    @Override
+    public boolean run(PassContext context) {
+        MethodGen mg = context.getMethod();
+        InstructionList il = mg.getInstructionList();
+        // a push and a return, or less, cannot get shorter
+        if (il.size() <= 2) return false;
+        Object[] result = evaluate(context);
+        if (result == null) return false;
+
+        for (CodeExceptionGen handler : mg.getExceptionHandlers()) {
+            mg.removeExceptionHandler(handler);
+            handler.setStartPC(null);
+            handler.setEndPC(null);
+            handler.setHandlerPC(null);
+        }
+        InstructionHandle start = il.getStart();
+        InstructionHandle body = null;
+        if (result.length > 0) body = context.insert(start, ConstantEvaluator.push(result[0], context.getConstantPool()));
+        InstructionHandle ret = context.insert(start, InstructionFactory.createReturn(mg.getReturnType()));
+        if (body == null) body = ret;
+        for (InstructionHandle ih = start; ih != null;) {
+            InstructionHandle next = ih.getNext();
+            context.delete(ih, body);
+            ih = next;
+        }
+        return true;
+    }
+
+    /**
+     * Executes the method from its start on unknown arguments.
+     *
+     * @return an empty array if the method returns nothing, an array of its result if the result is
+     *         known, or null if the evaluation gave up
+     */
+    private static Object[] evaluate(PassContext context) {
+        MethodGen mg = context.getMethod();
+        ConstantPoolGen cp = context.getConstantPool();
+        mg.setMaxLocals();
+        Object[] locals = new Object[mg.getMaxLocals()];
+        Arrays.fill(locals, UNKNOWN);
+        List<Object> stack = new ArrayList<>();
+
+        InstructionHandle ih = mg.getInstructionList().getStart();
+        for (int steps = 0; steps < MAX_STEPS && ih != null; steps++) {
+            Instruction inst = ih.getInstruction();
+            InstructionHandle next = ih.getNext();
+
+            if (inst instanceof ReturnInstruction) {
+                if (inst instanceof RETURN) return new Object[0];
+                Object value = pop(stack, inst.consumeStack(cp));
+                return (value == UNKNOWN) ? null : new Object[] { value };
+            } else if (inst instanceof ConstantPushInstruction) {
+                push(stack, ((ConstantPushInstruction) inst).getValue());
+            } else if (inst instanceof ACONST_NULL) {
+                push(stack, ConstantEvaluator.NULL);
+            } else if (inst instanceof LDC) {
+                Object value = ((LDC) inst).getValue(cp);
+                if (!(value instanceof Number || value instanceof String)) return null;
+                push(stack, value);
+            } else if (inst instanceof LDC2_W) {
+                push(stack, ((LDC2_W) inst).getValue(cp));
+            } else if (inst instanceof LoadInstruction) {
+                push(stack, locals[((LoadInstruction) inst).getIndex()], inst.produceStack(cp));
+            } else if (inst instanceof StoreInstruction) {
+                int index = ((StoreInstruction) inst).getIndex();
+                int words = inst.consumeStack(cp);
+                locals[index] = pop(stack, words);
+                if (words == 2) locals[index + 1] = TOP;
+            } else if (inst instanceof IINC) {
+                int index = ((IINC) inst).getIndex();
+                if (locals[index] != UNKNOWN) locals[index] = (Integer) locals[index] + ((IINC) inst).getIncrement();
+            } else if (inst instanceof ArithmeticInstruction || inst instanceof ConversionInstruction
+                    || ConstantEvaluator.isComparison(inst)) {
+                if (!operate(inst, stack, cp)) return null;
+            } else if (inst instanceof StackInstruction) {
+                shuffle(inst, stack);
+            } else if (inst instanceof IfInstruction) {
+                Boolean taken = decide((IfInstruction) inst, stack, cp);
+                if (taken == null) return null;
+                if (taken) next = ((IfInstruction) inst).getTarget();
+            } else if (inst instanceof GotoInstruction) {
+                next = ((GotoInstruction) inst).getTarget();
+            } else if (inst instanceof Select) {
+                Object key = pop(stack, 1);
+                if (key == UNKNOWN) return null;
+                Select select = (Select) inst;
+                next = select.getTarget();
+                int[] matches = select.getMatchs();
+                for (int i = 0; i < matches.length; i++) {
+                    if (matches[i] == (Integer) key) next = select.getTargets()[i];
+                }
+            } else if (inst instanceof GETSTATIC) {
+                GETSTATIC get = (GETSTATIC) inst;
+                Number value = context.getStaticConstants().get(get.getReferenceType(cp).toString(), get.getFieldName(cp), get.getSignature(cp));
+                if (value == null) return null;
+                push(stack, value);
+            } else if (inst instanceof INVOKESTATIC || inst instanceof INVOKEVIRTUAL) {
+                InvokeInstruction invoke = (InvokeInstruction) inst;
+                Type[] types = invoke.getArgumentTypes(cp);
+                Object[] arguments = new Object[types.length + ((inst instanceof INVOKESTATIC) ? 0 : 1)];
+                for (int i = types.length - 1; i >= 0; i--) arguments[arguments.length - types.length + i] = pop(stack, types[i].getSize());
+                if (inst instanceof INVOKEVIRTUAL) arguments[0] = pop(stack, 1);
+                for (Object argument : arguments) {
+                    if (argument == UNKNOWN || argument == ConstantEvaluator.NULL) return null;
+                }
+                Number value = context.getPureCalls().evaluate(invoke.getReferenceType(cp).toString(), invoke.getMethodName(cp), invoke.getSignature(cp), arguments);
+                if (value == null) return null;
+                push(stack, value);
+            } else if (!(inst instanceof NOP)) {
+                return null;
+            }
+            ih = next;
+        }
+        return null;
+    }
+
+    /**
+     * Applies an arithmetic, comparison or conversion instruction to the values on the stack.
+     *
+     * @return false if the instruction may throw
+     */
+    private static boolean operate(Instruction inst, List<Object> stack, ConstantPoolGen cp) {
+        int opcode = inst.getOpcode();
+        int words = inst.consumeStack(cp);
+        if (inst instanceof ConversionInstruction || opcode == Const.INEG || opcode == Const.LNEG
+                || opcode == Const.FNEG || opcode == Const.DNEG) {
+            Object a = pop(stack, words);
+            push(stack, (a == UNKNOWN) ? UNKNOWN : ConstantEvaluator.unary(inst, (Number) a), inst.produceStack(cp));
+            return true;
+        }
+        // the distance of a shift is an int, whatever the type of the value shifted
+        boolean shift = opcode == Const.ISHL || opcode == Const.ISHR || opcode == Const.IUSHR
+                || opcode == Const.LSHL || opcode == Const.LSHR || opcode == Const.LUSHR;
+        int bWords = shift ? 1 : words / 2;
+        Object b = pop(stack, bWords);
+        Object a = pop(stack, words - bWords);
+        if (opcode == Const.IDIV || opcode == Const.IREM || opcode == Const.LDIV || opcode == Const.LREM) {
+            if (b == UNKNOWN || ((Number) b).longValue() == 0) return false;
+        }
+        push(stack, (a == UNKNOWN || b == UNKNOWN) ? UNKNOWN : ConstantEvaluator.binary(inst, (Number) a, (Number) b), inst.produceStack(cp));
+        return true;
+    }
+
+    /**
+     * Decides a conditional branch on the values on the stack.
+     *
+     * @return whether the branch is taken, or null if it depends on an unknown value
+     */
+    private static Boolean decide(IfInstruction inst, List<Object> stack, ConstantPoolGen cp) {
+        Object b = (inst.consumeStack(cp) == 2) ? pop(stack, 1) : null;
+        Object a = pop(stack, 1);
+        if (a == UNKNOWN || b == UNKNOWN) return null;
+        return ConstantEvaluator.branch(inst, a, b);
+    }
+
+    /**
+     * Applies a pop, dup or swap instruction to the words of the stack.
+     */
+    private static void shuffle(Instruction inst, List<Object> stack) {
+        int size = stack.size();
+        switch (inst.getOpcode()) {
+            case Const.POP: stack.remove(size - 1); break;
+            case Const.POP2: stack.remove(size - 1); stack.remove(size - 2); break;
+            case Const.DUP: stack.add(stack.get(size - 1)); break;
+            case Const.DUP_X1: stack.add(size - 2, stack.get(size - 1)); break;
+            case Const.DUP_X2: stack.add(size - 3, stack.get(size - 1)); break;
+            case Const.DUP2: stack.addAll(new ArrayList<>(stack.subList(size - 2, size))); break;
+            case Const.DUP2_X1: stack.addAll(size - 3, new ArrayList<>(stack.subList(size - 2, size))); break;
+            case Const.DUP2_X2: stack.addAll(size - 4, new ArrayList<>(stack.subList(size - 2, size))); break;
+            case Const.SWAP: stack.add(size - 2, stack.remove(size - 1)); break;
+            default: throw new IllegalArgumentException("Not a stack instruction: " + inst);
+        }
+    }
+
+    private static void push(List<Object> stack, Object value) {
+        push(stack, value, (value instanceof Long || value instanceof Double) ? 2 : 1);
+    }
+
+    private static void push(List<Object> stack, Object value, int words) {
+        stack.add((value == null) ? UNKNOWN : value);
+        if (words == 2) stack.add(TOP);
+    }
+
+    /**
+     * Pops a value of one or two words.
+     */
+    private static Object pop(List<Object> stack, int words) {
+        if (words == 2) stack.remove(stack.size() - 1);
+        return stack.remove(stack.size() - 1);
+    }
+}
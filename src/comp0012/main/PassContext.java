@@ -0,0 +1,91 @@
+package comp0012.main;
+
+import java.util.List;
+
+import org.apache.bcel.generic.ConstantPoolGen;
+import org.apache.bcel.generic.Instruction;
+import org.apache.bcel.generic.InstructionHandle;
+import org.apache.bcel.generic.InstructionList;
+import org.apache.bcel.generic.MethodGen;
+
+/**
+ * What an {@link OptimisationPass} is given to work on: the method being optimised, the instructions
+ * changed since the pass last ran, and the means to change the method so that the fixpoint sees it.
+ */
+public final class PassContext {
+    private final ConstantFolder folder;
+    private final MethodGen mg;
+    private final List<InstructionHandle> changed;
+
+    PassContext(ConstantFolder folder, MethodGen mg, List<InstructionHandle> changed) {
+        this.folder = folder;
+        this.mg = mg;
+        this.changed = changed;
+    }
+
+    ConstantFolder getFolder() {
+        return folder;
+    }
+
+    public MethodGen getMethod() {
+        return mg;
+    }
+
+    public InstructionList getInstructionList() {
+        return mg.getInstructionList();
+    }
+
+    public ConstantPoolGen getConstantPool() {
+        return mg.getConstantPool();
+    }
+
+    /**
+     * @return the instructions that were changed, or next to a change, since the pass last ran (every
+     *         instruction on its first run), in order; passes looking at the whole method can ignore them
+     */
+    public List<InstructionHandle> getChanged() {
+        return changed;
+    }
+
+    public Diagnostics getDiagnostics() {
+        return folder.diagnostics;
+    }
+
+    /**
+     * @return the constant static fields of every class being optimised, or of this class alone when
+     *         it is optimised on its own
+     */
+    public StaticConstants getStaticConstants() {
+        return folder.getStaticConstants();
+    }
+
+    CallGraph getCallGraph() {
+        return folder.getCallGraph();
+    }
+
+    PureCalls getPureCalls() {
+        return folder.getPureCalls();
+    }
+
+    /**
+     * Inserts an instruction before a handle.
+     *
+     * @param handle the instruction handle to insert before
+     * @param inst the instruction to insert
+     * @return the handle of the inserted instruction
+     */
+    public InstructionHandle insert(InstructionHandle handle, Instruction inst) {
+        return folder.insert(getInstructionList(), handle, inst);
+    }
+
+    /**
+     * Deletes an instruction, redirecting any branches to it and any try range or handler that
+     * starts or ends at it.
+     *
+     * @param handle the instruction handle to delete
+     * @param newTarget the instruction handle to redirect them to
+     */
+    public void delete(InstructionHandle handle, InstructionHandle newTarget) {
+        folder.safeDelete(getInstructionList(), handle, newTarget);
+    }
+}
@@ -0,0 +1,206 @@
+package comp0012.main;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.Set;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+/**
+ * The passes that can be run by name, and the pipelines built from them. The built-in passes come
+ * first, in the order they run at -O2; passes loaded with {@link ServiceLoader} follow them.
+ *
+ * -O0 runs no passes. -O1 runs the passes that only look at the instructions around each change,
+ * and dead store elimination. -O2 (the default) adds inlining, which can give the others much more
+ * work, and the passes that analyse the whole method every time they run: partial evaluation,
+ * constant propagation and loop-invariant code motion.
+ * Passes named explicitly run in the given order, after the passes they depend on.
+ */
+final class PassRegistry {
+    static final int MAX_LEVEL = 2;
+    static final int DEFAULT_LEVEL = MAX_LEVEL;
+
+    /** The version of the built-in passes, changed whenever the code any of them produces does. */
+    private static final String BUILTIN_VERSION = "14";
+
+    private static final List<OptimisationPass> BUILTIN = Collections.unmodifiableList(Arrays.asList(
+            new Inliner(),
+            new StaticConstantInlining(),
+            new PureCallFolding(),
+            new PartialEvaluator(),
+            new BuiltinPass("removeConversionInstructions", 1,
+                    // a constant directly before a conversion
+                    OptimisationPass.CONSTANTS | OptimisationPass.REMOVED,
+                    context -> context.getFolder().removeConversionInstructions(
+                            context.getInstructionList(), context.getConstantPool(), context.getChanged())),
+            new BuiltinPass("constantPropagation", 2,
+                    // constant variables and branches anywhere in the method
+                    OptimisationPass.CONSTANTS | OptimisationPass.LOCALS | OptimisationPass.CONTROL,
+                    context -> context.getFolder().constantPropagation(context.getInstructionList(), context.getMethod())),
+            new BuiltinPass("simpleFolding", 1,
+                    // two constants directly before an arithmetic instruction
+                    OptimisationPass.CONSTANTS | OptimisationPass.REMOVED,
+                    context -> context.getFolder().simpleFolding(
+                            context.getInstructionList(), context.getConstantPool(), context.getChanged())),
+            // fully constant operations are left to simpleFolding, which replaces them outright
+            new BuiltinPass("algebraicSimplification", 1,
+                    // a constant or a second load of a variable directly before an arithmetic instruction
+                    OptimisationPass.CONSTANTS | OptimisationPass.LOCALS | OptimisationPass.REMOVED,
+                    context -> context.getFolder().algebraicSimplification(
+                            context.getInstructionList(), context.getConstantPool(), context.getChanged()),
+                    "simpleFolding"),
+            new BuiltinPass("branchFolding", 1,
+                    // constants directly before a conditional branch
+                    OptimisationPass.CONSTANTS | OptimisationPass.REMOVED,
+                    context -> context.getFolder().branchFolding(
+                            context.getInstructionList(), context.getConstantPool(), context.getChanged())),
+            new BuiltinPass("deadStoreElimination", 1,
+                    // loads removed, so stores may no longer be read, and branches removed, so blocks
+                    // may no longer be reached
+                    OptimisationPass.LOCALS | OptimisationPass.CONTROL,
+                    context -> context.getFolder().deadStoreElimination(context.getInstructionList(), context.getMethod())),
+            new LoopInvariantCodeMotion()));
+
+    /** The pipeline of a folder that is not given one. */
+    static final List<OptimisationPass> DEFAULT_PIPELINE = new PassRegistry(BUILTIN).forLevel(DEFAULT_LEVEL);
+
+    private final Map<String, OptimisationPass> passes = new LinkedHashMap<>();
+
+    private PassRegistry(Iterable<OptimisationPass> passes) {
+        for (OptimisationPass pass : passes) {
+            if (this.passes.putIfAbsent(pass.getName(), pass) != null) {
+                throw new IllegalStateException("More than one pass is named " + pass.getName());
+            }
+        }
+    }
+
+    /**
+     * @return a registry of the built-in passes only
+     */
+    static PassRegistry builtin() {
+        return new PassRegistry(BUILTIN);
+    }
+
+    /**
+     * @return a registry of the built-in passes and those found on the classpath
+     */
+    static PassRegistry load() {
+        List<OptimisationPass> all = new ArrayList<>(BUILTIN);
+        for (OptimisationPass pass : ServiceLoader.load(OptimisationPass.class, OptimisationPass.class.getClassLoader())) {
+            all.add(pass);
+        }
+        return new PassRegistry(all);
+    }
+
+    /**
+     * @param name the name of a pass
+     * @return the pass
+     * @throws IllegalArgumentException if no pass has the name
+     */
+    OptimisationPass get(String name) {
+        OptimisationPass pass = passes.get(name);
+        if (pass == null) {
+            throw new IllegalArgumentException("Unknown pass " + name + " (known passes: " + String.join(", ", passes.keySet()) + ")");
+        }
+        return pass;
+    }
+
+    /**
+     * @param level an optimisation level, from 0 to {@link #MAX_LEVEL}
+     * @return the passes run at the level, in registration order, with their dependencies
+     */
+    List<OptimisationPass> forLevel(int level) {
+        List<String> names = new ArrayList<>();
+        for (OptimisationPass pass : passes.values()) {
+            if (pass.getLevel() <= level) names.add(pass.getName());
+        }
+        return select(names);
+    }
+
+    /**
+     * Builds a pipeline from passes named in the order they should run. Passes they depend on but
+     * that were not named are added before them, and passes named twice run once.
+     *
+     * @param names the names of the passes
+     * @return the passes, in the order they run
+     * @throws IllegalArgumentException if a pass is unknown or passes depend on each other in a cycle
+     */
+    List<OptimisationPass> select(List<String> names) {
+        List<OptimisationPass> pipeline = new ArrayList<>();
+        Set<String> visiting = new HashSet<>();
+        for (String name : names) add(name, pipeline, visiting);
+        return Collections.unmodifiableList(pipeline);
+    }
+
+    private void add(String name, List<OptimisationPass> pipeline, Set<String> visiting) {
+        OptimisationPass pass = get(name);
+        if (pipeline.contains(pass)) return;
+        if (!visiting.add(name)) throw new IllegalArgumentException("Pass " + name + " depends on itself");
+        for (String dependency : pass.getDependencies()) add(dependency, pipeline, visiting);
+        visiting.remove(name);
+        pipeline.add(pass);
+    }
+
+    /**
+     * @param pipeline the passes of a pipeline
+     * @return the names and versions of the passes, in order, which identify the code it produces
+     */
+    static String fingerprint(List<OptimisationPass> pipeline) {
+        return pipeline.stream().map(pass -> pass.getName() + "@" + pass.getVersion()).collect(Collectors.joining(","));
+    }
+
+    /**
+     * A pass implemented by {@link ConstantFolder}.
+     */
+    private static final class BuiltinPass implements OptimisationPass {
+        private final String name;
+        private final int level;
+        private final int triggers;
+        private final Predicate<PassContext> body;
+        private final List<String> dependencies;
+
+        BuiltinPass(String name, int level, int triggers, Predicate<PassContext> body, String... dependencies) {
+            this.name = name;
+            this.level = level;
+            this.triggers = triggers;
+            this.body = body;
+            this.dependencies = Arrays.asList(dependencies);
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public int getTriggers() {
+            return triggers;
+        }
+
+        @Override
+        public List<String> getDependencies() {
+            return dependencies;
+        }
+
+        @Override
+        public int getLevel() {
+            return level;
+        }
+
+        @Override
+        public String getVersion() {
+            return BUILTIN_VERSION;
+        }
+
+        @Override
+        public boolean run(PassContext context) {
+            return body.test(context);
+        }
+    }
+}
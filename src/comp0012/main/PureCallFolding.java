@@ -0,0 +1,98 @@
+package comp0012.main;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import org.apache.bcel.generic.ConstantPoolGen;
+import org.apache.bcel.generic.ConstantPushInstruction;
+import org.apache.bcel.generic.INVOKESTATIC;
+import org.apache.bcel.generic.INVOKEVIRTUAL;
+import org.apache.bcel.generic.Instruction;
+import org.apache.bcel.generic.InstructionHandle;
+import org.apache.bcel.generic.InstructionList;
+import org.apache.bcel.generic.InvokeInstruction;
+import org.apache.bcel.generic.LDC;
+import org.apache.bcel.generic.LDC2_W;
+
+/**
+ * Replaces a call to a method in the {@link PureCalls} list whose arguments are all pushed as
+ * constants directly before it with a push of its result, evaluated while optimising.
+ * e.g., 'bipush -5', 'invokestatic Math.abs(I)I' → 'iconst_5'; 'ldc "abc"', 'invokevirtual String.length()I' → 'iconst_3'.
+ * A call that throws is left to throw when the code runs.
+ */
+final class PureCallFolding implements OptimisationPass {
+    @Override
+    public String getName() {
+        return "pureCallFolding";
+    }
+
+    @Override
+    public int getTriggers() {
+        // constants directly before a call, and calls copied in by inlining
+        return OptimisationPass.CONSTANTS | OptimisationPass.REMOVED | OptimisationPass.MEMBERS;
+    }
+
+    @Override
+    public int getLevel() {
+        return 1;
+    }
+
+    @Override
+    public boolean run(PassContext context) {
+        PureCalls calls = context.getPureCalls();
+        InstructionList il = context.getInstructionList();
+        ConstantPoolGen cp = context.getConstantPool();
+
+        // a changed argument can be this many instructions before its call
+        Set<InstructionHandle> candidates = new LinkedHashSet<>();
+        for (InstructionHandle ih : context.getChanged()) {
+            for (int i = 0; i <= calls.getMaxArguments() && ih != null; i++, ih = ih.getNext()) candidates.add(ih);
+        }
+
+        boolean modified = false;
+        for (InstructionHandle call : candidates) {
+            if (Worklist.isDeleted(il, call)) continue;
+            Instruction inst = call.getInstruction();
+            if (!(inst instanceof INVOKESTATIC || inst instanceof INVOKEVIRTUAL)) continue;
+            InvokeInstruction invoke = (InvokeInstruction) inst;
+            int count = invoke.getArgumentTypes(cp).length + ((inst instanceof INVOKESTATIC) ? 0 : 1);
+            if (count > calls.getMaxArguments()) continue;
+
+            // the arguments are pushed by the instructions directly before, with no jump between them
+            Object[] arguments = new Object[count];
+            InstructionHandle first = call;
+            for (int i = count - 1; i >= 0; i--) {
+                if (ControlFlowGraph.isJumpTarget(first)) break;
+                first = first.getPrev();
+                arguments[i] = (first != null) ? constant(first.getInstruction(), cp) : null;
+                if (arguments[i] == null) break;
+            }
+            if (count > 0 && arguments[0] == null) continue;
+
+            Number result = calls.evaluate(invoke.getReferenceType(cp).toString(), invoke.getMethodName(cp), invoke.getSignature(cp), arguments);
+            if (result == null) continue;
+            InstructionHandle end = call.getNext();
+            InstructionHandle replacement = context.insert(first, ConstantEvaluator.push(result, cp));
+            for (InstructionHandle ih = first; ih != end;) {
+                InstructionHandle next = ih.getNext();
+                context.delete(ih, replacement);
+                ih = next;
+            }
+            modified = true;
+        }
+        return modified;
+    }
+
+    /**
+     * @return the value an instruction pushes, if it pushes a constant number or string
+     */
+    private static Object constant(Instruction inst, ConstantPoolGen cp) {
+        if (inst instanceof ConstantPushInstruction) return ((ConstantPushInstruction) inst).getValue();
+        if (inst instanceof LDC) {
+            Object value = ((LDC) inst).getValue(cp);
+            return (value instanceof Number || value instanceof String) ? value : null;
+        }
+        if (inst instanceof LDC2_W) return ((LDC2_W) inst).getValue(cp);
+        return null;
+    }
+}
@@ -0,0 +1,230 @@
+package comp0012.main;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.bcel.generic.Type;
+
+/**
+ * The library methods that can be evaluated while optimising when all their arguments are constant,
+ * because their result depends on nothing else and calling them has no other effect. The built-in
+ * list is the resource pure-calls.txt; a file in the same format can add to it.
+ *
+ * Only static methods, and instance methods of String called on a constant string, can be listed,
+ * and only those returning a primitive: a string they returned would be a new object, which a
+ * constant string is not.
+ *
+ * A list is immutable once loaded, so one instance is shared by every class optimised in parallel.
+ */
+final class PureCalls {
+    private static final String RESOURCE = "pure-calls.txt";
+
+    /** The built-in list. */
+    static final PureCalls DEFAULT = loadDefault();
+
+    private final Map<String, Method> methods;
+    private final int maxArguments;
+
+    private PureCalls(Map<String, Method> methods) {
+        this.methods = methods;
+        int max = 0;
+        for (Method method : methods.values()) {
+            max = Math.max(max, method.getParameterCount() + (Modifier.isStatic(method.getModifiers()) ? 0 : 1));
+        }
+        this.maxArguments = max;
+    }
+
+    private static PureCalls loadDefault() {
+        try (InputStream in = PureCalls.class.getResourceAsStream(RESOURCE)) {
+            if (in == null) throw new IllegalStateException(RESOURCE + " is missing from the classpath");
+            Map<String, Method> methods = new HashMap<>();
+            // a method the JDK running the optimiser does not have cannot be called by the code either
+            parse(new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8)), RESOURCE, methods, false);
+            return new PureCalls(Collections.unmodifiableMap(methods));
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not read " + RESOURCE, e);
+        }
+    }
+
+    /**
+     * Adds the methods listed in a file to this list.
+     *
+     * @param file a file with one method per line, as the class name, a dot, the method name and its
+     *             descriptor; blank lines and lines starting with # are ignored
+     * @return the combined list
+     * @throws IOException if the file cannot be read
+     * @throws IllegalArgumentException if a line does not name a method that can be listed
+     */
+    PureCalls with(Path file) throws IOException {
+        Map<String, Method> methods = new HashMap<>(this.methods);
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            parse(reader, file.toString(), methods, true);
+        }
+        return new PureCalls(Collections.unmodifiableMap(methods));
+    }
+
+    private static void parse(BufferedReader reader, String source, Map<String, Method> methods, boolean strict) throws IOException {
+        String line;
+        for (int number = 1; (line = reader.readLine()) != null; number++) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) continue;
+            try {
+                int paren = line.indexOf('(');
+                int dot = (paren < 0) ? -1 : line.lastIndexOf('.', paren);
+                if (dot < 0) throw new IllegalArgumentException("expected a class name, a method name and a descriptor");
+                String className = line.substring(0, dot);
+                String name = line.substring(dot + 1, paren);
+                String signature = line.substring(paren);
+                methods.put(key(className, name, signature), resolve(className, name, signature));
+            } catch (IllegalArgumentException e) {
+                if (strict) throw new IllegalArgumentException(source + ":" + number + ": " + line + ": " + e.getMessage(), e);
+            }
+        }
+    }
+
+    private static Method resolve(String className, String name, String signature) {
+        Class<?> owner;
+        Class<?>[] parameters;
+        Class<?> result;
+        try {
+            owner = Class.forName(className, false, PureCalls.class.getClassLoader());
+            Type[] arguments = Type.getArgumentTypes(signature);
+            parameters = new Class<?>[arguments.length];
+            for (int i = 0; i < arguments.length; i++) parameters[i] = toClass(arguments[i]);
+            result = toClass(Type.getReturnType(signature));
+        } catch (ClassNotFoundException | RuntimeException e) {
+            throw new IllegalArgumentException("unknown class or malformed descriptor", e);
+        }
+        Method method;
+        try {
+            method = owner.getMethod(name, parameters);
+        } catch (NoSuchMethodException e) {
+            throw new IllegalArgumentException("no such public method", e);
+        }
+        if (method.getReturnType() != result) throw new IllegalArgumentException("the method returns " + method.getReturnType().getName());
+        if (!result.isPrimitive() || result == void.class) throw new IllegalArgumentException("only methods returning a primitive can be evaluated");
+        if (!Modifier.isStatic(method.getModifiers()) && method.getDeclaringClass() != String.class) {
+            throw new IllegalArgumentException("only static methods and those of String can be evaluated");
+        }
+        for (Class<?> parameter : parameters) {
+            if (!parameter.isPrimitive() && !parameter.isAssignableFrom(String.class)) {
+                throw new IllegalArgumentException("only primitive and string arguments can be constant");
+            }
+        }
+        return method;
+    }
+
+    private static Class<?> toClass(Type type) throws ClassNotFoundException {
+        switch (type.getSignature()) {
+            case "Z": return boolean.class;
+            case "B": return byte.class;
+            case "C": return char.class;
+            case "S": return short.class;
+            case "I": return int.class;
+            case "J": return long.class;
+            case "F": return float.class;
+            case "D": return double.class;
+            case "V": return void.class;
+            default:
+                if (type.getSignature().startsWith("[")) return Class.forName(type.getSignature().replace('/', '.'), false, PureCalls.class.getClassLoader());
+                return Class.forName(type.toString(), false, PureCalls.class.getClassLoader());
+        }
+    }
+
+    /**
+     * Evaluates a call, if its method is listed.
+     *
+     * @param className the name of the class the call refers to
+     * @param name the name of the method
+     * @param signature the descriptor of the method
+     * @param arguments the values the call takes from the stack, the receiver first: a Number, boxed
+     *                  as the type the JVM pushes, for a primitive, and a String for a reference
+     * @return the result, boxed as the type the JVM pushes (an Integer for a boolean, char, byte or
+     *         short), or null if the method is not listed, an argument is not of its type, or the call
+     *         throws
+     */
+    Number evaluate(String className, String name, String signature, Object[] arguments) {
+        Method method = methods.get(key(className, name, signature));
+        if (method == null) return null;
+        boolean isStatic = Modifier.isStatic(method.getModifiers());
+        Class<?>[] parameters = method.getParameterTypes();
+        if (arguments.length != parameters.length + (isStatic ? 0 : 1)) return null;
+        Object receiver = null;
+        if (!isStatic) {
+            if (!(arguments[0] instanceof String)) return null;
+            receiver = arguments[0];
+        }
+        Object[] values = new Object[parameters.length];
+        for (int i = 0; i < parameters.length; i++) {
+            values[i] = toParameter(arguments[i + (isStatic ? 0 : 1)], parameters[i]);
+            if (values[i] == null) return null;
+        }
+        Object result;
+        try {
+            result = method.invoke(receiver, values);
+        } catch (InvocationTargetException | IllegalAccessException e) {
+            // left to throw when the code runs
+            return null;
+        }
+        if (result instanceof Boolean) return ((Boolean) result) ? 1 : 0;
+        if (result instanceof Character) return (int) (Character) result;
+        if (result instanceof Byte || result instanceof Short) return ((Number) result).intValue();
+        return (Number) result;
+    }
+
+    private static Object toParameter(Object value, Class<?> parameter) {
+        if (!parameter.isPrimitive()) return (value instanceof String) ? value : null;
+        if (parameter == long.class) return (value instanceof Long) ? value : null;
+        if (parameter == float.class) return (value instanceof Float) ? value : null;
+        if (parameter == double.class) return (value instanceof Double) ? value : null;
+        if (!(value instanceof Integer)) return null;
+        int i = (Integer) value;
+        if (parameter == boolean.class) return i != 0;
+        if (parameter == char.class) return (char) i;
+        if (parameter == byte.class) return (byte) i;
+        if (parameter == short.class) return (short) i;
+        return i;
+    }
+
+    /**
+     * @return the most values, counting the receiver, that a listed method takes from the stack
+     */
+    int getMaxArguments() {
+        return maxArguments;
+    }
+
+    /**
+     * @return a hash of every listed method, which identifies what the list lets the passes fold
+     */
+    String fingerprint() {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (String key : new TreeMap<>(methods).keySet()) {
+                digest.update((key + "\n").getBytes(StandardCharsets.UTF_8));
+            }
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digest.digest()) hex.append(String.format("%02x", b));
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private static String key(String className, String name, String signature) {
+        return className + "." + name + signature;
+    }
+}
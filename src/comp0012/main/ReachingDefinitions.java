@@ -0,0 +1,118 @@
+package comp0012.main;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.bcel.generic.IINC;
+import org.apache.bcel.generic.IndexedInstruction;
+import org.apache.bcel.generic.Instruction;
+import org.apache.bcel.generic.InstructionHandle;
+import org.apache.bcel.generic.InstructionList;
+import org.apache.bcel.generic.LocalVariableInstruction;
+import org.apache.bcel.generic.RET;
+import org.apache.bcel.generic.StoreInstruction;
+
+/**
+ * Reaching definitions of local variables: for every point of a method, the stores and iincs whose
+ * value may still be held by each variable there. The value a variable has on entry to the method
+ * (a parameter, or nothing) counts as one more definition of every variable, so a use is only fully
+ * explained by stores when that definition does not reach it.
+ */
+public class ReachingDefinitions extends DataflowAnalysis {
+    private final List<InstructionHandle> definitions = new ArrayList<>();
+    private final Map<InstructionHandle, Integer> definitionIds = new IdentityHashMap<>();
+    private final List<BitSet> definitionsOfVariable = new ArrayList<>();
+    private final int variables;
+
+    /**
+     * @param cfg the graph of the method
+     * @param il the instructions of the method
+     */
+    public ReachingDefinitions(ControlFlowGraph cfg, InstructionList il) {
+        super(cfg, true, true);
+        int highest = -1;
+        for (InstructionHandle ih = il.getStart(); ih != null; ih = ih.getNext()) {
+            int variable = variable(ih.getInstruction());
+            if (variable == -1) continue;
+            highest = Math.max(highest, variable);
+            if (isDefinition(ih.getInstruction())) {
+                definitionIds.put(ih, definitions.size());
+                definitions.add(ih);
+            }
+        }
+        variables = highest + 1;
+        for (int v = 0; v < variables; v++) {
+            BitSet ofVariable = new BitSet();
+            ofVariable.set(entryDefinition(v));
+            definitionsOfVariable.add(ofVariable);
+        }
+        for (int id = 0; id < definitions.size(); id++) {
+            definitionsOfVariable.get(variable(definitions.get(id).getInstruction())).set(id);
+        }
+        solve();
+    }
+
+    @Override
+    protected int size() {
+        return definitions.size() + variables;
+    }
+
+    @Override
+    protected BitSet boundary() {
+        BitSet entry = new BitSet();
+        entry.set(definitions.size(), definitions.size() + variables);
+        return entry;
+    }
+
+    @Override
+    protected BitSet gen(InstructionHandle ih) {
+        Integer id = definitionIds.get(ih);
+        if (id == null) return null;
+        BitSet gen = new BitSet();
+        gen.set(id);
+        return gen;
+    }
+
+    @Override
+    protected BitSet kill(InstructionHandle ih) {
+        return definitionIds.containsKey(ih) ? definitionsOfVariable.get(variable(ih.getInstruction())) : null;
+    }
+
+    /**
+     * Finds the definitions of a variable that may reach a point.
+     *
+     * @param facts the facts at the point, from {@link #getFacts}
+     * @param variable a local variable index
+     * @return the reaching stores and iincs, with null standing for the value on entry to the method
+     */
+    public List<InstructionHandle> reaching(BitSet facts, int variable) {
+        List<InstructionHandle> reaching = new ArrayList<>();
+        if (variable >= variables) return reaching;
+        BitSet ofVariable = (BitSet) facts.clone();
+        ofVariable.and(definitionsOfVariable.get(variable));
+        for (int id = ofVariable.nextSetBit(0); id >= 0; id = ofVariable.nextSetBit(id + 1)) {
+            reaching.add(id < definitions.size() ? definitions.get(id) : null);
+        }
+        return reaching;
+    }
+
+    private int entryDefinition(int variable) {
+        return definitions.size() + variable;
+    }
+
+    private static boolean isDefinition(Instruction inst) {
+        return inst instanceof StoreInstruction || inst instanceof IINC;
+    }
+
+    /**
+     * @return the local variable an instruction reads or writes, or -1
+     */
+    static int variable(Instruction inst) {
+        if (inst instanceof LocalVariableInstruction) return ((LocalVariableInstruction) inst).getIndex();
+        if (inst instanceof RET) return ((IndexedInstruction) inst).getIndex();
+        return -1;
+    }
+}
@@ -0,0 +1,539 @@
+package comp0012.main;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import org.apache.bcel.Const;
+import org.apache.bcel.classfile.Constant;
+import org.apache.bcel.classfile.ConstantDynamic;
+import org.apache.bcel.classfile.ConstantNameAndType;
+import org.apache.bcel.classfile.ConstantPool;
+import org.apache.bcel.classfile.StackMap;
+import org.apache.bcel.classfile.StackMapEntry;
+import org.apache.bcel.classfile.StackMapType;
+import org.apache.bcel.generic.*;
+
+/**
+ * Computes the StackMapTable of a method: the types of its local variables and operand stack at
+ * every instruction reached other than by falling through, which the type-checking verifier of
+ * classes of version 50 and later checks the code against instead of inferring them itself.
+ *
+ * The types are inferred the way the type-inferencing verifier does, by running the method on types
+ * rather than values until they stop changing. Where paths meet, a local variable holding different
+ * types becomes unusable, and two references become their closest common superclass, looked up in
+ * the {@link CallGraph} of the classes being optimised or among the platform's classes. An
+ * interface merges to java.lang.Object, which the verifier accepts wherever an interface is expected.
+ *
+ * Each frame is written in the shortest form that describes it relative to the one before.
+ * Unreachable code has no types, so it must be removed first, and subroutines are not supported,
+ * as classes of version 50 and later cannot use them.
+ */
+final class StackMapBuilder {
+    private final MethodGen mg;
+    private final ConstantPoolGen cp;
+    private final CallGraph classes;
+    private final Map<InstructionHandle, Frame> frames = new HashMap<>();
+
+    private StackMapBuilder(MethodGen mg, CallGraph classes) {
+        this.mg = mg;
+        this.cp = mg.getConstantPool();
+        this.classes = classes;
+    }
+
+    /**
+     * Computes the frames of a method whose maximum locals are up to date.
+     *
+     * @param mg the method
+     * @param classes the classes being optimised, for the superclasses of their types
+     * @return the StackMapTable attribute, or null if the method needs no frames
+     * @throws IllegalStateException if the types cannot be inferred: the code has unreachable
+     *         instructions or subroutines, refers to a class whose superclass is not known, or does
+     *         not verify
+     */
+    static StackMap build(MethodGen mg, CallGraph classes) {
+        mg.getInstructionList().setPositions(true);
+        StackMapBuilder builder = new StackMapBuilder(mg, classes);
+        builder.infer();
+        return builder.encode();
+    }
+
+    /**
+     * Runs the method on types from its entry until the frame before every instruction is known.
+     */
+    private void infer() {
+        InstructionList il = mg.getInstructionList();
+        Set<InstructionHandle> work = new LinkedHashSet<>();
+        frames.put(il.getStart(), entryFrame());
+        work.add(il.getStart());
+        while (!work.isEmpty()) {
+            InstructionHandle ih = work.iterator().next();
+            work.remove(ih);
+            Frame in = frames.get(ih);
+            // an exception can leave any instruction in a try range, with the locals it started with
+            for (CodeExceptionGen handler : mg.getExceptionHandlers()) {
+                if (ih.getPosition() < handler.getStartPC().getPosition() || ih.getPosition() > handler.getEndPC().getPosition()) continue;
+                Frame thrown = new Frame(in.locals.clone(), new ArrayList<>());
+                ObjectType caught = handler.getCatchType();
+                thrown.push(object((caught != null) ? caught.getClassName() : "java.lang.Throwable"));
+                merge(handler.getHandlerPC(), thrown, work);
+            }
+
+            Frame out = in.copy();
+            execute(ih, out);
+            Instruction inst = ih.getInstruction();
+            if (inst instanceof JsrInstruction || inst instanceof RET) {
+                throw new IllegalStateException("Subroutines have no frames");
+            }
+            if (inst instanceof BranchInstruction) merge(((BranchInstruction) inst).getTarget(), out, work);
+            if (inst instanceof Select) {
+                for (InstructionHandle target : ((Select) inst).getTargets()) merge(target, out, work);
+            }
+            if (!endsFlow(inst)) {
+                if (ih.getNext() == null) throw new IllegalStateException("Execution falls off the end of the code");
+                merge(ih.getNext(), out, work);
+            }
+        }
+    }
+
+    private static boolean endsFlow(Instruction inst) {
+        return inst instanceof GotoInstruction || inst instanceof Select || inst instanceof ReturnInstruction || inst instanceof ATHROW;
+    }
+
+    private void merge(InstructionHandle target, Frame incoming, Set<InstructionHandle> work) {
+        Frame current = frames.get(target);
+        Frame merged = (current == null) ? incoming.copy() : merge(current, incoming);
+        if (merged.equals(current)) return;
+        frames.put(target, merged);
+        work.add(target);
+    }
+
+    private Frame merge(Frame a, Frame b) {
+        if (a.stack.size() != b.stack.size()) throw new IllegalStateException("Stack heights differ where paths meet");
+        VerificationType[] locals = new VerificationType[a.locals.length];
+        for (int i = 0; i < locals.length; i++) locals[i] = merge(a.locals[i], b.locals[i]);
+        List<VerificationType> stack = new ArrayList<>();
+        for (int i = 0; i < a.stack.size(); i++) {
+            VerificationType merged = merge(a.stack.get(i), b.stack.get(i));
+            if (merged == VerificationType.TOP && a.stack.get(i) != VerificationType.TOP) {
+                throw new IllegalStateException("Stack types differ where paths meet: " + a.stack.get(i) + ", " + b.stack.get(i));
+            }
+            stack.add(merged);
+        }
+        return new Frame(locals, stack);
+    }
+
+    private VerificationType merge(VerificationType a, VerificationType b) {
+        if (a.equals(b)) return a;
+        if (a == VerificationType.NULL && b.isReference()) return b;
+        if (b == VerificationType.NULL && a.isReference()) return a;
+        if (a.tag == Const.ITEM_Object && b.tag == Const.ITEM_Object) return object(commonSuperclass(a.name, b.name));
+        return VerificationType.TOP;
+    }
+
+    /**
+     * @param a a class name, or the descriptor of an array type
+     * @param b another
+     * @return the most specific class or array type both are assignable to
+     */
+    private String commonSuperclass(String a, String b) {
+        if (a.startsWith("[") && b.startsWith("[")) {
+            String aElement = a.substring(1);
+            String bElement = b.substring(1);
+            // arrays of primitives are only assignable to themselves
+            if (!isReference(aElement) || !isReference(bElement)) return "java.lang.Object";
+            String common = commonSuperclass(className(aElement), className(bElement));
+            return "[" + (common.startsWith("[") ? common : "L" + common.replace('.', '/') + ";");
+        }
+        if (a.startsWith("[") || b.startsWith("[")) return "java.lang.Object";
+        Set<String> ancestors = new HashSet<>();
+        for (String c = a; c != null; c = classes.getSuperclassName(c)) ancestors.add(c);
+        for (String c = b; c != null; c = classes.getSuperclassName(c)) {
+            if (ancestors.contains(c)) return c;
+        }
+        return "java.lang.Object";
+    }
+
+    private static boolean isReference(String descriptor) {
+        return descriptor.startsWith("L") || descriptor.startsWith("[");
+    }
+
+    /**
+     * @return the class name or array descriptor of the type with a field descriptor
+     */
+    private static String className(String descriptor) {
+        if (descriptor.startsWith("[")) return descriptor;
+        return descriptor.substring(1, descriptor.length() - 1).replace('/', '.');
+    }
+
+    /**
+     * @return the frame on entry, holding the receiver and the arguments
+     */
+    private Frame entryFrame() {
+        VerificationType[] locals = new VerificationType[mg.getMaxLocals()];
+        Arrays.fill(locals, VerificationType.TOP);
+        Frame frame = new Frame(locals, new ArrayList<>());
+        int index = 0;
+        if (!mg.isStatic()) {
+            boolean constructor = mg.getName().equals(Const.CONSTRUCTOR_NAME) && !mg.getClassName().equals("java.lang.Object");
+            locals[index++] = constructor ? VerificationType.UNINITIALIZED_THIS : object(mg.getClassName());
+        }
+        for (Type argument : mg.getArgumentTypes()) {
+            frame.store(index, of(argument));
+            index += argument.getSize();
+        }
+        return frame;
+    }
+
+    /**
+     * Applies an instruction to the types of a frame.
+     */
+    private void execute(InstructionHandle ih, Frame frame) {
+        Instruction inst = ih.getInstruction();
+        if (inst instanceof ACONST_NULL) {
+            frame.push(VerificationType.NULL);
+        } else if (inst instanceof ConstantPushInstruction || inst instanceof LDC2_W) {
+            frame.push(of(((TypedInstruction) inst).getType(cp)));
+        } else if (inst instanceof LDC) {
+            frame.push(constantType(((LDC) inst).getIndex()));
+        } else if (inst instanceof ALOAD) {
+            frame.push(frame.locals[((ALOAD) inst).getIndex()]);
+        } else if (inst instanceof LoadInstruction) {
+            frame.push(of(((LoadInstruction) inst).getType(cp)));
+        } else if (inst instanceof StoreInstruction) {
+            int words = inst.consumeStack(cp);
+            VerificationType value = frame.stack.get(frame.stack.size() - words);
+            frame.pop(words);
+            frame.store(((StoreInstruction) inst).getIndex(), value);
+        } else if (inst instanceof AALOAD) {
+            frame.pop(1);
+            VerificationType array = frame.pop(1);
+            frame.push((array.tag == Const.ITEM_Object) ? object(className(array.name.substring(1))) : VerificationType.NULL);
+        } else if (inst instanceof ArrayInstruction && inst.produceStack(cp) > 0) {
+            frame.pop(2);
+            frame.push(of(((ArrayInstruction) inst).getType(cp)));
+        } else if (inst instanceof ArithmeticInstruction || inst instanceof ConversionInstruction) {
+            frame.pop(inst.consumeStack(cp));
+            frame.push(of(((TypedInstruction) inst).getType(cp)));
+        } else if (ConstantEvaluator.isComparison(inst) || inst instanceof ARRAYLENGTH || inst instanceof INSTANCEOF) {
+            frame.pop(inst.consumeStack(cp));
+            frame.push(VerificationType.INTEGER);
+        } else if (inst instanceof StackInstruction) {
+            frame.shuffle(inst);
+        } else if (inst instanceof FieldInstruction) {
+            frame.pop(inst.consumeStack(cp));
+            if (inst instanceof GETFIELD || inst instanceof GETSTATIC) frame.push(of(((FieldInstruction) inst).getFieldType(cp)));
+        } else if (inst instanceof InvokeInstruction) {
+            invoke(ih, (InvokeInstruction) inst, frame);
+        } else if (inst instanceof NEW) {
+            frame.push(VerificationType.uninitialized(ih));
+        } else if (inst instanceof NEWARRAY) {
+            frame.pop(1);
+            frame.push(of(((NEWARRAY) inst).getType()));
+        } else if (inst instanceof ANEWARRAY) {
+            frame.pop(1);
+            frame.push(object("[" + ((ANEWARRAY) inst).getType(cp).getSignature()));
+        } else if (inst instanceof MULTIANEWARRAY || inst instanceof CHECKCAST) {
+            frame.pop(inst.consumeStack(cp));
+            frame.push(of(((CPInstruction) inst).getType(cp)));
+        } else if (inst instanceof BranchInstruction || inst instanceof ReturnInstruction || inst instanceof ATHROW
+                || inst instanceof ArrayInstruction || inst instanceof MONITORENTER || inst instanceof MONITOREXIT) {
+            frame.pop(Math.min(inst.consumeStack(cp), frame.stack.size()));
+        } else if (!(inst instanceof IINC || inst instanceof NOP || inst instanceof RET)) {
+            throw new IllegalStateException("No types for " + inst);
+        }
+    }
+
+    private void invoke(InstructionHandle ih, InvokeInstruction invoke, Frame frame) {
+        int arguments = 0;
+        for (Type argument : invoke.getArgumentTypes(cp)) arguments += argument.getSize();
+        if (invoke instanceof INVOKESPECIAL && invoke.getMethodName(cp).equals(Const.CONSTRUCTOR_NAME)) {
+            frame.pop(arguments);
+            VerificationType receiver = frame.pop(1);
+            // every copy of the new object is initialised by the constructor
+            String className = (receiver == VerificationType.UNINITIALIZED_THIS) ? mg.getClassName()
+                    : ((NEW) receiver.allocation.getInstruction()).getLoadClassType(cp).getClassName();
+            frame.replace(receiver, object(className));
+        } else {
+            frame.pop(arguments + ((invoke instanceof INVOKESTATIC || invoke instanceof INVOKEDYNAMIC) ? 0 : 1));
+        }
+        if (invoke.getReturnType(cp) != Type.VOID) frame.push(of(invoke.getReturnType(cp)));
+    }
+
+    /**
+     * @return the type of the constant an ldc pushes
+     */
+    private VerificationType constantType(int index) {
+        Constant constant = cp.getConstant(index);
+        switch (constant.getTag()) {
+            case Const.CONSTANT_Integer: return VerificationType.INTEGER;
+            case Const.CONSTANT_Float: return VerificationType.FLOAT;
+            case Const.CONSTANT_String: return object("java.lang.String");
+            case Const.CONSTANT_Class: return object("java.lang.Class");
+            case Const.CONSTANT_MethodType: return object("java.lang.invoke.MethodType");
+            case Const.CONSTANT_MethodHandle: return object("java.lang.invoke.MethodHandle");
+            case Const.CONSTANT_Dynamic:
+                ConstantNameAndType nameAndType = (ConstantNameAndType) cp.getConstant(((ConstantDynamic) constant).getNameAndTypeIndex());
+                return of(Type.getType(nameAndType.getSignature(cp.getConstantPool())));
+            default: throw new IllegalStateException("No type for constant " + constant);
+        }
+    }
+
+    private static VerificationType of(Type type) {
+        switch (type.getType()) {
+            case Const.T_BOOLEAN: case Const.T_BYTE: case Const.T_CHAR: case Const.T_SHORT: case Const.T_INT:
+                return VerificationType.INTEGER;
+            case Const.T_FLOAT: return VerificationType.FLOAT;
+            case Const.T_LONG: return VerificationType.LONG;
+            case Const.T_DOUBLE: return VerificationType.DOUBLE;
+            case Const.T_ARRAY: return object(type.getSignature());
+            case Const.T_OBJECT: return object(((ObjectType) type).getClassName());
+            default: throw new IllegalStateException("No verification type for " + type);
+        }
+    }
+
+    private static VerificationType object(String name) {
+        return new VerificationType(Const.ITEM_Object, name, null);
+    }
+
+    /**
+     * Writes the frames of the instructions that need one: the targets of branches, the handlers of
+     * exceptions, and the instructions after an unconditional jump, return or throw.
+     */
+    private StackMap encode() {
+        InstructionList il = mg.getInstructionList();
+        Set<InstructionHandle> points = new LinkedHashSet<>();
+        for (InstructionHandle ih = il.getStart(); ih != null; ih = ih.getNext()) {
+            Instruction inst = ih.getInstruction();
+            if (inst instanceof BranchInstruction) points.add(((BranchInstruction) inst).getTarget());
+            if (inst instanceof Select) points.addAll(Arrays.asList(((Select) inst).getTargets()));
+            if (endsFlow(inst) && ih.getNext() != null) points.add(ih.getNext());
+        }
+        for (CodeExceptionGen handler : mg.getExceptionHandlers()) points.add(handler.getHandlerPC());
+        if (points.isEmpty()) return null;
+        List<InstructionHandle> ordered = new ArrayList<>(points);
+        ordered.sort((a, b) -> Integer.compare(a.getPosition(), b.getPosition()));
+
+        List<StackMapEntry> entries = new ArrayList<>();
+        List<VerificationType> previous = entryFrame().compactLocals();
+        int previousOffset = -1;
+        for (InstructionHandle ih : ordered) {
+            Frame frame = frames.get(ih);
+            if (frame == null) throw new IllegalStateException("Unreachable code at " + ih.getPosition());
+            List<VerificationType> locals = frame.compactLocals();
+            List<VerificationType> stack = frame.compactStack();
+            int delta = ih.getPosition() - previousOffset - 1;
+            int shared = 0;
+            while (shared < Math.min(locals.size(), previous.size()) && locals.get(shared).equals(previous.get(shared))) shared++;
+
+            int frameType;
+            StackMapType[] newLocals = {};
+            StackMapType[] newStack = {};
+            if (stack.isEmpty() && locals.equals(previous)) {
+                frameType = (delta < 64) ? delta : Const.SAME_FRAME_EXTENDED;
+            } else if (stack.size() == 1 && locals.equals(previous)) {
+                frameType = (delta < 64) ? Const.SAME_LOCALS_1_STACK_ITEM_FRAME + delta : Const.SAME_LOCALS_1_STACK_ITEM_FRAME_EXTENDED;
+                newStack = types(stack);
+            } else if (stack.isEmpty() && shared == locals.size() && previous.size() - shared <= 3) {
+                frameType = Const.SAME_FRAME_EXTENDED - (previous.size() - shared);
+            } else if (stack.isEmpty() && shared == previous.size() && locals.size() - shared <= 3) {
+                frameType = Const.SAME_FRAME_EXTENDED + (locals.size() - shared);
+                newLocals = types(locals.subList(shared, locals.size()));
+            } else {
+                frameType = Const.FULL_FRAME;
+                newLocals = types(locals);
+                newStack = types(stack);
+            }
+            entries.add(new StackMapEntry(frameType, delta, newLocals, newStack, null));
+            previous = locals;
+            previousOffset = ih.getPosition();
+        }
+
+        int nameIndex = cp.addUtf8("StackMapTable");
+        ConstantPool pool = cp.getConstantPool();
+        for (StackMapEntry entry : entries) {
+            entry.setConstantPool(pool);
+            for (StackMapType type : entry.getTypesOfLocals()) type.setConstantPool(pool);
+            for (StackMapType type : entry.getTypesOfStackItems()) type.setConstantPool(pool);
+        }
+        StackMap map = new StackMap(nameIndex, 0, new StackMapEntry[0], pool);
+        // sets the length of the attribute from its entries
+        map.setStackMap(entries.toArray(new StackMapEntry[0]));
+        return map;
+    }
+
+    private StackMapType[] types(List<VerificationType> types) {
+        StackMapType[] result = new StackMapType[types.size()];
+        for (int i = 0; i < result.length; i++) {
+            VerificationType type = types.get(i);
+            int index = -1;
+            if (type.tag == Const.ITEM_Object) index = cp.addClass(type.name);
+            if (type.tag == Const.ITEM_NewObject) index = type.allocation.getPosition();
+            result[i] = new StackMapType(type.tag, index, null);
+        }
+        return result;
+    }
+
+    /**
+     * The type of a local variable or of a word of the operand stack. A long or double takes two
+     * words, the second of which is top.
+     */
+    private static final class VerificationType {
+        static final VerificationType TOP = new VerificationType(Const.ITEM_Bogus, null, null);
+        static final VerificationType INTEGER = new VerificationType(Const.ITEM_Integer, null, null);
+        static final VerificationType FLOAT = new VerificationType(Const.ITEM_Float, null, null);
+        static final VerificationType LONG = new VerificationType(Const.ITEM_Long, null, null);
+        static final VerificationType DOUBLE = new VerificationType(Const.ITEM_Double, null, null);
+        static final VerificationType NULL = new VerificationType(Const.ITEM_Null, null, null);
+        static final VerificationType UNINITIALIZED_THIS = new VerificationType(Const.ITEM_InitObject, null, null);
+
+        final byte tag;
+        /** The class name or array descriptor of an object type. */
+        final String name;
+        /** The new instruction that created an uninitialised object. */
+        final InstructionHandle allocation;
+
+        VerificationType(byte tag, String name, InstructionHandle allocation) {
+            this.tag = tag;
+            this.name = name;
+            this.allocation = allocation;
+        }
+
+        static VerificationType uninitialized(InstructionHandle allocation) {
+            return new VerificationType(Const.ITEM_NewObject, null, allocation);
+        }
+
+        boolean isWide() {
+            return tag == Const.ITEM_Long || tag == Const.ITEM_Double;
+        }
+
+        boolean isReference() {
+            return tag == Const.ITEM_Object || tag == Const.ITEM_Null;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof VerificationType)) return false;
+            VerificationType other = (VerificationType) o;
+            return tag == other.tag && Objects.equals(name, other.name) && allocation == other.allocation;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(tag, name, System.identityHashCode(allocation));
+        }
+
+        @Override
+        public String toString() {
+            return (name != null) ? name : Const.getItemName(tag);
+        }
+    }
+
+    /**
+     * The types of the local variables and of the words of the operand stack before an instruction.
+     */
+    private static final class Frame {
+        final VerificationType[] locals;
+        final List<VerificationType> stack;
+
+        Frame(VerificationType[] locals, List<VerificationType> stack) {
+            this.locals = locals;
+            this.stack = stack;
+        }
+
+        Frame copy() {
+            return new Frame(locals.clone(), new ArrayList<>(stack));
+        }
+
+        void push(VerificationType type) {
+            stack.add(type);
+            if (type.isWide()) stack.add(VerificationType.TOP);
+        }
+
+        /**
+         * Pops words off the stack.
+         *
+         * @return the type of the last word popped
+         */
+        VerificationType pop(int words) {
+            if (words > stack.size()) throw new IllegalStateException("Operand stack underflow");
+            VerificationType last = null;
+            for (int i = 0; i < words; i++) last = stack.remove(stack.size() - 1);
+            return last;
+        }
+
+        void store(int index, VerificationType type) {
+            // a long or double the store overwrites half of becomes unusable
+            if (index > 0 && locals[index - 1].isWide()) locals[index - 1] = VerificationType.TOP;
+            locals[index] = type;
+            if (type.isWide()) locals[index + 1] = VerificationType.TOP;
+        }
+
+        void replace(VerificationType from, VerificationType to) {
+            for (int i = 0; i < locals.length; i++) {
+                if (locals[i].equals(from)) locals[i] = to;
+            }
+            stack.replaceAll(type -> type.equals(from) ? to : type);
+        }
+
+        /**
+         * Applies a pop, dup or swap instruction to the words of the stack.
+         */
+        void shuffle(Instruction inst) {
+            int size = stack.size();
+            switch (inst.getOpcode()) {
+                case Const.POP: pop(1); break;
+                case Const.POP2: pop(2); break;
+                case Const.DUP: stack.add(stack.get(size - 1)); break;
+                case Const.DUP_X1: stack.add(size - 2, stack.get(size - 1)); break;
+                case Const.DUP_X2: stack.add(size - 3, stack.get(size - 1)); break;
+                case Const.DUP2: stack.addAll(new ArrayList<>(stack.subList(size - 2, size))); break;
+                case Const.DUP2_X1: stack.addAll(size - 3, new ArrayList<>(stack.subList(size - 2, size))); break;
+                case Const.DUP2_X2: stack.addAll(size - 4, new ArrayList<>(stack.subList(size - 2, size))); break;
+                case Const.SWAP: stack.add(size - 2, stack.remove(size - 1)); break;
+                default: throw new IllegalArgumentException("Not a stack instruction: " + inst);
+            }
+        }
+
+        /**
+         * @return the locals as a frame lists them: a long or double as one entry, and without the
+         *         unusable variables at the end
+         */
+        List<VerificationType> compactLocals() {
+            int end = locals.length;
+            while (end > 0 && locals[end - 1] == VerificationType.TOP) end--;
+            return compact(Arrays.asList(locals).subList(0, end));
+        }
+
+        List<VerificationType> compactStack() {
+            return compact(stack);
+        }
+
+        private static List<VerificationType> compact(List<VerificationType> words) {
+            List<VerificationType> entries = new ArrayList<>();
+            for (int i = 0; i < words.size(); i++) {
+                entries.add(words.get(i));
+                if (words.get(i).isWide()) i++;
+            }
+            return entries;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Frame)) return false;
+            Frame other = (Frame) o;
+            return Arrays.equals(locals, other.locals) && stack.equals(other.stack);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(locals) * 31 + stack.hashCode();
+        }
+    }
+}
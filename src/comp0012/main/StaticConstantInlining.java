@@ -0,0 +1,46 @@
+package comp0012.main;
+
+import org.apache.bcel.generic.ConstantPoolGen;
+import org.apache.bcel.generic.GETSTATIC;
+import org.apache.bcel.generic.InstructionHandle;
+
+/**
+ * Replaces each read of a static field whose value is in the {@link StaticConstants} index with a
+ * push of that constant, so the folding passes can fold it like any other. The index covers every
+ * class being optimised, so a class's reads of another class's constants are replaced too.
+ *
+ * After its first run, the pass only looks at the field reads other passes insert, such as those
+ * copied in by inlining.
+ */
+final class StaticConstantInlining implements OptimisationPass {
+    @Override
+    public String getName() {
+        return "staticConstantInlining";
+    }
+
+    @Override
+    public int getTriggers() {
+        return OptimisationPass.MEMBERS;
+    }
+
+    @Override
+    public int getLevel() {
+        return 1;
+    }
+
+    @Override
+    public boolean run(PassContext context) {
+        StaticConstants constants = context.getStaticConstants();
+        ConstantPoolGen cp = context.getConstantPool();
+        boolean modified = false;
+        for (InstructionHandle ih : context.getChanged()) {
+            if (Worklist.isDeleted(context.getInstructionList(), ih) || !(ih.getInstruction() instanceof GETSTATIC)) continue;
+            GETSTATIC get = (GETSTATIC) ih.getInstruction();
+            Number value = constants.get(get.getReferenceType(cp).toString(), get.getFieldName(cp), get.getSignature(cp));
+            if (value == null) continue;
+            context.delete(ih, context.insert(ih, ConstantEvaluator.push(value, cp)));
+            modified = true;
+        }
+        return modified;
+    }
+}
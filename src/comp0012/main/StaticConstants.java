@@ -0,0 +1,217 @@
+package comp0012.main;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.bcel.Const;
+import org.apache.bcel.classfile.ConstantValue;
+import org.apache.bcel.classfile.Field;
+import org.apache.bcel.classfile.JavaClass;
+import org.apache.bcel.classfile.Method;
+import org.apache.bcel.generic.BasicType;
+import org.apache.bcel.generic.ConstantPoolGen;
+import org.apache.bcel.generic.ConstantPushInstruction;
+import org.apache.bcel.generic.Instruction;
+import org.apache.bcel.generic.InstructionHandle;
+import org.apache.bcel.generic.InstructionList;
+import org.apache.bcel.generic.LDC;
+import org.apache.bcel.generic.LDC2_W;
+import org.apache.bcel.generic.PUTSTATIC;
+import org.apache.bcel.generic.RETURN;
+import org.apache.bcel.generic.Type;
+
+/**
+ * The values of the static final fields of primitive type known before any code reads them, across
+ * every class being optimised, so that reads of another class's constants can be folded.
+ *
+ * A field is constant if it has a ConstantValue attribute and is never assigned, or if it is assigned
+ * exactly once by a static initialiser that does nothing but store constants into the fields of its
+ * class. Reading a field can trigger the initialisation of its class; a ConstantValue field is read
+ * without it by javac too, and the initialisers accepted here have no effect other than the stores.
+ *
+ * The fields of a class are worked out the first time one of them is looked up, and remembered, so
+ * one instance is shared by every class optimised in parallel. Each class's folder looks them up
+ * through its own {@link #recordingTo view}, which records the answers as its {@link Dependencies}.
+ */
+public final class StaticConstants {
+    /** An index of no fields. */
+    public static final StaticConstants NONE = new StaticConstants(ClassIndex.EMPTY, new ConcurrentHashMap<>(), null);
+
+    private final ClassIndex classes;
+    /** The constant fields of each class looked up so far, by class name. */
+    private final Map<String, Map<String, Number>> values;
+    private final Dependencies dependencies;
+
+    private StaticConstants(ClassIndex classes, Map<String, Map<String, Number>> values, Dependencies dependencies) {
+        this.classes = classes;
+        this.values = values;
+        this.dependencies = dependencies;
+    }
+
+    /**
+     * Builds an index of the constants of a set of classes.
+     *
+     * @param classes the parsed classes; null entries, classes that could not be parsed, are skipped
+     * @return the index
+     */
+    public static StaticConstants of(Iterable<JavaClass> classes) {
+        return of(ClassIndex.of(classes));
+    }
+
+    /**
+     * Builds an index of the constants of the classes of an index, which are only parsed once a
+     * field of theirs is looked up.
+     *
+     * @param classes the classes being optimised
+     * @return the index
+     */
+    static StaticConstants of(ClassIndex classes) {
+        return new StaticConstants(classes, new ConcurrentHashMap<>(), null);
+    }
+
+    /**
+     * @param dependencies where the optimisation of one class records what it looked up
+     * @return an index of the same fields that records every lookup
+     */
+    StaticConstants recordingTo(Dependencies dependencies) {
+        return new StaticConstants(classes, values, dependencies);
+    }
+
+    private static Map<String, Number> scan(JavaClass clazz) {
+        Map<String, Field> fields = new HashMap<>();
+        for (Field field : clazz.getFields()) {
+            if (field.isStatic() && field.isFinal() && field.getType() instanceof BasicType) {
+                fields.put(field.getName(), field);
+            }
+        }
+        if (fields.isEmpty()) return Collections.emptyMap();
+
+        // the stores to the class's static fields, and the constant each store in the initialiser stores
+        ConstantPoolGen cp = new ConstantPoolGen(clazz.getConstantPool());
+        Map<String, Integer> stores = new HashMap<>();
+        Map<String, Number> initialised = new HashMap<>();
+        boolean simpleInitialiser = initialisesOnlyConstants(clazz);
+        for (Method method : clazz.getMethods()) {
+            if (method.getCode() == null) continue;
+            boolean initialiser = method.getName().equals(Const.STATIC_INITIALIZER_NAME);
+            Number pushed = null;
+            for (InstructionHandle ih : new InstructionList(method.getCode().getCode()).getInstructionHandles()) {
+                Instruction inst = ih.getInstruction();
+                if (inst instanceof PUTSTATIC && ((PUTSTATIC) inst).getReferenceType(cp).toString().equals(clazz.getClassName())) {
+                    String name = ((PUTSTATIC) inst).getFieldName(cp);
+                    stores.merge(name, 1, Integer::sum);
+                    if (initialiser && pushed != null) initialised.put(name, pushed);
+                }
+                pushed = constant(inst, cp);
+            }
+        }
+
+        Map<String, Number> values = new HashMap<>();
+        for (Field field : fields.values()) {
+            ConstantValue attribute = field.getConstantValue();
+            int count = stores.getOrDefault(field.getName(), 0);
+            Number value = null;
+            if (attribute != null && count == 0) value = constant(attribute, cp);
+            // values stored by an initialiser that can have other effects are not known without running it
+            else if (attribute == null && count == 1 && simpleInitialiser) value = initialised.get(field.getName());
+            value = convert(value, field.getType());
+            if (value != null) values.put(key(clazz.getClassName(), field.getName(), field.getSignature()), value);
+        }
+        return values;
+    }
+
+    /**
+     * Checks that the static initialiser of a class, if it has one, does nothing but store constants
+     * into the fields of the class, so that running it has no effect but those fields' values.
+     *
+     * @param clazz a parsed class
+     * @return true if the class has no initialiser or a simple one
+     */
+    static boolean initialisesOnlyConstants(JavaClass clazz) {
+        ConstantPoolGen cp = new ConstantPoolGen(clazz.getConstantPool());
+        for (Method method : clazz.getMethods()) {
+            if (!method.getName().equals(Const.STATIC_INITIALIZER_NAME) || method.getCode() == null) continue;
+            for (InstructionHandle ih : new InstructionList(method.getCode().getCode()).getInstructionHandles()) {
+                Instruction inst = ih.getInstruction();
+                if (inst instanceof PUTSTATIC && ((PUTSTATIC) inst).getReferenceType(cp).toString().equals(clazz.getClassName())) continue;
+                if (constant(inst, cp) == null && !(inst instanceof RETURN)) return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Looks up the value of a static field.
+     *
+     * @param className the name of the class declaring the field
+     * @param fieldName the name of the field
+     * @param signature the type descriptor of the field
+     * @return the value of the field, boxed as the type of the value it pushes, or null if it is not known
+     */
+    public Number get(String className, String fieldName, String signature) {
+        Map<String, Number> fields = values.get(className);
+        if (fields == null) {
+            JavaClass clazz = classes.get(className);
+            fields = (clazz != null) ? scan(clazz) : Collections.emptyMap();
+            values.putIfAbsent(className, fields);
+        }
+        Number value = fields.get(key(className, fieldName, signature));
+        if (dependencies != null) dependencies.record(Dependencies.describe(value), Dependencies.CONSTANT, className, fieldName, signature);
+        return value;
+    }
+
+    private static String key(String className, String fieldName, String signature) {
+        return className + "." + fieldName + ":" + signature;
+    }
+
+    private static Number constant(Instruction inst, ConstantPoolGen cp) {
+        Object value = null;
+        if (inst instanceof ConstantPushInstruction) value = ((ConstantPushInstruction) inst).getValue();
+        else if (inst instanceof LDC) value = ((LDC) inst).getValue(cp);
+        else if (inst instanceof LDC2_W) value = ((LDC2_W) inst).getValue(cp);
+        return (value instanceof Number) ? (Number) value : null;
+    }
+
+    private static Number constant(ConstantValue attribute, ConstantPoolGen cp) {
+        int index = attribute.getConstantValueIndex();
+        switch (cp.getConstant(index).getTag()) {
+            case Const.CONSTANT_Integer: case Const.CONSTANT_Float:
+                return constant(new LDC(index), cp);
+            case Const.CONSTANT_Long: case Const.CONSTANT_Double:
+                return constant(new LDC2_W(index), cp);
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Boxes a value as the type the JVM pushes for a field of the given type, or returns null if the
+     * value cannot be stored in such a field without a conversion.
+     */
+    private static Number convert(Number value, Type type) {
+        if (value == null) return null;
+        switch (type.getType()) {
+            case Const.T_BOOLEAN: case Const.T_BYTE: case Const.T_CHAR: case Const.T_SHORT: case Const.T_INT:
+                if (!(value instanceof Integer)) return null;
+                // a narrow field only holds the values of its type, whatever int was stored
+                int i = value.intValue();
+                switch (type.getType()) {
+                    case Const.T_BOOLEAN: return i & 1;
+                    case Const.T_BYTE: return (int) (byte) i;
+                    case Const.T_CHAR: return (int) (char) i;
+                    case Const.T_SHORT: return (int) (short) i;
+                    default: return i;
+                }
+            case Const.T_LONG:
+                return (value instanceof Long) ? value : null;
+            case Const.T_FLOAT:
+                return (value instanceof Float) ? value : null;
+            case Const.T_DOUBLE:
+                return (value instanceof Double) ? value : null;
+            default:
+                return null;
+        }
+    }
+}
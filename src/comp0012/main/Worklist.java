@@ -0,0 +1,189 @@
+package comp0012.main;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.bcel.generic.BranchInstruction;
+import org.apache.bcel.generic.ConstantPushInstruction;
+import org.apache.bcel.generic.FieldOrMethod;
+import org.apache.bcel.generic.Instruction;
+import org.apache.bcel.generic.InstructionHandle;
+import org.apache.bcel.generic.InstructionList;
+import org.apache.bcel.generic.LDC;
+import org.apache.bcel.generic.LDC2_W;
+import org.apache.bcel.generic.LocalVariableInstruction;
+
+/**
+ * Tracks the changes the peephole passes make to a method, so that the fixpoint only revisits what
+ * a change can affect. Every pass declares the kinds of change that can give it new work (see
+ * {@link OptimisationPass#getTriggers}); a pass is only run again once such a change has happened
+ * since its last run, and the windowed passes are handed the instructions around the changes
+ * instead of rescanning the whole method.
+ *
+ * Every pass runs in the first round, even one with no triggers, which therefore runs only once.
+ *
+ * Changes made by a pass that reports no modification are held back until the end of the round,
+ * and only passed on if the round goes on to another iteration, as the whole-method loop did.
+ *
+ * As every pass runs between {@link #begin} and {@link #end}, the worklist also records the time
+ * each run takes and the instructions it inserts and deletes in the metrics of the method.
+ */
+class Worklist {
+    /** Pending for every pass until its first run. */
+    private static final int FIRST_RUN = 1 << 31;
+
+    private final InstructionList il;
+    private final int[] triggers;
+    private final int[] pending;
+    private final List<Set<InstructionHandle>> dirty = new ArrayList<>();
+
+    private int recorded;
+    private final Set<InstructionHandle> recordedHandles = new LinkedHashSet<>();
+    private int deferred;
+    private final Set<InstructionHandle> deferredHandles = new LinkedHashSet<>();
+    private boolean roundChanged;
+
+    private final OptimisationReport.MethodMetrics metrics;
+    private int running;
+    private long runStart;
+    private int added;
+    private int removed;
+
+    /**
+     * @param il the instruction list being optimised
+     * @param metrics the metrics of the method, with one pass for every trigger
+     * @param triggers for every pass, in the order they run, the kinds of change that can give it new work
+     */
+    Worklist(InstructionList il, OptimisationReport.MethodMetrics metrics, int... triggers) {
+        this.il = il;
+        this.metrics = metrics;
+        this.triggers = triggers;
+        this.pending = new int[triggers.length];
+        for (int pass = 0; pass < triggers.length; pass++) {
+            pending[pass] = OptimisationPass.ALL | FIRST_RUN;
+            Set<InstructionHandle> all = new LinkedHashSet<>();
+            for (InstructionHandle ih = il.getStart(); ih != null; ih = ih.getNext()) all.add(ih);
+            dirty.add(all);
+        }
+    }
+
+    /**
+     * @param pass index of a pass
+     * @return true if a change that can give the pass new work has happened since it last ran
+     */
+    boolean shouldRun(int pass) {
+        return (pending[pass] & (triggers[pass] | FIRST_RUN)) != 0;
+    }
+
+    /**
+     * Starts running a pass.
+     *
+     * @param pass index of the pass
+     * @return the instructions that are still in the method and were changed, or next to a change,
+     *         since the pass last ran
+     */
+    List<InstructionHandle> begin(int pass) {
+        running = pass;
+        added = 0;
+        removed = 0;
+        pending[pass] = 0;
+        List<InstructionHandle> changed = new ArrayList<>();
+        for (InstructionHandle ih : dirty.get(pass)) {
+            if (!isDeleted(il, ih)) changed.add(ih);
+        }
+        dirty.get(pass).clear();
+        runStart = System.nanoTime();
+        return changed;
+    }
+
+    /**
+     * Finishes running a pass, passing its changes on to every pass.
+     *
+     * @param changed whether the pass reported that it modified the method
+     */
+    void end(boolean changed) {
+        metrics.getPass(running).record(System.nanoTime() - runStart, changed, added, removed);
+        if (changed) {
+            publish(recorded, recordedHandles);
+            roundChanged = true;
+        } else {
+            deferred |= recorded;
+            deferredHandles.addAll(recordedHandles);
+        }
+        recorded = 0;
+        recordedHandles.clear();
+    }
+
+    /**
+     * Finishes a round of all passes.
+     *
+     * @return true if any pass reported a modification, so another round is needed
+     */
+    boolean endRound() {
+        boolean another = roundChanged;
+        if (another) publish(deferred, deferredHandles);
+        deferred = 0;
+        deferredHandles.clear();
+        roundChanged = false;
+        return another;
+    }
+
+    /**
+     * Records an instruction that was just inserted.
+     */
+    void inserted(InstructionHandle ih) {
+        added++;
+        Instruction inst = ih.getInstruction();
+        if (inst instanceof ConstantPushInstruction || inst instanceof LDC || inst instanceof LDC2_W) record(OptimisationPass.CONSTANTS);
+        if (inst instanceof LocalVariableInstruction) record(OptimisationPass.LOCALS);
+        if (inst instanceof BranchInstruction) record(OptimisationPass.CONTROL);
+        if (inst instanceof FieldOrMethod) record(OptimisationPass.MEMBERS);
+        recordedHandles.add(ih);
+    }
+
+    /**
+     * Records an instruction that is about to be deleted; its neighbours become adjacent.
+     */
+    void deleting(InstructionHandle ih) {
+        removed++;
+        record(OptimisationPass.REMOVED);
+        if (ih.getInstruction() instanceof LocalVariableInstruction) record(OptimisationPass.LOCALS);
+        if (ih.getInstruction() instanceof BranchInstruction || ih.hasTargeters()) record(OptimisationPass.CONTROL);
+        if (ih.getPrev() != null) recordedHandles.add(ih.getPrev());
+        if (ih.getNext() != null) recordedHandles.add(ih.getNext());
+    }
+
+    /**
+     * Records a load, store or iinc whose local variable index was changed.
+     */
+    void renumbered(InstructionHandle ih) {
+        record(OptimisationPass.LOCALS);
+        recordedHandles.add(ih);
+    }
+
+    private void record(int kind) {
+        recorded |= kind;
+    }
+
+    private void publish(int kinds, Set<InstructionHandle> handles) {
+        for (int pass = 0; pass < pending.length; pass++) {
+            pending[pass] |= kinds;
+            dirty.get(pass).addAll(handles);
+        }
+    }
+
+    /**
+     * Checks whether a handle has been deleted from a list. Deleted handles have either been disposed
+     * (no instruction) or were unlinked because they were still targeted; a handle that is still in
+     * the list only lacks a predecessor if it is the start.
+     *
+     * @param il the instruction list the handle belonged to
+     * @param ih the handle to check
+     * @return true if the handle is no longer part of the list
+     */
+    static boolean isDeleted(InstructionList il, InstructionHandle ih) {
+        return ih.getInstruction() == null || (ih.getPrev() == null && ih != il.getStart());
+    }
+}
@@ -0,0 +1,84 @@
+package comp0012.target;
+
+public class AlgebraicSimplification {
+    public int multiplyByPowerOfTwo(int x) {
+        return x * 8;
+    }
+
+    public long multiplyLongByPowerOfTwo(long x) {
+        return x * 1024L;
+    }
+
+    public int divideByMinusOne(int x) {
+        return x / -1;
+    }
+
+    public int divideByPowerOfTwo(int x) {
+        return x / 4;
+    }
+
+    public int remainderOfPowerOfTwo(int x) {
+        return x % 4;
+    }
+
+    public int remainderOfNonNegative(int x) {
+        int y = x & 0x7FFF;
+        return y % 16;
+    }
+
+    public int shiftByWidth(int x) {
+        return x << 32;
+    }
+
+    public int sameOperands(int x) {
+        return (x - x) + (x ^ x) + (x & x) + (x | x);
+    }
+
+    public int identities(int x) {
+        return ((x + 0) * 1 | 0) & -1;
+    }
+
+    public double addPositiveZero(double x) {
+        return x + 0.0;
+    }
+
+    public double addNegativeZero(double x) {
+        return x + -0.0;
+    }
+
+    public double subtractZero(double x) {
+        return x - 0.0;
+    }
+
+    public double multiplyByZero(double x) {
+        return x * 0.0;
+    }
+
+    public float multiplyByMinusOne(float x) {
+        return x * -1.0f;
+    }
+
+    public double divideByPowerOfTwoDouble(double x) {
+        return x / 8.0;
+    }
+
+    public float divideByTen(float x) {
+        return x / 10.0f;
+    }
+
+    public double foldNaN() {
+        double zero = 0.0;
+        return zero / zero;
+    }
+
+    public float foldNegativeZero() {
+        float a = -0.0f;
+        float b = 0.0f;
+        return a * b;
+    }
+
+    public boolean compareNaN() {
+        double nan = Double.NaN;
+        return nan == nan;
+    }
+}
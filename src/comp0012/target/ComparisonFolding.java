@@ -0,0 +1,143 @@
+package comp0012.target;
+
+public class ComparisonFolding {
+    public int intGreater() {
+        int a = 3;
+        int b = 2;
+        if (a > b) {
+            return 1;
+        }
+        return 0;
+    }
+
+    public int longBeyondInt() {
+        long a = 1L << 32;
+        long b = 0L;
+        if (a > b) {
+            return 1;
+        }
+        return 0;
+    }
+
+    public int longMinimum() {
+        long a = Long.MIN_VALUE;
+        long b = Long.MAX_VALUE;
+        if (a < b) {
+            return 1;
+        }
+        return 0;
+    }
+
+    public int floatLessThanNaN() {
+        float f = Float.NaN;
+        if (f < 1.0f) {
+            return 1;
+        }
+        return 0;
+    }
+
+    public int floatGreaterThanNaN() {
+        float f = Float.NaN;
+        if (f > 1.0f) {
+            return 1;
+        }
+        return 0;
+    }
+
+    public int nanNotEqualToItself() {
+        float f = 0.0f / 0.0f;
+        if (f != f) {
+            return 1;
+        }
+        return 0;
+    }
+
+    public int doubleNaNAtLeastItself() {
+        double d = Double.NaN;
+        if (d >= d) {
+            return 1;
+        }
+        return 0;
+    }
+
+    public int negativeZeroEqualsZero() {
+        double a = -0.0;
+        double b = 0.0;
+        int result = 0;
+        if (a == b) {
+            result += 1;
+        }
+        if (a < b) {
+            result += 10;
+        }
+        return result;
+    }
+
+    public int infinities() {
+        float a = Float.NEGATIVE_INFINITY;
+        float b = -Float.MAX_VALUE;
+        if (a < b) {
+            return 1;
+        }
+        return 0;
+    }
+
+    public int fractionalDifference() {
+        double a = 0.5;
+        double b = 0.25;
+        if (a > b) {
+            return 1;
+        }
+        return 0;
+    }
+
+    public int nullCheck() {
+        Object o = null;
+        if (o == null) {
+            return 1;
+        }
+        return 0;
+    }
+
+    public int stringNotNull() {
+        String s = "x";
+        if (s != null) {
+            return 1;
+        }
+        return 0;
+    }
+
+    public int sameLiteral() {
+        String a = "abc";
+        String b = "abc";
+        if (a == b) {
+            return 1;
+        }
+        return 0;
+    }
+
+    public int differentLiterals() {
+        String a = "abc";
+        String b = "abd";
+        if (a == b) {
+            return 1;
+        }
+        return 0;
+    }
+
+    public int nullAndLiteral() {
+        String a = null;
+        String b = "abc";
+        if (a != b) {
+            return 1;
+        }
+        return 0;
+    }
+
+    public int unknownAgainstNaN(double x) {
+        if (x < Double.NaN) {
+            return 1;
+        }
+        return 0;
+    }
+}
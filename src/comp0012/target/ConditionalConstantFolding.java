@@ -0,0 +1,100 @@
+package comp0012.target;
+
+public class ConditionalConstantFolding {
+    public int constantThroughLoop(int n) {
+        int x = 5;
+        for (int i = 0; i < n; i++) {
+            if (x != 5) {
+                x = 7;
+            }
+        }
+        return x * 3;
+    }
+
+    public int changedInLoop(int n) {
+        int x = 5;
+        for (int i = 0; i < n; i++) {
+            x = x + 2;
+        }
+        return x;
+    }
+
+    public int sameValueOnBothPaths(boolean flag) {
+        int x;
+        if (flag) {
+            x = 4;
+        } else {
+            x = 2 + 2;
+        }
+        return x * 10;
+    }
+
+    public int differentValuesOnPaths(boolean flag) {
+        int x = 1;
+        if (flag) {
+            x = 2;
+        }
+        return x;
+    }
+
+    public int unreachableBranch() {
+        int a = 3;
+        int result = 10;
+        if (a > 4) {
+            result = result / 0;
+        }
+        return result + a;
+    }
+
+    public int constantSwitch() {
+        int key = 2;
+        switch (key) {
+            case 1: return 100;
+            case 2: return 200;
+            default: return 300;
+        }
+    }
+
+    public boolean nullComparison() {
+        String s = null;
+        return s == null;
+    }
+
+    public int stringComparison() {
+        String a = "same";
+        String b = a;
+        return (a == b) ? 1 : 0;
+    }
+
+    public int unknownBranch(int n) {
+        int x = 8;
+        if (n > 3) {
+            x = n;
+        }
+        return x + 1;
+    }
+
+    public long longAndShifts() {
+        long a = 1L << 40;
+        int b = -17 >>> 28;
+        return (a | b) ^ 0xFFL;
+    }
+
+    public int caughtDivision() {
+        int zero = 0;
+        try {
+            return 10 / zero;
+        } catch (ArithmeticException e) {
+            return -1;
+        }
+    }
+
+    public int sameConstantOnBothArms(boolean flag) {
+        return flag ? 1 : 1;
+    }
+
+    public int unusedConditional(boolean flag) {
+        int x = flag ? 2 : 3;
+        return 5;
+    }
+}
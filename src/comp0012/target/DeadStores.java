@@ -0,0 +1,91 @@
+package comp0012.target;
+
+public class DeadStores {
+    private int calls;
+
+    // overridable, so it is not inlined
+    protected int record(int x) {
+        calls++;
+        return x + 2;
+    }
+
+    private static int twice(int x) {
+        return 2 * x;
+    }
+
+    public int getCalls() {
+        return calls;
+    }
+
+    public int selfUpdateThroughCall(int n) {
+        int x = 0;
+        for (int i = 0; i < n; i++) {
+            x = record(x);
+        }
+        return n;
+    }
+
+    public int selfUpdateThroughStaticCall(int n) {
+        int x = 1;
+        for (int i = 0; i < n; i++) {
+            x = twice(x) + 1;
+        }
+        return n * 10;
+    }
+
+    public int unreadCounter(int n) {
+        int count = 0;
+        int sum = 0;
+        for (int i = 0; i < n; i++) {
+            count++;
+            sum += i;
+            count = count * 3 + 1;
+        }
+        return sum;
+    }
+
+    public int unreadCallResult() {
+        int unused = record(40);
+        return 7;
+    }
+
+    public int unreadDivision(int a) {
+        int unused = 10 / a;
+        return 1;
+    }
+
+    public int overwrittenStore(int a) {
+        int x = a * 5;
+        x = a + 1;
+        return x;
+    }
+
+    public int storeInTryRange(int a) {
+        int x = 0;
+        try {
+            x = 100 / a;
+            x = 5;
+        } catch (ArithmeticException e) {
+            return x;
+        }
+        return x;
+    }
+
+    public int unusedException(int a) {
+        try {
+            return 10 / a;
+        } catch (ArithmeticException e) {
+            return -1;
+        }
+    }
+
+    public long longSelfUpdate(int n) {
+        long x = 3L;
+        double d = 1.0;
+        for (int i = 0; i < n; i++) {
+            x = x * 7L - 1L;
+            d = d / 2.0;
+        }
+        return n;
+    }
+}
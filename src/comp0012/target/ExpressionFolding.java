@@ -0,0 +1,123 @@
+package comp0012.target;
+
+public class ExpressionFolding {
+    public int tree() {
+        int a = 2;
+        int b = 3;
+        int c = 4;
+        int d = 1;
+        return (a + b) * (c - d);
+    }
+
+    public int bitwise() {
+        int high = 0xF0;
+        int low = 0x0F;
+        int mask = 0x3C;
+        return ((high | low) & ~mask) ^ 0x100;
+    }
+
+    public int intShifts() {
+        int one = 1;
+        int negative = -16;
+        return (one << 33) + (negative >> 2) * 100 + (negative >>> 28) * 10000;
+    }
+
+    public long longShifts() {
+        long one = 1L;
+        long bits = 0x12345678L;
+        return (one << 65) + (-one >>> 63) + (bits << 36);
+    }
+
+    public int negateMinimum() {
+        int min = Integer.MIN_VALUE;
+        return -min;
+    }
+
+    public long negateLong() {
+        long x = 5L;
+        return -(-x * 3L);
+    }
+
+    public float negateZero() {
+        float zero = 0.0f;
+        return -zero;
+    }
+
+    public int intOverflow() {
+        int three = 3000000;
+        return three * 1000000;
+    }
+
+    public long widenedProduct() {
+        int three = 3000000;
+        return three * 1000000L;
+    }
+
+    public int narrowing() {
+        int big = 300;
+        int minusOne = -1;
+        int wide = 70000;
+        return (byte) big + (char) minusOne + (short) wide;
+    }
+
+    public int floatToInt() {
+        double huge = 3.9e10;
+        float half = -0.5f;
+        return (int) huge + (int) half;
+    }
+
+    public long nanToLong() {
+        double nan = Double.NaN;
+        return (long) nan;
+    }
+
+    public float roundedToFloat() {
+        int odd = 16777217;
+        return (float) odd;
+    }
+
+    public int longToInt() {
+        long x = (1L << 32) | 5L;
+        return (int) x;
+    }
+
+    public int divideMinimum() {
+        int min = Integer.MIN_VALUE;
+        int minusOne = -1;
+        return min / minusOne + min % minusOne;
+    }
+
+    public int negativeRemainder() {
+        int a = -7;
+        long b = -7L;
+        return a % 3 + (int) (b / 2L) * 10;
+    }
+
+    public float floatRemainder() {
+        float x = 5.5f;
+        return x % 2.0f;
+    }
+
+    public double divideByZero() {
+        double one = 1.0;
+        return one / 0.0;
+    }
+
+    public int assignedInExpression() {
+        int y;
+        int x = (y = 4) + 1;
+        return x * y;
+    }
+
+    public long longAssignedInExpression() {
+        long y;
+        long x = (y = 6L) * 2L;
+        return x - y;
+    }
+
+    public int mixedWithUnknown(int u) {
+        int a = 6;
+        int b = 7;
+        return a * b + u;
+    }
+}
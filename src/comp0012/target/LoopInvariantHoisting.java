@@ -0,0 +1,86 @@
+package comp0012.target;
+
+public class LoopInvariantHoisting {
+    private int field = 3;
+
+    public int invariantProduct(int a, int b, int n) {
+        int sum = 0;
+        for (int i = 0; i < n; i++) {
+            sum += a * b + i;
+        }
+        return sum;
+    }
+
+    public int zeroTripDivision(int a, int n) {
+        int sum = 0;
+        for (int i = 0; i < n; i++) {
+            sum += 100 / a;
+        }
+        return sum;
+    }
+
+    public int zeroTripConstantDivision(int a, int n) {
+        int sum = 0;
+        for (int i = 0; i < n; i++) {
+            sum += a / 7 + a % 5;
+        }
+        return sum;
+    }
+
+    public int zeroTripArray(int[] values, int n) {
+        int sum = 0;
+        for (int i = 0; i < n; i++) {
+            sum += values[0];
+        }
+        return sum;
+    }
+
+    public int fieldChangedInLoop(int n) {
+        int sum = 0;
+        for (int i = 0; i < n; i++) {
+            sum += field * 2;
+            field++;
+        }
+        return sum;
+    }
+
+    public int variableChangedInLoop(int a, int n) {
+        int sum = 0;
+        for (int i = 0; i < n; i++) {
+            sum += a * 3;
+            a = a + 1;
+        }
+        return sum;
+    }
+
+    public long nestedLoops(long a, int n) {
+        long sum = 0;
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < n; j++) {
+                sum += (a << 2) + i * j;
+            }
+        }
+        return sum;
+    }
+
+    public double doubleArithmetic(double x, int n) {
+        double sum = 0;
+        int i = 0;
+        while (i < n) {
+            sum += x * x - 1.5;
+            i++;
+        }
+        return sum;
+    }
+
+    public int breakOut(int a, int n) {
+        int result = -1;
+        for (int i = 0; i < n; i++) {
+            if (i == 2) {
+                result = a + 10;
+                break;
+            }
+        }
+        return result;
+    }
+}
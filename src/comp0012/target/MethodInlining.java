@@ -0,0 +1,125 @@
+package comp0012.target;
+
+public class MethodInlining {
+    private static int checks;
+    private int value = 6;
+
+    private static int helper() {
+        return 41;
+    }
+
+    private static int divide(int a, int b) {
+        return a / b;
+    }
+
+    private static void nothing() {
+    }
+
+    private static void check() {
+        checks++;
+        if (checks % 2 == 0) {
+            throw new IllegalStateException();
+        }
+    }
+
+    private int getValue() {
+        return value;
+    }
+
+    private static int parse(String s) {
+        try {
+            return Integer.parseInt(s);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    public final int square(int x) {
+        return x * x;
+    }
+
+    private static int factorial(int n) {
+        return (n <= 1) ? 1 : n * factorial(n - 1);
+    }
+
+    public int singleCallTry() {
+        try {
+            return helper();
+        } catch (RuntimeException e) {
+            return -1;
+        }
+    }
+
+    public int singleCallTryThrows(int a, int b) {
+        try {
+            return divide(a, b);
+        } catch (ArithmeticException e) {
+            return -1;
+        }
+    }
+
+    public int tryEndingAtCall(int a, int b) {
+        int x = 0;
+        try {
+            x = a + 1;
+            x = divide(x, b);
+        } catch (ArithmeticException e) {
+            return -x;
+        }
+        return x;
+    }
+
+    public int emptyCallTry() {
+        try {
+            nothing();
+        } catch (RuntimeException e) {
+            return -1;
+        }
+        return 1;
+    }
+
+    public int onlyCallInTry() {
+        try {
+            check();
+        } catch (IllegalStateException e) {
+            return -1;
+        }
+        return 1;
+    }
+
+    public int nestedTries(int b) {
+        try {
+            try {
+                return divide(10, b);
+            } catch (IllegalStateException e) {
+                return -2;
+            }
+        } catch (ArithmeticException e) {
+            return -1;
+        }
+    }
+
+    public int calleeWithHandler(String s) {
+        return parse(s) + 1;
+    }
+
+    public int calleeWithHandlerInTry(String s) {
+        try {
+            return parse(s);
+        } catch (RuntimeException e) {
+            return -100;
+        }
+    }
+
+    public int accessor() {
+        return getValue() * 7;
+    }
+
+    public int nullReceiver(MethodInlining other) {
+        return other.square(3);
+    }
+
+    public int recursive() {
+        return factorial(5);
+    }
+}
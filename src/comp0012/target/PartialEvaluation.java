@@ -0,0 +1,129 @@
+package comp0012.target;
+
+public class PartialEvaluation {
+    private static final int LIMIT;
+    static int bound = 3;
+    private int counter;
+
+    static {
+        LIMIT = 4;
+    }
+
+    public int getCounter() {
+        return counter;
+    }
+
+    public int loopSum() {
+        int sum = 0;
+        for (int i = 1; i <= 10; i++) {
+            sum += i;
+        }
+        return sum;
+    }
+
+    public int nestedLoops() {
+        int total = 0;
+        for (int i = 0; i < 4; i++) {
+            for (int j = i; j < 4; j++) {
+                total += i * j;
+            }
+        }
+        return total;
+    }
+
+    public long pastTheBudget() {
+        long sum = 0;
+        for (int i = 0; i < 100000; i++) {
+            sum += i;
+        }
+        return sum;
+    }
+
+    public int throughPureCalls() {
+        int m = 0;
+        for (int i = -3; i <= 3; i++) {
+            m = Math.max(m, Math.abs(i) * 2);
+        }
+        return m;
+    }
+
+    public double doubleSum() {
+        double x = 0.0;
+        for (int i = 0; i < 10; i++) {
+            x += 0.1;
+        }
+        return x;
+    }
+
+    public int staticConstant() {
+        int product = 1;
+        for (int i = 0; i < LIMIT; i++) {
+            product *= 3;
+        }
+        return product;
+    }
+
+    public int staticField() {
+        int sum = 0;
+        for (int i = 0; i < bound; i++) {
+            sum += 10;
+        }
+        return sum;
+    }
+
+    public int unknownBranch(int x) {
+        int y = 5;
+        if (x > 0) {
+            y = y * 2;
+        }
+        return y;
+    }
+
+    public int divisionByZero() {
+        int d = 5;
+        for (int i = 0; i < 5; i++) {
+            d--;
+        }
+        return 100 / d;
+    }
+
+    public int divisionByArgument(int a) {
+        int sum = 0;
+        for (int i = 0; i < 4; i++) {
+            sum += i;
+        }
+        return sum / a;
+    }
+
+    public int fieldUpdate() {
+        for (int i = 0; i < 3; i++) {
+            counter++;
+        }
+        return 3;
+    }
+
+    public int arrayAccess() {
+        int[] values = { 1, 2, 3 };
+        int sum = 0;
+        for (int i = 0; i < values.length; i++) {
+            sum += values[i];
+        }
+        return sum;
+    }
+
+    public int caughtDivision() {
+        int zero = 0;
+        try {
+            return 1 / zero;
+        } catch (ArithmeticException e) {
+            return -1;
+        }
+    }
+
+    public void onlyLocals() {
+        int x = 1;
+        for (int i = 0; i < 5; i++) {
+            x = x * 2 + i;
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package comp0012.target;
+
+public class PureLibraryCalls {
+    public int absAndMax() {
+        return Math.abs(-5) + Math.max(3, 7);
+    }
+
+    public int bitCount() {
+        int x = 255;
+        return Integer.bitCount(x);
+    }
+
+    public long rotate() {
+        long c = 0x8000000000000001L;
+        return Long.rotateLeft(c, 3);
+    }
+
+    public int floatBits() {
+        float f = -0.0f;
+        return Float.floatToIntBits(f);
+    }
+
+    public double absOfNegativeZero() {
+        return Math.abs(-0.0);
+    }
+
+    public double minOfZeros() {
+        return Math.min(0.0, -0.0);
+    }
+
+    public double maxWithNaN() {
+        return Math.max(Double.NaN, 1.0);
+    }
+
+    public boolean isNaN() {
+        float f = 0.0f / 0.0f;
+        return Float.isNaN(f);
+    }
+
+    public int compareNaN() {
+        return Double.compare(Double.NaN, Double.POSITIVE_INFINITY);
+    }
+
+    public int stringLength() {
+        return "optimise".length();
+    }
+
+    public char charAt() {
+        return "abc".charAt(2);
+    }
+
+    public int stringHash() {
+        return "hello".hashCode();
+    }
+
+    public boolean stringEquals() {
+        return "abc".equals("ab" + "c");
+    }
+
+    public long parseLong() {
+        return Long.parseLong("-9223372036854775808");
+    }
+
+    public int unknownArgument(int x) {
+        return Math.abs(x) + "abc".indexOf(x);
+    }
+
+    public char charAtOutOfRange() {
+        return "abc".charAt(3);
+    }
+
+    public int overflow() {
+        return Math.addExact(Integer.MAX_VALUE, 1);
+    }
+
+    public int parseInvalid() {
+        return Integer.parseInt("twelve");
+    }
+}
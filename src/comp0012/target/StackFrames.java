@@ -0,0 +1,135 @@
+package comp0012.target;
+
+import java.util.function.IntSupplier;
+
+public class StackFrames {
+    abstract static class Shape {
+        abstract int area();
+    }
+
+    static class Rect extends Shape {
+        final int width;
+        final int height;
+
+        Rect(int width, int height) {
+            this.width = width;
+            this.height = height;
+        }
+
+        int area() {
+            return width * height;
+        }
+    }
+
+    static class Square extends Rect {
+        Square(int side) {
+            super(side, side);
+        }
+    }
+
+    static class Circle extends Shape {
+        final int radius;
+
+        Circle(int radius) {
+            this.radius = radius;
+        }
+
+        int area() {
+            return 3 * radius * radius;
+        }
+    }
+
+    static class Box {
+        final int value;
+
+        Box(int value) {
+            this.value = value;
+        }
+    }
+
+    public int uninitialisedAcrossBranch(boolean c, int a, int b) {
+        return new Box(c ? a : b).value;
+    }
+
+    public int nestedUninitialised(boolean c, int a, int b) {
+        return new Box(new Box(c ? a : b).value + (c ? 10 : 20)).value;
+    }
+
+    public int commonSuperclass(boolean c) {
+        Shape s = c ? new Square(2) : new Circle(1);
+        return s.area();
+    }
+
+    public int commonSuperclassOfSiblings(boolean c) {
+        Rect r = c ? new Square(3) : new Rect(2, 5);
+        return r.width + r.area();
+    }
+
+    public int mergedInterfaces(boolean c) {
+        CharSequence s = c ? "abc" : new StringBuilder("ab");
+        return s.length();
+    }
+
+    public int mergedObjectArrays(boolean c) {
+        Object[] values = c ? new String[2] : new Integer[3];
+        return values.length;
+    }
+
+    public int mergedShapeArrays(boolean c) {
+        Shape[] shapes = c ? new Square[] { new Square(2) } : new Circle[] { new Circle(1), new Circle(2) };
+        int total = 0;
+        for (Shape s : shapes) {
+            total += s.area();
+        }
+        return total;
+    }
+
+    public int mergedPrimitiveArrays(boolean c) {
+        Object o = c ? new int[1] : new long[2];
+        return (o instanceof int[]) ? 1 : 2;
+    }
+
+    public int mergedWithNull(boolean c) {
+        Shape s = c ? null : new Circle(1);
+        return (s == null) ? 0 : s.area();
+    }
+
+    public int multiCatch(int x) {
+        try {
+            if (x == 0) {
+                throw new IllegalStateException();
+            }
+            if (x == 1) {
+                throw new IllegalArgumentException("one");
+            }
+            return x;
+        } catch (IllegalStateException | IllegalArgumentException e) {
+            return (e.getMessage() == null) ? -1 : -2;
+        }
+    }
+
+    public String changingTypesInLoop(int n) {
+        Object o = "start";
+        for (int i = 0; i < n; i++) {
+            o = (i % 2 == 0) ? Integer.valueOf(i) : "odd";
+        }
+        return o.toString();
+    }
+
+    public long wideLocalsOnBranches(boolean c) {
+        long l;
+        if (c) {
+            l = 5L;
+        } else {
+            double d = 2.5;
+            l = (long) (d * 2);
+        }
+        return l;
+    }
+
+    public int lambda(int offset) {
+        int base = 40;
+        IntSupplier supplier = () -> base + offset;
+        return supplier.getAsInt();
+    }
+}
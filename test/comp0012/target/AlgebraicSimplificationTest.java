@@ -0,0 +1,135 @@
+package comp0012.target;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Test algebraic simplification and strength reduction, including the values the float and double
+ * identities do not hold for
+ */
+public class AlgebraicSimplificationTest {
+
+    AlgebraicSimplification as = new AlgebraicSimplification();
+
+    /**
+     * Compares the bits of two doubles, so that -0.0 and 0.0 differ and every NaN matches.
+     */
+    private static void assertSameBits(double expected, double actual) {
+        assertEquals(Double.doubleToLongBits(expected), Double.doubleToLongBits(actual));
+    }
+
+    private static void assertSameBits(float expected, float actual) {
+        assertEquals(Float.floatToIntBits(expected), Float.floatToIntBits(actual));
+    }
+
+    @Test
+    public void testMultiplyByPowerOfTwo() {
+        assertEquals(-56, as.multiplyByPowerOfTwo(-7));
+        assertEquals(Integer.MAX_VALUE * 8, as.multiplyByPowerOfTwo(Integer.MAX_VALUE));
+    }
+
+    @Test
+    public void testMultiplyLongByPowerOfTwo() {
+        assertEquals(-3072L, as.multiplyLongByPowerOfTwo(-3L));
+        assertEquals(Long.MIN_VALUE * 1024L, as.multiplyLongByPowerOfTwo(Long.MIN_VALUE));
+    }
+
+    @Test
+    public void testDivideByMinusOne() {
+        assertEquals(-5, as.divideByMinusOne(5));
+        assertEquals(Integer.MIN_VALUE, as.divideByMinusOne(Integer.MIN_VALUE));
+    }
+
+    @Test
+    public void testDivideByPowerOfTwo() {
+        assertEquals(-1, as.divideByPowerOfTwo(-7));
+        assertEquals(1, as.divideByPowerOfTwo(7));
+    }
+
+    @Test
+    public void testRemainderOfPowerOfTwo() {
+        assertEquals(-3, as.remainderOfPowerOfTwo(-7));
+        assertEquals(3, as.remainderOfPowerOfTwo(7));
+    }
+
+    @Test
+    public void testRemainderOfNonNegative() {
+        assertEquals(9, as.remainderOfNonNegative(-7));
+        assertEquals(7, as.remainderOfNonNegative(23));
+    }
+
+    @Test
+    public void testShiftByWidth() {
+        assertEquals(-9, as.shiftByWidth(-9));
+    }
+
+    @Test
+    public void testSameOperands() {
+        assertEquals(-2, as.sameOperands(-1));
+        assertEquals(24, as.sameOperands(12));
+    }
+
+    @Test
+    public void testIdentities() {
+        assertEquals(-123, as.identities(-123));
+    }
+
+    @Test
+    public void testAddPositiveZero() {
+        assertSameBits(0.0, as.addPositiveZero(-0.0));
+        assertSameBits(2.5, as.addPositiveZero(2.5));
+    }
+
+    @Test
+    public void testAddNegativeZero() {
+        assertSameBits(-0.0, as.addNegativeZero(-0.0));
+        assertSameBits(0.0, as.addNegativeZero(0.0));
+    }
+
+    @Test
+    public void testSubtractZero() {
+        assertSameBits(-0.0, as.subtractZero(-0.0));
+    }
+
+    @Test
+    public void testMultiplyByZero() {
+        assertSameBits(-0.0, as.multiplyByZero(-3.0));
+        assertSameBits(Double.NaN, as.multiplyByZero(Double.POSITIVE_INFINITY));
+        assertSameBits(Double.NaN, as.multiplyByZero(Double.NaN));
+    }
+
+    @Test
+    public void testMultiplyByMinusOne() {
+        assertSameBits(-0.0f, as.multiplyByMinusOne(0.0f));
+        // a negation would flip the sign of the NaN
+        float nan = Float.intBitsToFloat(0x7fc00001);
+        assertEquals(Float.floatToRawIntBits(nan * -1.0f), Float.floatToRawIntBits(as.multiplyByMinusOne(nan)));
+    }
+
+    @Test
+    public void testDivideByPowerOfTwoDouble() {
+        assertSameBits(0.125, as.divideByPowerOfTwoDouble(1.0));
+        assertSameBits(Double.MIN_VALUE / 8.0, as.divideByPowerOfTwoDouble(Double.MIN_VALUE));
+    }
+
+    @Test
+    public void testDivideByTen() {
+        assertSameBits(0.3f / 10.0f, as.divideByTen(0.3f));
+    }
+
+    @Test
+    public void testFoldNaN() {
+        assertSameBits(Double.NaN, as.foldNaN());
+    }
+
+    @Test
+    public void testFoldNegativeZero() {
+        assertSameBits(-0.0f, as.foldNegativeZero());
+    }
+
+    @Test
+    public void testCompareNaN() {
+        assertEquals(false, as.compareNaN());
+    }
+}
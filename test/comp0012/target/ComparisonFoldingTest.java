@@ -0,0 +1,94 @@
+package comp0012.target;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Test folding of comparisons of constants of every type, including NaN, negative zero and null
+ */
+public class ComparisonFoldingTest {
+
+    ComparisonFolding cf = new ComparisonFolding();
+
+    @Test
+    public void testIntGreater() {
+        assertEquals(1, cf.intGreater());
+    }
+
+    @Test
+    public void testLongBeyondInt() {
+        assertEquals(1, cf.longBeyondInt());
+    }
+
+    @Test
+    public void testLongMinimum() {
+        assertEquals(1, cf.longMinimum());
+    }
+
+    @Test
+    public void testFloatLessThanNaN() {
+        assertEquals(0, cf.floatLessThanNaN());
+    }
+
+    @Test
+    public void testFloatGreaterThanNaN() {
+        assertEquals(0, cf.floatGreaterThanNaN());
+    }
+
+    @Test
+    public void testNaNNotEqualToItself() {
+        assertEquals(1, cf.nanNotEqualToItself());
+    }
+
+    @Test
+    public void testDoubleNaNAtLeastItself() {
+        assertEquals(0, cf.doubleNaNAtLeastItself());
+    }
+
+    @Test
+    public void testNegativeZeroEqualsZero() {
+        assertEquals(1, cf.negativeZeroEqualsZero());
+    }
+
+    @Test
+    public void testInfinities() {
+        assertEquals(1, cf.infinities());
+    }
+
+    @Test
+    public void testFractionalDifference() {
+        assertEquals(1, cf.fractionalDifference());
+    }
+
+    @Test
+    public void testNullCheck() {
+        assertEquals(1, cf.nullCheck());
+    }
+
+    @Test
+    public void testStringNotNull() {
+        assertEquals(1, cf.stringNotNull());
+    }
+
+    @Test
+    public void testSameLiteral() {
+        assertEquals(1, cf.sameLiteral());
+    }
+
+    @Test
+    public void testDifferentLiterals() {
+        assertEquals(0, cf.differentLiterals());
+    }
+
+    @Test
+    public void testNullAndLiteral() {
+        assertEquals(1, cf.nullAndLiteral());
+    }
+
+    @Test
+    public void testUnknownAgainstNaN() {
+        assertEquals(0, cf.unknownAgainstNaN(1.0));
+        assertEquals(0, cf.unknownAgainstNaN(Double.NaN));
+    }
+}
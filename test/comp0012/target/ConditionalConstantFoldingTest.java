@@ -0,0 +1,85 @@
+package comp0012.target;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Test constant propagation along the paths that can be taken
+ */
+public class ConditionalConstantFoldingTest {
+
+    ConditionalConstantFolding ccf = new ConditionalConstantFolding();
+
+    @Test
+    public void testConstantThroughLoop() {
+        assertEquals(15, ccf.constantThroughLoop(0));
+        assertEquals(15, ccf.constantThroughLoop(4));
+    }
+
+    @Test
+    public void testChangedInLoop() {
+        assertEquals(5, ccf.changedInLoop(0));
+        assertEquals(11, ccf.changedInLoop(3));
+    }
+
+    @Test
+    public void testSameValueOnBothPaths() {
+        assertEquals(40, ccf.sameValueOnBothPaths(true));
+        assertEquals(40, ccf.sameValueOnBothPaths(false));
+    }
+
+    @Test
+    public void testDifferentValuesOnPaths() {
+        assertEquals(2, ccf.differentValuesOnPaths(true));
+        assertEquals(1, ccf.differentValuesOnPaths(false));
+    }
+
+    @Test
+    public void testUnreachableBranch() {
+        assertEquals(13, ccf.unreachableBranch());
+    }
+
+    @Test
+    public void testConstantSwitch() {
+        assertEquals(200, ccf.constantSwitch());
+    }
+
+    @Test
+    public void testNullComparison() {
+        assertEquals(true, ccf.nullComparison());
+    }
+
+    @Test
+    public void testStringComparison() {
+        assertEquals(1, ccf.stringComparison());
+    }
+
+    @Test
+    public void testUnknownBranch() {
+        assertEquals(9, ccf.unknownBranch(2));
+        assertEquals(8, ccf.unknownBranch(7));
+    }
+
+    @Test
+    public void testLongAndShifts() {
+        assertEquals(1099511628016L, ccf.longAndShifts());
+    }
+
+    @Test
+    public void testCaughtDivision() {
+        assertEquals(-1, ccf.caughtDivision());
+    }
+
+    @Test
+    public void testSameConstantOnBothArms() {
+        assertEquals(1, ccf.sameConstantOnBothArms(true));
+        assertEquals(1, ccf.sameConstantOnBothArms(false));
+    }
+
+    @Test
+    public void testUnusedConditional() {
+        assertEquals(5, ccf.unusedConditional(true));
+        assertEquals(5, ccf.unusedConditional(false));
+    }
+}
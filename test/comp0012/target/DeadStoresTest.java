@@ -0,0 +1,67 @@
+package comp0012.target;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Test dead store elimination
+ */
+public class DeadStoresTest {
+
+    DeadStores ds = new DeadStores();
+
+    @Test
+    public void testSelfUpdateThroughCall() {
+        assertEquals(3, ds.selfUpdateThroughCall(3));
+        assertEquals(3, ds.getCalls());
+    }
+
+    @Test
+    public void testSelfUpdateThroughStaticCall() {
+        assertEquals(40, ds.selfUpdateThroughStaticCall(4));
+    }
+
+    @Test
+    public void testUnreadCounter() {
+        assertEquals(10, ds.unreadCounter(5));
+    }
+
+    @Test
+    public void testUnreadCallResult() {
+        assertEquals(7, ds.unreadCallResult());
+        assertEquals(1, ds.getCalls());
+    }
+
+    @Test
+    public void testUnreadDivision() {
+        assertEquals(1, ds.unreadDivision(3));
+    }
+
+    @Test(expected = ArithmeticException.class)
+    public void testUnreadDivisionByZero() {
+        ds.unreadDivision(0);
+    }
+
+    @Test
+    public void testOverwrittenStore() {
+        assertEquals(5, ds.overwrittenStore(4));
+    }
+
+    @Test
+    public void testStoreInTryRange() {
+        assertEquals(5, ds.storeInTryRange(2));
+        assertEquals(0, ds.storeInTryRange(0));
+    }
+
+    @Test
+    public void testUnusedException() {
+        assertEquals(5, ds.unusedException(2));
+        assertEquals(-1, ds.unusedException(0));
+    }
+
+    @Test
+    public void testLongSelfUpdate() {
+        assertEquals(6L, ds.longSelfUpdate(6));
+    }
+}
@@ -0,0 +1,120 @@
+package comp0012.target;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Test folding of whole constant expressions, including bitwise, shift, negation and conversion
+ * instructions and values left on the stack by assignments
+ */
+public class ExpressionFoldingTest {
+
+    ExpressionFolding ef = new ExpressionFolding();
+
+    @Test
+    public void testTree() {
+        assertEquals(15, ef.tree());
+    }
+
+    @Test
+    public void testBitwise() {
+        assertEquals(451, ef.bitwise());
+    }
+
+    @Test
+    public void testIntShifts() {
+        // shift distances are taken modulo the width
+        assertEquals(2 - 400 + 150000, ef.intShifts());
+    }
+
+    @Test
+    public void testLongShifts() {
+        assertEquals(2L + 1L + 2541551364173987840L, ef.longShifts());
+    }
+
+    @Test
+    public void testNegateMinimum() {
+        assertEquals(Integer.MIN_VALUE, ef.negateMinimum());
+    }
+
+    @Test
+    public void testNegateLong() {
+        assertEquals(15L, ef.negateLong());
+    }
+
+    @Test
+    public void testNegateZero() {
+        assertEquals(Float.floatToIntBits(-0.0f), Float.floatToIntBits(ef.negateZero()));
+    }
+
+    @Test
+    public void testIntOverflow() {
+        assertEquals(2112827392, ef.intOverflow());
+    }
+
+    @Test
+    public void testWidenedProduct() {
+        assertEquals(3000000000000L, ef.widenedProduct());
+    }
+
+    @Test
+    public void testNarrowing() {
+        assertEquals(44 + 65535 + 4464, ef.narrowing());
+    }
+
+    @Test
+    public void testFloatToInt() {
+        assertEquals(Integer.MAX_VALUE, ef.floatToInt());
+    }
+
+    @Test
+    public void testNaNToLong() {
+        assertEquals(0L, ef.nanToLong());
+    }
+
+    @Test
+    public void testRoundedToFloat() {
+        assertEquals(Float.floatToIntBits(16777216f), Float.floatToIntBits(ef.roundedToFloat()));
+    }
+
+    @Test
+    public void testLongToInt() {
+        assertEquals(5, ef.longToInt());
+    }
+
+    @Test
+    public void testDivideMinimum() {
+        assertEquals(Integer.MIN_VALUE, ef.divideMinimum());
+    }
+
+    @Test
+    public void testNegativeRemainder() {
+        assertEquals(-1 - 30, ef.negativeRemainder());
+    }
+
+    @Test
+    public void testFloatRemainder() {
+        assertEquals(Float.floatToIntBits(1.5f), Float.floatToIntBits(ef.floatRemainder()));
+    }
+
+    @Test
+    public void testDivideByZero() {
+        assertEquals(Double.doubleToLongBits(Double.POSITIVE_INFINITY), Double.doubleToLongBits(ef.divideByZero()));
+    }
+
+    @Test
+    public void testAssignedInExpression() {
+        assertEquals(20, ef.assignedInExpression());
+    }
+
+    @Test
+    public void testLongAssignedInExpression() {
+        assertEquals(6L, ef.longAssignedInExpression());
+    }
+
+    @Test
+    public void testMixedWithUnknown() {
+        assertEquals(40, ef.mixedWithUnknown(-2));
+    }
+}
@@ -0,0 +1,73 @@
+package comp0012.target;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Test loop-invariant code motion, including loops that run no iterations
+ */
+public class LoopInvariantHoistingTest {
+
+    LoopInvariantHoisting lih = new LoopInvariantHoisting();
+
+    @Test
+    public void testInvariantProduct() {
+        assertEquals(0, lih.invariantProduct(3, 4, 0));
+        assertEquals(54, lih.invariantProduct(3, 4, 4));
+    }
+
+    @Test
+    public void testZeroTripDivision() {
+        // a hoisted division by zero would throw before the loop
+        assertEquals(0, lih.zeroTripDivision(0, 0));
+        assertEquals(75, lih.zeroTripDivision(4, 3));
+    }
+
+    @Test(expected = ArithmeticException.class)
+    public void testDivisionByZeroInLoop() {
+        lih.zeroTripDivision(0, 1);
+    }
+
+    @Test
+    public void testZeroTripConstantDivision() {
+        assertEquals(0, lih.zeroTripConstantDivision(-23, 0));
+        assertEquals(-18, lih.zeroTripConstantDivision(-23, 3));
+    }
+
+    @Test
+    public void testZeroTripArray() {
+        assertEquals(0, lih.zeroTripArray(null, 0));
+        assertEquals(0, lih.zeroTripArray(new int[0], 0));
+        assertEquals(14, lih.zeroTripArray(new int[] { 7 }, 2));
+    }
+
+    @Test
+    public void testFieldChangedInLoop() {
+        assertEquals(24, new LoopInvariantHoisting().fieldChangedInLoop(3));
+    }
+
+    @Test
+    public void testVariableChangedInLoop() {
+        assertEquals(0, lih.variableChangedInLoop(5, 0));
+        assertEquals(54, lih.variableChangedInLoop(5, 3));
+    }
+
+    @Test
+    public void testNestedLoops() {
+        assertEquals(0L, lih.nestedLoops(5L, 0));
+        assertEquals(189L, lih.nestedLoops(5L, 3));
+    }
+
+    @Test
+    public void testDoubleArithmetic() {
+        assertEquals(0.0, lih.doubleArithmetic(Double.NaN, 0), 0.0);
+        assertEquals(2.25, lih.doubleArithmetic(1.5, 3), 0.0);
+    }
+
+    @Test
+    public void testBreakOut() {
+        assertEquals(-1, lih.breakOut(5, 2));
+        assertEquals(15, lih.breakOut(5, 10));
+    }
+}
@@ -0,0 +1,79 @@
+package comp0012.target;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Test inlining of small methods, including calls inside try blocks
+ */
+public class MethodInliningTest {
+
+    MethodInlining mi = new MethodInlining();
+
+    @Test
+    public void testSingleCallTry() {
+        assertEquals(41, mi.singleCallTry());
+    }
+
+    @Test
+    public void testSingleCallTryThrows() {
+        assertEquals(3, mi.singleCallTryThrows(7, 2));
+        assertEquals(-1, mi.singleCallTryThrows(7, 0));
+    }
+
+    @Test
+    public void testTryEndingAtCall() {
+        assertEquals(4, mi.tryEndingAtCall(7, 2));
+        assertEquals(-8, mi.tryEndingAtCall(7, 0));
+    }
+
+    @Test
+    public void testEmptyCallTry() {
+        assertEquals(1, mi.emptyCallTry());
+    }
+
+    @Test
+    public void testOnlyCallInTry() {
+        // every other call throws
+        assertEquals(0, mi.onlyCallInTry() + mi.onlyCallInTry());
+    }
+
+    @Test
+    public void testNestedTries() {
+        assertEquals(5, mi.nestedTries(2));
+        assertEquals(-1, mi.nestedTries(0));
+    }
+
+    @Test
+    public void testCalleeWithHandler() {
+        assertEquals(13, mi.calleeWithHandler("12"));
+        assertEquals(0, mi.calleeWithHandler("twelve"));
+    }
+
+    @Test
+    public void testCalleeWithHandlerInTry() {
+        assertEquals(12, mi.calleeWithHandlerInTry("12"));
+        assertEquals(-1, mi.calleeWithHandlerInTry("twelve"));
+    }
+
+    @Test
+    public void testAccessor() {
+        assertEquals(42, mi.accessor());
+    }
+
+    @Test
+    public void testNullReceiver() {
+        assertEquals(9, mi.nullReceiver(mi));
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testNullReceiverThrows() {
+        mi.nullReceiver(null);
+    }
+
+    @Test
+    public void testRecursive() {
+        assertEquals(120, mi.recursive());
+    }
+}
@@ -0,0 +1,97 @@
+package comp0012.target;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Test partial evaluation of methods whose result depends only on constants, and of those it has to
+ * leave alone
+ */
+public class PartialEvaluationTest {
+
+    PartialEvaluation pe = new PartialEvaluation();
+
+    @Test
+    public void testLoopSum() {
+        assertEquals(55, pe.loopSum());
+    }
+
+    @Test
+    public void testNestedLoops() {
+        assertEquals(25, pe.nestedLoops());
+    }
+
+    @Test
+    public void testPastTheBudget() {
+        assertEquals(4999950000L, pe.pastTheBudget());
+    }
+
+    @Test
+    public void testThroughPureCalls() {
+        assertEquals(6, pe.throughPureCalls());
+    }
+
+    @Test
+    public void testDoubleSum() {
+        assertEquals(Double.doubleToLongBits(0.9999999999999999), Double.doubleToLongBits(pe.doubleSum()));
+    }
+
+    @Test
+    public void testStaticConstant() {
+        assertEquals(81, pe.staticConstant());
+    }
+
+    @Test
+    public void testStaticField() {
+        assertEquals(30, pe.staticField());
+        PartialEvaluation.bound = 5;
+        try {
+            assertEquals(50, pe.staticField());
+        } finally {
+            PartialEvaluation.bound = 3;
+        }
+    }
+
+    @Test
+    public void testUnknownBranch() {
+        assertEquals(10, pe.unknownBranch(1));
+        assertEquals(5, pe.unknownBranch(0));
+    }
+
+    @Test(expected = ArithmeticException.class)
+    public void testDivisionByZero() {
+        pe.divisionByZero();
+    }
+
+    @Test
+    public void testDivisionByArgument() {
+        assertEquals(3, pe.divisionByArgument(2));
+    }
+
+    @Test(expected = ArithmeticException.class)
+    public void testDivisionByZeroArgument() {
+        pe.divisionByArgument(0);
+    }
+
+    @Test
+    public void testFieldUpdate() {
+        assertEquals(3, pe.fieldUpdate());
+        assertEquals(3, pe.getCounter());
+    }
+
+    @Test
+    public void testArrayAccess() {
+        assertEquals(6, pe.arrayAccess());
+    }
+
+    @Test
+    public void testCaughtDivision() {
+        assertEquals(-1, pe.caughtDivision());
+    }
+
+    @Test
+    public void testOnlyLocals() {
+        pe.onlyLocals();
+    }
+}
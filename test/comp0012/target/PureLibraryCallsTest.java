@@ -0,0 +1,112 @@
+package comp0012.target;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test evaluation of library calls with constant arguments, including calls that throw
+ */
+public class PureLibraryCallsTest {
+
+    PureLibraryCalls plc = new PureLibraryCalls();
+
+    /**
+     * Compares the bits of two doubles, so that -0.0 and 0.0 differ and every NaN matches.
+     */
+    private static void assertSameBits(double expected, double actual) {
+        assertEquals(Double.doubleToLongBits(expected), Double.doubleToLongBits(actual));
+    }
+
+    @Test
+    public void testAbsAndMax() {
+        assertEquals(12, plc.absAndMax());
+    }
+
+    @Test
+    public void testBitCount() {
+        assertEquals(8, plc.bitCount());
+    }
+
+    @Test
+    public void testRotate() {
+        assertEquals(12L, plc.rotate());
+    }
+
+    @Test
+    public void testFloatBits() {
+        assertEquals(0x80000000, plc.floatBits());
+    }
+
+    @Test
+    public void testAbsOfNegativeZero() {
+        assertSameBits(0.0, plc.absOfNegativeZero());
+    }
+
+    @Test
+    public void testMinOfZeros() {
+        assertSameBits(-0.0, plc.minOfZeros());
+    }
+
+    @Test
+    public void testMaxWithNaN() {
+        assertSameBits(Double.NaN, plc.maxWithNaN());
+    }
+
+    @Test
+    public void testIsNaN() {
+        assertTrue(plc.isNaN());
+    }
+
+    @Test
+    public void testCompareNaN() {
+        assertEquals(1, plc.compareNaN());
+    }
+
+    @Test
+    public void testStringLength() {
+        assertEquals(8, plc.stringLength());
+    }
+
+    @Test
+    public void testCharAt() {
+        assertEquals('c', plc.charAt());
+    }
+
+    @Test
+    public void testStringHash() {
+        assertEquals(99162322, plc.stringHash());
+    }
+
+    @Test
+    public void testStringEquals() {
+        assertTrue(plc.stringEquals());
+    }
+
+    @Test
+    public void testParseLong() {
+        assertEquals(Long.MIN_VALUE, plc.parseLong());
+    }
+
+    @Test
+    public void testUnknownArgument() {
+        assertEquals(97, plc.unknownArgument(-98));
+        assertEquals(99, plc.unknownArgument('b'));
+    }
+
+    @Test(expected = StringIndexOutOfBoundsException.class)
+    public void testCharAtOutOfRange() {
+        plc.charAtOutOfRange();
+    }
+
+    @Test(expected = ArithmeticException.class)
+    public void testOverflow() {
+        plc.overflow();
+    }
+
+    @Test(expected = NumberFormatException.class)
+    public void testParseInvalid() {
+        plc.parseInvalid();
+    }
+}
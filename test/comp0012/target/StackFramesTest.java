@@ -0,0 +1,115 @@
+package comp0012.target;
+
+import org.junit.Test;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Test that optimised code verifies against the frames written for it, across branches that merge
+ * uninitialised objects, classes, interfaces and arrays, and that classes keep their version
+ */
+public class StackFramesTest {
+
+    StackFrames sf = new StackFrames();
+
+    /**
+     * @return the major version of the classfile of a class
+     */
+    private static int majorVersion(Class<?> clazz) throws IOException {
+        try (InputStream in = clazz.getResourceAsStream(clazz.getSimpleName() + ".class")) {
+            DataInputStream data = new DataInputStream(in);
+            data.readInt();
+            data.readUnsignedShort();
+            return data.readUnsignedShort();
+        }
+    }
+
+    @Test
+    public void testVersionKept() throws IOException {
+        // the tests themselves are never optimised
+        assertEquals(majorVersion(StackFramesTest.class), majorVersion(StackFrames.class));
+    }
+
+    @Test
+    public void testUninitialisedAcrossBranch() {
+        assertEquals(1, sf.uninitialisedAcrossBranch(true, 1, 2));
+        assertEquals(2, sf.uninitialisedAcrossBranch(false, 1, 2));
+    }
+
+    @Test
+    public void testNestedUninitialised() {
+        assertEquals(11, sf.nestedUninitialised(true, 1, 2));
+        assertEquals(22, sf.nestedUninitialised(false, 1, 2));
+    }
+
+    @Test
+    public void testCommonSuperclass() {
+        assertEquals(4, sf.commonSuperclass(true));
+        assertEquals(3, sf.commonSuperclass(false));
+    }
+
+    @Test
+    public void testCommonSuperclassOfSiblings() {
+        assertEquals(12, sf.commonSuperclassOfSiblings(true));
+        assertEquals(12, sf.commonSuperclassOfSiblings(false));
+    }
+
+    @Test
+    public void testMergedInterfaces() {
+        assertEquals(3, sf.mergedInterfaces(true));
+        assertEquals(2, sf.mergedInterfaces(false));
+    }
+
+    @Test
+    public void testMergedObjectArrays() {
+        assertEquals(2, sf.mergedObjectArrays(true));
+        assertEquals(3, sf.mergedObjectArrays(false));
+    }
+
+    @Test
+    public void testMergedShapeArrays() {
+        assertEquals(4, sf.mergedShapeArrays(true));
+        assertEquals(15, sf.mergedShapeArrays(false));
+    }
+
+    @Test
+    public void testMergedPrimitiveArrays() {
+        assertEquals(1, sf.mergedPrimitiveArrays(true));
+        assertEquals(2, sf.mergedPrimitiveArrays(false));
+    }
+
+    @Test
+    public void testMergedWithNull() {
+        assertEquals(0, sf.mergedWithNull(true));
+        assertEquals(3, sf.mergedWithNull(false));
+    }
+
+    @Test
+    public void testMultiCatch() {
+        assertEquals(-1, sf.multiCatch(0));
+        assertEquals(-2, sf.multiCatch(1));
+        assertEquals(2, sf.multiCatch(2));
+    }
+
+    @Test
+    public void testChangingTypesInLoop() {
+        assertEquals("start", sf.changingTypesInLoop(0));
+        assertEquals("odd", sf.changingTypesInLoop(2));
+        assertEquals("2", sf.changingTypesInLoop(3));
+    }
+
+    @Test
+    public void testWideLocalsOnBranches() {
+        assertEquals(5L, sf.wideLocalsOnBranches(true));
+        assertEquals(5L, sf.wideLocalsOnBranches(false));
+    }
+
+    @Test
+    public void testLambda() {
+        assertEquals(42, sf.lambda(2));
+    }
+}